@@ -0,0 +1,71 @@
+package fr.koor.security;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <p>
+ *     This interface defines the asynchronous variant of <code>RoleManager</code>: each method returns at once a
+ *     future, completed with the result of the corresponding <code>RoleManager</code> method or, exceptionally, with
+ *     the exception it has thrown. See <code>AsyncUserManager</code> for the timeouts and the cancellation.
+ * </p>
+ * 
+ * @see fr.koor.security.RoleManager
+ * @see fr.koor.security.AsyncUserManager
+ * @see fr.koor.security.providers.AsyncSecurityAdapter
+ * 
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public interface AsyncRoleManager {
+
+	/**
+	 * Selects the role with the identifier specified in parameter.
+	 * 
+	 * @param roleIdentifier	The identifier of the role to returns. 
+	 * @return					The future role.
+	 * 
+	 * @see RoleManager#selectRoleById(int)
+	 */
+	public CompletableFuture<Role> selectRoleById( int roleIdentifier );
+	
+	/**
+	 * Selects the role with the name specified in parameter.
+	 * 
+	 * @param roleName		The name of the role to returns.
+	 * @return 				The future role.
+	 * 
+	 * @see RoleManager#selectRoleByName(String)
+	 */
+	public CompletableFuture<Role> selectRoleByName( String roleName );
+	
+	/**
+	 * Inserts a new role into the used security system.
+	 * 
+	 * @param roleName		The name of the new role.
+	 * @return				The future new role.
+	 * 
+	 * @see RoleManager#insertRole(String)
+	 */
+	public CompletableFuture<Role> insertRole( String roleName );
+	
+	/**
+	 * Updates the informations for this role.
+	 * 
+	 * @param role	The role to update.
+	 * @return		A future completed when the role is updated.
+	 * 
+	 * @see RoleManager#updateRole(Role)
+	 */
+	public CompletableFuture<Void> updateRole( Role role );
+	
+	/**
+	 * Deletes, on the security system, the specified role.
+	 * 
+	 * @param role	The role to delete.
+	 * @return		A future completed when the role is deleted.
+	 * 
+	 * @see RoleManager#deleteRole(Role)
+	 */
+	public CompletableFuture<Void> deleteRole( Role role );
+
+}
@@ -0,0 +1,109 @@
+package fr.koor.security;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <p>
+ *     This interface defines the asynchronous variant of <code>UserManager</code>: each method returns at once a
+ *     future, completed with the result of the corresponding <code>UserManager</code> method or, exceptionally, with
+ *     the exception it has thrown (a <code>SecurityManagerException</code>, for instance). A future can also be
+ *     completed with a <code>java.util.concurrent.TimeoutException</code> if the call takes too long.
+ * </p>
+ * <p>
+ *     Cancelling a future that is not started yet prevents the call. A call that is already running is not interrupted:
+ *     its result is ignored. Never call <code>join</code> or <code>get</code> on these futures from an event loop:
+ *     chain the processing of the result with <code>thenApply</code>, <code>thenCompose</code>...
+ * </p>
+ * 
+ * @see fr.koor.security.UserManager
+ * @see fr.koor.security.providers.AsyncSecurityAdapter
+ * 
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public interface AsyncUserManager {
+
+	/**
+	 * Checks the credentials of a user.
+	 * 
+	 * @param userLogin     The login for the considered user.
+	 * @param userPassword  The password for the considered user.
+	 * @return              The future authenticated user.
+	 * 
+	 * @see UserManager#checkCredentials(String, String)
+	 */
+	public CompletableFuture<User> checkCredentials( String userLogin, String userPassword );
+	
+	/**
+	 * Retreives the user instance that have the desired identifier.
+	 * 
+	 * @param userId	The user identifier.
+	 * @return The future user.
+	 * 
+	 * @see UserManager#getUserById(int)
+	 */
+	public CompletableFuture<User> getUserById( int userId );
+	
+	/**
+	 * Retreives the user instance by its login.
+	 * 
+	 * @param login		The user login.
+	 * @return The future user.
+	 * 
+	 * @see UserManager#getUserByLogin(String)
+	 */
+	public CompletableFuture<User> getUserByLogin( String login );
+	
+	/**
+	 * Retreives all user instances associated to the specified role.
+	 * 
+	 * @param role		The role that contains expected users.
+	 * @return The future list of users.
+	 * 
+	 * @see UserManager#getUsersByRole(Role)
+	 */
+	public CompletableFuture<List<User>> getUsersByRole( Role role );
+	
+	/**
+	 * Inserts a new user in the security system.
+	 * 
+	 * @param login         The login for the new user.
+	 * @param password      The password (in clear) for the new user.
+	 * @return              The future new user.
+	 * 
+	 * @see UserManager#insertUser(String, String)
+	 */
+	public CompletableFuture<User> insertUser( String login, String password );
+	
+	/**
+	 * Updates informations, in the security system, for the specified user.
+	 * 
+	 * @param user  The user instance to update.
+	 * @return      A future completed when the user is updated.
+	 * 
+	 * @see UserManager#updateUser(User)
+	 */
+	public CompletableFuture<Void> updateUser( User user );
+	
+	/**
+	 * Deletes the specified user from the security system.
+	 * 
+	 * @param user    The user to delete.
+	 * @return        A future completed when the user is deleted.
+	 * 
+	 * @see UserManager#deleteUser(User)
+	 */
+	public CompletableFuture<Void> deleteUser( User user );
+	
+	/**
+	 * Encodes a password. The encoding is intentionally slow: don't run it on an event loop.
+	 * 
+	 * @param clearPassword       A password (in clear).
+	 * @return                    The future encoded password.
+	 * 
+	 * @see UserManager#encryptPassword(String)
+	 */
+	public CompletableFuture<String> encryptPassword( String clearPassword );
+	
+}
@@ -0,0 +1,48 @@
+package fr.koor.security;
+
+/**
+ * <p>
+ *     This interface defines the authorization decisions: it checks if a user can access a resource protected by a
+ *     permission or by a role. A name is first searched among the permissions; if no permission has this name, it
+ *     designates a role, which is granted to its members and to the members of its descendant roles.
+ * </p>
+ * <p>
+ *     Decisions are memoized per user and per name. A memoized decision is dropped as soon as the roles of the user,
+ *     the permissions or the role hierarchy change: a repeated check costs a lookup.
+ * </p>
+ * You can get an AuthorizationManager instance by asking it at your SecurityManager.
+ * 
+ * @see fr.koor.security.SecurityManager
+ * @see fr.koor.security.PermissionManager
+ * 
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public interface AuthorizationManager {
+
+	/**
+	 * Checks that the specified user holds the permission, or is a member of the role, with the specified name.
+	 * 
+	 * @param user				The user that attempts the access.
+	 * @param permissionOrRole	The name of the required permission or role.
+	 * 
+	 * @exception UnauthorizedException
+	 * 		Thrown if the user holds neither the permission nor the role (an unknown name is never granted).
+	 * @exception SecurityManagerException
+	 * 		Thrown if the permissions or the roles cannot be read from the security system.
+	 */
+	public void checkAccess( User user, String permissionOrRole ) throws UnauthorizedException, SecurityManagerException;
+
+	/**
+	 * Indicates if the specified user holds the permission, or is a member of the role, with the specified name.
+	 * 
+	 * @param user				The user that attempts the access.
+	 * @param permissionOrRole	The name of the required permission or role.
+	 * @return					true if the access is granted, false otherwise (an unknown name is never granted).
+	 * 
+	 * @exception SecurityManagerException
+	 * 		Thrown if the permissions or the roles cannot be read from the security system.
+	 */
+	public boolean isAuthorized( User user, String permissionOrRole ) throws SecurityManagerException;
+
+}
@@ -0,0 +1,34 @@
+package fr.koor.security;
+
+/**
+ * This exception type is thrown when a new password is rejected because it is known to be compromised.
+ * 
+ * @see fr.koor.security.PasswordScreener
+ * 
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public class CompromisedPasswordException extends SecurityManagerException {
+	
+	private static final long serialVersionUID = 3191526476420367716L;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param message	The exception message
+	 */
+	public CompromisedPasswordException( String message ) {
+		super( message );
+	}
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param message			The exception message.
+	 * @param innestException	The innest exception.
+	 */
+	public CompromisedPasswordException( String message, Throwable innestException ) {
+		super( message, innestException );
+	}	
+
+}
@@ -0,0 +1,36 @@
+package fr.koor.security;
+
+/**
+ * This exception type is thrown when a login attempt is rejected because too many attempts have failed recently for
+ * the same account or from the same source. The credentials have not been checked.
+ * 
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public class LoginThrottledException extends BadCredentialsException {
+	
+	private static final long serialVersionUID = -4417095036512230317L;
+	
+	private final long retryDelay;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param message		The exception message.
+	 * @param retryDelay	The delay before a new attempt is allowed, in milliseconds.
+	 */
+	public LoginThrottledException( String message, long retryDelay ) {
+		super( message );
+		this.retryDelay = retryDelay;
+	}
+	
+	/**
+	 * Returns the delay before a new attempt is allowed.
+	 * 
+	 * @return The delay in milliseconds.
+	 */
+	public long getRetryDelay() {
+		return retryDelay;
+	}
+
+}
@@ -0,0 +1,43 @@
+package fr.koor.security;
+
+/**
+ * <p>
+ *     This interface defines the screening of the new passwords: a password that is known to be compromised (found
+ *     in a breach corpus, for instance) is rejected by <code>UserManager.insertUser</code> and
+ *     <code>User.setPassword</code>. Passwords are never screened by <code>checkCredentials</code>.
+ * </p>
+ * <p>
+ *     Implementations must be thread-safe. You can define the screener of a security manager with
+ *     <code>SecurityManager.setPasswordScreener</code>.
+ * </p>
+ * 
+ * @see fr.koor.security.SecurityManager
+ * @see fr.koor.security.screening.MappedPasswordScreener
+ * 
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public interface PasswordScreener {
+
+	/**
+	 * Checks if the specified password is known to be compromised.
+	 * 
+	 * @param clearPassword	The clear password.
+	 * @return true if the password must be rejected, false otherwise.
+	 */
+	public boolean isCompromised( String clearPassword );
+
+	/**
+	 * Rejects the specified password if it is known to be compromised.
+	 * 
+	 * @param clearPassword	The clear password.
+	 * 
+	 * @exception CompromisedPasswordException	Thrown if the password is known to be compromised.
+	 */
+	public default void checkPassword( String clearPassword ) throws CompromisedPasswordException {
+		if ( this.isCompromised( clearPassword ) ) {
+			throw new CompromisedPasswordException( "This password is known to be compromised: choose another one" );
+		}
+	}
+
+}
@@ -0,0 +1,31 @@
+package fr.koor.security;
+
+import java.io.Serializable;
+
+/**
+ * This interface represents the concept of permission. A permission is a named right granted to one or more roles
+ * (eg the permission "invoice.validate" granted to the accountant role). A user holds every permission granted to his
+ * roles and to the roles they inherit from.
+ * 
+ * @see fr.koor.security.PermissionManager
+ * 
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public interface Permission extends Serializable {
+
+	/**
+	 * Returns the unique identifier for this permission.
+	 * 
+	 * @return The unique identifier.
+	 */
+	public int getIdentifier();
+	
+	/**
+	 * Returns the name of this permission.
+	 * 
+	 * @return Permission name.
+	 */
+	public String getPermissionName();
+
+}
@@ -0,0 +1,182 @@
+package fr.koor.security;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>
+ *     This interface defines the methods used to manage permissions and role hierarchies. A role grants permissions and
+ *     can inherit from parent roles: it then also grants every permission of its ancestors. The hierarchy cannot contain
+ *     cycles.
+ * </p>
+ * <p>
+ *     The effective permission set of a user (the transitive closure over the hierarchy of all his roles) is
+ *     precomputed and cached: once computed, a permission check costs a bit test, whatever the depth of the hierarchy.
+ *     The cache is invalidated when the hierarchy, the grants or the roles of the user change.
+ * </p>
+ * You can get a PermissionManager instance by asking it at your SecurityManager.
+ * 
+ * @see fr.koor.security.SecurityManager
+ * @see fr.koor.security.Permission
+ * 
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public interface PermissionManager {
+
+	/**
+	 * Select the permission with the identifier specified in parameter.
+	 * 
+	 * @param permissionIdentifier	The identifier of the permission to returns.
+	 * @return						The selected permission.
+	 * 
+	 * @exception SecurityManagerException
+	 * 		Thrown if the searched permission don't exists.
+	 */
+	public Permission selectPermissionById( int permissionIdentifier ) throws SecurityManagerException;
+
+	/**
+	 * Select the permission with the name specified in parameter.
+	 * 
+	 * @param permissionName	The name of the permission to returns.
+	 * @return					The selected permission.
+	 * 
+	 * @exception SecurityManagerException
+	 * 		Thrown if the searched permission don't exists.
+	 */
+	public Permission selectPermissionByName( String permissionName ) throws SecurityManagerException;
+
+	/**
+	 * Returns all the registered permissions, sorted by identifier.
+	 * 
+	 * @return The permissions.
+	 * 
+	 * @exception SecurityManagerException
+	 * 		Thrown if the permissions cannot be read from the security system.
+	 */
+	public List<Permission> getPermissions() throws SecurityManagerException;
+
+	/**
+	 * Insert a new permission into the used security system.
+	 * 
+	 * @param permissionName	The name of the new permission.
+	 * @return					The new permission.
+	 * 
+	 * @exception SecurityManagerException
+	 * 		Thrown if the permission cannot be inserted, or if its name is already registered.
+	 */
+	public Permission insertPermission( String permissionName ) throws SecurityManagerException;
+
+	/**
+	 * Delete the specified permission from the used security system. The permission is revoked from every role.
+	 * 
+	 * @param permission	The permission to delete.
+	 * 
+	 * @exception SecurityManagerException
+	 * 		Thrown if the permission cannot be deleted.
+	 */
+	public void deletePermission( Permission permission ) throws SecurityManagerException;
+
+	/**
+	 * Grants the specified permission to the specified role.
+	 * 
+	 * @param role			The role that receives the permission.
+	 * @param permission	The granted permission.
+	 * 
+	 * @exception SecurityManagerException
+	 * 		Thrown if the role or the permission don't exist, or if the grant cannot be stored.
+	 */
+	public void grantPermission( Role role, Permission permission ) throws SecurityManagerException;
+
+	/**
+	 * Revokes the specified permission from the specified role. Permissions inherited from parent roles are not affected.
+	 * 
+	 * @param role			The role that loses the permission.
+	 * @param permission	The revoked permission.
+	 * 
+	 * @exception SecurityManagerException
+	 * 		Thrown if the revocation cannot be stored.
+	 */
+	public void revokePermission( Role role, Permission permission ) throws SecurityManagerException;
+
+	/**
+	 * Returns the permissions directly granted to the specified role (inherited permissions are not returned).
+	 * 
+	 * @param role	The considered role.
+	 * @return		The directly granted permissions.
+	 * 
+	 * @exception SecurityManagerException
+	 * 		Thrown if the permissions cannot be read from the security system.
+	 */
+	public Set<Permission> getGrantedPermissions( Role role ) throws SecurityManagerException;
+
+	/**
+	 * Makes the first role inherit from the second one.
+	 * 
+	 * @param role			The child role.
+	 * @param parentRole	The parent role.
+	 * 
+	 * @exception SecurityManagerException
+	 * 		Thrown if a role don't exist, if the link would create a cycle, or if it cannot be stored.
+	 */
+	public void addParentRole( Role role, Role parentRole ) throws SecurityManagerException;
+
+	/**
+	 * Removes an inheritance link between two roles.
+	 * 
+	 * @param role			The child role.
+	 * @param parentRole	The parent role.
+	 * 
+	 * @exception SecurityManagerException
+	 * 		Thrown if the link cannot be removed.
+	 */
+	public void removeParentRole( Role role, Role parentRole ) throws SecurityManagerException;
+
+	/**
+	 * Returns the direct parents of the specified role.
+	 * 
+	 * @param role	The considered role.
+	 * @return		The direct parent roles.
+	 * 
+	 * @exception SecurityManagerException
+	 * 		Thrown if the hierarchy cannot be read from the security system.
+	 */
+	public Set<Role> getParentRoles( Role role ) throws SecurityManagerException;
+
+	/**
+	 * Checks if the specified user holds the specified permission, directly through one of his roles or by inheritance.
+	 * 
+	 * @param user			The considered user.
+	 * @param permission	The searched permission.
+	 * @return				true if the user holds the permission, false otherwise.
+	 * 
+	 * @exception SecurityManagerException
+	 * 		Thrown if the permissions cannot be read from the security system.
+	 */
+	public boolean hasPermission( User user, Permission permission ) throws SecurityManagerException;
+
+	/**
+	 * Checks if the specified user holds the permission with the specified name. An unknown permission is never held.
+	 * 
+	 * @param user				The considered user.
+	 * @param permissionName	The name of the searched permission.
+	 * @return					true if the user holds the permission, false otherwise.
+	 * 
+	 * @exception SecurityManagerException
+	 * 		Thrown if the permissions cannot be read from the security system.
+	 */
+	public boolean hasPermission( User user, String permissionName ) throws SecurityManagerException;
+
+	/**
+	 * Returns the effective permission set of the specified user: the permissions granted to his roles and to all
+	 * their ancestors.
+	 * 
+	 * @param user	The considered user.
+	 * @return		The effective permissions.
+	 * 
+	 * @exception SecurityManagerException
+	 * 		Thrown if the permissions cannot be read from the security system.
+	 */
+	public Set<Permission> getEffectivePermissions( User user ) throws SecurityManagerException;
+
+}
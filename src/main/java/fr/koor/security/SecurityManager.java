@@ -10,8 +10,8 @@ package fr.koor.security;
  * </p>
  * 
  * <p>
- *     In the current version of the Ellipse framework, only authentication is supported.
- *     But a future version of the framework will add the concepts of permissions. The
+ *     Permissions are granted to roles, and roles can inherit from other roles: see the
+ *     PermissionManager interface. The
  *     Ellipse framework provides the JdbcSecurityManager class : this is, of course,
  *     an implementation of this interface that use a relational database to store
  *     the security informations.
@@ -20,6 +20,10 @@ package fr.koor.security;
  * @see fr.koor.security.providers.JdbcSecurityManager
  * @see fr.koor.security.RoleManager
  * @see fr.koor.security.UserManager
+ * @see fr.koor.security.PermissionManager
+ * @see fr.koor.security.AuthorizationManager
+ * @see fr.koor.security.SessionManager
+ * @see fr.koor.security.PasswordScreener
  * 
  * @author Dominique Liard
  * @since 0.3.6
@@ -58,4 +62,71 @@ public interface SecurityManager extends AutoCloseable {
 	 */
 	public UserManager getUserManager();	
 	
+	/**
+	 * Returns the permission manager associated to this security manager.
+	 * A permission manager provided methods to manage permissions and role hierarchies.
+	 * 
+	 * @return The permission manager associated to this security manager.
+	 * @throws UnsupportedOperationException	Thrown by the security managers that don't manage permissions (the
+	 * 											implementations written before this method was added).
+	 * 
+	 * @since 0.6.0
+	 */
+	public default PermissionManager getPermissionManager() {
+		throw new UnsupportedOperationException( "Permissions are not supported by " + this.getClass().getName() );
+	}
+	
+	/**
+	 * Returns the authorization manager associated to this security manager.
+	 * An authorization manager decides if a user can access a resource protected by a permission or a role.
+	 * 
+	 * @return The authorization manager associated to this security manager.
+	 * @throws UnsupportedOperationException	Thrown by the security managers that don't take authorization decisions
+	 * 											(the implementations written before this method was added).
+	 * 
+	 * @since 0.6.0
+	 */
+	public default AuthorizationManager getAuthorizationManager() {
+		throw new UnsupportedOperationException( "Authorization is not supported by " + this.getClass().getName() );
+	}
+	
+	/**
+	 * Returns the session manager associated to this security manager.
+	 * A session manager issues session tokens to authenticated users and resolves them.
+	 * 
+	 * @return The session manager associated to this security manager.
+	 * @throws UnsupportedOperationException	Thrown by the security managers that don't issue sessions (the
+	 * 											implementations written before this method was added).
+	 * 
+	 * @since 0.6.0
+	 */
+	public default SessionManager getSessionManager() {
+		throw new UnsupportedOperationException( "Sessions are not supported by " + this.getClass().getName() );
+	}
+	
+	/**
+	 * Returns the password screener of this security manager.
+	 * 
+	 * @return The password screener, or null if the new passwords are not screened (always null by default).
+	 * 
+	 * @since 0.6.0
+	 */
+	public default PasswordScreener getPasswordScreener() {
+		return null;
+	}
+	
+	/**
+	 * Defines the password screener of this security manager: the new passwords (see <code>UserManager.insertUser</code>
+	 * and <code>User.setPassword</code>) known to be compromised are rejected.
+	 * 
+	 * @param passwordScreener	The password screener, or null to stop screening the new passwords.
+	 * @throws UnsupportedOperationException	Thrown by the security managers that don't screen passwords (the
+	 * 											implementations written before this method was added).
+	 * 
+	 * @since 0.6.0
+	 */
+	public default void setPasswordScreener( PasswordScreener passwordScreener ) {
+		throw new UnsupportedOperationException( "Password screening is not supported by " + this.getClass().getName() );
+	}
+	
 }
@@ -0,0 +1,129 @@
+package fr.koor.security;
+
+/**
+ * <p>
+ *     This interface defines the session management: once the credentials of a user have been checked, an opaque
+ *     session token is issued. Next requests present the token, which is resolved to the user without reading the
+ *     security system again.
+ * </p>
+ * <p>
+ *     A session expires when it has not been used during the idle timeout (sliding expiry), and in any case at the
+ *     end of its maximum lifetime (absolute expiry). It can also be explicitly revoked. By default, sessions are not
+ *     persisted: they are lost when the security manager is closed. When a store file is defined, they are kept into
+ *     this file and restored by the next security manager that uses it, so that a restart doesn't close them.
+ * </p>
+ * You can get a SessionManager instance by asking it at your SecurityManager.
+ * 
+ * @see fr.koor.security.SecurityManager
+ * 
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public interface SessionManager {
+
+	/**
+	 * Checks the credentials of a user (see <code>UserManager.checkCredentials</code>) and opens a session for him.
+	 * 
+	 * @param userLogin		The login of the user.
+	 * @param userPassword	The password of the user.
+	 * @return				The session token.
+	 * 
+	 * @exception AccountDisabledException	Thrown if the account of the user is disabled.
+	 * @exception BadCredentialsException	Thrown if the login or the password is wrong.
+	 * @exception SecurityManagerException	Thrown if the session cannot be stored.
+	 */
+	public String createSession( String userLogin, String userPassword ) throws AccountDisabledException, BadCredentialsException, SecurityManagerException;
+
+	/**
+	 * Opens a session for a user whose credentials have already been checked.
+	 * 
+	 * @param user	The authenticated user.
+	 * @return		The session token.
+	 * 
+	 * @exception SecurityManagerException	Thrown if the session cannot be stored.
+	 */
+	public String createSession( User user ) throws SecurityManagerException;
+
+	/**
+	 * Resolves a session token to its user and extends the session (sliding expiry). The returned instance is shared
+	 * by the calls made with this token: don't modify it.
+	 * 
+	 * @param token	The session token.
+	 * @return		The user of the session.
+	 * 
+	 * @exception UnauthorizedException
+	 * 		Thrown if the token is unknown, expired or revoked.
+	 * @exception SecurityManagerException
+	 * 		Thrown if the user has been modified and cannot be reloaded from the security system.
+	 */
+	public User validateSession( String token ) throws UnauthorizedException, SecurityManagerException;
+
+	/**
+	 * Revokes the specified session. An unknown token is ignored.
+	 * 
+	 * @param token	The session token.
+	 */
+	public void revokeSession( String token );
+
+	/**
+	 * Revokes all the sessions of the specified user.
+	 * 
+	 * @param user	The user whose sessions must be revoked.
+	 */
+	public void revokeSessions( User user );
+
+	/**
+	 * Returns the number of open sessions. Expired sessions may be counted until they are purged.
+	 * 
+	 * @return The number of sessions.
+	 */
+	public int getSessionCount();
+
+	/**
+	 * Returns the delay after which an unused session expires.
+	 * 
+	 * @return The idle timeout in milliseconds.
+	 */
+	public long getIdleTimeout();
+
+	/**
+	 * Changes the delay after which an unused session expires. The new value applies to the open sessions.
+	 * 
+	 * @param idleTimeout	The idle timeout in milliseconds.
+	 */
+	public void setIdleTimeout( long idleTimeout );
+
+	/**
+	 * Returns the delay, from its creation, after which a session expires even if it is used.
+	 * 
+	 * @return The maximum lifetime in milliseconds.
+	 */
+	public long getMaximumLifetime();
+
+	/**
+	 * Changes the delay, from its creation, after which a session expires even if it is used. The new value applies
+	 * to the open sessions.
+	 * 
+	 * @param maximumLifetime	The maximum lifetime in milliseconds.
+	 */
+	public void setMaximumLifetime( long maximumLifetime );
+
+	/**
+	 * Returns the file where the sessions are stored.
+	 * 
+	 * @return The file name, or null if the sessions are not persisted.
+	 */
+	public String getStoreFilename();
+
+	/**
+	 * Defines the file where the sessions are stored. If the file exists, its sessions that are not expired are
+	 * restored: their tokens are accepted again. Only the sessions opened from now are stored. The file doesn't
+	 * contain the tokens, only their hash.
+	 * 
+	 * @param filename	The file name, or null to stop storing the sessions.
+	 * 
+	 * @exception SecurityManagerException	Thrown if the file cannot be opened or is not a session file.
+	 */
+	public void setStoreFilename( String filename ) throws SecurityManagerException;
+
+}
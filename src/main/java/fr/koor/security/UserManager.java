@@ -88,6 +88,8 @@ public interface UserManager {
 	 *            Thrown if the new user cannot be inserted in the security system. 
 	 * @exception UserAlreadyRegisteredException
 	 *            Thrown if the specified login is already registered in the security system.
+	 * @exception CompromisedPasswordException
+	 *            Thrown if the password screener of the security system rejects the password.
 	 */
 	public User insertUser( String login, String password ) throws UserAlreadyRegisteredException, SecurityManagerException ;
 	
@@ -0,0 +1,25 @@
+package fr.koor.security;
+
+/**
+ * This exception type is thrown when a user is looked up by an identifier or a login that the security manager
+ * doesn't know. Providers may return null instead, as the JDBC one does.
+ * 
+ * @see fr.koor.security.SecurityManagerException
+ * 
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public class UserNotFoundException extends SecurityManagerException {
+	
+	private static final long serialVersionUID = 3871590262480375108L;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param message The exception message.
+	 */
+	public UserNotFoundException( String message ) {
+		super( message );
+	}
+
+}
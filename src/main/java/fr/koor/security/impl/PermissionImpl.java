@@ -0,0 +1,55 @@
+package fr.koor.security.impl;
+
+import fr.koor.security.Permission;
+
+/**
+ * This class represents the concept of permission. A permission is a named right granted to one or more roles.
+ * Permission instances are immutable.
+ * 
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public class PermissionImpl implements Permission {
+
+	private static final long serialVersionUID = 4412907663140548215L;
+
+	private final int identifier;
+	private final String permissionName;
+
+	/**
+	 * You cannot directly create a Permission. Instead of, use an PermissionManager instance.
+	 * 
+	 * @param identifier		The permission identifier.
+	 * @param permissionName	The name of the permission.
+	 * 
+	 * @see fr.koor.security.PermissionManager
+	 */
+	public PermissionImpl( int identifier, String permissionName ) {
+		if ( permissionName == null ) throw new NullPointerException( "permissionName cannot be null" );
+		this.identifier = identifier;
+		this.permissionName = permissionName;
+	}
+
+	@Override public int getIdentifier() {
+		return this.identifier;
+	}
+
+	@Override public String getPermissionName() {
+		return this.permissionName;
+	}
+
+	@Override
+	public int hashCode() {
+		return this.identifier;
+	}
+
+	@Override
+	public boolean equals( Object obj ) {
+		return obj instanceof Permission && this.identifier == ( (Permission) obj ).getIdentifier();
+	}
+
+	@Override
+	public String toString() {
+		return this.permissionName;
+	}
+}
@@ -86,6 +86,6 @@ public class RoleImpl implements Role {
 	
 	@Override
 	public boolean equals( Object obj ) {
-		return this.getIdentifier() == ( (RoleImpl) obj ).getIdentifier();
+		return obj instanceof Role && this.getIdentifier() == ( (Role) obj ).getIdentifier();
 	}
 }
@@ -0,0 +1,134 @@
+package fr.koor.security.impl;
+
+import fr.koor.security.Role;
+import fr.koor.utility.IntHashMap;
+
+/**
+ * <p>
+ *     This class hands out canonical role instances: for a given identifier, all the users loaded by a security
+ *     manager share the same role instance instead of holding their own copies. Each security manager owns its
+ *     registry, because role identifiers are only unique within a security database.
+ * </p>
+ * <p>
+ *     Canonical roles are immutable for their users: <code>setRoleName</code> throws an
+ *     <code>UnsupportedOperationException</code>. A role is renamed through its <code>RoleManager</code>, which
+ *     updates the registry: every user that holds the role then sees its new name. Lookups never take a lock.
+ * </p>
+ *
+ * @see fr.koor.security.impl.RoleImpl
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public class RoleRegistry {
+
+	private final IntHashMap<SharedRole> roles = new IntHashMap<>();
+
+	/**
+	 * Returns the canonical instance of the specified role. If the registered instance has another name, the role has
+	 * been renamed: the registered instance is updated.
+	 *
+	 * @param identifier	The role identifier.
+	 * @param roleName		The current name of the role.
+	 * @return The canonical role instance.
+	 */
+	public Role get( int identifier, String roleName ) {
+		if ( roleName == null ) throw new NullPointerException();
+		SharedRole role = this.roles.get( identifier );
+		if ( role != null && role.getRoleName().equals( roleName ) ) return role;
+		synchronized ( this.roles ) {
+			role = this.roles.get( identifier );
+			if ( role == null ) {
+				role = new SharedRole( identifier, roleName );
+				this.roles.put( identifier, role );
+			} else {
+				role.name = roleName;
+			}
+			return role;
+		}
+	}
+
+	/**
+	 * Returns the canonical instance of the specified role, if it's registered.
+	 *
+	 * @param identifier	The role identifier.
+	 * @return The canonical role instance, or null.
+	 */
+	public Role get( int identifier ) {
+		return this.roles.get( identifier );
+	}
+
+	/**
+	 * Renames the canonical instance of the specified role, if it's registered.
+	 *
+	 * @param identifier	The role identifier.
+	 * @param roleName		The new name of the role.
+	 */
+	public void rename( int identifier, String roleName ) {
+		if ( roleName == null ) throw new NullPointerException();
+		synchronized ( this.roles ) {
+			SharedRole role = this.roles.get( identifier );
+			if ( role != null ) role.name = roleName;
+		}
+	}
+
+	/**
+	 * Unregisters the specified role. Users that hold the previous instance keep it.
+	 *
+	 * @param identifier	The role identifier.
+	 */
+	public void remove( int identifier ) {
+		synchronized ( this.roles ) {
+			this.roles.remove( identifier );
+		}
+	}
+
+	/**
+	 * Unregisters all the roles.
+	 */
+	public void clear() {
+		synchronized ( this.roles ) {
+			this.roles.clear();
+		}
+	}
+
+	/**
+	 * Returns the number of registered roles.
+	 *
+	 * @return The number of registered roles.
+	 */
+	public int size() {
+		return this.roles.size();
+	}
+
+
+	/**
+	 * A canonical role. It extends RoleImpl so that it stays comparable with the role instances produced by the role
+	 * managers.
+	 */
+	private static final class SharedRole extends RoleImpl {
+
+		private static final long serialVersionUID = 4410375853326402541L;
+
+		private volatile String name;
+
+		SharedRole( int identifier, String roleName ) {
+			this.setIdentifier( identifier );
+			this.name = roleName;
+		}
+
+		@Override
+		public String getRoleName() {
+			return this.name;
+		}
+
+		@Override
+		public void setRoleName( String newRoleName ) {
+			throw new UnsupportedOperationException( "Shared role instances are immutable: rename the role with its RoleManager" );
+		}
+
+		private Object writeReplace() {
+			return new RoleImpl( this.getIdentifier(), this.name );
+		}
+	}
+}
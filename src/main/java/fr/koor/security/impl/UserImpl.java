@@ -1,10 +1,19 @@
 package fr.koor.security.impl;
 
 import java.beans.Transient;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
+import fr.koor.security.PasswordScreener;
 import fr.koor.security.Role;
 import fr.koor.security.SecurityManagerException;
 import fr.koor.security.User;
@@ -14,6 +23,10 @@ import fr.koor.security.User;
  * This class represents the concept of user for a considered computer system.
  * A user has a number of attributes and a set of roles assigned to it.
  * <br><br>
+ * Role membership is stored as a bitset indexed by role identifier, so <code>isMemberOfRole</code> is a single bit
+ * test. Roles whose identifier is negative or greater than 4095 are not put in the bitset: their membership is
+ * checked by scanning the roles of the user.
+ * <br><br>
  * Note: you cannot directly create a User. Instead of, use an UserManager instance.
  * 
  * @see fr.koor.security.Role
@@ -28,6 +41,26 @@ public class UserImpl implements User {
 
 	private static final long serialVersionUID = -1909817859035602141L;
 	
+	/** The roles whose identifier is lower than this limit are indexed by the bitset. */
+	private static final int DENSE_ROLE_LIMIT = 4096;
+	private static final Role [] NO_ROLES = new Role[ 0 ];
+	private static final long [] NO_BITS = new long[ 0 ];
+	
+	/** The serialized form of the previous versions, where the roles were stored in a HashSet. */
+	private static final ObjectStreamField [] serialPersistentFields = {
+		new ObjectStreamField( "identifier", int.class ),
+		new ObjectStreamField( "login", String.class ),
+		new ObjectStreamField( "password", String.class ),
+		new ObjectStreamField( "connectionNumber", int.class ),
+		new ObjectStreamField( "lastConnection", Date.class ),
+		new ObjectStreamField( "consecutiveErrors", int.class ),
+		new ObjectStreamField( "isDisabled", boolean.class ),
+		new ObjectStreamField( "roles", Set.class ),
+		new ObjectStreamField( "firstName", String.class ),
+		new ObjectStreamField( "lastName", String.class ),
+		new ObjectStreamField( "email", String.class )
+	};
+	
 	private transient fr.koor.security.SecurityManager securityManager;	
 	private int 		identifier;
 	private String 		login;
@@ -36,7 +69,10 @@ public class UserImpl implements User {
 	private Date 		lastConnection;
 	private int 		consecutiveErrors;
 	private boolean 	isDisabled;
-	private Set<Role>  	roles = new HashSet<Role>();
+	private Role []  	roles = NO_ROLES;
+	private int 		roleCount;
+	private long [] 	roleBits = NO_BITS;
+	private transient Set<Role> roleView;
 	
 	private String 		firstName = "";
 	private String 		lastName = "";
@@ -145,10 +181,14 @@ public class UserImpl implements User {
 	 * @param newPassword	The new password for this user.
 	 * 
 	 * @throws SecurityManagerException Thrown if security system cannot change the password.
+	 * @throws fr.koor.security.CompromisedPasswordException Thrown if the password screener of the security system
+	 * 		   rejects the new password.
 	 * 
 	 * @see fr.koor.security.impl.UserImpl#isSamePassword(String)
 	 */
 	@Override public void setPassword( String newPassword ) throws SecurityManagerException  {
+		PasswordScreener screener = this.securityManager.getPasswordScreener();
+		if ( screener != null ) screener.checkPassword( newPassword );
 		this.password = this.securityManager.getUserManager().encryptPassword( newPassword );
 	}
 
@@ -246,23 +286,61 @@ public class UserImpl implements User {
 	 * @return true is this user has the specified role, false otherwize.
 	 */
 	@Override public boolean isMemberOfRole( Role role ) {
-		return this.roles.contains( role );
+		return role != null && this.isMemberOfRole( role.getIdentifier() );
+	}
+	
+	/**
+	 * Checks is this user is associated to the role that has the specified identifier.
+	 * @param roleIdentifier	The identifier of the expected role.
+	 * @return true is this user has the specified role, false otherwize.
+	 */
+	public boolean isMemberOfRole( int roleIdentifier ) {
+		if ( roleIdentifier >= 0 && roleIdentifier < DENSE_ROLE_LIMIT ) {
+			int word = roleIdentifier >>> 6;
+			return word < this.roleBits.length && ( this.roleBits[ word ] & ( 1L << roleIdentifier ) ) != 0;
+		}
+		return this.indexOfRole( roleIdentifier ) >= 0;
+	}
+	
+	private int indexOfRole( int roleIdentifier ) {
+		for ( int i = 0; i < this.roleCount; i++ ) {
+			if ( this.roles[i].getIdentifier() == roleIdentifier ) return i;
+		}
+		return -1;
 	}
 
 	/**
-	 * Returns a set of all roles associated to this user..
+	 * Returns a set of all roles associated to this user. The returned set is a live view: it can be modified and
+	 * reflects the modifications of the roles of this user.
 	 * @return The set of roles.
 	 */
 	@Override public Set<Role> getRoles() {
-		return this.roles;
+		if ( this.roleView == null ) this.roleView = new RoleSet();
+		return this.roleView;
 	}
 	
 	/**
-	 * Adds another role to this user.
+	 * Adds another role to this user. If the user already has a role with the same identifier, nothing is done.
 	 * @param role	The new role to affect for this user.
 	 */
 	@Override public void addRole( Role role ) {
-		this.roles.add( role );
+		this.insertRole( role );
+	}
+	
+	private boolean insertRole( Role role ) {
+		if ( role == null ) throw new NullPointerException();
+		int roleIdentifier = role.getIdentifier();
+		if ( this.isMemberOfRole( roleIdentifier ) ) return false;
+		if ( this.roleCount == this.roles.length ) {
+			this.roles = Arrays.copyOf( this.roles, Math.max( 4, this.roleCount * 2 ) );
+		}
+		this.roles[ this.roleCount++ ] = role;
+		if ( roleIdentifier >= 0 && roleIdentifier < DENSE_ROLE_LIMIT ) {
+			int word = roleIdentifier >>> 6;
+			if ( word >= this.roleBits.length ) this.roleBits = Arrays.copyOf( this.roleBits, word + 1 );
+			this.roleBits[ word ] |= 1L << roleIdentifier;
+		}
+		return true;
 	}
 	
 	/**
@@ -270,8 +348,23 @@ public class UserImpl implements User {
 	 * @param role	The role to remove for this user.
 	 */
 	@Override public void removeRole( Role role ) {
-		if ( this.roles.contains( role ) )
-			this.roles.remove( role );
+		if ( role != null ) this.deleteRole( role.getIdentifier() );
+	}
+	
+	private boolean deleteRole( int roleIdentifier ) {
+		int index = this.indexOfRole( roleIdentifier );
+		if ( index < 0 ) return false;
+		this.removeRoleAt( index );
+		return true;
+	}
+	
+	private void removeRoleAt( int index ) {
+		int roleIdentifier = this.roles[ index ].getIdentifier();
+		System.arraycopy( this.roles, index + 1, this.roles, index, this.roleCount - index - 1 );
+		this.roles[ --this.roleCount ] = null;
+		if ( roleIdentifier >= 0 && roleIdentifier < DENSE_ROLE_LIMIT ) {
+			this.roleBits[ roleIdentifier >>> 6 ] &= ~( 1L << roleIdentifier );
+		}
 	}
 	
 	/**
@@ -331,6 +424,95 @@ public class UserImpl implements User {
 	}
 	
 	
+	private void writeObject( ObjectOutputStream stream ) throws IOException {
+		ObjectOutputStream.PutField fields = stream.putFields();
+		fields.put( "identifier", this.identifier );
+		fields.put( "login", this.login );
+		fields.put( "password", this.password );
+		fields.put( "connectionNumber", this.connectionNumber );
+		fields.put( "lastConnection", this.lastConnection );
+		fields.put( "consecutiveErrors", this.consecutiveErrors );
+		fields.put( "isDisabled", this.isDisabled );
+		fields.put( "roles", new HashSet<Role>( this.getRoles() ) );
+		fields.put( "firstName", this.firstName );
+		fields.put( "lastName", this.lastName );
+		fields.put( "email", this.email );
+		stream.writeFields();
+	}
+	
+	@SuppressWarnings( "unchecked" )
+	private void readObject( ObjectInputStream stream ) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = stream.readFields();
+		this.identifier = fields.get( "identifier", 0 );
+		this.login = (String) fields.get( "login", null );
+		this.password = (String) fields.get( "password", null );
+		this.connectionNumber = fields.get( "connectionNumber", 0 );
+		this.lastConnection = (Date) fields.get( "lastConnection", null );
+		this.consecutiveErrors = fields.get( "consecutiveErrors", 0 );
+		this.isDisabled = fields.get( "isDisabled", false );
+		this.firstName = (String) fields.get( "firstName", "" );
+		this.lastName = (String) fields.get( "lastName", "" );
+		this.email = (String) fields.get( "email", "" );
+		this.roles = NO_ROLES;
+		this.roleBits = NO_BITS;
+		Set<Role> serializedRoles = (Set<Role>) fields.get( "roles", null );
+		if ( serializedRoles != null ) {
+			for ( Role role : serializedRoles ) this.insertRole( role );
+		}
+	}
+	
+	
+	/**
+	 * The live view returned by getRoles.
+	 */
+	private final class RoleSet extends AbstractSet<Role> {
+
+		@Override public int size() {
+			return roleCount;
+		}
+
+		@Override public boolean contains( Object object ) {
+			return object instanceof Role && isMemberOfRole( (Role) object );
+		}
+
+		@Override public boolean add( Role role ) {
+			return insertRole( role );
+		}
+
+		@Override public boolean remove( Object object ) {
+			return object instanceof Role && deleteRole( ( (Role) object ).getIdentifier() );
+		}
+
+		@Override public void clear() {
+			Arrays.fill( roles, 0, roleCount, null );
+			roleCount = 0;
+			Arrays.fill( roleBits, 0 );
+		}
+
+		@Override public Iterator<Role> iterator() {
+			return new Iterator<Role>() {
+				private int next = 0;
+				private boolean removable = false;
+
+				@Override public boolean hasNext() {
+					return this.next < roleCount;
+				}
+
+				@Override public Role next() {
+					if ( this.next >= roleCount ) throw new NoSuchElementException();
+					this.removable = true;
+					return roles[ this.next++ ];
+				}
+
+				@Override public void remove() {
+					if ( this.removable == false ) throw new IllegalStateException();
+					removeRoleAt( --this.next );
+					this.removable = false;
+				}
+			};
+		}
+	}
+	
 	/**
 	 * Compute the representation string associted to this instance.
 	 * @return The instance representation string 
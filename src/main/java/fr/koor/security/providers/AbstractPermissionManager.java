@@ -0,0 +1,302 @@
+package fr.koor.security.providers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import fr.koor.security.Permission;
+import fr.koor.security.PermissionManager;
+import fr.koor.security.Role;
+import fr.koor.security.SecurityManagerException;
+import fr.koor.security.User;
+import fr.koor.security.impl.PermissionImpl;
+
+/**
+ * <p>
+ *     This class implements the permission management shared by the providers of this package. The permissions are
+ *     held in an immutable <code>PermissionModel</code>: each modification produces a new model that the provider
+ *     stores (<code>storeModel</code>) then publishes.
+ * </p>
+ * <p>
+ *     The effective permission set of each user is the union of the effective bitsets of his roles. It is cached
+ *     per user, with the model and the role identifiers it was computed from: it is recomputed only when the model or
+ *     the roles of the user change. A permission check then costs a bit test.
+ * </p>
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+abstract class AbstractPermissionManager implements PermissionManager {
+
+	/** The kinds of modification passed to <code>storeModel</code>. */
+	enum ChangeType { INSERT_PERMISSION, DELETE_PERMISSION, GRANT, REVOKE, ADD_PARENT, REMOVE_PARENT, DELETE_ROLE }
+
+	/**
+	 * Describes a modification of the model. <code>roleIdentifier</code> is the child role for the parent links, and
+	 * <code>targetIdentifier</code> is the permission (or parent role) identifier.
+	 */
+	static final class Change {
+		final ChangeType type;
+		final int roleIdentifier;
+		final int targetIdentifier;
+		final String permissionName;
+
+		Change( ChangeType type, int roleIdentifier, int targetIdentifier, String permissionName ) {
+			this.type = type;
+			this.roleIdentifier = roleIdentifier;
+			this.targetIdentifier = targetIdentifier;
+			this.permissionName = permissionName;
+		}
+	}
+
+	private static final class UserPermissions {
+		final PermissionModel model;
+		final int [] roleIdentifiers;
+		final long [] bits;
+
+		UserPermissions( PermissionModel model, int [] roleIdentifiers, long [] bits ) {
+			this.model = model;
+			this.roleIdentifiers = roleIdentifiers;
+			this.bits = bits;
+		}
+	}
+
+	private final fr.koor.security.SecurityManager securityManager;
+	private final Map<Integer, UserPermissions> userPermissions = new ConcurrentHashMap<>();
+
+	AbstractPermissionManager( fr.koor.security.SecurityManager securityManager ) {
+		this.securityManager = securityManager;
+	}
+
+	/**
+	 * Returns the current model.
+	 *
+	 * @return The current model.
+	 * @throws SecurityManagerException Thrown if the model cannot be loaded.
+	 */
+	abstract PermissionModel getModel() throws SecurityManagerException;
+
+	/**
+	 * Stores and publishes a new model. This method is called with the lock of this manager held.
+	 *
+	 * @param model		The new model.
+	 * @param change	The modification that produced the new model.
+	 * @throws SecurityManagerException Thrown if the modification cannot be stored: the model must then be unchanged.
+	 */
+	abstract void storeModel( PermissionModel model, Change change ) throws SecurityManagerException;
+
+	/**
+	 * Forgets the cached effective permissions of the specified user (after his deletion, for instance).
+	 *
+	 * @param userIdentifier	The user identifier.
+	 */
+	void invalidateUser( int userIdentifier ) {
+		this.userPermissions.remove( userIdentifier );
+	}
+
+	/**
+	 * Removes every reference to a deleted role from the model. Providers call this method once the role is deleted,
+	 * without holding their own locks.
+	 *
+	 * @param roleIdentifier	The identifier of the deleted role.
+	 * @throws SecurityManagerException Thrown if the new model cannot be stored.
+	 */
+	synchronized void roleDeleted( int roleIdentifier ) throws SecurityManagerException {
+		PermissionModel model = this.getModel();
+		PermissionModel newModel = model.withoutRole( roleIdentifier );
+		if ( newModel == model ) return;
+		this.storeModel( newModel, new Change( ChangeType.DELETE_ROLE, roleIdentifier, 0, null ) );
+	}
+
+	/**
+	 * Forgets all cached effective permissions.
+	 */
+	void invalidateAll() {
+		this.userPermissions.clear();
+	}
+
+	@Override public Permission selectPermissionById( int permissionIdentifier ) throws SecurityManagerException {
+		String permissionName = this.getModel().getPermissionName( permissionIdentifier );
+		if ( permissionName == null ) {
+			throw new SecurityManagerException( "Permission " + permissionIdentifier + " not found" );
+		}
+		return new PermissionImpl( permissionIdentifier, permissionName );
+	}
+
+	@Override public Permission selectPermissionByName( String permissionName ) throws SecurityManagerException {
+		if ( permissionName == null ) throw new NullPointerException( "permissionName cannot be null" );
+		Integer permissionIdentifier = this.getModel().getPermissionIdentifier( permissionName );
+		if ( permissionIdentifier == null ) {
+			throw new SecurityManagerException( "Permission " + permissionName + " not found" );
+		}
+		return new PermissionImpl( permissionIdentifier, permissionName );
+	}
+
+	@Override public List<Permission> getPermissions() throws SecurityManagerException {
+		List<Permission> result = new ArrayList<>();
+		for ( Map.Entry<Integer, String> entry : this.getModel().getPermissions().entrySet() ) {
+			result.add( new PermissionImpl( entry.getKey(), entry.getValue() ) );
+		}
+		return result;
+	}
+
+	@Override public synchronized Permission insertPermission( String permissionName ) throws SecurityManagerException {
+		if ( permissionName == null ) throw new NullPointerException( "permissionName cannot be null" );
+		PermissionModel model = this.getModel();
+		if ( model.getPermissionIdentifier( permissionName ) != null ) {
+			throw new SecurityManagerException( "Permission " + permissionName + " already registered" );
+		}
+		int permissionIdentifier = model.nextPermissionIdentifier();
+		this.storeModel( model.withPermission( permissionIdentifier, permissionName ),
+				new Change( ChangeType.INSERT_PERMISSION, 0, permissionIdentifier, permissionName ) );
+		return new PermissionImpl( permissionIdentifier, permissionName );
+	}
+
+	@Override public synchronized void deletePermission( Permission permission ) throws SecurityManagerException {
+		if ( permission == null ) throw new NullPointerException( "permission cannot be null" );
+		PermissionModel model = this.getModel();
+		PermissionModel newModel = model.withoutPermission( permission.getIdentifier() );
+		if ( newModel == model ) return;
+		this.storeModel( newModel, new Change( ChangeType.DELETE_PERMISSION, 0, permission.getIdentifier(), null ) );
+	}
+
+	@Override public synchronized void grantPermission( Role role, Permission permission ) throws SecurityManagerException {
+		if ( role == null ) throw new NullPointerException( "role cannot be null" );
+		if ( permission == null ) throw new NullPointerException( "permission cannot be null" );
+		this.checkRole( role.getIdentifier() );
+		PermissionModel model = this.getModel();
+		if ( model.getPermissionName( permission.getIdentifier() ) == null ) {
+			throw new SecurityManagerException( "Permission " + permission.getIdentifier() + " not found" );
+		}
+		PermissionModel newModel = model.withGrant( role.getIdentifier(), permission.getIdentifier() );
+		if ( newModel == model ) return;
+		this.storeModel( newModel,
+				new Change( ChangeType.GRANT, role.getIdentifier(), permission.getIdentifier(), null ) );
+	}
+
+	@Override public synchronized void revokePermission( Role role, Permission permission ) throws SecurityManagerException {
+		if ( role == null ) throw new NullPointerException( "role cannot be null" );
+		if ( permission == null ) throw new NullPointerException( "permission cannot be null" );
+		PermissionModel model = this.getModel();
+		PermissionModel newModel = model.withoutGrant( role.getIdentifier(), permission.getIdentifier() );
+		if ( newModel == model ) return;
+		this.storeModel( newModel,
+				new Change( ChangeType.REVOKE, role.getIdentifier(), permission.getIdentifier(), null ) );
+	}
+
+	@Override public Set<Permission> getGrantedPermissions( Role role ) throws SecurityManagerException {
+		if ( role == null ) throw new NullPointerException( "role cannot be null" );
+		PermissionModel model = this.getModel();
+		Set<Permission> result = new HashSet<>();
+		for ( int permissionIdentifier : model.getGrants( role.getIdentifier() ) ) {
+			result.add( new PermissionImpl( permissionIdentifier, model.getPermissionName( permissionIdentifier ) ) );
+		}
+		return result;
+	}
+
+	@Override public synchronized void addParentRole( Role role, Role parentRole ) throws SecurityManagerException {
+		if ( role == null ) throw new NullPointerException( "role cannot be null" );
+		if ( parentRole == null ) throw new NullPointerException( "parentRole cannot be null" );
+		this.checkRole( role.getIdentifier() );
+		this.checkRole( parentRole.getIdentifier() );
+		PermissionModel model = this.getModel();
+		if ( model.inheritsFrom( parentRole.getIdentifier(), role.getIdentifier() ) ) {
+			throw new SecurityManagerException( "Role " + parentRole.getRoleName() + " cannot be a parent of role "
+					+ role.getRoleName() + ": the role hierarchy would contain a cycle" );
+		}
+		PermissionModel newModel = model.withParent( role.getIdentifier(), parentRole.getIdentifier() );
+		if ( newModel == model ) return;
+		this.storeModel( newModel,
+				new Change( ChangeType.ADD_PARENT, role.getIdentifier(), parentRole.getIdentifier(), null ) );
+	}
+
+	@Override public synchronized void removeParentRole( Role role, Role parentRole ) throws SecurityManagerException {
+		if ( role == null ) throw new NullPointerException( "role cannot be null" );
+		if ( parentRole == null ) throw new NullPointerException( "parentRole cannot be null" );
+		PermissionModel model = this.getModel();
+		PermissionModel newModel = model.withoutParent( role.getIdentifier(), parentRole.getIdentifier() );
+		if ( newModel == model ) return;
+		this.storeModel( newModel,
+				new Change( ChangeType.REMOVE_PARENT, role.getIdentifier(), parentRole.getIdentifier(), null ) );
+	}
+
+	@Override public Set<Role> getParentRoles( Role role ) throws SecurityManagerException {
+		if ( role == null ) throw new NullPointerException( "role cannot be null" );
+		Set<Role> result = new HashSet<>();
+		for ( int parentIdentifier : this.getModel().getParents( role.getIdentifier() ) ) {
+			result.add( this.securityManager.getRoleManager().selectRoleById( parentIdentifier ) );
+		}
+		return result;
+	}
+
+	private void checkRole( int roleIdentifier ) throws SecurityManagerException {
+		this.securityManager.getRoleManager().selectRoleById( roleIdentifier );
+	}
+
+	@Override public boolean hasPermission( User user, Permission permission ) throws SecurityManagerException {
+		if ( permission == null ) throw new NullPointerException( "permission cannot be null" );
+		return PermissionModel.isBitSet( this.getEffectiveBits( user ), permission.getIdentifier() );
+	}
+
+	@Override public boolean hasPermission( User user, String permissionName ) throws SecurityManagerException {
+		if ( permissionName == null ) throw new NullPointerException( "permissionName cannot be null" );
+		long [] bits = this.getEffectiveBits( user );
+		Integer permissionIdentifier = this.getModel().getPermissionIdentifier( permissionName );
+		return permissionIdentifier != null && PermissionModel.isBitSet( bits, permissionIdentifier );
+	}
+
+	@Override public Set<Permission> getEffectivePermissions( User user ) throws SecurityManagerException {
+		long [] bits = this.getEffectiveBits( user );
+		PermissionModel model = this.getModel();
+		Set<Permission> result = new HashSet<>();
+		for ( Map.Entry<Integer, String> entry : model.getPermissions().entrySet() ) {
+			if ( PermissionModel.isBitSet( bits, entry.getKey() ) ) {
+				result.add( new PermissionImpl( entry.getKey(), entry.getValue() ) );
+			}
+		}
+		return Collections.unmodifiableSet( result );
+	}
+
+	/**
+	 * Returns the effective permission bitset of the specified user, from the cache if the model and the roles of the
+	 * user have not changed since it was computed.
+	 */
+	private long [] getEffectiveBits( User user ) throws SecurityManagerException {
+		if ( user == null ) throw new NullPointerException( "user cannot be null" );
+		PermissionModel model = this.getModel();
+		int [] roleIdentifiers = roleIdentifiers( user );
+
+		UserPermissions cached = this.userPermissions.get( user.getIdentifier() );
+		if ( cached != null && cached.model == model && Arrays.equals( cached.roleIdentifiers, roleIdentifiers ) ) {
+			return cached.bits;
+		}
+		long [] bits = new long[ 0 ];
+		for ( int roleIdentifier : roleIdentifiers ) {
+			bits = PermissionModel.or( bits, model.getEffectivePermissions( roleIdentifier ) );
+		}
+		this.userPermissions.put( user.getIdentifier(), new UserPermissions( model, roleIdentifiers, bits ) );
+		return bits;
+	}
+
+	/**
+	 * Returns the sorted identifiers of the roles of the specified user, which identify the role set whatever the
+	 * iteration order of the roles.
+	 */
+	static int [] roleIdentifiers( User user ) {
+		Set<Role> roles = user.getRoles();
+		int [] roleIdentifiers = new int[ roles.size() ];
+		int index = 0;
+		for ( Role role : roles ) {
+			if ( index == roleIdentifiers.length ) break;
+			roleIdentifiers[ index++ ] = role.getIdentifier();
+		}
+		if ( index < roleIdentifiers.length ) roleIdentifiers = Arrays.copyOf( roleIdentifiers, index );
+		Arrays.sort( roleIdentifiers );
+		return roleIdentifiers;
+	}
+}
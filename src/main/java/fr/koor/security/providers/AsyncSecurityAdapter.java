@@ -0,0 +1,371 @@
+package fr.koor.security.providers;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.koor.security.AsyncRoleManager;
+import fr.koor.security.AsyncUserManager;
+import fr.koor.security.Role;
+import fr.koor.security.SecurityManagerException;
+import fr.koor.security.User;
+
+/**
+ * <p>
+ *     This adapter provides the asynchronous variants of the user manager and of the role manager of a security
+ *     manager: the blocking calls (JDBC or file I/O, password hashing) run on an executor and the caller gets a
+ *     <code>CompletableFuture</code>, so an event loop never blocks on the security layer.
+ * </p>
+ * <p>
+ *     The number of calls that run at the same time is limited: the other calls wait in a queue, without holding a
+ *     thread. The limit should match the number of connections the provider can use: a <code>JdbcSecurityManager</code>
+ *     uses a single JDBC connection, so its default limit is 1; the default limit of the other providers is the number
+ *     of processors. By default the calls run on virtual threads (Java 21 or later) or on a pool of daemon threads as
+ *     large as the limit; you can provide your own executor.
+ * </p>
+ * <p>
+ *     A timeout can be defined: a call that is not finished in time completes its future with a
+ *     <code>TimeoutException</code>. A call whose future is cancelled, or timed out, before it starts is skipped; a
+ *     running call is never interrupted (an interrupted JDBC call may break the connection), its result is ignored.
+ * </p>
+ *
+ * @see fr.koor.security.AsyncUserManager
+ * @see fr.koor.security.AsyncRoleManager
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public class AsyncSecurityAdapter implements AutoCloseable {
+
+	private final fr.koor.security.SecurityManager securityManager;
+	private final Executor executor;
+	private final ExecutorService ownedExecutor;
+	private final int maximumConcurrency;
+	private final ScheduledThreadPoolExecutor timer;
+	private volatile long timeout = 0;
+	private volatile boolean closed = false;
+
+	private final Queue<Task<?>> pendingTasks = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger runningCount = new AtomicInteger();
+
+	private AsyncUserManager userManager = new AsyncUserManagerImpl();
+	private AsyncRoleManager roleManager = new AsyncRoleManagerImpl();
+
+
+	/**
+	 * This constructor produces an adapter that runs the calls on its own executor, with the default concurrency
+	 * limit of the provider.
+	 *
+	 * @param securityManager	The adapted security manager.
+	 */
+	public AsyncSecurityAdapter( fr.koor.security.SecurityManager securityManager ) {
+		this( securityManager, null, defaultConcurrency( securityManager ) );
+	}
+
+	/**
+	 * This constructor produces an adapter.
+	 *
+	 * @param securityManager		The adapted security manager.
+	 * @param executor				The executor that runs the calls, or null to use an executor owned by this adapter
+	 *                              (shut down by <code>close</code>).
+	 * @param maximumConcurrency	The maximum number of calls that run at the same time (the size of the connection pool,
+	 *                              for instance).
+	 */
+	public AsyncSecurityAdapter( fr.koor.security.SecurityManager securityManager, Executor executor, int maximumConcurrency ) {
+		if ( securityManager == null ) throw new NullPointerException();
+		if ( maximumConcurrency <= 0 ) throw new IllegalArgumentException( "Maximum concurrency must be positive" );
+		this.securityManager = securityManager;
+		this.maximumConcurrency = maximumConcurrency;
+		this.ownedExecutor = executor == null ? newDefaultExecutor( maximumConcurrency ) : null;
+		this.executor = executor == null ? this.ownedExecutor : executor;
+		this.timer = new ScheduledThreadPoolExecutor( 1, runnable -> {
+			Thread thread = new Thread( runnable, "Async security timer" );
+			thread.setDaemon( true );
+			return thread;
+		} );
+		this.timer.setRemoveOnCancelPolicy( true );
+	}
+
+	/**
+	 * Returns the default concurrency limit of a provider: 1 for a JDBC provider (it uses a single connection), the
+	 * number of processors otherwise.
+	 */
+	private static int defaultConcurrency( fr.koor.security.SecurityManager securityManager ) {
+		while ( true ) {
+			if ( securityManager instanceof CachingSecurityManager ) {
+				securityManager = ( (CachingSecurityManager) securityManager ).getSecurityManager();
+			} else if ( securityManager instanceof ThrottlingSecurityManager ) {
+				securityManager = ( (ThrottlingSecurityManager) securityManager ).getSecurityManager();
+			} else {
+				break;
+			}
+		}
+		if ( securityManager instanceof JdbcSecurityManager ) return 1;
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Returns a virtual thread per task executor when the JVM provides it (Java 21 or later), a pool of daemon threads
+	 * otherwise. Reflection keeps this class compatible with Java 8.
+	 */
+	private static ExecutorService newDefaultExecutor( int maximumConcurrency ) {
+		try {
+			Method factory = Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+			return (ExecutorService) factory.invoke( null );
+		} catch ( ReflectiveOperationException exception ) {
+			AtomicInteger threadNumber = new AtomicInteger();
+			return Executors.newFixedThreadPool( maximumConcurrency, runnable -> {
+				Thread thread = new Thread( runnable, "Async security - " + threadNumber.incrementAndGet() );
+				thread.setDaemon( true );
+				return thread;
+			} );
+		}
+	}
+
+	/**
+	 * Returns the adapted security manager.
+	 *
+	 * @return The adapted security manager.
+	 */
+	public fr.koor.security.SecurityManager getSecurityManager() {
+		return this.securityManager;
+	}
+
+	/**
+	 * Returns the asynchronous user manager.
+	 *
+	 * @return The asynchronous user manager.
+	 */
+	public AsyncUserManager getUserManager() {
+		return this.userManager;
+	}
+
+	/**
+	 * Returns the asynchronous role manager.
+	 *
+	 * @return The asynchronous role manager.
+	 */
+	public AsyncRoleManager getRoleManager() {
+		return this.roleManager;
+	}
+
+	/**
+	 * Returns the maximum number of calls that run at the same time.
+	 *
+	 * @return The concurrency limit.
+	 */
+	public int getMaximumConcurrency() {
+		return this.maximumConcurrency;
+	}
+
+	/**
+	 * Returns the timeout of the calls.
+	 *
+	 * @return The timeout in milliseconds, or 0 if the calls have no timeout.
+	 */
+	public long getTimeout() {
+		return this.timeout;
+	}
+
+	/**
+	 * Defines the timeout of the next calls, counted from the call (the time spent in the queue is included).
+	 *
+	 * @param timeout	The timeout in milliseconds, or 0 for no timeout.
+	 */
+	public void setTimeout( long timeout ) {
+		if ( timeout < 0 ) throw new IllegalArgumentException( "Timeout cannot be negative" );
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Returns the number of calls waiting for a free slot.
+	 *
+	 * @return The number of queued calls.
+	 */
+	public int getQueuedCount() {
+		return this.pendingTasks.size();
+	}
+
+	/**
+	 * Returns the number of calls that are running.
+	 *
+	 * @return The number of running calls.
+	 */
+	public int getRunningCount() {
+		return this.runningCount.get();
+	}
+
+	/**
+	 * Stops this adapter: the queued calls complete exceptionally and the executor of this adapter, if it is not
+	 * provided by the caller, is shut down. The adapted security manager is not closed.
+	 */
+	@Override public void close() {
+		this.closed = true;
+		Task<?> task;
+		while ( ( task = this.pendingTasks.poll() ) != null ) {
+			task.future.completeExceptionally( new SecurityManagerException( "The asynchronous security adapter is closed" ) );
+		}
+		this.timer.shutdownNow();
+		if ( this.ownedExecutor != null ) this.ownedExecutor.shutdown();
+	}
+
+
+	private static final class Task<T> implements Runnable {
+
+		final Callable<T> call;
+		final CompletableFuture<T> future = new CompletableFuture<>();
+
+		Task( Callable<T> call ) {
+			this.call = call;
+		}
+
+		@Override public void run() {
+			if ( this.future.isDone() ) return;			// Cancelled or timed out while queued
+			try {
+				this.future.complete( this.call.call() );
+			} catch ( Throwable throwable ) {
+				this.future.completeExceptionally( throwable );
+			}
+		}
+
+	}
+
+	private <T> CompletableFuture<T> submit( Callable<T> call ) {
+		Task<T> task = new Task<>( call );
+		if ( this.closed ) {
+			task.future.completeExceptionally( new SecurityManagerException( "The asynchronous security adapter is closed" ) );
+			return task.future;
+		}
+		long timeout = this.timeout;
+		if ( timeout > 0 ) {
+			try {
+				ScheduledFuture<?> timeoutTask = this.timer.schedule(
+						() -> task.future.completeExceptionally( new TimeoutException( "Security call timed out after " + timeout + " ms" ) ),
+						timeout, TimeUnit.MILLISECONDS );
+				task.future.whenComplete( ( result, throwable ) -> timeoutTask.cancel( false ) );
+			} catch ( RejectedExecutionException exception ) {
+				task.future.completeExceptionally( new SecurityManagerException( "The asynchronous security adapter is closed" ) );
+				return task.future;
+			}
+		}
+		this.pendingTasks.add( task );
+		this.dispatch();
+		return task.future;
+	}
+
+	/**
+	 * Starts queued tasks while a slot is free. Called after each submission and after each completion, so a task
+	 * queued while all the slots are taken is started by the completion that frees a slot.
+	 */
+	private void dispatch() {
+		while ( this.pendingTasks.isEmpty() == false ) {
+			int running = this.runningCount.get();
+			if ( running >= this.maximumConcurrency ) return;
+			if ( this.runningCount.compareAndSet( running, running + 1 ) == false ) continue;
+			Task<?> task = this.pendingTasks.poll();
+			if ( task == null ) {
+				this.runningCount.decrementAndGet();
+				continue;
+			}
+			try {
+				this.executor.execute( () -> {
+					try {
+						task.run();
+					} finally {
+						this.runningCount.decrementAndGet();
+						this.dispatch();
+					}
+				} );
+			} catch ( RejectedExecutionException exception ) {
+				this.runningCount.decrementAndGet();
+				task.future.completeExceptionally( new SecurityManagerException( "Cannot run security call", exception ) );
+			}
+		}
+	}
+
+
+	private class AsyncUserManagerImpl implements AsyncUserManager {
+
+		@Override public CompletableFuture<User> checkCredentials( String userLogin, String userPassword ) {
+			return submit( () -> securityManager.getUserManager().checkCredentials( userLogin, userPassword ) );
+		}
+
+		@Override public CompletableFuture<User> getUserById( int userId ) {
+			return submit( () -> securityManager.getUserManager().getUserById( userId ) );
+		}
+
+		@Override public CompletableFuture<User> getUserByLogin( String login ) {
+			return submit( () -> securityManager.getUserManager().getUserByLogin( login ) );
+		}
+
+		@Override public CompletableFuture<List<User>> getUsersByRole( Role role ) {
+			return submit( () -> securityManager.getUserManager().getUsersByRole( role ) );
+		}
+
+		@Override public CompletableFuture<User> insertUser( String login, String password ) {
+			return submit( () -> securityManager.getUserManager().insertUser( login, password ) );
+		}
+
+		@Override public CompletableFuture<Void> updateUser( User user ) {
+			return submit( () -> {
+				securityManager.getUserManager().updateUser( user );
+				return null;
+			} );
+		}
+
+		@Override public CompletableFuture<Void> deleteUser( User user ) {
+			return submit( () -> {
+				securityManager.getUserManager().deleteUser( user );
+				return null;
+			} );
+		}
+
+		@Override public CompletableFuture<String> encryptPassword( String clearPassword ) {
+			return submit( () -> securityManager.getUserManager().encryptPassword( clearPassword ) );
+		}
+
+	}
+
+	private class AsyncRoleManagerImpl implements AsyncRoleManager {
+
+		@Override public CompletableFuture<Role> selectRoleById( int roleIdentifier ) {
+			return submit( () -> securityManager.getRoleManager().selectRoleById( roleIdentifier ) );
+		}
+
+		@Override public CompletableFuture<Role> selectRoleByName( String roleName ) {
+			return submit( () -> securityManager.getRoleManager().selectRoleByName( roleName ) );
+		}
+
+		@Override public CompletableFuture<Role> insertRole( String roleName ) {
+			return submit( () -> securityManager.getRoleManager().insertRole( roleName ) );
+		}
+
+		@Override public CompletableFuture<Void> updateRole( Role role ) {
+			return submit( () -> {
+				securityManager.getRoleManager().updateRole( role );
+				return null;
+			} );
+		}
+
+		@Override public CompletableFuture<Void> deleteRole( Role role ) {
+			return submit( () -> {
+				securityManager.getRoleManager().deleteRole( role );
+				return null;
+			} );
+		}
+
+	}
+
+}
@@ -0,0 +1,302 @@
+package fr.koor.security.providers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import fr.koor.utility.FileSystem;
+
+/**
+ * <p>
+ *     This class reads and writes the binary snapshot of an XML security database: a sidecar file that contains the
+ *     same records as the XML file, in a compact form that is loaded much faster than the XML file is parsed. The XML
+ *     file remains the source of truth: the snapshot records the modification time, the length and the CRC32 checksum
+ *     of the XML file it was produced from, and it is ignored as soon as the XML file differs. Checking the checksum
+ *     reads the XML file, but doesn't parse it: an edit that keeps the modification time and the length is detected.
+ * </p>
+ * <p>
+ *     The file starts with a fixed size header (magic number, format version, XML file state, counts, body length and
+ *     CRC32 checksum of the body). The body contains, in this order:
+ * </p>
+ * <ul>
+ *     <li>the string table: each distinct string is stored once, as a length prefixed UTF-8 sequence;</li>
+ *     <li>the index section: the offsets of the user records, then the offsets of the role records, then the offset
+ *     of the permission section;</li>
+ *     <li>the user records, then the role records, each prefixed by its length. Strings are referenced by their
+ *     index in the string table.</li>
+ *     <li>the permission section, prefixed by its length: the permissions (identifier and name), then the grants and
+ *     the parent links (pairs of identifiers).</li>
+ * </ul>
+ * <p>
+ *     The file is read through a memory mapping.
+ * </p>
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+final class BinarySnapshot {
+
+	private static final int MAGIC = 0x4B534442;	// KSDB
+	private static final int VERSION = 3;
+	private static final int HEADER_SIZE = 48;
+
+	private BinarySnapshot() { }
+
+	/**
+	 * Writes the snapshot of the specified store. The file is written in a temporary file then atomically renamed.
+	 *
+	 * @param filename			The snapshot file name.
+	 * @param store				The records to write.
+	 * @param xmlModifiedTime	The modification time of the XML file that contains the same records.
+	 * @param xmlLength			The length of the XML file that contains the same records.
+	 * @param xmlChecksum		The CRC32 checksum of the XML file that contains the same records.
+	 *
+	 * @throws IOException	Thrown if the snapshot cannot be written.
+	 */
+	static void write( String filename, RecordStore store, long xmlModifiedTime, long xmlLength, int xmlChecksum ) throws IOException {
+		List<UserRecord> users = store.getUsers();
+		List<RoleRecord> roles = new ArrayList<>( store.getRoles() );
+		PermissionModel permissions = store.getPermissions();
+
+		// String table
+		Map<String, Integer> stringIndexes = new HashMap<>();
+		ByteArrayOutputStream stringBuffer = new ByteArrayOutputStream( users.size() * 64 + 256 );
+		DataOutputStream strings = new DataOutputStream( stringBuffer );
+		for ( UserRecord user : users ) {
+			addString( stringIndexes, strings, user.getLogin() );
+			addString( stringIndexes, strings, user.getPassword() );
+			addString( stringIndexes, strings, user.getFirstName() );
+			addString( stringIndexes, strings, user.getLastName() );
+			addString( stringIndexes, strings, user.getEmail() );
+		}
+		for ( RoleRecord role : roles ) addString( stringIndexes, strings, role.getRoleName() );
+		for ( String permissionName : permissions.getPermissions().values() ) {
+			addString( stringIndexes, strings, permissionName );
+		}
+
+		// Records
+		int recordsStart = stringBuffer.size() + 4 * ( users.size() + roles.size() + 1 );
+		int [] offsets = new int[ users.size() + roles.size() + 1 ];
+		ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream( users.size() * 48 + 256 );
+		DataOutputStream records = new DataOutputStream( recordBuffer );
+		int index = 0;
+		for ( UserRecord user : users ) {
+			offsets[ index++ ] = recordsStart + recordBuffer.size();
+			int [] roleIdentifiers = user.getRoleIdentifiers();
+			records.writeInt( 43 + 4 * roleIdentifiers.length );
+			records.writeInt( user.getIdentifier() );
+			records.writeInt( stringIndexes.get( user.getLogin() ) );
+			records.writeInt( stringIndexes.get( user.getPassword() ) );
+			records.writeInt( user.getConnectionNumber() );
+			records.writeLong( user.getLastConnection() );
+			records.writeInt( user.getConsecutiveErrors() );
+			records.writeBoolean( user.isDisabled() );
+			records.writeInt( stringIndexes.get( user.getFirstName() ) );
+			records.writeInt( stringIndexes.get( user.getLastName() ) );
+			records.writeInt( stringIndexes.get( user.getEmail() ) );
+			records.writeShort( roleIdentifiers.length );
+			for ( int roleIdentifier : roleIdentifiers ) records.writeInt( roleIdentifier );
+		}
+		for ( RoleRecord role : roles ) {
+			offsets[ index++ ] = recordsStart + recordBuffer.size();
+			records.writeInt( 8 );
+			records.writeInt( role.getIdentifier() );
+			records.writeInt( stringIndexes.get( role.getRoleName() ) );
+		}
+		offsets[ index ] = recordsStart + recordBuffer.size();
+		writePermissions( records, permissions, stringIndexes );
+
+		int bodyLength = recordsStart + recordBuffer.size();
+		ByteBuffer indexSection = ByteBuffer.allocate( 4 * offsets.length );
+		for ( int offset : offsets ) indexSection.putInt( offset );
+		indexSection.flip();
+
+		CRC32 checksum = new CRC32();
+		checksum.update( stringBuffer.toByteArray(), 0, stringBuffer.size() );
+		checksum.update( indexSection.array(), 0, indexSection.limit() );
+		checksum.update( recordBuffer.toByteArray(), 0, recordBuffer.size() );
+
+		ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+		header.putInt( MAGIC ).putInt( VERSION ).putLong( xmlModifiedTime ).putLong( xmlLength ).putInt( xmlChecksum );
+		header.putInt( stringIndexes.size() ).putInt( users.size() ).putInt( roles.size() );
+		header.putInt( bodyLength ).putInt( (int) checksum.getValue() );
+		header.flip();
+
+		File file = new File( filename ).getAbsoluteFile();
+		File temporaryFile = File.createTempFile( file.getName() + ".", ".tmp", file.getParentFile() );
+		try {
+			try ( FileOutputStream outputStream = new FileOutputStream( temporaryFile ) ) {
+				FileChannel channel = outputStream.getChannel();
+				channel.write( header );
+				stringBuffer.writeTo( outputStream );
+				channel.write( indexSection );
+				recordBuffer.writeTo( outputStream );
+				channel.force( true );
+			}
+			FileSystem.replaceAtomically( temporaryFile.getPath(), file.getPath() );
+			temporaryFile = null;
+		} finally {
+			if ( temporaryFile != null ) temporaryFile.delete();
+		}
+	}
+
+	private static void writePermissions( DataOutputStream records, PermissionModel permissions,
+										  Map<String, Integer> stringIndexes ) throws IOException {
+		ByteArrayOutputStream sectionBuffer = new ByteArrayOutputStream();
+		DataOutputStream section = new DataOutputStream( sectionBuffer );
+		section.writeInt( permissions.getPermissions().size() );
+		for ( Map.Entry<Integer, String> permission : permissions.getPermissions().entrySet() ) {
+			section.writeInt( permission.getKey() );
+			section.writeInt( stringIndexes.get( permission.getValue() ) );
+		}
+		List<int []> grants = new ArrayList<>();
+		List<int []> parents = new ArrayList<>();
+		for ( int roleIdentifier : permissions.getConfiguredRoles() ) {
+			for ( int permissionIdentifier : permissions.getGrants( roleIdentifier ) ) {
+				grants.add( new int[] { roleIdentifier, permissionIdentifier } );
+			}
+			for ( int parentIdentifier : permissions.getParents( roleIdentifier ) ) {
+				parents.add( new int[] { roleIdentifier, parentIdentifier } );
+			}
+		}
+		for ( List<int []> links : Arrays.asList( grants, parents ) ) {
+			section.writeInt( links.size() );
+			for ( int [] link : links ) {
+				section.writeInt( link[0] );
+				section.writeInt( link[1] );
+			}
+		}
+		records.writeInt( sectionBuffer.size() );
+		sectionBuffer.writeTo( records );
+	}
+
+	private static void addString( Map<String, Integer> stringIndexes, DataOutputStream strings, String value ) throws IOException {
+		if ( stringIndexes.containsKey( value ) ) return;
+		stringIndexes.put( value, stringIndexes.size() );
+		byte [] bytes = value.getBytes( StandardCharsets.UTF_8 );
+		strings.writeInt( bytes.length );
+		strings.write( bytes );
+	}
+
+	/**
+	 * Reads the snapshot file, if it matches the specified state of the XML file.
+	 *
+	 * @param filename			The snapshot file name.
+	 * @param xmlModifiedTime	The current modification time of the XML file.
+	 * @param xmlLength			The current length of the XML file.
+	 * @param xmlChecksum		The current CRC32 checksum of the XML file (see <code>checksum</code>).
+	 * @return The read records, or null if the snapshot doesn't exist, is corrupted or doesn't match the XML file.
+	 *
+	 * @throws IOException	Thrown if the snapshot file cannot be read.
+	 */
+	static RecordStore read( String filename, long xmlModifiedTime, long xmlLength, int xmlChecksum ) throws IOException {
+		File file = new File( filename );
+		if ( file.exists() == false || file.length() < HEADER_SIZE ) return null;
+
+		try ( RandomAccessFile randomAccessFile = new RandomAccessFile( file, "r" ) ) {
+			FileChannel channel = randomAccessFile.getChannel();
+			MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+			if ( buffer.getInt() != MAGIC || buffer.getInt() != VERSION ) return null;
+			if ( buffer.getLong() != xmlModifiedTime || buffer.getLong() != xmlLength ) return null;
+			if ( buffer.getInt() != xmlChecksum ) return null;
+			int stringCount = buffer.getInt();
+			int userCount = buffer.getInt();
+			int roleCount = buffer.getInt();
+			int bodyLength = buffer.getInt();
+			int expectedChecksum = buffer.getInt();
+			if ( bodyLength != channel.size() - HEADER_SIZE ) return null;
+
+			ByteBuffer body = buffer.slice();
+			CRC32 checksum = new CRC32();
+			checksum.update( body.duplicate() );
+			if ( (int) checksum.getValue() != expectedChecksum ) return null;
+
+			try {
+				return readBody( body, stringCount, userCount, roleCount );
+			} catch ( RuntimeException exception ) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Computes the CRC32 checksum of a file.
+	 *
+	 * @param filename	The file name.
+	 * @return The checksum.
+	 *
+	 * @throws IOException	Thrown if the file cannot be read.
+	 */
+	static int checksum( String filename ) throws IOException {
+		CRC32 checksum = new CRC32();
+		try ( FileInputStream inputStream = new FileInputStream( filename ) ) {
+			byte [] buffer = new byte[ 64 * 1024 ];
+			int length;
+			while ( ( length = inputStream.read( buffer ) ) > 0 ) checksum.update( buffer, 0, length );
+		}
+		return (int) checksum.getValue();
+	}
+
+	private static RecordStore readBody( ByteBuffer body, int stringCount, int userCount, int roleCount ) {
+		String [] strings = new String[ stringCount ];
+		byte [] bytes = new byte[ 256 ];
+		for ( int i = 0; i < stringCount; i++ ) {
+			int length = body.getInt();
+			if ( length > bytes.length ) bytes = new byte[ Math.max( length, bytes.length * 2 ) ];
+			body.get( bytes, 0, length );
+			strings[i] = new String( bytes, 0, length, StandardCharsets.UTF_8 );
+		}
+
+		int indexStart = body.position();
+		RecordStore.Builder builder = new RecordStore.Builder();
+		for ( int i = 0; i < userCount; i++ ) {
+			body.position( body.getInt( indexStart + 4 * i ) + 4 );
+			int identifier = body.getInt();
+			String login = strings[ body.getInt() ];
+			String password = strings[ body.getInt() ];
+			int connectionNumber = body.getInt();
+			long lastConnection = body.getLong();
+			int consecutiveErrors = body.getInt();
+			boolean isDisabled = body.get() != 0;
+			String firstName = strings[ body.getInt() ];
+			String lastName = strings[ body.getInt() ];
+			String email = strings[ body.getInt() ];
+			int [] roleIdentifiers = new int[ body.getShort() ];
+			for ( int r = 0; r < roleIdentifiers.length; r++ ) roleIdentifiers[r] = body.getInt();
+			builder.putUser( new UserRecord( identifier, login, password, connectionNumber, lastConnection,
+					consecutiveErrors, isDisabled, firstName, lastName, email, roleIdentifiers ) );
+		}
+		for ( int i = 0; i < roleCount; i++ ) {
+			body.position( body.getInt( indexStart + 4 * ( userCount + i ) ) + 4 );
+			int identifier = body.getInt();
+			builder.putRole( new RoleRecord( identifier, strings[ body.getInt() ] ) );
+		}
+
+		PermissionModel.Builder permissions = builder.getPermissions();
+		body.position( body.getInt( indexStart + 4 * ( userCount + roleCount ) ) + 4 );
+		int permissionCount = body.getInt();
+		for ( int i = 0; i < permissionCount; i++ ) {
+			int identifier = body.getInt();
+			permissions.putPermission( identifier, strings[ body.getInt() ] );
+		}
+		int grantCount = body.getInt();
+		for ( int i = 0; i < grantCount; i++ ) permissions.grant( body.getInt(), body.getInt() );
+		int parentCount = body.getInt();
+		for ( int i = 0; i < parentCount; i++ ) permissions.addParent( body.getInt(), body.getInt() );
+		return builder.build();
+	}
+}
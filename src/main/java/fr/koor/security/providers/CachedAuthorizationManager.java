@@ -0,0 +1,134 @@
+package fr.koor.security.providers;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import fr.koor.security.AuthorizationManager;
+import fr.koor.security.Role;
+import fr.koor.security.SecurityManagerException;
+import fr.koor.security.UnauthorizedException;
+import fr.koor.security.User;
+import fr.koor.utility.IntHashMap;
+
+/**
+ * <p>
+ *     This class implements the authorization decisions of the providers of this package, on top of their permission
+ *     manager. Decisions are memoized in a two level cache: user identifier (an <code>IntHashMap</code>) then
+ *     permission or role name (a <code>ConcurrentHashMap</code>). Lookups never take a lock.
+ * </p>
+ * <p>
+ *     A memoized decision records the permission model it was taken with and the sorted role identifiers of the
+ *     user: it is ignored if the model has been replaced or if the roles of the user differ (a user modified but not
+ *     updated yet, for instance). The providers also drop the decisions of a user when he is updated or deleted, and
+ *     all the decisions when a role is renamed or deleted.
+ * </p>
+ * <p>
+ *     A name that designates neither a permission nor a role is refused without being memoized, so the decisions of a
+ *     user are bounded by the number of permissions and roles. A failure of the role lookup is thrown and not memoized.
+ * </p>
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+final class CachedAuthorizationManager implements AuthorizationManager {
+
+	private static final class Decision {
+		final PermissionModel model;
+		final int [] roleIdentifiers;
+		final boolean granted;
+
+		Decision( PermissionModel model, int [] roleIdentifiers, boolean granted ) {
+			this.model = model;
+			this.roleIdentifiers = roleIdentifiers;
+			this.granted = granted;
+		}
+	}
+
+	/**
+	 * This interface finds the identifier of a role by its name.
+	 */
+	@FunctionalInterface
+	interface RoleLookup {
+		/**
+		 * @return The role identifier, or null if no role has this name.
+		 */
+		Integer findRoleIdentifier( String roleName ) throws SecurityManagerException;
+	}
+
+	private final RoleLookup roleLookup;
+	private final AbstractPermissionManager permissionManager;
+	private final IntHashMap<ConcurrentHashMap<String, Decision>> decisions = new IntHashMap<>();
+
+	CachedAuthorizationManager( RoleLookup roleLookup, AbstractPermissionManager permissionManager ) {
+		this.roleLookup = roleLookup;
+		this.permissionManager = permissionManager;
+	}
+
+	@Override public void checkAccess( User user, String permissionOrRole ) throws UnauthorizedException, SecurityManagerException {
+		if ( this.isAuthorized( user, permissionOrRole ) == false ) {
+			throw new UnauthorizedException( "User " + user.getLogin() + " is not authorized for " + permissionOrRole );
+		}
+	}
+
+	@Override public boolean isAuthorized( User user, String permissionOrRole ) throws SecurityManagerException {
+		if ( user == null ) throw new NullPointerException( "user cannot be null" );
+		if ( permissionOrRole == null ) throw new NullPointerException( "permissionOrRole cannot be null" );
+		PermissionModel model = this.permissionManager.getModel();
+		int [] roleIdentifiers = AbstractPermissionManager.roleIdentifiers( user );
+
+		ConcurrentHashMap<String, Decision> userDecisions = this.decisions.get( user.getIdentifier() );
+		if ( userDecisions != null ) {
+			Decision decision = userDecisions.get( permissionOrRole );
+			if ( decision != null && decision.model == model && Arrays.equals( decision.roleIdentifiers, roleIdentifiers ) ) {
+				return decision.granted;
+			}
+		} else {
+			synchronized ( this.decisions ) {
+				userDecisions = this.decisions.get( user.getIdentifier() );
+				if ( userDecisions == null ) {
+					userDecisions = new ConcurrentHashMap<>();
+					this.decisions.put( user.getIdentifier(), userDecisions );
+				}
+			}
+		}
+
+		Boolean granted = this.decide( model, user, permissionOrRole );
+		if ( granted == null ) return false;
+		userDecisions.put( permissionOrRole, new Decision( model, roleIdentifiers, granted ) );
+		return granted;
+	}
+
+	/**
+	 * Takes a decision without the cache: the name designates a permission if such a permission exists, a role
+	 * otherwise.
+	 *
+	 * @return The decision, or null if the name designates neither a permission nor a role.
+	 */
+	private Boolean decide( PermissionModel model, User user, String permissionOrRole ) throws SecurityManagerException {
+		if ( model.getPermissionIdentifier( permissionOrRole ) != null ) {
+			return this.permissionManager.hasPermission( user, permissionOrRole );
+		}
+		Integer requiredRole = this.roleLookup.findRoleIdentifier( permissionOrRole );
+		if ( requiredRole == null ) return null;
+		for ( Role role : user.getRoles() ) {
+			if ( model.inheritsFrom( role.getIdentifier(), requiredRole ) ) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Drops the memoized decisions of the specified user.
+	 *
+	 * @param userIdentifier	The user identifier.
+	 */
+	void invalidateUser( int userIdentifier ) {
+		this.decisions.remove( userIdentifier );
+	}
+
+	/**
+	 * Drops all the memoized decisions.
+	 */
+	void invalidateAll() {
+		this.decisions.clear();
+	}
+}
@@ -0,0 +1,355 @@
+package fr.koor.security.providers;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import fr.koor.security.AccountDisabledException;
+import fr.koor.security.AuthorizationManager;
+import fr.koor.security.BadCredentialsException;
+import fr.koor.security.PasswordScreener;
+import fr.koor.security.PermissionManager;
+import fr.koor.security.Role;
+import fr.koor.security.RoleAlreadyRegisteredException;
+import fr.koor.security.RoleManager;
+import fr.koor.security.SecurityManagerException;
+import fr.koor.security.SessionManager;
+import fr.koor.security.User;
+import fr.koor.security.UserAlreadyRegisteredException;
+import fr.koor.security.UserManager;
+import fr.koor.security.impl.RoleImpl;
+import fr.koor.security.impl.RoleRegistry;
+import fr.koor.security.impl.UserImpl;
+import fr.koor.utility.BoundedCache;
+
+/** 
+ * <p>
+ *     This security manager (see interface fr.koor.security.SecurityManager) is a decorator: it wraps another
+ *     security manager and caches the users and the roles it returns, so that <code>getUserById</code>,
+ *     <code>getUserByLogin</code>, <code>selectRoleById</code> and <code>selectRoleByName</code> usually don't reach
+ *     the wrapped provider.
+ * </p>
+ * 
+ * <p>
+ *     The caches are bounded <code>BoundedCache</code> instances (TinyLFU admission, LRU eviction). Their entries
+ *     expire after a time to live and are reloaded in the background when they are read during the last quarter of
+ *     their life. Concurrent misses on the same user or role share one load of the wrapped provider (see
+ *     <code>BoundedCache.getCoalescedCount</code>). Callers receive copies of the cached users and roles: modifying a
+ *     returned instance doesn't alter the cache.
+ * </p>
+ * 
+ * <p>
+ *     The modifications made through this security manager invalidate the affected entries. A role modification
+ *     invalidates all the cached users, because users embed their roles. <code>checkCredentials</code> is always
+ *     delegated, since it updates the counters of the user. Modifications made by other nodes are seen when the
+ *     entries expire.
+ * </p>
+ * 
+ * @see fr.koor.security.SecurityManager
+ * @see fr.koor.utility.BoundedCache
+ * 
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public class CachingSecurityManager implements fr.koor.security.SecurityManager {
+
+	public static final int DEFAULT_MAXIMUM_SIZE = 10_000;
+	public static final long DEFAULT_TIME_TO_LIVE = 5 * 60 * 1000;
+	
+	private final fr.koor.security.SecurityManager securityManager;
+	private final BoundedCache<Integer, UserImpl> usersById;
+	private final BoundedCache<String, Integer> userIdsByLogin;
+	private final BoundedCache<Integer, Role> rolesById;
+	private final BoundedCache<String, Role> rolesByName;
+	/** Provides the role instances shared by the cached users. */
+	private final RoleRegistry roleRegistry = new RoleRegistry();
+	
+	private UserManager userManager = new CachingUserManager();
+	private RoleManager roleManager = new CachingRoleManager();
+	
+	
+	/**
+	 * This constructor produces a caching security manager with the default cache size and time to live.
+	 * 
+	 * @param securityManager	The wrapped security manager.
+	 */
+	public CachingSecurityManager( fr.koor.security.SecurityManager securityManager ) {
+		this( securityManager, DEFAULT_MAXIMUM_SIZE, DEFAULT_TIME_TO_LIVE );
+	}
+	
+	/**
+	 * This constructor produces a caching security manager.
+	 * 
+	 * @param securityManager	The wrapped security manager.
+	 * @param maximumSize		The maximum number of users (and of roles) kept in the caches.
+	 * @param timeToLive		The time to live of the cached entries, in milliseconds.
+	 */
+	public CachingSecurityManager( fr.koor.security.SecurityManager securityManager, int maximumSize, long timeToLive ) {
+		if ( securityManager == null ) throw new NullPointerException();
+		this.securityManager = securityManager;
+		
+		ThreadPoolExecutor refreshExecutor = new ThreadPoolExecutor( 1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+			Thread thread = new Thread( runnable, "CachingSecurityManager refresh" );
+			thread.setDaemon( true );
+			return thread;
+		} );
+		refreshExecutor.allowCoreThreadTimeOut( true );
+		long refreshAfter = timeToLive - timeToLive / 4;
+		this.usersById = new BoundedCache<>( maximumSize, timeToLive, refreshAfter, refreshExecutor );
+		this.userIdsByLogin = new BoundedCache<>( maximumSize, timeToLive, refreshAfter, refreshExecutor );
+		this.rolesById = new BoundedCache<>( maximumSize, timeToLive, refreshAfter, refreshExecutor );
+		this.rolesByName = new BoundedCache<>( maximumSize, timeToLive, refreshAfter, refreshExecutor );
+	}
+	
+	@Override public void openSession() throws SecurityManagerException {
+		this.securityManager.openSession();
+	}
+
+	@Override public void close() throws SecurityManagerException {
+		try {
+			this.securityManager.close();
+		} finally {
+			this.invalidateAll();
+		}
+	}
+	
+	/**
+	 * Removes all the cached users and roles.
+	 */
+	public void invalidateAll() {
+		this.usersById.invalidateAll();
+		this.userIdsByLogin.invalidateAll();
+		this.rolesById.invalidateAll();
+		this.rolesByName.invalidateAll();
+	}
+	
+	/**
+	 * Returns the wrapped security manager.
+	 * 
+	 * @return The wrapped security manager.
+	 */
+	public fr.koor.security.SecurityManager getSecurityManager() {
+		return this.securityManager;
+	}
+	
+	/**
+	 * Returns the cache of the users, indexed by identifier. It's intended for monitoring (hit, miss and eviction
+	 * counters).
+	 * 
+	 * @return The user cache.
+	 */
+	public BoundedCache<Integer, UserImpl> getUserCache() {
+		return this.usersById;
+	}
+	
+	/**
+	 * Returns the cache of the roles, indexed by identifier. It's intended for monitoring (hit, miss and eviction
+	 * counters).
+	 * 
+	 * @return The role cache.
+	 */
+	public BoundedCache<Integer, Role> getRoleCache() {
+		return this.rolesById;
+	}
+
+	@Override public RoleManager getRoleManager() {
+		return this.roleManager;
+	}
+
+	@Override public UserManager getUserManager() {
+		return this.userManager;
+	}
+	
+	/**
+	 * Returns the permission manager of the wrapped security manager: it already caches the effective permission sets.
+	 * 
+	 * @return The permission manager of the wrapped security manager.
+	 */
+	@Override public PermissionManager getPermissionManager() {
+		return this.securityManager.getPermissionManager();
+	}
+	
+	/**
+	 * Returns the authorization manager of the wrapped security manager: it already memoizes its decisions.
+	 * 
+	 * @return The authorization manager of the wrapped security manager.
+	 */
+	@Override public AuthorizationManager getAuthorizationManager() {
+		return this.securityManager.getAuthorizationManager();
+	}
+	
+	/**
+	 * Returns the session manager of the wrapped security manager: sessions are never read from the security system.
+	 * 
+	 * @return The session manager of the wrapped security manager.
+	 */
+	@Override public SessionManager getSessionManager() {
+		return this.securityManager.getSessionManager();
+	}
+	
+	@Override public PasswordScreener getPasswordScreener() {
+		return this.securityManager.getPasswordScreener();
+	}
+	
+	@Override public void setPasswordScreener( PasswordScreener passwordScreener ) {
+		this.securityManager.setPasswordScreener( passwordScreener );
+	}
+	
+	/**
+	 * Produces a copy of the specified user, attached to this security manager. Roles are immutable shared instances:
+	 * they are not copied.
+	 */
+	private UserImpl copy( User user ) throws SecurityManagerException {
+		UserImpl result = new UserImpl( this, user.getIdentifier(), user.getLogin(), ( (UserImpl) user ).getPassword() );
+		result.setConnectionNumber( user.getConnectionNumber() );
+		Date lastConnection = user.getLastConnection();
+		result.setLastConnection( lastConnection == null ? null : new Date( lastConnection.getTime() ) );
+		result.setConsecutiveErrors( user.getConsecutiveErrors() );
+		result.setDisabled( user.isDisabled() );
+		result.setFirstName( user.getFirstName() );
+		result.setLastName( user.getLastName() );
+		result.setEmail( user.getEmail() );
+		for ( Role role : user.getRoles() ) result.addRole( this.roleRegistry.get( role.getIdentifier(), role.getRoleName() ) );
+		return result;
+	}
+	
+	/**
+	 * Removes the cached user that has the specified login.
+	 */
+	private void invalidateUser( String login ) {
+		Integer identifier = this.userIdsByLogin.getIfPresent( login );
+		this.userIdsByLogin.invalidate( login );
+		if ( identifier != null ) this.usersById.invalidate( identifier );
+	}
+	
+	
+	private class CachingUserManager implements UserManager {
+
+		@Override public User checkCredentials( String userLogin, String userPassword ) throws AccountDisabledException, BadCredentialsException {
+			User user;
+			try {
+				user = securityManager.getUserManager().checkCredentials( userLogin, userPassword );
+			} catch ( AccountDisabledException | BadCredentialsException exception ) {
+				// The counters of the user have changed
+				if ( userLogin != null ) invalidateUser( userLogin );
+				throw exception;
+			}
+			
+			try {
+				UserImpl cachedUser = copy( user );
+				usersById.put( user.getIdentifier(), cachedUser );
+				userIdsByLogin.put( user.getLogin(), user.getIdentifier() );
+				return copy( cachedUser );
+			} catch ( SecurityManagerException exception ) {
+				throw new BadCredentialsException( "Can't check credentials", exception );
+			}
+		}
+
+		@Override public User getUserById( int userId ) throws SecurityManagerException {
+			UserImpl cachedUser = usersById.get( userId, identifier -> {
+				// Unknown users are not cached
+				User user = securityManager.getUserManager().getUserById( identifier );
+				return user == null ? null : copy( user );
+			} );
+			return cachedUser == null ? null : copy( cachedUser );
+		}
+
+		@Override public User getUserByLogin( String login ) throws SecurityManagerException {
+			if ( login == null ) throw new NullPointerException();
+			Integer identifier = userIdsByLogin.get( login, userLogin -> {
+				User loadedUser = securityManager.getUserManager().getUserByLogin( userLogin );
+				if ( loadedUser == null ) return null;
+				UserImpl cachedUser = copy( loadedUser );
+				usersById.put( cachedUser.getIdentifier(), cachedUser );
+				return cachedUser.getIdentifier();
+			} );
+			if ( identifier == null ) return null;
+			User user = this.getUserById( identifier );
+			if ( user == null || user.getLogin().equals( login ) == false ) {
+				// The user has been deleted or renamed since the mapping was cached
+				userIdsByLogin.invalidate( login );
+				User loadedUser = securityManager.getUserManager().getUserByLogin( login );
+				return loadedUser == null ? null : copy( loadedUser );
+			}
+			return user;
+		}
+		
+		@Override public List<User> getUsersByRole( Role role ) throws SecurityManagerException {
+			return securityManager.getUserManager().getUsersByRole( role );
+		}
+
+		@Override public User insertUser( String login, String password ) throws UserAlreadyRegisteredException, SecurityManagerException {
+			return securityManager.getUserManager().insertUser( login, password );
+		}
+
+		@Override public void updateUser( User user ) throws SecurityManagerException {
+			if ( user == null ) throw new NullPointerException();
+			try {
+				securityManager.getUserManager().updateUser( user );
+			} finally {
+				usersById.invalidate( user.getIdentifier() );
+				invalidateUser( user.getLogin() );
+			}
+		}
+
+		@Override public void deleteUser( User user ) throws SecurityManagerException {
+			if ( user == null ) throw new NullPointerException();
+			try {
+				securityManager.getUserManager().deleteUser( user );
+			} finally {
+				usersById.invalidate( user.getIdentifier() );
+				invalidateUser( user.getLogin() );
+			}
+		}
+
+		@Override public String encryptPassword( String clearPassword ) throws SecurityManagerException {
+			return securityManager.getUserManager().encryptPassword( clearPassword );
+		}
+		
+	}
+	
+	private class CachingRoleManager implements RoleManager {
+
+		@Override public Role selectRoleById( int roleIdentifier ) throws SecurityManagerException {
+			Role role = rolesById.get( roleIdentifier, identifier -> securityManager.getRoleManager().selectRoleById( identifier ) );
+			return role == null ? null : new RoleImpl( role.getIdentifier(), role.getRoleName() );
+		}
+
+		@Override public Role selectRoleByName( String roleName ) throws SecurityManagerException {
+			if ( roleName == null ) throw new NullPointerException();
+			Role role = rolesByName.get( roleName, name -> securityManager.getRoleManager().selectRoleByName( name ) );
+			return role == null ? null : new RoleImpl( role.getIdentifier(), role.getRoleName() );
+		}
+
+		@Override public Role insertRole( String roleName ) throws SecurityManagerException, RoleAlreadyRegisteredException {
+			return securityManager.getRoleManager().insertRole( roleName );
+		}
+
+		@Override public void updateRole( Role role ) throws SecurityManagerException {
+			try {
+				securityManager.getRoleManager().updateRole( role );
+				roleRegistry.rename( role.getIdentifier(), role.getRoleName() );
+			} finally {
+				this.invalidateRoles();
+			}
+		}
+
+		@Override public void deleteRole( Role role ) throws SecurityManagerException {
+			try {
+				securityManager.getRoleManager().deleteRole( role );
+				roleRegistry.remove( role.getIdentifier() );
+			} finally {
+				this.invalidateRoles();
+			}
+		}
+		
+		private void invalidateRoles() {
+			rolesById.invalidateAll();
+			rolesByName.invalidateAll();
+			usersById.invalidateAll();
+		}
+	}
+
+}
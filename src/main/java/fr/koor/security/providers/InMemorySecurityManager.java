@@ -0,0 +1,628 @@
+package fr.koor.security.providers;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.koor.security.AccountDisabledException;
+import fr.koor.security.AuthorizationManager;
+import fr.koor.security.BadCredentialsException;
+import fr.koor.security.PasswordScreener;
+import fr.koor.security.PermissionManager;
+import fr.koor.security.Role;
+import fr.koor.security.RoleAlreadyRegisteredException;
+import fr.koor.security.RoleManager;
+import fr.koor.security.SecurityManagerException;
+import fr.koor.security.SessionManager;
+import fr.koor.security.User;
+import fr.koor.security.UserAlreadyRegisteredException;
+import fr.koor.security.UserManager;
+import fr.koor.security.UserNotFoundException;
+import fr.koor.security.impl.RoleImpl;
+import fr.koor.security.impl.RoleRegistry;
+import fr.koor.security.impl.UserImpl;
+import fr.koor.utility.IntHashMap;
+
+/** 
+ * <p>
+ *     This security manager (see interface fr.koor.security.SecurityManager) keeps all the security informations in
+ *     memory: no I/O is done by its methods. It's intended for the nodes that need a very low authentication latency,
+ *     for the tests and as a baseline in benchmarks against the other providers.
+ * </p>
+ * 
+ * <p>
+ *     Users are indexed by login in a <code>ConcurrentHashMap</code> and by identifier in an <code>IntHashMap</code>
+ *     (no boxing of the identifiers). Roles are indexed the same way, and the members of each role are indexed by role.
+ *     Lookups never take a lock. Modifications of distinct users (for instance the counters updated by
+ *     <code>checkCredentials</code>) run in parallel; insertions, deletions, login changes and role modifications are
+ *     serialized.
+ * </p>
+ * 
+ * <p>
+ *     The content is lost when the session is closed, unless a snapshot store is specified: the users and roles are
+ *     then loaded from the store by <code>openSession</code> and saved into it by <code>close</code> (or on demand,
+ *     with <code>saveSnapshot</code>). When no snapshot exists, the session starts with the <code>root</code> user
+ *     (password <code>admin</code>) and the <code>admin</code> role, like the other providers. Permissions and role
+ *     hierarchies are never saved into the snapshot store.
+ * </p>
+ * 
+ * @see fr.koor.security.SecurityManager
+ * @see fr.koor.security.providers.SecuritySnapshotStore
+ * 
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public class InMemorySecurityManager implements fr.koor.security.SecurityManager {
+
+	private static final int LOCK_STRIPES = 64;
+	
+	private final IntHashMap<UserRecord> users = new IntHashMap<>();
+	private final ConcurrentHashMap<String, UserRecord> usersByLogin = new ConcurrentHashMap<>();
+	private final IntHashMap<RoleRecord> roles = new IntHashMap<>();
+	private final ConcurrentHashMap<String, RoleRecord> rolesByName = new ConcurrentHashMap<>();
+	private final IntHashMap<Set<Integer>> members = new IntHashMap<>();
+	private final AtomicInteger lastUserIdentifier = new AtomicInteger();
+	private final AtomicInteger lastRoleIdentifier = new AtomicInteger();
+	
+	/** Serializes the structural modifications (insertions, deletions, login changes and roles). */
+	private final Object structureLock = new Object();
+	/** Serializes the modifications of a user. Always acquired after structureLock. */
+	private final Object [] userLocks = new Object[ LOCK_STRIPES ];
+	
+	/** Provides the role instances shared by the returned users. */
+	private final RoleRegistry roleRegistry = new RoleRegistry();
+	
+	private final SecuritySnapshotStore snapshotStore;
+	private volatile boolean opened = false;
+	
+	/** The permissions, which are kept in memory only: snapshot stores hold users and roles. */
+	private volatile PermissionModel permissionModel = PermissionModel.EMPTY;
+	
+	private UserManager userManager = new InMemoryUserManager();
+	private RoleManager roleManager = new InMemoryRoleManager();
+	private InMemoryPermissionManager permissionManager = new InMemoryPermissionManager();
+	private CachedAuthorizationManager authorizationManager = new CachedAuthorizationManager( this::findRoleIdentifier, this.permissionManager );
+	private ShardedSessionManager sessionManager = new ShardedSessionManager( this );
+	private volatile PasswordScreener passwordScreener;
+	
+	
+	/**
+	 * This constructor produces an instance of security manager whose content is not persisted.
+	 * 
+	 * @exception SecurityManagerException Thrown if the session cannot be opened.
+	 */
+	public InMemorySecurityManager() throws SecurityManagerException {
+		this( null );
+	}
+	
+	/**
+	 * This constructor produces an instance of security manager whose content is loaded from (and saved to) the
+	 * specified snapshot store.
+	 * 
+	 * @param snapshotStore		The snapshot store, or null if the content must not be persisted.
+	 * 
+	 * @exception SecurityManagerException Thrown if the snapshot cannot be loaded.
+	 */
+	public InMemorySecurityManager( SecuritySnapshotStore snapshotStore ) throws SecurityManagerException {
+		for ( int i = 0; i < LOCK_STRIPES; i++ ) this.userLocks[i] = new Object();
+		this.snapshotStore = snapshotStore;
+		this.openSession();
+	}
+	
+	@Override public void openSession() throws SecurityManagerException {
+		synchronized ( this.structureLock ) {
+			if ( this.opened ) return;
+			this.clear();
+			
+			List<User> loadedUsers = new ArrayList<>();
+			List<Role> loadedRoles = new ArrayList<>();
+			if ( this.snapshotStore != null && this.snapshotStore.load( this, loadedUsers, loadedRoles ) ) {
+				for ( Role role : loadedRoles ) this.storeRole( new RoleRecord( role.getIdentifier(), role.getRoleName() ) );
+				for ( User user : loadedUsers ) this.storeUser( toUserRecord( user ) );
+			} else {
+				this.storeRole( new RoleRecord( 1, "admin" ) );
+				this.storeUser( new UserRecord( 1, "root", this.userManager.encryptPassword( "admin" ), 0, 0, 0, false,
+						"root", "administrator", "", new int[] { 1 } ) );
+			}
+			this.opened = true;
+		}
+	}
+
+	@Override public void close() throws SecurityManagerException {
+		synchronized ( this.structureLock ) {
+			if ( this.opened == false ) return;
+			try {
+				this.saveSnapshot();
+			} finally {
+				this.opened = false;
+				this.sessionManager.close();
+				this.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Saves the current content into the snapshot store. If no snapshot store is defined, this method does nothing.
+	 * Modifications made during the save may or may not be included in the snapshot.
+	 * 
+	 * @throws SecurityManagerException Thrown if the snapshot cannot be saved.
+	 */
+	public void saveSnapshot() throws SecurityManagerException {
+		if ( this.snapshotStore == null ) return;
+		this.checkOpened();
+		List<User> savedUsers = new ArrayList<>( this.users.size() );
+		for ( UserRecord record : this.users.values() ) savedUsers.add( this.toUser( record ) );
+		List<Role> savedRoles = new ArrayList<>( this.roles.size() );
+		for ( RoleRecord record : this.roles.values() ) savedRoles.add( new RoleImpl( record.getIdentifier(), record.getRoleName() ) );
+		this.snapshotStore.save( savedUsers, savedRoles );
+	}
+	
+	/**
+	 * Returns the snapshot store used by this security manager.
+	 * 
+	 * @return The snapshot store, or null if the content is not persisted.
+	 */
+	public SecuritySnapshotStore getSnapshotStore() {
+		return this.snapshotStore;
+	}
+
+	@Override public RoleManager getRoleManager() {
+		return this.roleManager;
+	}
+
+	@Override public UserManager getUserManager() {
+		return this.userManager;
+	}
+	
+	@Override public PermissionManager getPermissionManager() {
+		return this.permissionManager;
+	}
+	
+	@Override public AuthorizationManager getAuthorizationManager() {
+		return this.authorizationManager;
+	}
+	
+	@Override public SessionManager getSessionManager() {
+		return this.sessionManager;
+	}
+	
+	@Override public PasswordScreener getPasswordScreener() {
+		return this.passwordScreener;
+	}
+	
+	@Override public void setPasswordScreener( PasswordScreener passwordScreener ) {
+		this.passwordScreener = passwordScreener;
+	}
+	
+	private void checkOpened() throws SecurityManagerException {
+		if ( this.opened == false ) throw new SecurityManagerException( "In-memory security session is closed" );
+	}
+	
+	/**
+	 * Returns the identifier of the role that has the specified name, or null if there is none.
+	 */
+	private Integer findRoleIdentifier( String roleName ) throws SecurityManagerException {
+		this.checkOpened();
+		RoleRecord record = this.rolesByName.get( roleName );
+		return record == null ? null : record.getIdentifier();
+	}
+	
+	private void clear() {
+		this.users.clear();
+		this.usersByLogin.clear();
+		this.roles.clear();
+		this.rolesByName.clear();
+		this.members.clear();
+		this.roleRegistry.clear();
+		this.permissionModel = PermissionModel.EMPTY;
+		this.permissionManager.invalidateAll();
+		this.authorizationManager.invalidateAll();
+		this.sessionManager.revokeAll();
+		this.lastUserIdentifier.set( 0 );
+		this.lastRoleIdentifier.set( 0 );
+	}
+	
+	private Object userLock( int userIdentifier ) {
+		return this.userLocks[ userIdentifier & ( LOCK_STRIPES - 1 ) ];
+	}
+	
+	/**
+	 * Stores the specified user and updates the indexes. The caller must own the lock of this user and, if the login
+	 * changes, the structure lock.
+	 */
+	private void storeUser( UserRecord user ) {
+		UserRecord previousUser = this.users.put( user.getIdentifier(), user );
+		this.usersByLogin.put( user.getLogin(), user );
+		int [] previousRoles = new int[ 0 ];
+		if ( previousUser != null ) {
+			if ( previousUser.getLogin().equals( user.getLogin() ) == false ) this.usersByLogin.remove( previousUser.getLogin() );
+			previousRoles = previousUser.getRoleIdentifiers();
+			for ( int roleIdentifier : previousRoles ) {
+				if ( contains( user.getRoleIdentifiers(), roleIdentifier ) == false ) {
+					Set<Integer> roleMembers = this.members.get( roleIdentifier );
+					if ( roleMembers != null ) roleMembers.remove( user.getIdentifier() );
+				}
+			}
+		}
+		for ( int roleIdentifier : user.getRoleIdentifiers() ) {
+			if ( contains( previousRoles, roleIdentifier ) == false ) {
+				Set<Integer> roleMembers = this.members.get( roleIdentifier );
+				if ( roleMembers == null ) {
+					synchronized ( this.members ) {
+						roleMembers = this.members.get( roleIdentifier );
+						if ( roleMembers == null ) {
+							roleMembers = ConcurrentHashMap.newKeySet();
+							this.members.put( roleIdentifier, roleMembers );
+						}
+					}
+				}
+				roleMembers.add( user.getIdentifier() );
+			}
+		}
+		this.lastUserIdentifier.accumulateAndGet( user.getIdentifier(), Math::max );
+	}
+	
+	/**
+	 * Stores the specified role and updates the indexes. The caller must own the structure lock.
+	 */
+	private void storeRole( RoleRecord role ) {
+		RoleRecord previousRole = this.roles.put( role.getIdentifier(), role );
+		this.rolesByName.put( role.getRoleName(), role );
+		if ( previousRole != null && previousRole.getRoleName().equals( role.getRoleName() ) == false ) {
+			this.rolesByName.remove( previousRole.getRoleName() );
+		}
+		this.lastRoleIdentifier.accumulateAndGet( role.getIdentifier(), Math::max );
+	}
+	
+	private static boolean contains( int [] values, int value ) {
+		for ( int current : values ) {
+			if ( current == value ) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Produces a user instance from its record. Role references to unknown roles are ignored; the roles are the shared
+	 * instances of the role registry.
+	 */
+	private UserImpl toUser( UserRecord record ) throws SecurityManagerException {
+		UserImpl user = new UserImpl( this, record.getIdentifier(), record.getLogin(), record.getPassword() );
+		user.setConnectionNumber( record.getConnectionNumber() );
+		user.setLastConnection( new Date( record.getLastConnection() ) );
+		user.setConsecutiveErrors( record.getConsecutiveErrors() );
+		user.setDisabled( record.isDisabled() );
+		user.setFirstName( record.getFirstName() );
+		user.setLastName( record.getLastName() );
+		user.setEmail( record.getEmail() );
+		for ( int roleIdentifier : record.getRoleIdentifiers() ) {
+			RoleRecord role = this.roles.get( roleIdentifier );
+			if ( role != null ) user.addRole( this.roleRegistry.get( roleIdentifier, role.getRoleName() ) );
+		}
+		return user;
+	}
+	
+	/**
+	 * Produces the record that describes the specified user instance.
+	 */
+	private static UserRecord toUserRecord( User user ) {
+		int [] roleIdentifiers = new int[ user.getRoles().size() ];
+		int index = 0;
+		for ( Role role : user.getRoles() ) roleIdentifiers[ index++ ] = role.getIdentifier();
+		Date lastConnection = user.getLastConnection();
+		return new UserRecord( user.getIdentifier(), user.getLogin(), ( (UserImpl) user ).getPassword(), user.getConnectionNumber(),
+				lastConnection == null ? 0 : lastConnection.getTime(), user.getConsecutiveErrors(), user.isDisabled(),
+				user.getFirstName(), user.getLastName(), user.getEmail(), roleIdentifiers );
+	}
+	
+	
+	private class InMemoryUserManager implements UserManager {
+
+		@Override public User checkCredentials( String userLogin, String userPassword ) throws AccountDisabledException, BadCredentialsException {
+			if ( userLogin == null ) throw new NullPointerException();
+			if ( userPassword == null ) throw new NullPointerException();
+			try {
+				checkOpened();
+				userPassword = this.encryptPassword( userPassword );
+			} catch ( SecurityManagerException exception ) {
+				throw new BadCredentialsException( "Can't check credentials", exception );
+			}
+			
+			UserRecord record = usersByLogin.get( userLogin );
+			if ( record == null ) {
+				throw new BadCredentialsException( "Your identity is rejected" );
+			}
+			
+			try {
+				synchronized ( userLock( record.getIdentifier() ) ) {
+					record = usersByLogin.get( userLogin );
+					if ( record == null ) {
+						throw new BadCredentialsException( "Your identity is rejected" );
+					}
+					
+					if ( record.getPassword().equals( userPassword ) ) {
+						// User informations update
+						boolean isDisabled = record.isDisabled();
+						record = new UserRecord( record.getIdentifier(), record.getLogin(), record.getPassword(),
+								record.getConnectionNumber() + 1, new Date().getTime(), isDisabled ? record.getConsecutiveErrors() : 0,
+								isDisabled, record.getFirstName(), record.getLastName(), record.getEmail(), record.getRoleIdentifiers() );
+						storeUser( record );
+						
+						if ( isDisabled ) {
+							throw new AccountDisabledException( "Account is disabled" );
+						}
+					} else {
+						int consecutiveErrors = record.getConsecutiveErrors() + 1;
+						boolean forceDisabling = ( consecutiveErrors == 3 ); 
+						storeUser( new UserRecord( record.getIdentifier(), record.getLogin(), record.getPassword(),
+								record.getConnectionNumber(), record.getLastConnection(), consecutiveErrors,
+								forceDisabling, record.getFirstName(), record.getLastName(), record.getEmail(), record.getRoleIdentifiers() ) );
+						
+						if ( forceDisabling ) {
+							throw new AccountDisabledException( "Account is disabled" );
+						}
+						throw new BadCredentialsException( "Your identity is rejected" );
+					}
+				}
+				return toUser( record );
+			} catch ( AccountDisabledException | BadCredentialsException exception ) {
+				throw exception;
+			} catch ( Exception exception ) {
+				throw new BadCredentialsException( "Can't check credentials", exception );
+			}
+		}
+
+		@Override public User getUserById( int userId ) throws SecurityManagerException {
+			checkOpened();
+			UserRecord record = users.get( userId );
+			if ( record == null ) {
+				throw new UserNotFoundException( "User identifier " + userId + " not found" );
+			}
+			return toUser( record );
+		}
+
+		@Override public User getUserByLogin( String login ) throws SecurityManagerException {
+			if ( login == null ) throw new NullPointerException();
+			checkOpened();
+			UserRecord record = usersByLogin.get( login );
+			if ( record == null ) {
+				throw new UserNotFoundException( "User login " + login + " not found" );
+			}
+			return toUser( record );
+		}
+		
+		@Override public List<User> getUsersByRole( Role role ) throws SecurityManagerException {
+			if ( role == null ) throw new NullPointerException();
+			checkOpened();
+			Set<Integer> roleMembers = members.get( role.getIdentifier() );
+			if ( roleMembers == null ) return Collections.emptyList();
+			List<User> result = new ArrayList<>( roleMembers.size() );
+			for ( Integer userIdentifier : roleMembers ) {
+				UserRecord record = users.get( userIdentifier );
+				if ( record != null ) result.add( toUser( record ) );
+			}
+			result.sort( ( first, second ) -> Integer.compare( first.getIdentifier(), second.getIdentifier() ) );
+			return result;
+		}
+
+		@Override public User insertUser( String login, String password ) throws UserAlreadyRegisteredException, SecurityManagerException {
+			if ( login == null ) throw new NullPointerException();
+			if ( password == null ) throw new NullPointerException();
+			PasswordScreener screener = passwordScreener;
+			if ( screener != null ) screener.checkPassword( password );
+			password = this.encryptPassword( password );
+			
+			synchronized ( structureLock ) {
+				checkOpened();
+				if ( usersByLogin.containsKey( login ) ) throw new UserAlreadyRegisteredException( "User login already registered" );
+				int identifier = lastUserIdentifier.get() + 1;
+				synchronized ( userLock( identifier ) ) {
+					storeUser( new UserRecord( identifier, login, password, 0, 0, 0, false, "", "", "", null ) );
+				}
+				return new UserImpl( InMemorySecurityManager.this, identifier, login, password );
+			}
+		}
+
+		@Override public void updateUser( User user ) throws SecurityManagerException {
+			if ( user == null ) throw new NullPointerException();
+			synchronized ( structureLock ) {
+				checkOpened();
+				synchronized ( userLock( user.getIdentifier() ) ) {
+					if ( users.get( user.getIdentifier() ) == null ) {
+						throw new SecurityManagerException( "User " + user.getLogin() + " not found in in-memory security database" );
+					}
+					UserRecord sameLogin = usersByLogin.get( user.getLogin() );
+					if ( sameLogin != null && sameLogin.getIdentifier() != user.getIdentifier() ) {
+						throw new UserAlreadyRegisteredException( "User login already registered" );
+					}
+					storeUser( toUserRecord( user ) );
+				}
+			}
+			authorizationManager.invalidateUser( user.getIdentifier() );
+			sessionManager.userUpdated( user.getIdentifier() );
+		}
+
+		@Override public void deleteUser( User user ) throws SecurityManagerException {
+			if ( user == null ) throw new NullPointerException();
+			synchronized ( structureLock ) {
+				checkOpened();
+				synchronized ( userLock( user.getIdentifier() ) ) {
+					UserRecord record = users.remove( user.getIdentifier() );
+					if ( record == null ) {
+						throw new SecurityManagerException( "User " + user.getLogin() + " not found in in-memory security database" );
+					}
+					usersByLogin.remove( record.getLogin() );
+					for ( int roleIdentifier : record.getRoleIdentifiers() ) {
+						Set<Integer> roleMembers = members.get( roleIdentifier );
+						if ( roleMembers != null ) roleMembers.remove( record.getIdentifier() );
+					}
+				}
+			}
+			permissionManager.invalidateUser( user.getIdentifier() );
+			authorizationManager.invalidateUser( user.getIdentifier() );
+			sessionManager.revokeSessions( user.getIdentifier() );
+		}
+
+		@Override public String encryptPassword( String clearPassword ) throws SecurityManagerException {
+			if ( clearPassword == null ) throw new NullPointerException();
+			try {
+				byte[] unicodeValue = clearPassword.getBytes( "utf-16" );
+	            MessageDigest messageDigest = MessageDigest.getInstance( "SHA1" );
+	            messageDigest.update( unicodeValue );
+	            byte[] encodedPasswordBuffer = messageDigest.digest();
+	            return InMemorySecurityManager.encryptedKeyTostring( encodedPasswordBuffer );
+			} catch ( Exception exception ) {
+				throw new SecurityManagerException( "Cannot encode password", exception );
+			}
+		}
+		
+	}
+	
+	private class InMemoryRoleManager implements RoleManager {
+
+		@Override public Role selectRoleById( int roleIdentifier ) throws SecurityManagerException {
+			checkOpened();
+			RoleRecord record = roles.get( roleIdentifier );
+			if ( record == null ) {
+				throw new SecurityManagerException( "Role identifier " + roleIdentifier + " not found" );
+			}
+			return new RoleImpl( roleIdentifier, record.getRoleName() );
+		}
+
+		@Override public Role selectRoleByName( String roleName ) throws SecurityManagerException {
+			if ( roleName == null ) throw new NullPointerException();
+			checkOpened();
+			RoleRecord record = rolesByName.get( roleName );
+			if ( record == null ) {
+				throw new SecurityManagerException( "Role name " + roleName + " not found" );
+			}
+			return new RoleImpl( record.getIdentifier(), roleName );
+		}
+
+		@Override public Role insertRole( String roleName ) throws SecurityManagerException, RoleAlreadyRegisteredException {
+			if ( roleName == null ) throw new NullPointerException();
+			synchronized ( structureLock ) {
+				checkOpened();
+				if ( rolesByName.containsKey( roleName ) ) throw new RoleAlreadyRegisteredException( "Role name already registered" );
+				int identifier = lastRoleIdentifier.get() + 1;
+				storeRole( new RoleRecord( identifier, roleName ) );
+				return new RoleImpl( identifier, roleName );
+			}
+		}
+
+		@Override public void updateRole( Role role ) throws SecurityManagerException {
+			if ( role == null ) throw new NullPointerException();
+			synchronized ( structureLock ) {
+				checkOpened();
+				if ( roles.get( role.getIdentifier() ) == null ) {
+					throw new SecurityManagerException( "Role " + role.getRoleName() + " not found in in-memory security database" );
+				}
+				RoleRecord sameName = rolesByName.get( role.getRoleName() );
+				if ( sameName != null && sameName.getIdentifier() != role.getIdentifier() ) {
+					throw new RoleAlreadyRegisteredException( "Role name already registered" );
+				}
+				storeRole( new RoleRecord( role.getIdentifier(), role.getRoleName() ) );
+				roleRegistry.rename( role.getIdentifier(), role.getRoleName() );
+			}
+			authorizationManager.invalidateAll();
+		}
+
+		@Override public void deleteRole( Role role ) throws SecurityManagerException {
+			if ( role == null ) throw new NullPointerException();
+			synchronized ( structureLock ) {
+				checkOpened();
+				RoleRecord record = roles.remove( role.getIdentifier() );
+				if ( record == null ) {
+					throw new SecurityManagerException( "Role " + role.getRoleName() + " not found in in-memory security database" );
+				}
+				rolesByName.remove( record.getRoleName() );
+				roleRegistry.remove( record.getIdentifier() );
+				
+				// The role is removed from its members
+				Set<Integer> roleMembers = members.remove( role.getIdentifier() );
+				if ( roleMembers == null ) roleMembers = Collections.emptySet();
+				for ( Integer userIdentifier : roleMembers ) {
+					synchronized ( userLock( userIdentifier ) ) {
+						UserRecord user = users.get( userIdentifier );
+						if ( user == null || contains( user.getRoleIdentifiers(), record.getIdentifier() ) == false ) continue;
+						int [] roleIdentifiers = new int[ user.getRoleIdentifiers().length - 1 ];
+						int index = 0;
+						for ( int identifier : user.getRoleIdentifiers() ) {
+							if ( identifier != record.getIdentifier() ) roleIdentifiers[ index++ ] = identifier;
+						}
+						storeUser( new UserRecord( user.getIdentifier(), user.getLogin(), user.getPassword(), user.getConnectionNumber(),
+								user.getLastConnection(), user.getConsecutiveErrors(), user.isDisabled(), user.getFirstName(),
+								user.getLastName(), user.getEmail(), roleIdentifiers ) );
+					}
+				}
+			}
+			permissionManager.roleDeleted( role.getIdentifier() );
+			authorizationManager.invalidateAll();
+			sessionManager.allUsersUpdated();
+		}
+	}
+	
+	private class InMemoryPermissionManager extends AbstractPermissionManager {
+		
+		InMemoryPermissionManager() {
+			super( InMemorySecurityManager.this );
+		}
+		
+		@Override PermissionModel getModel() throws SecurityManagerException {
+			checkOpened();
+			return permissionModel;
+		}
+		
+		@Override void storeModel( PermissionModel model, Change change ) throws SecurityManagerException {
+			checkOpened();
+			permissionModel = model;
+		}
+	}
+
+	/**
+	 * Encode an encrypted key to a readable string.
+	 * @param bytes	The input encrypted key
+	 * @return The readable string.
+	 */
+	private static String encryptedKeyTostring( byte[] bytes ) {
+		final String digitTable = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+	    StringBuilder buffer = new StringBuilder();
+	    int i = 0;
+	    byte pos;
+	    
+	    for ( i = 0; i < bytes.length - bytes.length % 3; i += 3 ) {
+	        pos = (byte) ( bytes[i] >> 2 & 63 );
+	        buffer.append( digitTable.charAt( pos ) );
+	        pos = (byte) ( ( ( bytes[i] & 3 ) << 4 ) + ( bytes[i + 1] >> 4 & 15 ) );
+	        buffer.append( digitTable.charAt( pos ) );
+	        pos = (byte) ( ( ( bytes[i + 1] & 15 ) << 2 ) + ( bytes[i + 2] >> 6 & 3 ) );
+	        buffer.append( digitTable.charAt( pos ) );
+	        pos = (byte) ( bytes[i + 2] & 63 );
+	        buffer.append( digitTable.charAt( pos ) );
+	    }
+	    
+	    if ( bytes.length % 3 != 0 ) {
+	        if ( bytes.length % 3 == 2 ) {
+	            pos = (byte) ( bytes[i] >> 2 & 63 );
+	            buffer.append( digitTable.charAt( pos ) );
+	            pos = (byte) ( ( ( bytes[i] & 3 ) << 4 ) + ( bytes[i + 1] >> 4 & 15 ) );
+	            buffer.append( digitTable.charAt( pos ) );
+	            pos = (byte) ( ( bytes[i + 1] & 15 ) << 2 );
+	            buffer.append( digitTable.charAt( pos ) );
+	            buffer.append( "*" );
+	        } else if ( bytes.length % 3 == 1 ) {
+	            pos = (byte) ( bytes[i] >> 2 & 63 );
+	            buffer.append( digitTable.charAt( pos ) );
+	            pos = (byte) ( ( bytes[i] & 3 ) << 4 );
+	            buffer.append( digitTable.charAt( pos ) );
+	            buffer.append( "**" );
+	        }
+	    }
+	    return buffer.toString();
+	}
+
+}
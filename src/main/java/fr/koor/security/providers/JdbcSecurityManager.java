@@ -11,19 +11,28 @@ import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 import fr.koor.security.AccountDisabledException;
+import fr.koor.security.AuthorizationManager;
 import fr.koor.security.BadCredentialsException;
+import fr.koor.security.PasswordScreener;
+import fr.koor.security.PermissionManager;
 import fr.koor.security.Role;
 import fr.koor.security.RoleAlreadyRegisteredException;
 import fr.koor.security.RoleManager;
 import fr.koor.security.SecurityManagerException;
+import fr.koor.security.SessionManager;
 import fr.koor.security.User;
 import fr.koor.security.UserAlreadyRegisteredException;
 import fr.koor.security.UserManager;
 import fr.koor.security.impl.RoleImpl;
+import fr.koor.security.impl.RoleRegistry;
 import fr.koor.security.impl.UserImpl;
+import fr.koor.utility.BloomFilter;
 import fr.koor.utility.DataSource;
 
 
@@ -38,6 +47,13 @@ import fr.koor.utility.DataSource;
  *     To specify the used RDBMS, you must pass a data source that describe the JDBC connection. A data source is defined by the JdbcSecurityManager.DataSource.
  * </p>
  * 
+ * <p>
+ *     The role manager keeps a copy of the whole T_ROLES table (the role catalog): role resolutions, and thus the
+ *     loading of the roles of each user, don't query the database. The catalog is reloaded after each role
+ *     modification, when an unknown role is requested and, if a refresh interval is set, when it is older than this
+ *     interval (to see the modifications made by other nodes).
+ * </p>
+ * 
  * @see fr.koor.security.SecurityManager
  * 
  * @author Infini Software - Dominique Liard
@@ -45,12 +61,29 @@ import fr.koor.utility.DataSource;
  */
 public class JdbcSecurityManager implements fr.koor.security.SecurityManager {
 
+	/** The minimum age of the role catalog before a lookup of an unknown role reloads it. */
+	private static final long MISS_RELOAD_INTERVAL = 1000;
+
 	private DataSource dataSource;
 	private Connection jdbcConnection;
+	private volatile RoleCatalog roleCatalog;
+	private volatile long roleCatalogRefreshInterval = 0;
+	/** Provides the role instances shared by the loaded users. */
+	private final RoleRegistry roleRegistry = new RoleRegistry();
+	/** The filter of the known logins, or null if it is disabled. */
+	private volatile BloomFilter loginFilter;
+	private volatile long loginFilterLoadTime;
+	private volatile long loginFilterRefreshInterval = 60_000;
+	private int loginFilterExpectedLogins;
+	private double loginFilterFalsePositiveRate;
 
 
 	private UserManager userManager = new JdbcUserManager();
 	private RoleManager roleManager = new JdbcRoleManager();
+	private JdbcPermissionManager permissionManager = new JdbcPermissionManager();
+	private CachedAuthorizationManager authorizationManager = new CachedAuthorizationManager( this::findRoleIdentifier, this.permissionManager );
+	private ShardedSessionManager sessionManager = new ShardedSessionManager( this );
+	private volatile PasswordScreener passwordScreener;
 		
 	/**
 	 * This constructor produces an instance of security manager that has based on a JDBC data source.
@@ -97,6 +130,10 @@ public class JdbcSecurityManager implements fr.koor.security.SecurityManager {
 				this.dataSource.getConnectionURL(), this.dataSource.getLogin(), this.dataSource.getPassword()
 			);
 			this.constructTablesIfNotExists();
+			this.roleCatalog = null;
+			this.loadLoginFilter();
+			this.permissionManager.invalidateModel();
+			this.authorizationManager.invalidateAll();
 		} catch ( Throwable throwable ) {
 			throw new SecurityManagerException( "Cannot open security session", throwable );
 		}
@@ -107,6 +144,11 @@ public class JdbcSecurityManager implements fr.koor.security.SecurityManager {
 		try {
 			this.jdbcConnection.close();
 			this.jdbcConnection = null;
+			this.roleCatalog = null;
+			this.roleRegistry.clear();
+			this.permissionManager.invalidateModel();
+			this.authorizationManager.invalidateAll();
+			this.sessionManager.close();
 		} catch ( Throwable throwable ) {
 			throw new SecurityManagerException( "Cannot close security session", throwable );
 		}
@@ -122,6 +164,350 @@ public class JdbcSecurityManager implements fr.koor.security.SecurityManager {
 		return this.userManager;
 	}
 
+
+	@Override public PermissionManager getPermissionManager() {
+		return this.permissionManager;
+	}
+	
+	@Override public AuthorizationManager getAuthorizationManager() {
+		return this.authorizationManager;
+	}
+	
+	@Override public SessionManager getSessionManager() {
+		return this.sessionManager;
+	}
+	
+	@Override public PasswordScreener getPasswordScreener() {
+		return this.passwordScreener;
+	}
+	
+	@Override public void setPasswordScreener( PasswordScreener passwordScreener ) {
+		this.passwordScreener = passwordScreener;
+	}
+	
+	/**
+	 * Returns the maximum age of the role catalog, in milliseconds.
+	 * 
+	 * @return The refresh interval, or 0 if the catalog is only reloaded on demand.
+	 * @since 0.6.0
+	 */
+	public long getRoleCatalogRefreshInterval() {
+		return this.roleCatalogRefreshInterval;
+	}
+	
+	/**
+	 * Sets the maximum age of the role catalog. When the catalog is older, it is reloaded by the next role resolution:
+	 * the role modifications made by other nodes are seen after this delay. The permission model (permissions, grants
+	 * and role hierarchy) is refreshed with the same interval.
+	 * 
+	 * @param roleCatalogRefreshInterval	The refresh interval in milliseconds, or 0 to reload the catalog only
+	 * 										after the role modifications made by this security manager.
+	 * @since 0.6.0
+	 */
+	public void setRoleCatalogRefreshInterval( long roleCatalogRefreshInterval ) {
+		if ( roleCatalogRefreshInterval < 0 ) throw new IllegalArgumentException( "Refresh interval cannot be negative" );
+		this.roleCatalogRefreshInterval = roleCatalogRefreshInterval;
+	}
+	
+	/**
+	 * Reloads the role catalog from the T_ROLES table.
+	 * 
+	 * @throws SecurityManagerException	Thrown if the table cannot be read.
+	 * @since 0.6.0
+	 */
+	public void refreshRoleCatalog() throws SecurityManagerException {
+		try {
+			this.loadRoleCatalog();
+		} catch ( SQLException exception ) {
+			throw new SecurityManagerException( "Cannot load role catalog", exception );
+		}
+	}
+	
+	/**
+	 * Returns the role catalog, loaded if it's missing or too old.
+	 */
+	private RoleCatalog getRoleCatalog() throws SQLException {
+		RoleCatalog catalog = this.roleCatalog;
+		if ( this.isFresh( catalog ) ) return catalog;
+		synchronized ( this ) {
+			// Concurrent readers of a stale catalog share one load
+			catalog = this.roleCatalog;
+			return this.isFresh( catalog ) ? catalog : this.loadRoleCatalog();
+		}
+	}
+	
+	/**
+	 * Checks if the specified catalog is loaded and not older than <code>roleCatalogRefreshInterval</code>.
+	 */
+	private boolean isFresh( RoleCatalog catalog ) {
+		if ( catalog == null ) return false;
+		long refreshInterval = this.roleCatalogRefreshInterval;
+		return refreshInterval == 0 || System.currentTimeMillis() - catalog.loadTime < refreshInterval;
+	}
+	
+	/**
+	 * Loads the role catalog, even if the current one is fresh.
+	 */
+	private synchronized RoleCatalog loadRoleCatalog() throws SQLException {
+		List<Role> roles = new ArrayList<>();
+		int maxIdentifier = 0;
+		try ( Statement statement = this.getConnection().createStatement() ) {
+			try ( ResultSet rsRoles = statement.executeQuery( "SELECT IdRole, RoleName FROM T_ROLES" ) ) {
+				while ( rsRoles.next() ) {
+					Role role = new RoleImpl( rsRoles.getInt( 1 ), rsRoles.getString( 2 ) );
+					maxIdentifier = Math.max( maxIdentifier, role.getIdentifier() );
+					roles.add( role );
+				}
+			}
+		}
+		RoleCatalog catalog = new RoleCatalog( roles, maxIdentifier );
+		this.roleCatalog = catalog;
+		return catalog;
+	}
+	
+	/**
+	 * Reloads the role catalog after a lookup of an unknown role: the role may have been inserted by another node. The
+	 * catalog is reloaded at most once per <code>MISS_RELOAD_INTERVAL</code>, so that lookups of unknown roles don't
+	 * query the database each time.
+	 * 
+	 * @param catalog	The catalog that doesn't know the role.
+	 * @return The catalog to search again.
+	 */
+	private synchronized RoleCatalog reloadRoleCatalogOnMiss( RoleCatalog catalog ) throws SQLException {
+		RoleCatalog current = this.roleCatalog;
+		if ( current != null && current != catalog ) return current;		// Reloaded meanwhile
+		if ( current != null && System.currentTimeMillis() - current.loadTime < MISS_RELOAD_INTERVAL ) return current;
+		return this.loadRoleCatalog();
+	}
+	
+	/**
+	 * Returns the name of the specified role. If the role is unknown, the catalog may be reloaded (see
+	 * <code>reloadRoleCatalogOnMiss</code>).
+	 */
+	private String findRoleName( int roleIdentifier ) throws SQLException {
+		RoleCatalog catalog = this.getRoleCatalog();
+		String roleName = catalog.getRoleName( roleIdentifier );
+		if ( roleName == null ) roleName = this.reloadRoleCatalogOnMiss( catalog ).getRoleName( roleIdentifier );
+		return roleName;
+	}
+	
+	/**
+	 * Returns the shared instance of the specified role, used to fill the roles of the loaded users.
+	 */
+	private Role resolveRole( int roleIdentifier ) throws SecurityManagerException {
+		try {
+			String roleName = this.findRoleName( roleIdentifier );
+			if ( roleName != null ) return this.roleRegistry.get( roleIdentifier, roleName );
+		} catch ( SQLException exception ) {
+			throw new SecurityManagerException( "Cannot select role for identifier " + roleIdentifier, exception );
+		}
+		throw new SecurityManagerException( "Role identifier " + roleIdentifier + " not found" );
+	}
+	
+	/**
+	 * Forgets the role catalog. Waits for a running load, which may have read the previous content of T_ROLES.
+	 */
+	private synchronized void invalidateRoleCatalog() {
+		this.roleCatalog = null;
+	}
+	
+	/**
+	 * Returns the identifier of the role that has the specified name, or null if there is none.
+	 */
+	private Integer findRoleIdentifier( String roleName ) throws SecurityManagerException {
+		try {
+			RoleCatalog catalog = this.getRoleCatalog();
+			String roleKey = toCollationKey( roleName );
+			Integer roleIdentifier = catalog.identifiers.get( roleKey );
+			if ( roleIdentifier == null ) {
+				// The role may have been inserted by another node
+				roleIdentifier = this.reloadRoleCatalogOnMiss( catalog ).identifiers.get( roleKey );
+			}
+			return roleIdentifier;
+		} catch ( SQLException exception ) {
+			throw new SecurityManagerException( "Cannot select role " + roleName, exception );
+		}
+	}
+	
+	/**
+	 * Enables the filter of the known logins: <code>checkCredentials</code> rejects a login that is certainly unknown
+	 * without querying the database. The filter is a Bloom filter loaded from the T_USERS table, then updated by
+	 * <code>insertUser</code> and <code>updateUser</code>. Deleted logins stay in the filter (the database is then
+	 * queried, as without filter) until it is reloaded. The filter is reloaded with its own refresh interval (see
+	 * <code>setLoginFilterRefreshInterval</code>), and when it holds more logins than expected: the users inserted by
+	 * other nodes are only accepted by this node after the reload.
+	 * <p>
+	 * Logins are compared as the default collation of the database does: case and trailing spaces are ignored.
+	 * </p>
+	 * <p>
+	 * A rejected login doesn't query the database, so the response time tells that a login is unknown.
+	 * </p>
+	 * 
+	 * @param expectedLogins		The expected number of logins.
+	 * @param falsePositiveRate		The proportion of unknown logins that still query the database (0.01, for instance).
+	 * 
+	 * @throws SecurityManagerException	Thrown if the T_USERS table cannot be read.
+	 * @since 0.6.0
+	 */
+	public void enableLoginFilter( int expectedLogins, double falsePositiveRate ) throws SecurityManagerException {
+		new BloomFilter( expectedLogins, falsePositiveRate );		// Checks the arguments
+		synchronized ( this.userManager ) {
+			this.loginFilterExpectedLogins = expectedLogins;
+			this.loginFilterFalsePositiveRate = falsePositiveRate;
+			this.refreshLoginFilter();
+		}
+	}
+	
+	/**
+	 * Disables the filter of the known logins: <code>checkCredentials</code> always queries the database.
+	 * 
+	 * @since 0.6.0
+	 */
+	public void disableLoginFilter() {
+		synchronized ( this.userManager ) {
+			this.loginFilterFalsePositiveRate = 0;
+			this.loginFilter = null;
+		}
+	}
+	
+	/**
+	 * Returns the maximum age of the login filter, in milliseconds.
+	 * 
+	 * @return The refresh interval, or 0 if the filter is only reloaded on demand.
+	 * @since 0.6.0
+	 */
+	public long getLoginFilterRefreshInterval() {
+		return this.loginFilterRefreshInterval;
+	}
+	
+	/**
+	 * Sets the maximum age of the login filter (one minute by default). When the filter is older, it is reloaded by
+	 * the next credential check: the users inserted by other nodes are accepted after this delay.
+	 * 
+	 * @param loginFilterRefreshInterval	The refresh interval in milliseconds, or 0 to reload the filter only by
+	 * 										<code>refreshLoginFilter</code>.
+	 * @since 0.6.0
+	 */
+	public void setLoginFilterRefreshInterval( long loginFilterRefreshInterval ) {
+		if ( loginFilterRefreshInterval < 0 ) throw new IllegalArgumentException( "Refresh interval cannot be negative" );
+		this.loginFilterRefreshInterval = loginFilterRefreshInterval;
+	}
+	
+	/**
+	 * Returns the filter of the known logins. It's intended for monitoring (size, number of hash functions, estimated
+	 * false positive rate).
+	 * 
+	 * @return The login filter, or null if it is disabled.
+	 * @since 0.6.0
+	 */
+	public BloomFilter getLoginFilter() {
+		return this.loginFilter;
+	}
+	
+	/**
+	 * Reloads the filter of the known logins from the T_USERS table. If the filter is disabled, this method does nothing.
+	 * 
+	 * @throws SecurityManagerException	Thrown if the table cannot be read.
+	 * @since 0.6.0
+	 */
+	public void refreshLoginFilter() throws SecurityManagerException {
+		try {
+			this.loadLoginFilter();
+		} catch ( SQLException exception ) {
+			throw new SecurityManagerException( "Cannot load login filter", exception );
+		}
+	}
+	
+	/**
+	 * Returns the login filter, reloaded if it is too old, or null if it is disabled.
+	 */
+	private BloomFilter getCurrentLoginFilter() throws SQLException {
+		BloomFilter filter = this.loginFilter;
+		long refreshInterval = this.loginFilterRefreshInterval;
+		if ( filter != null && refreshInterval > 0 && System.currentTimeMillis() - this.loginFilterLoadTime >= refreshInterval ) {
+			filter = this.loadLoginFilter();
+		}
+		return filter;
+	}
+	
+	/**
+	 * Returns the key of a login or a role name in the login filter and the role catalog: the name without case and
+	 * trailing spaces, as it is compared by the default collation of the database.
+	 */
+	private static String toCollationKey( String login ) {
+		int length = login.length();
+		while ( length > 0 && login.charAt( length - 1 ) == ' ' ) length--;
+		return login.substring( 0, length ).toLowerCase( Locale.ROOT );
+	}
+	
+	/**
+	 * Loads the login filter. Inserting users is blocked meanwhile, so that no inserted login is missing from the
+	 * new filter.
+	 */
+	private BloomFilter loadLoginFilter() throws SQLException {
+		synchronized ( this.userManager ) {
+			if ( this.loginFilterFalsePositiveRate == 0 ) return null;
+			List<String> logins = new ArrayList<>();
+			try ( Statement statement = this.getConnection().createStatement() ) {
+				try ( ResultSet rsLogins = statement.executeQuery( "SELECT Login FROM T_USERS" ) ) {
+					while ( rsLogins.next() ) logins.add( rsLogins.getString( 1 ) );
+				}
+			}
+			int expectedLogins = Math.max( this.loginFilterExpectedLogins, 2 * logins.size() );
+			BloomFilter filter = new BloomFilter( expectedLogins, this.loginFilterFalsePositiveRate );
+			for ( String login : logins ) filter.add( toCollationKey( login ) );
+			this.loginFilter = filter;
+			this.loginFilterLoadTime = System.currentTimeMillis();
+			return filter;
+		}
+	}
+	
+	/**
+	 * Adds a login into the login filter, which is reloaded if it holds more logins than expected.
+	 */
+	private void addToLoginFilter( String login ) throws SQLException {
+		synchronized ( this.userManager ) {
+			BloomFilter filter = this.loginFilter;
+			String key = toCollationKey( login );
+			if ( filter == null || filter.mightContain( key ) ) return;
+			filter.add( key );
+			if ( filter.getInsertionCount() > filter.getExpectedInsertions() ) this.loadLoginFilter();
+		}
+	}
+	
+	/**
+	 * An immutable copy of the T_ROLES table: role names indexed by identifier, and identifiers indexed by name (see
+	 * <code>toCollationKey</code>). The names of the roles whose identifier is lower than <code>DENSE_ROLE_LIMIT</code>
+	 * are stored in an array, the other ones in a map: a few large identifiers don't allocate a huge array.
+	 */
+	private static final class RoleCatalog {
+		private static final int DENSE_ROLE_LIMIT = 4096;
+		
+		final String [] roleNames;
+		final Map<Integer, String> sparseRoleNames = new HashMap<>();
+		final Map<String, Integer> identifiers;
+		final long loadTime = System.currentTimeMillis();
+		
+		RoleCatalog( List<Role> roles, int maxIdentifier ) {
+			this.roleNames = new String[ Math.min( maxIdentifier + 1, DENSE_ROLE_LIMIT ) ];
+			this.identifiers = new HashMap<>( roles.size() * 2 );
+			for ( Role role : roles ) {
+				if ( role.getIdentifier() < 0 ) continue;
+				if ( role.getIdentifier() < DENSE_ROLE_LIMIT ) {
+					this.roleNames[ role.getIdentifier() ] = role.getRoleName();
+				} else {
+					this.sparseRoleNames.put( role.getIdentifier(), role.getRoleName() );
+				}
+				this.identifiers.put( toCollationKey( role.getRoleName() ), role.getIdentifier() );
+			}
+		}
+		
+		String getRoleName( int roleIdentifier ) {
+			if ( roleIdentifier >= DENSE_ROLE_LIMIT ) return this.sparseRoleNames.get( roleIdentifier );
+			return roleIdentifier >= 0 && roleIdentifier < this.roleNames.length ? this.roleNames[ roleIdentifier ] : null;
+		}
+	}
+
 	/**
 	 * Check if each table exists. If a table not exists, the manager create it. 
 	 */
@@ -159,6 +545,21 @@ public class JdbcSecurityManager implements fr.koor.security.SecurityManager {
 			stCreateTUserRoles.executeUpdate( "INSERT INTO T_USER_ROLES VALUES( 1, 1 )" );
 		}
 		rsTables.close();
+		
+		String [][] permissionTables = {
+			{ "T_PERMISSIONS", CREATE_T_PERMISSIONS_STATEMENT },
+			{ "T_ROLE_PERMISSIONS", CREATE_T_ROLE_PERMISSIONS_STATEMENT },
+			{ "T_ROLE_PARENTS", CREATE_T_ROLE_PARENTS_STATEMENT }
+		};
+		for ( String [] table : permissionTables ) {
+			rsTables = metaData.getTables( null, null, table[0], new String[] { "TABLE" } );
+			if ( rsTables.next() == false ) {
+				try ( Statement stCreateTable = this.jdbcConnection.createStatement() ) {
+					stCreateTable.executeUpdate( this.jdbcConnection.nativeSQL( table[1] ) );
+				}
+			}
+			rsTables.close();
+		}
 	}
 	
 	
@@ -173,11 +574,24 @@ public class JdbcSecurityManager implements fr.koor.security.SecurityManager {
 		@Override public void deleteRole( Role role ) throws SecurityManagerException {
 			if ( role == null ) throw new NullPointerException();
 			try {
+				Statement statement = JdbcSecurityManager.this.getConnection().createStatement();
+				
+				// Associated grants and parent links deletions
+				statement.executeUpdate( "DELETE FROM T_ROLE_PERMISSIONS WHERE IdRole=" + role.getIdentifier() );
+				statement.executeUpdate( "DELETE FROM T_ROLE_PARENTS WHERE IdRole=" + role.getIdentifier()
+						+ " OR IdParentRole=" + role.getIdentifier() );
+				
 				String strSql = "DELETE FROM T_ROLES WHERE IdRole=" + role.getIdentifier();
-				JdbcSecurityManager.this.getConnection().createStatement().executeUpdate( strSql );
+				statement.executeUpdate( strSql );
+				roleRegistry.remove( role.getIdentifier() );
 			} catch ( SQLException exception ) {
 				throw new SecurityManagerException( "Can't delete the specified role", exception );
+			} finally {
+				invalidateRoleCatalog();
 			}
+			permissionManager.roleDeleted( role.getIdentifier() );
+			authorizationManager.invalidateAll();
+			sessionManager.allUsersUpdated();
 		}
 
 		@Override public synchronized Role insertRole( String roleName ) throws SecurityManagerException {
@@ -204,16 +618,17 @@ public class JdbcSecurityManager implements fr.koor.security.SecurityManager {
 				return new RoleImpl( primaryKey, roleName );
 			} catch ( Exception exception ) {
 				throw new SecurityManagerException( "Can't insert the specified role", exception );
+			} finally {
+				invalidateRoleCatalog();
 			}
 		}
 		
 
 		@Override public Role selectRoleById( int roleIdentifier ) throws SecurityManagerException {
 			try {
-				String strSql = "SELECT * FROM T_ROLES WHERE IdRole=" + roleIdentifier;
-				ResultSet rsRole = JdbcSecurityManager.this.getConnection().createStatement().executeQuery( strSql );
-				if ( rsRole.next() ) {
-					return new RoleImpl( roleIdentifier, rsRole.getString( 2 ) );
+				String roleName = findRoleName( roleIdentifier );
+				if ( roleName != null ) {
+					return new RoleImpl( roleIdentifier, roleName );
 				}
 				
 				throw new SecurityManagerException( "Role identifier " + roleIdentifier + " not found" );
@@ -225,21 +640,12 @@ public class JdbcSecurityManager implements fr.koor.security.SecurityManager {
 
 		@Override public Role selectRoleByName( String roleName ) throws SecurityManagerException {
 			if ( roleName == null ) throw new NullPointerException();
-			String strSql = "SELECT * FROM T_ROLES WHERE RoleName=?";
-			try ( PreparedStatement statement = JdbcSecurityManager.this.getConnection().prepareStatement( strSql ) ) {
-				statement.setString( 1, roleName );
-				try ( ResultSet rsRole = statement.executeQuery() ) {
-					if ( rsRole.next() ) {
-						Role role = new RoleImpl( rsRole.getInt( 1 ), roleName );
-						rsRole.close();
-						return role;
-					}
-				}
-				
+			Integer roleIdentifier = findRoleIdentifier( roleName );
+			if ( roleIdentifier == null ) {
 				throw new SecurityManagerException( "Role " + roleName + " not found" );
-			} catch ( Exception exception ) {
-				throw new SecurityManagerException( "Cannot select role " + roleName, exception );
 			}
+			// The stored name, which may differ from the searched one in case and trailing spaces
+			return new RoleImpl( roleIdentifier, resolveRole( roleIdentifier ).getRoleName() );
 		}
 
 		@Override public void updateRole( Role role ) throws SecurityManagerException {
@@ -250,13 +656,125 @@ public class JdbcSecurityManager implements fr.koor.security.SecurityManager {
 				statement.setString( 1, role.getRoleName() );
 				statement.setInt( 2, role.getIdentifier() );
 				statement.executeUpdate();
+				roleRegistry.rename( role.getIdentifier(), role.getRoleName() );
 			} catch ( Exception exception ) {
 				throw new SecurityManagerException( "Cannot update role " + role.getIdentifier(), exception );
+			} finally {
+				invalidateRoleCatalog();
 			}
+			authorizationManager.invalidateAll();
 		}			
 	}
 	
 	
+	/** 
+	 * JDBC implementation for the PermissionManager interface. The T_PERMISSIONS, T_ROLE_PERMISSIONS and T_ROLE_PARENTS
+	 * tables are loaded into a permission model, which is refreshed with the role catalog refresh interval. Each
+	 * modification is written into the tables, then applied to the model.
+	 *  
+	 * @author Infini Software - Dominique Liard
+	 * @since 0.6.0
+	 */
+	private class JdbcPermissionManager extends AbstractPermissionManager {
+		
+		private volatile PermissionModel model;
+		private volatile long loadTime;
+		
+		JdbcPermissionManager() {
+			super( JdbcSecurityManager.this );
+		}
+		
+		synchronized void invalidateModel() {
+			this.model = null;
+			this.invalidateAll();
+		}
+		
+		@Override PermissionModel getModel() throws SecurityManagerException {
+			PermissionModel currentModel = this.model;
+			long refreshInterval = roleCatalogRefreshInterval;
+			if ( currentModel == null || ( refreshInterval > 0 && System.currentTimeMillis() - this.loadTime >= refreshInterval ) ) {
+				currentModel = this.loadModel();
+			}
+			return currentModel;
+		}
+		
+		private synchronized PermissionModel loadModel() throws SecurityManagerException {
+			PermissionModel.Builder builder = new PermissionModel.Builder();
+			try ( Statement statement = getConnection().createStatement() ) {
+				try ( ResultSet rsPermissions = statement.executeQuery( "SELECT IdPermission, PermissionName FROM T_PERMISSIONS" ) ) {
+					while ( rsPermissions.next() ) builder.putPermission( rsPermissions.getInt( 1 ), rsPermissions.getString( 2 ) );
+				}
+				try ( ResultSet rsGrants = statement.executeQuery( "SELECT IdRole, IdPermission FROM T_ROLE_PERMISSIONS" ) ) {
+					while ( rsGrants.next() ) builder.grant( rsGrants.getInt( 1 ), rsGrants.getInt( 2 ) );
+				}
+				try ( ResultSet rsParents = statement.executeQuery( "SELECT IdRole, IdParentRole FROM T_ROLE_PARENTS" ) ) {
+					while ( rsParents.next() ) builder.addParent( rsParents.getInt( 1 ), rsParents.getInt( 2 ) );
+				}
+			} catch ( SQLException exception ) {
+				throw new SecurityManagerException( "Cannot load permissions", exception );
+			}
+			PermissionModel loadedModel = builder.build();
+			this.model = loadedModel;
+			this.loadTime = System.currentTimeMillis();
+			return loadedModel;
+		}
+		
+		@Override void storeModel( PermissionModel newModel, Change change ) throws SecurityManagerException {
+			try {
+				PreparedStatement statement;
+				switch ( change.type ) {
+					case INSERT_PERMISSION:
+						statement = getConnection().prepareStatement( "INSERT INTO T_PERMISSIONS VALUES (?, ?)" );
+						statement.setInt( 1, change.targetIdentifier );
+						statement.setString( 2, change.permissionName );
+						break;
+					case DELETE_PERMISSION:
+						try ( Statement stGrants = getConnection().createStatement() ) {
+							stGrants.executeUpdate( "DELETE FROM T_ROLE_PERMISSIONS WHERE IdPermission=" + change.targetIdentifier );
+						}
+						statement = getConnection().prepareStatement( "DELETE FROM T_PERMISSIONS WHERE IdPermission=?" );
+						statement.setInt( 1, change.targetIdentifier );
+						break;
+					case GRANT:
+						statement = getConnection().prepareStatement( "INSERT INTO T_ROLE_PERMISSIONS VALUES (?, ?)" );
+						statement.setInt( 1, change.roleIdentifier );
+						statement.setInt( 2, change.targetIdentifier );
+						break;
+					case REVOKE:
+						statement = getConnection().prepareStatement( "DELETE FROM T_ROLE_PERMISSIONS WHERE IdRole=? AND IdPermission=?" );
+						statement.setInt( 1, change.roleIdentifier );
+						statement.setInt( 2, change.targetIdentifier );
+						break;
+					case ADD_PARENT:
+						statement = getConnection().prepareStatement( "INSERT INTO T_ROLE_PARENTS VALUES (?, ?)" );
+						statement.setInt( 1, change.roleIdentifier );
+						statement.setInt( 2, change.targetIdentifier );
+						break;
+					case REMOVE_PARENT:
+						statement = getConnection().prepareStatement( "DELETE FROM T_ROLE_PARENTS WHERE IdRole=? AND IdParentRole=?" );
+						statement.setInt( 1, change.roleIdentifier );
+						statement.setInt( 2, change.targetIdentifier );
+						break;
+					default:
+						// DELETE_ROLE: the rows have been deleted with the role
+						statement = null;
+				}
+				if ( statement != null ) {
+					try {
+						statement.executeUpdate();
+					} finally {
+						statement.close();
+					}
+				}
+				this.model = newModel;
+			} catch ( SQLException exception ) {
+				this.invalidateModel();
+				throw new SecurityManagerException( "Cannot store permission change " + change.type, exception );
+			}
+		}
+	}
+	
+	
 	/** 
 	 * JDBC implementation for the UserManager interface.
 	 *  
@@ -274,6 +792,12 @@ public class JdbcSecurityManager implements fr.koor.security.SecurityManager {
 				userPassword = this.encryptPassword( userPassword );
 				//System.out.println( userPassword );
 				
+				// A login rejected by the filter skips the queries: the response time tells that the login is unknown
+				BloomFilter filter = JdbcSecurityManager.this.getCurrentLoginFilter();
+				if ( filter != null && filter.mightContain( toCollationKey( userLogin ) ) == false ) {
+					throw new BadCredentialsException( "Your identity is rejected" );
+				}
+				
 				String strSql = "SELECT * FROM T_USERS WHERE Login=? and  Password=?";
 				PreparedStatement prepStatement = JdbcSecurityManager.this.getConnection().prepareStatement( strSql );
 				prepStatement.setString( 1, userLogin );
@@ -317,18 +841,17 @@ public class JdbcSecurityManager implements fr.koor.security.SecurityManager {
 						user.setEmail( email );
 						
 						// Associated roles loading
-						RoleManager roleManager = JdbcSecurityManager.this.getRoleManager();
 						strSql = "SELECT IdRole FROM T_USER_ROLES WHERE IdUser=" + user.getIdentifier();
 						ResultSet rsRoles = statement.executeQuery( strSql );
 						while ( rsRoles.next() ) { 
-							user.addRole( roleManager.selectRoleById( rsRoles.getInt( 1 ) ) );
+							user.addRole( resolveRole( rsRoles.getInt( 1 ) ) );
 						}
 						rsRoles.close();
 						
 						return user;
 					}
 				}
-			} catch ( AccountDisabledException exception ) {
+			} catch ( AccountDisabledException | BadCredentialsException exception ) {
 				throw exception;	
 			} catch ( Exception exception ) {
 				throw new BadCredentialsException( "Can't check credentials", exception );
@@ -383,11 +906,10 @@ public class JdbcSecurityManager implements fr.koor.security.SecurityManager {
 						user.setEmail( rsCredentials.getString( "email" ) );
 						
 						// Associated roles loading
-						RoleManager roleManager = JdbcSecurityManager.this.getRoleManager();
 						strSql = "SELECT IdRole FROM T_USER_ROLES WHERE IdUser=" + user.getIdentifier();
 						ResultSet rsRoles = statement.executeQuery( strSql );
 						while ( rsRoles.next() ) { 
-							user.addRole( roleManager.selectRoleById( rsRoles.getInt( 1 ) ) );
+							user.addRole( resolveRole( rsRoles.getInt( 1 ) ) );
 						}
 						rsRoles.close();
 
@@ -421,12 +943,11 @@ public class JdbcSecurityManager implements fr.koor.security.SecurityManager {
 							user.setEmail( rsCredentials.getString( "email" ) );
 							
 							// Associated roles loading
-							RoleManager roleManager = JdbcSecurityManager.this.getRoleManager();
 							strSql = "SELECT IdRole FROM T_USER_ROLES WHERE IdUser=" + user.getIdentifier();
 							Statement stRoles = JdbcSecurityManager.this.getConnection().createStatement();
 							ResultSet rsRoles = stRoles.executeQuery( strSql );
 							while ( rsRoles.next() ) { 
-								user.addRole( roleManager.selectRoleById( rsRoles.getInt( 1 ) ) );
+								user.addRole( resolveRole( rsRoles.getInt( 1 ) ) );
 							}
 							rsRoles.close();
 							stRoles.close();
@@ -462,12 +983,11 @@ public class JdbcSecurityManager implements fr.koor.security.SecurityManager {
 						user.setEmail( rsUsers.getString( "email" ) );
 						
 						// Associated roles loading
-						RoleManager roleManager = JdbcSecurityManager.this.getRoleManager();
 						strSql = "SELECT IdRole FROM T_USER_ROLES WHERE IdUser=" + user.getIdentifier();
 						try ( Statement stRoles = JdbcSecurityManager.this.getConnection().createStatement() ) {
 							try ( ResultSet rsRoles = stRoles.executeQuery( strSql ) ) {
 								while ( rsRoles.next() ) { 
-									user.addRole( roleManager.selectRoleById( rsRoles.getInt( 1 ) ) );
+									user.addRole( resolveRole( rsRoles.getInt( 1 ) ) );
 								}
 							}
 						}
@@ -496,14 +1016,20 @@ public class JdbcSecurityManager implements fr.koor.security.SecurityManager {
 				// User deletion
 				strSql = "DELETE FROM T_USERS WHERE IdUser=" + user.getIdentifier();
 				statement.executeUpdate( strSql );
+				// The login stays in the login filter until it is reloaded: a Bloom filter cannot remove it
 			} catch ( SQLException exception ) {
 				throw new SecurityManagerException( "Can't delete the specified user", exception );
 			}
+			permissionManager.invalidateUser( user.getIdentifier() );
+			authorizationManager.invalidateUser( user.getIdentifier() );
+			sessionManager.revokeSessions( user.getIdentifier() );
 		}
 
 		@Override public synchronized User insertUser( String login, String password ) throws SecurityManagerException {
 			if ( login == null ) throw new NullPointerException();
 			if ( password == null ) throw new NullPointerException();
+			PasswordScreener screener = passwordScreener;
+			if ( screener != null ) screener.checkPassword( password );
 
 			Connection connection = JdbcSecurityManager.this.getConnection();
 
@@ -529,6 +1055,7 @@ public class JdbcSecurityManager implements fr.koor.security.SecurityManager {
 					statement.setString( 2, login );
 					statement.setString( 3, this.encryptPassword( password ) );
 					statement.executeUpdate();
+					JdbcSecurityManager.this.addToLoginFilter( login );
 					
 					UserImpl user = new UserImpl( JdbcSecurityManager.this, primaryKey, login, this.encryptPassword( password ) );
 					user.setIdentifier( primaryKey );
@@ -554,6 +1081,7 @@ public class JdbcSecurityManager implements fr.koor.security.SecurityManager {
 				prepStatement.setString( 7, user.getEmail() );
 				prepStatement.setInt( 8, user.getIdentifier() );
 				prepStatement.executeUpdate();				
+				JdbcSecurityManager.this.addToLoginFilter( user.getLogin() );
 
 				// Delete and recreate the T_USER_ROLES records
 				strSql = "DELETE FROM T_USER_ROLES WHERE IdUser=" + user.getIdentifier();
@@ -567,6 +1095,8 @@ public class JdbcSecurityManager implements fr.koor.security.SecurityManager {
 			} catch ( SQLException exception ) {
 				throw new SecurityException( "Cannot udate user data", exception );
 			}
+			authorizationManager.invalidateUser( user.getIdentifier() );
+			sessionManager.userUpdated( user.getIdentifier() );
 		}
 		
 		@Override public String encryptPassword( String clearPassword ) throws SecurityManagerException {
@@ -696,5 +1226,27 @@ public class JdbcSecurityManager implements fr.koor.security.SecurityManager {
 		"  FOREIGN KEY ( IdUser ) REFERENCES T_USERS( IdUser )," +
 		"  FOREIGN KEY ( IdRole ) REFERENCES T_ROLES( IdRole )" +
         ")";		
+	
+	private static final String CREATE_T_PERMISSIONS_STATEMENT =
+		"CREATE TABLE T_PERMISSIONS (" +
+		"    IdPermission        int PRIMARY KEY," +
+		"    PermissionName      varchar(100) UNIQUE NOT NULL" +
+		")";
+	
+	private static final String CREATE_T_ROLE_PERMISSIONS_STATEMENT = 
+		"CREATE TABLE T_ROLE_PERMISSIONS (" +
+		"    IdRole              int," +
+		"    IdPermission        int," +
+		"  FOREIGN KEY ( IdRole ) REFERENCES T_ROLES( IdRole )," +
+		"  FOREIGN KEY ( IdPermission ) REFERENCES T_PERMISSIONS( IdPermission )" +
+        ")";		
+	
+	private static final String CREATE_T_ROLE_PARENTS_STATEMENT = 
+		"CREATE TABLE T_ROLE_PARENTS (" +
+		"    IdRole              int," +
+		"    IdParentRole        int," +
+		"  FOREIGN KEY ( IdRole ) REFERENCES T_ROLES( IdRole )," +
+		"  FOREIGN KEY ( IdParentRole ) REFERENCES T_ROLES( IdRole )" +
+        ")";		
 
 }
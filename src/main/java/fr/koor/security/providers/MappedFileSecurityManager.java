@@ -0,0 +1,657 @@
+package fr.koor.security.providers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import fr.koor.security.AccountDisabledException;
+import fr.koor.security.AuthorizationManager;
+import fr.koor.security.BadCredentialsException;
+import fr.koor.security.PasswordScreener;
+import fr.koor.security.PermissionManager;
+import fr.koor.security.Role;
+import fr.koor.security.RoleAlreadyRegisteredException;
+import fr.koor.security.RoleManager;
+import fr.koor.security.SecurityManagerException;
+import fr.koor.security.SessionManager;
+import fr.koor.security.User;
+import fr.koor.security.UserAlreadyRegisteredException;
+import fr.koor.security.UserManager;
+import fr.koor.security.UserNotFoundException;
+import fr.koor.security.impl.RoleImpl;
+import fr.koor.security.impl.RoleRegistry;
+import fr.koor.security.impl.UserImpl;
+import fr.koor.utility.FileSystem;
+
+/** 
+ * <p>
+ *     This security manager (see interface fr.koor.security.SecurityManager) stores the security informations in
+ *     memory-mapped files. It's intended for large user bases: the file is not loaded at startup, the operating system
+ *     pages in the records that are really used.
+ * </p>
+ * 
+ * <p>
+ *     Each user is a fixed-size record (identifier, login hash, encrypted password, counters, role bitmap and offsets
+ *     into a string heap), so <code>getUserById</code> is a direct access. Logins are indexed by an open-addressing
+ *     hash table that is also mapped. <code>checkCredentials</code> locates the record, compares the password and
+ *     updates the counters in place: no object is allocated until the <code>User</code> instance is materialized.
+ *     Because a role is a bit of the role bitmap, this provider supports at most 64 roles.
+ * </p>
+ * 
+ * <p>
+ *     Modifications are written into the mapped buffers: the operating system writes them back to the files. The
+ *     <code>flush</code> and <code>close</code> methods force this write. Strings replaced by <code>updateUser</code>
+ *     and <code>updateRole</code> are not reclaimed from the string heap.
+ * </p>
+ * 
+ * <p>
+ *     Permissions and role hierarchies are rarely modified: they are kept in memory and rewritten, after each change,
+ *     into a <code>.permissions</code> companion file that uses the XML security database format.
+ * </p>
+ * 
+ * @see fr.koor.security.SecurityManager
+ * @see fr.koor.security.providers.MappedUserStore
+ * 
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public class MappedFileSecurityManager implements fr.koor.security.SecurityManager {
+
+	private static final int DEFAULT_CAPACITY = 1024;
+	
+	private final String filename;
+	private final int initialCapacity;
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private MappedUserStore store;
+	/** Provides the role instances shared by the returned users. */
+	private final RoleRegistry roleRegistry = new RoleRegistry();
+	
+	/** The permissions, stored in the <code>.permissions</code> companion file. */
+	private volatile PermissionModel permissionModel = PermissionModel.EMPTY;
+	
+	private UserManager userManager = new MappedFileUserManager();
+	private RoleManager roleManager = new MappedFileRoleManager();
+	private MappedFilePermissionManager permissionManager = new MappedFilePermissionManager();
+	private CachedAuthorizationManager authorizationManager = new CachedAuthorizationManager( this::findRoleIdentifier, this.permissionManager );
+	private ShardedSessionManager sessionManager = new ShardedSessionManager( this );
+	private volatile PasswordScreener passwordScreener;
+	
+	
+	/**
+	 * This constructor produces an instance of security manager based on the specified file. The file (and its
+	 * <code>.heap</code> and <code>.index</code> companions) are created if they don't exist.
+	 * 
+	 * @param filename	The main file of the security database.
+	 * 
+	 * @exception SecurityManagerException Thrown if the files cannot be opened.
+	 */
+	public MappedFileSecurityManager( String filename ) throws SecurityManagerException {
+		this( filename, DEFAULT_CAPACITY );
+	}
+	
+	/**
+	 * This constructor produces an instance of security manager based on the specified file.
+	 * 
+	 * @param filename			The main file of the security database.
+	 * @param initialCapacity	The number of user records allocated when the file is created. The file grows
+	 * 							automatically when it is full.
+	 * 
+	 * @exception SecurityManagerException Thrown if the files cannot be opened.
+	 */
+	public MappedFileSecurityManager( String filename, int initialCapacity ) throws SecurityManagerException {
+		if ( filename == null ) throw new NullPointerException();
+		this.filename = filename;
+		this.initialCapacity = initialCapacity;
+		this.openSession();
+	}
+	
+	@Override public void openSession() throws SecurityManagerException {
+		this.lock.writeLock().lock();
+		try {
+			if ( this.store != null ) return;
+			this.store = new MappedUserStore( this.filename, this.initialCapacity );
+			if ( this.store.getSlotCount() == 0 && this.store.getRoleName( 0 ) == null ) {
+				this.store.setRoleName( 0, "admin" );
+				this.store.insertUser( "root", this.userManager.encryptPassword( "admin" ) );
+				this.store.updateUser( 0, "root", this.store.getPassword( 0 ), "root", "administrator", "" );
+				this.store.setRoleBitmap( 0, 1L );
+			}
+			this.permissionModel = this.loadPermissions();
+		} catch ( IOException exception ) {
+			this.store = null;
+			throw new SecurityManagerException( "Cannot open mapped security database " + this.filename, exception );
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override public void close() throws SecurityManagerException {
+		this.lock.writeLock().lock();
+		try {
+			if ( this.store == null ) return;
+			this.store.close();
+		} catch ( IOException exception ) {
+			throw new SecurityManagerException( "Cannot close mapped security database " + this.filename, exception );
+		} finally {
+			this.store = null;
+			this.roleRegistry.clear();
+			this.permissionModel = PermissionModel.EMPTY;
+			this.permissionManager.invalidateAll();
+			this.authorizationManager.invalidateAll();
+			this.sessionManager.close();
+			this.lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Forces the write of the modifications into the files.
+	 * 
+	 * @throws SecurityManagerException Thrown if the session is closed.
+	 */
+	public void flush() throws SecurityManagerException {
+		this.lock.readLock().lock();
+		try {
+			this.checkOpened();
+			this.store.force();
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Returns the name of the main file of the security database.
+	 * 
+	 * @return The filename.
+	 */
+	public String getFilename() {
+		return this.filename;
+	}
+
+	@Override public RoleManager getRoleManager() {
+		return this.roleManager;
+	}
+
+	@Override public UserManager getUserManager() {
+		return this.userManager;
+	}
+	
+	@Override public PermissionManager getPermissionManager() {
+		return this.permissionManager;
+	}
+	
+	@Override public AuthorizationManager getAuthorizationManager() {
+		return this.authorizationManager;
+	}
+	
+	@Override public SessionManager getSessionManager() {
+		return this.sessionManager;
+	}
+	
+	@Override public PasswordScreener getPasswordScreener() {
+		return this.passwordScreener;
+	}
+	
+	@Override public void setPasswordScreener( PasswordScreener passwordScreener ) {
+		this.passwordScreener = passwordScreener;
+	}
+	
+	private String getPermissionsFilename() {
+		return this.filename + ".permissions";
+	}
+	
+	/**
+	 * Reads the permission model from the <code>.permissions</code> companion file. The caller must own the write lock.
+	 */
+	private PermissionModel loadPermissions() throws IOException {
+		File file = new File( this.getPermissionsFilename() );
+		if ( file.exists() == false ) return PermissionModel.EMPTY;
+		try ( InputStream inputStream = new BufferedInputStream( new FileInputStream( file ) ) ) {
+			return XmlStoreReader.read( inputStream ).getPermissions();
+		}
+	}
+	
+	/**
+	 * Writes the permission model into the <code>.permissions</code> companion file (an XML security database that
+	 * contains only roles and permissions). The file is written in a temporary file then atomically renamed. The caller
+	 * must own the write lock.
+	 */
+	private void savePermissions( PermissionModel model ) throws IOException {
+		List<RoleRecord> roles = new ArrayList<>();
+		for ( int roleSlot = 0; roleSlot < MappedUserStore.MAX_ROLES; roleSlot++ ) {
+			String roleName = this.store.getRoleName( roleSlot );
+			if ( roleName != null ) roles.add( new RoleRecord( roleSlot + 1, roleName ) );
+		}
+		File file = new File( this.getPermissionsFilename() ).getAbsoluteFile();
+		File temporaryFile = File.createTempFile( file.getName() + ".", ".tmp", file.getParentFile() );
+		try {
+			try ( FileOutputStream fos = new FileOutputStream( temporaryFile ) ) {
+				BufferedOutputStream outputStream = new BufferedOutputStream( fos );
+				XmlStoreWriter.write( Collections.<UserRecord>emptyList(), roles, model, outputStream );
+				outputStream.flush();
+				fos.getChannel().force( true );
+			}
+			FileSystem.replaceAtomically( temporaryFile.getPath(), file.getPath() );
+			temporaryFile = null;
+		} finally {
+			if ( temporaryFile != null ) temporaryFile.delete();
+		}
+	}
+	
+	private void checkOpened() throws SecurityManagerException {
+		if ( this.store == null ) throw new SecurityManagerException( "Mapped security session is closed" );
+	}
+	
+	/**
+	 * Returns the slot of the role that has the specified name. The caller must own a lock.
+	 */
+	private int findRoleSlot( String roleName ) {
+		for ( int roleSlot = 0; roleSlot < MappedUserStore.MAX_ROLES; roleSlot++ ) {
+			if ( roleName.equals( this.store.getRoleName( roleSlot ) ) ) return roleSlot;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns the identifier of the role that has the specified name, or null if there is none.
+	 */
+	private Integer findRoleIdentifier( String roleName ) throws SecurityManagerException {
+		this.lock.readLock().lock();
+		try {
+			this.checkOpened();
+			int roleSlot = this.findRoleSlot( roleName );
+			return roleSlot < 0 ? null : roleSlot + 1;
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Produces a user instance from its record, with the shared role instances of the role registry. The caller must
+	 * own a lock.
+	 */
+	private UserImpl toUser( int slot ) throws SecurityManagerException {
+		MappedUserStore store = this.store;
+		UserImpl user = new UserImpl( this, store.getIdentifier( slot ), store.getLogin( slot ), store.getPassword( slot ) );
+		user.setConnectionNumber( store.getConnectionNumber( slot ) );
+		user.setLastConnection( new Date( store.getLastConnection( slot ) ) );
+		user.setConsecutiveErrors( store.getConsecutiveErrors( slot ) );
+		user.setDisabled( store.isDisabled( slot ) );
+		user.setFirstName( store.getFirstName( slot ) );
+		user.setLastName( store.getLastName( slot ) );
+		user.setEmail( store.getEmail( slot ) );
+		long roleBitmap = store.getRoleBitmap( slot );
+		while ( roleBitmap != 0 ) {
+			int roleSlot = Long.numberOfTrailingZeros( roleBitmap );
+			roleBitmap &= roleBitmap - 1;
+			String roleName = store.getRoleName( roleSlot );
+			if ( roleName != null ) user.addRole( this.roleRegistry.get( roleSlot + 1, roleName ) );
+		}
+		return user;
+	}
+	
+	
+	private class MappedFileUserManager implements UserManager {
+
+		@Override public User checkCredentials( String userLogin, String userPassword ) throws AccountDisabledException, BadCredentialsException {
+			if ( userLogin == null ) throw new NullPointerException();
+			if ( userPassword == null ) throw new NullPointerException();
+			try {
+				userPassword = this.encryptPassword( userPassword );
+			} catch ( SecurityManagerException exception ) {
+				throw new BadCredentialsException( "Can't check credentials", exception );
+			}
+			
+			lock.writeLock().lock();
+			try {
+				checkOpened();
+				int slot = store.findSlot( userLogin );
+				if ( slot < 0 ) {
+					throw new BadCredentialsException( "Your identity is rejected" );
+				}
+				
+				if ( store.isSamePassword( slot, userPassword ) ) {
+					// User informations update
+					boolean isDisabled = store.isDisabled( slot );
+					store.setCounters( slot, store.getConnectionNumber( slot ) + 1, new Date().getTime(),
+							isDisabled ? store.getConsecutiveErrors( slot ) : 0, isDisabled );
+					if ( isDisabled ) {
+						throw new AccountDisabledException( "Account is disabled" );
+					}
+					return toUser( slot );
+				}
+				
+				int consecutiveErrors = store.getConsecutiveErrors( slot ) + 1;
+				boolean forceDisabling = ( consecutiveErrors == 3 ); 
+				store.setCounters( slot, store.getConnectionNumber( slot ), store.getLastConnection( slot ), consecutiveErrors, forceDisabling );
+				if ( forceDisabling ) {
+					throw new AccountDisabledException( "Account is disabled" );
+				}
+				throw new BadCredentialsException( "Your identity is rejected" );
+			} catch ( AccountDisabledException | BadCredentialsException exception ) {
+				throw exception;
+			} catch ( Exception exception ) {
+				throw new BadCredentialsException( "Can't check credentials", exception );
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		@Override public User getUserById( int userId ) throws SecurityManagerException {
+			lock.readLock().lock();
+			try {
+				checkOpened();
+				int slot = store.slotOf( userId );
+				if ( slot < 0 ) {
+					throw new UserNotFoundException( "User identifier " + userId + " not found" );
+				}
+				return toUser( slot );
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		@Override public User getUserByLogin( String login ) throws SecurityManagerException {
+			if ( login == null ) throw new NullPointerException();
+			lock.readLock().lock();
+			try {
+				checkOpened();
+				int slot = store.findSlot( login );
+				if ( slot < 0 ) {
+					throw new UserNotFoundException( "User login " + login + " not found" );
+				}
+				return toUser( slot );
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+		
+		@Override public List<User> getUsersByRole( Role role ) throws SecurityManagerException {
+			if ( role == null ) throw new NullPointerException();
+			List<User> result = new ArrayList<>();
+			int roleSlot = role.getIdentifier() - 1;
+			if ( roleSlot < 0 || roleSlot >= MappedUserStore.MAX_ROLES ) return result;
+			long mask = 1L << roleSlot;
+			lock.readLock().lock();
+			try {
+				checkOpened();
+				// Slots are ordered by identifier: the result is sorted
+				for ( int slot = 0; slot < store.getSlotCount(); slot++ ) {
+					if ( ( store.getRoleBitmap( slot ) & mask ) != 0 && store.isUsed( slot ) ) result.add( toUser( slot ) );
+				}
+				return result;
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		@Override public User insertUser( String login, String password ) throws UserAlreadyRegisteredException, SecurityManagerException {
+			if ( login == null ) throw new NullPointerException();
+			if ( password == null ) throw new NullPointerException();
+			PasswordScreener screener = passwordScreener;
+			if ( screener != null ) screener.checkPassword( password );
+			password = this.encryptPassword( password );
+			
+			lock.writeLock().lock();
+			try {
+				checkOpened();
+				if ( store.findSlot( login ) >= 0 ) throw new UserAlreadyRegisteredException( "User login already registered" );
+				int identifier = store.insertUser( login, password );
+				return new UserImpl( MappedFileSecurityManager.this, identifier, login, password );
+			} catch ( IOException exception ) {
+				throw new SecurityManagerException( "Cannot insert user " + login, exception );
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		@Override public void updateUser( User user ) throws SecurityManagerException {
+			if ( user == null ) throw new NullPointerException();
+			lock.writeLock().lock();
+			try {
+				checkOpened();
+				int slot = store.slotOf( user.getIdentifier() );
+				if ( slot < 0 ) {
+					throw new SecurityManagerException( "User " + user.getLogin() + " not found in mapped security database" );
+				}
+				int sameLogin = store.findSlot( user.getLogin() );
+				if ( sameLogin >= 0 && sameLogin != slot ) {
+					throw new UserAlreadyRegisteredException( "User login already registered" );
+				}
+				long roleBitmap = 0;
+				for ( Role role : user.getRoles() ) {
+					int roleSlot = role.getIdentifier() - 1;
+					if ( roleSlot < 0 || roleSlot >= MappedUserStore.MAX_ROLES || store.getRoleName( roleSlot ) == null ) {
+						throw new SecurityManagerException( "Role " + role.getRoleName() + " not found in mapped security database" );
+					}
+					roleBitmap |= 1L << roleSlot;
+				}
+				Date lastConnection = user.getLastConnection();
+				store.updateUser( slot, user.getLogin(), ( (UserImpl) user ).getPassword(), user.getFirstName(), user.getLastName(), user.getEmail() );
+				store.setCounters( slot, user.getConnectionNumber(), lastConnection == null ? 0 : lastConnection.getTime(),
+						user.getConsecutiveErrors(), user.isDisabled() );
+				store.setRoleBitmap( slot, roleBitmap );
+			} catch ( IOException exception ) {
+				throw new SecurityManagerException( "Cannot update user " + user.getLogin(), exception );
+			} finally {
+				lock.writeLock().unlock();
+			}
+			authorizationManager.invalidateUser( user.getIdentifier() );
+			sessionManager.userUpdated( user.getIdentifier() );
+		}
+
+		@Override public void deleteUser( User user ) throws SecurityManagerException {
+			if ( user == null ) throw new NullPointerException();
+			lock.writeLock().lock();
+			try {
+				checkOpened();
+				int slot = store.slotOf( user.getIdentifier() );
+				if ( slot < 0 ) {
+					throw new SecurityManagerException( "User " + user.getLogin() + " not found in mapped security database" );
+				}
+				store.deleteUser( slot );
+			} catch ( IOException exception ) {
+				throw new SecurityManagerException( "Cannot delete user " + user.getLogin(), exception );
+			} finally {
+				lock.writeLock().unlock();
+			}
+			permissionManager.invalidateUser( user.getIdentifier() );
+			authorizationManager.invalidateUser( user.getIdentifier() );
+			sessionManager.revokeSessions( user.getIdentifier() );
+		}
+
+		@Override public String encryptPassword( String clearPassword ) throws SecurityManagerException {
+			if ( clearPassword == null ) throw new NullPointerException();
+			try {
+				byte[] unicodeValue = clearPassword.getBytes( "utf-16" );
+	            MessageDigest messageDigest = MessageDigest.getInstance( "SHA1" );
+	            messageDigest.update( unicodeValue );
+	            byte[] encodedPasswordBuffer = messageDigest.digest();
+	            return MappedFileSecurityManager.encryptedKeyTostring( encodedPasswordBuffer );
+			} catch ( Exception exception ) {
+				throw new SecurityManagerException( "Cannot encode password", exception );
+			}
+		}
+		
+	}
+	
+	private class MappedFileRoleManager implements RoleManager {
+
+		@Override public Role selectRoleById( int roleIdentifier ) throws SecurityManagerException {
+			lock.readLock().lock();
+			try {
+				checkOpened();
+				String roleName = roleIdentifier < 1 || roleIdentifier > MappedUserStore.MAX_ROLES ? null : store.getRoleName( roleIdentifier - 1 );
+				if ( roleName == null ) {
+					throw new SecurityManagerException( "Role identifier " + roleIdentifier + " not found" );
+				}
+				return new RoleImpl( roleIdentifier, roleName );
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		@Override public Role selectRoleByName( String roleName ) throws SecurityManagerException {
+			if ( roleName == null ) throw new NullPointerException();
+			lock.readLock().lock();
+			try {
+				checkOpened();
+				int roleSlot = findRoleSlot( roleName );
+				if ( roleSlot < 0 ) {
+					throw new SecurityManagerException( "Role name " + roleName + " not found" );
+				}
+				return new RoleImpl( roleSlot + 1, roleName );
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		@Override public Role insertRole( String roleName ) throws SecurityManagerException, RoleAlreadyRegisteredException {
+			if ( roleName == null ) throw new NullPointerException();
+			lock.writeLock().lock();
+			try {
+				checkOpened();
+				if ( findRoleSlot( roleName ) >= 0 ) throw new RoleAlreadyRegisteredException( "Role name already registered" );
+				for ( int roleSlot = 0; roleSlot < MappedUserStore.MAX_ROLES; roleSlot++ ) {
+					if ( store.getRoleName( roleSlot ) == null ) {
+						store.setRoleName( roleSlot, roleName );
+						return new RoleImpl( roleSlot + 1, roleName );
+					}
+				}
+				throw new SecurityManagerException( "Cannot insert role " + roleName + ": at most " + MappedUserStore.MAX_ROLES + " roles are supported" );
+			} catch ( IOException exception ) {
+				throw new SecurityManagerException( "Cannot insert role " + roleName, exception );
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		@Override public void updateRole( Role role ) throws SecurityManagerException {
+			if ( role == null ) throw new NullPointerException();
+			lock.writeLock().lock();
+			try {
+				checkOpened();
+				int roleSlot = role.getIdentifier() - 1;
+				if ( roleSlot < 0 || roleSlot >= MappedUserStore.MAX_ROLES || store.getRoleName( roleSlot ) == null ) {
+					throw new SecurityManagerException( "Role " + role.getRoleName() + " not found in mapped security database" );
+				}
+				int sameName = findRoleSlot( role.getRoleName() );
+				if ( sameName >= 0 && sameName != roleSlot ) {
+					throw new RoleAlreadyRegisteredException( "Role name already registered" );
+				}
+				if ( sameName < 0 ) store.setRoleName( roleSlot, role.getRoleName() );
+				roleRegistry.rename( role.getIdentifier(), role.getRoleName() );
+			} catch ( IOException exception ) {
+				throw new SecurityManagerException( "Cannot update role " + role.getRoleName(), exception );
+			} finally {
+				lock.writeLock().unlock();
+			}
+			authorizationManager.invalidateAll();
+		}
+
+		@Override public void deleteRole( Role role ) throws SecurityManagerException {
+			if ( role == null ) throw new NullPointerException();
+			lock.writeLock().lock();
+			try {
+				checkOpened();
+				int roleSlot = role.getIdentifier() - 1;
+				if ( roleSlot < 0 || roleSlot >= MappedUserStore.MAX_ROLES || store.getRoleName( roleSlot ) == null ) {
+					throw new SecurityManagerException( "Role " + role.getRoleName() + " not found in mapped security database" );
+				}
+				
+				// The role is removed from its members before its slot can be reused
+				long mask = 1L << roleSlot;
+				for ( int slot = 0; slot < store.getSlotCount(); slot++ ) {
+					long roleBitmap = store.getRoleBitmap( slot );
+					if ( ( roleBitmap & mask ) != 0 ) store.setRoleBitmap( slot, roleBitmap & ~mask );
+				}
+				store.setRoleName( roleSlot, null );
+				roleRegistry.remove( role.getIdentifier() );
+			} catch ( IOException exception ) {
+				throw new SecurityManagerException( "Cannot delete role " + role.getRoleName(), exception );
+			} finally {
+				lock.writeLock().unlock();
+			}
+			permissionManager.roleDeleted( role.getIdentifier() );
+			authorizationManager.invalidateAll();
+			sessionManager.allUsersUpdated();
+		}
+	}
+	
+	private class MappedFilePermissionManager extends AbstractPermissionManager {
+		
+		MappedFilePermissionManager() {
+			super( MappedFileSecurityManager.this );
+		}
+		
+		@Override PermissionModel getModel() throws SecurityManagerException {
+			checkOpened();
+			return permissionModel;
+		}
+		
+		@Override void storeModel( PermissionModel model, Change change ) throws SecurityManagerException {
+			lock.writeLock().lock();
+			try {
+				checkOpened();
+				savePermissions( model );
+				permissionModel = model;
+			} catch ( IOException exception ) {
+				throw new SecurityManagerException( "Cannot write permissions file " + getPermissionsFilename(), exception );
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Encode an encrypted key to a readable string.
+	 * @param bytes	The input encrypted key
+	 * @return The readable string.
+	 */
+	private static String encryptedKeyTostring( byte[] bytes ) {
+		final String digitTable = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+	    StringBuilder buffer = new StringBuilder();
+	    int i = 0;
+	    byte pos;
+	    
+	    for ( i = 0; i < bytes.length - bytes.length % 3; i += 3 ) {
+	        pos = (byte) ( bytes[i] >> 2 & 63 );
+	        buffer.append( digitTable.charAt( pos ) );
+	        pos = (byte) ( ( ( bytes[i] & 3 ) << 4 ) + ( bytes[i + 1] >> 4 & 15 ) );
+	        buffer.append( digitTable.charAt( pos ) );
+	        pos = (byte) ( ( ( bytes[i + 1] & 15 ) << 2 ) + ( bytes[i + 2] >> 6 & 3 ) );
+	        buffer.append( digitTable.charAt( pos ) );
+	        pos = (byte) ( bytes[i + 2] & 63 );
+	        buffer.append( digitTable.charAt( pos ) );
+	    }
+	    
+	    if ( bytes.length % 3 != 0 ) {
+	        if ( bytes.length % 3 == 2 ) {
+	            pos = (byte) ( bytes[i] >> 2 & 63 );
+	            buffer.append( digitTable.charAt( pos ) );
+	            pos = (byte) ( ( ( bytes[i] & 3 ) << 4 ) + ( bytes[i + 1] >> 4 & 15 ) );
+	            buffer.append( digitTable.charAt( pos ) );
+	            pos = (byte) ( ( bytes[i + 1] & 15 ) << 2 );
+	            buffer.append( digitTable.charAt( pos ) );
+	            buffer.append( "*" );
+	        } else if ( bytes.length % 3 == 1 ) {
+	            pos = (byte) ( bytes[i] >> 2 & 63 );
+	            buffer.append( digitTable.charAt( pos ) );
+	            pos = (byte) ( ( bytes[i] & 3 ) << 4 );
+	            buffer.append( digitTable.charAt( pos ) );
+	            buffer.append( "**" );
+	        }
+	    }
+	    return buffer.toString();
+	}
+
+}
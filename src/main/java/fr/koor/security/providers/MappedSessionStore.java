@@ -0,0 +1,211 @@
+package fr.koor.security.providers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ *     This class implements the persistent storage of the sessions of a <code>ShardedSessionManager</code>. It uses a
+ *     memory-mapped file made of a header (format, capacity) followed by fixed-size session records. A record contains
+ *     the identifier of the user, the SHA-256 hash of the token (the token itself is never stored: a copy of the file
+ *     doesn't allow to use the sessions), the creation time and the last access time.
+ * </p>
+ * <p>
+ *     The slot of a session doesn't move while the session is open, so updating its last access time is a single
+ *     write into the mapped buffer. Free slots are reused; the file is doubled when it is full.
+ * </p>
+ * <p>
+ *     The methods of this class are synchronized: all the buffer accesses are short and absolute.
+ * </p>
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+final class MappedSessionStore implements AutoCloseable {
+
+	static final int TOKEN_HASH_LENGTH = 32;
+
+	private static final int MAGIC = 0x4B534D53;		// KSMS
+	private static final int VERSION = 1;
+
+	// File header
+	private static final int HEADER_CAPACITY = 8;
+	private static final int HEADER_SIZE = 64;
+
+	// Session record
+	private static final int RECORD_STATE = 0;
+	private static final int RECORD_USER_ID = 4;
+	private static final int RECORD_TOKEN_HASH = 8;
+	private static final int RECORD_CREATION_TIME = 40;
+	private static final int RECORD_LAST_ACCESS_TIME = 48;
+	private static final int RECORD_SIZE = 64;
+	private static final int STATE_FREE = 0;
+	private static final int STATE_USED = 1;
+
+	/**
+	 * This class represents a session read from the file.
+	 */
+	static final class StoredSession {
+		final int slot;
+		final int userIdentifier;
+		final byte [] tokenHash;
+		final long creationTime;
+		final long lastAccessTime;
+
+		StoredSession( int slot, int userIdentifier, byte [] tokenHash, long creationTime, long lastAccessTime ) {
+			this.slot = slot;
+			this.userIdentifier = userIdentifier;
+			this.tokenHash = tokenHash;
+			this.creationTime = creationTime;
+			this.lastAccessTime = lastAccessTime;
+		}
+	}
+
+	private final String filename;
+	private RandomAccessFile file;
+	private MappedByteBuffer records;
+	private int capacity;
+	private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+
+	/**
+	 * Opens (or creates) the session file.
+	 *
+	 * @param filename			The file name.
+	 * @param initialCapacity	The number of records allocated when the file is created.
+	 *
+	 * @throws IOException	Thrown if the file cannot be opened or is not valid.
+	 */
+	MappedSessionStore( String filename, int initialCapacity ) throws IOException {
+		this.filename = filename;
+		boolean created = new File( filename ).exists() == false;
+		this.file = new RandomAccessFile( filename, "rw" );
+		try {
+			if ( created ) {
+				this.capacity = Math.max( initialCapacity, 16 );
+				this.file.setLength( HEADER_SIZE + (long) this.capacity * RECORD_SIZE );
+				this.mapRecords();
+				this.records.putInt( 0, MAGIC );
+				this.records.putInt( 4, VERSION );
+				this.records.putInt( HEADER_CAPACITY, this.capacity );
+			} else {
+				this.mapRecords();
+				if ( this.records.capacity() < HEADER_SIZE || this.records.getInt( 0 ) != MAGIC
+						|| this.records.getInt( 4 ) != VERSION ) {
+					throw new IOException( filename + " is not a session file" );
+				}
+				this.capacity = this.records.getInt( HEADER_CAPACITY );
+				if ( this.file.length() < HEADER_SIZE + (long) this.capacity * RECORD_SIZE ) {
+					throw new IOException( filename + " is truncated" );
+				}
+			}
+			for ( int slot = 0; slot < this.capacity; slot++ ) {
+				if ( this.records.getInt( recordOffset( slot ) + RECORD_STATE ) != STATE_USED ) this.freeSlots.add( slot );
+			}
+		} catch ( IOException | RuntimeException exception ) {
+			this.close();
+			throw exception;
+		}
+	}
+
+	private void mapRecords() throws IOException {
+		this.records = this.file.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, this.file.length() );
+	}
+
+	private static int recordOffset( int slot ) {
+		return HEADER_SIZE + slot * RECORD_SIZE;
+	}
+
+	/**
+	 * Returns the sessions stored in the file.
+	 *
+	 * @return The stored sessions, in slot order.
+	 */
+	synchronized List<StoredSession> readSessions() {
+		List<StoredSession> sessions = new ArrayList<>();
+		for ( int slot = 0; slot < this.capacity; slot++ ) {
+			int offset = recordOffset( slot );
+			if ( this.records.getInt( offset + RECORD_STATE ) != STATE_USED ) continue;
+			byte [] tokenHash = new byte[ TOKEN_HASH_LENGTH ];
+			for ( int i = 0; i < TOKEN_HASH_LENGTH; i++ ) tokenHash[i] = this.records.get( offset + RECORD_TOKEN_HASH + i );
+			sessions.add( new StoredSession( slot, this.records.getInt( offset + RECORD_USER_ID ), tokenHash,
+					this.records.getLong( offset + RECORD_CREATION_TIME ),
+					this.records.getLong( offset + RECORD_LAST_ACCESS_TIME ) ) );
+		}
+		return sessions;
+	}
+
+	/**
+	 * Stores a new session.
+	 *
+	 * @return The slot of the session.
+	 * @throws IOException	Thrown if the file cannot be grown.
+	 */
+	synchronized int insert( int userIdentifier, byte [] tokenHash, long creationTime, long lastAccessTime ) throws IOException {
+		if ( this.records == null ) throw new IOException( this.filename + " is closed" );
+		if ( this.freeSlots.isEmpty() ) this.grow();
+		int slot = this.freeSlots.poll();
+		int offset = recordOffset( slot );
+		this.records.putInt( offset + RECORD_USER_ID, userIdentifier );
+		for ( int i = 0; i < TOKEN_HASH_LENGTH; i++ ) this.records.put( offset + RECORD_TOKEN_HASH + i, tokenHash[i] );
+		this.records.putLong( offset + RECORD_CREATION_TIME, creationTime );
+		this.records.putLong( offset + RECORD_LAST_ACCESS_TIME, lastAccessTime );
+		// The state is written last: a record is never seen used with a partial content
+		this.records.putInt( offset + RECORD_STATE, STATE_USED );
+		return slot;
+	}
+
+	/**
+	 * Updates the last access time of the session stored at the specified slot.
+	 */
+	synchronized void updateLastAccessTime( int slot, long lastAccessTime ) {
+		if ( this.records == null ) return;
+		this.records.putLong( recordOffset( slot ) + RECORD_LAST_ACCESS_TIME, lastAccessTime );
+	}
+
+	/**
+	 * Frees the slot of a closed session.
+	 */
+	synchronized void delete( int slot ) {
+		if ( this.records == null ) return;
+		int offset = recordOffset( slot );
+		if ( this.records.getInt( offset + RECORD_STATE ) == STATE_FREE ) return;
+		this.records.putInt( offset + RECORD_STATE, STATE_FREE );
+		this.freeSlots.add( slot );
+	}
+
+	private void grow() throws IOException {
+		long newCapacity = 2L * this.capacity;
+		if ( HEADER_SIZE + newCapacity * RECORD_SIZE > Integer.MAX_VALUE ) throw new IOException( this.filename + " is full" );
+		this.records.force();
+		this.file.setLength( HEADER_SIZE + newCapacity * RECORD_SIZE );
+		this.mapRecords();
+		for ( int slot = this.capacity; slot < newCapacity; slot++ ) this.freeSlots.add( slot );
+		this.capacity = (int) newCapacity;
+		this.records.putInt( HEADER_CAPACITY, this.capacity );
+	}
+
+	/**
+	 * Forces the write of the modifications into the file.
+	 */
+	synchronized void force() {
+		if ( this.records != null ) this.records.force();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			if ( this.records != null ) this.records.force();
+		} finally {
+			this.records = null;
+			this.freeSlots.clear();
+			this.file.close();
+		}
+	}
+
+}
@@ -0,0 +1,541 @@
+package fr.koor.security.providers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>
+ *     This class implements the storage of the <code>MappedFileSecurityManager</code>. It uses three memory-mapped files:
+ * </p>
+ * <ul>
+ *     <li><b>filename</b>: a header (format, capacity, role table) followed by fixed-size user records. The record of the
+ *     user <code>n</code> is stored at slot <code>n - 1</code>, so a lookup by identifier is a direct access;</li>
+ *     <li><b>filename.heap</b>: the string heap. Logins, names and emails are appended as length prefixed UTF-8
+ *     sequences and referenced by their offset. Replaced strings are not reclaimed;</li>
+ *     <li><b>filename.index</b>: an open-addressing hash table (linear probing) that maps the hash of a login to a
+ *     record slot. It is rebuilt from the records if it is missing, inconsistent or too small.</li>
+ * </ul>
+ * <p>
+ *     A user record contains the identifier, the login hash, the login offset, the encrypted password (inline), the
+ *     counters, the role bitmap (a role is a bit: at most 64 roles) and the offsets of the other strings. Lookups and
+ *     password comparisons read the mapped buffers directly and allocate no object.
+ * </p>
+ * <p>
+ *     This class is not thread-safe: callers must synchronize its accesses. All buffer accesses are absolute, so
+ *     concurrent readers are allowed as long as no writer runs.
+ * </p>
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+final class MappedUserStore implements AutoCloseable {
+
+	static final int MAX_ROLES = 64;
+	static final int MAX_PASSWORD_LENGTH = 31;
+
+	private static final int MAGIC = 0x4B534D46;		// KSMF
+	private static final int HEAP_MAGIC = 0x4B534D48;	// KSMH
+	private static final int INDEX_MAGIC = 0x4B534D49;	// KSMI
+	private static final int VERSION = 1;
+
+	// Main file header
+	private static final int HEADER_CAPACITY = 8;
+	private static final int HEADER_SLOT_COUNT = 12;
+	private static final int HEADER_ROLES = 64;
+	private static final int HEADER_SIZE = 1024;
+
+	// User record
+	private static final int RECORD_ID = 0;
+	private static final int RECORD_LOGIN_HASH = 4;
+	private static final int RECORD_LOGIN = 8;
+	private static final int RECORD_PASSWORD = 16;
+	private static final int RECORD_CONNECTION_NUMBER = 48;
+	private static final int RECORD_CONSECUTIVE_ERRORS = 52;
+	private static final int RECORD_LAST_CONNECTION = 56;
+	private static final int RECORD_ROLES = 64;
+	private static final int RECORD_FIRST_NAME = 72;
+	private static final int RECORD_LAST_NAME = 80;
+	private static final int RECORD_EMAIL = 88;
+	private static final int RECORD_FLAGS = 96;
+	private static final int RECORD_SIZE = 104;
+	private static final int FLAG_DISABLED = 1;
+
+	// Heap and index headers
+	private static final int HEAP_END = 8;
+	private static final int HEAP_HEADER_SIZE = 16;
+	private static final int INDEX_CAPACITY = 8;
+	private static final int INDEX_SLOT_COUNT = 12;
+	private static final int INDEX_HEADER_SIZE = 16;
+	private static final int EMPTY = 0;
+	private static final int TOMBSTONE = -1;
+
+	private final String filename;
+	private RandomAccessFile mainFile;
+	private RandomAccessFile heapFile;
+	private RandomAccessFile indexFile;
+	private MappedByteBuffer records;
+	private MappedByteBuffer heap;
+	private MappedByteBuffer index;
+	private int capacity;
+	private int slotCount;
+	private int indexCapacity;
+	private int indexEntryCount;
+	private int tombstoneCount;
+	private long heapEnd;
+
+	/**
+	 * Opens (or creates) the files of the store.
+	 *
+	 * @param filename			The main file name.
+	 * @param initialCapacity	The number of records allocated when the file is created.
+	 *
+	 * @throws IOException	Thrown if the files cannot be opened or are not valid.
+	 */
+	MappedUserStore( String filename, int initialCapacity ) throws IOException {
+		this.filename = filename;
+		boolean created = new File( filename ).exists() == false;
+		this.mainFile = new RandomAccessFile( filename, "rw" );
+		this.heapFile = new RandomAccessFile( filename + ".heap", "rw" );
+		this.indexFile = new RandomAccessFile( filename + ".index", "rw" );
+		try {
+			if ( created ) {
+				this.capacity = Math.max( initialCapacity, 16 );
+				this.mainFile.setLength( HEADER_SIZE + (long) this.capacity * RECORD_SIZE );
+				this.mapRecords();
+				this.records.putInt( 0, MAGIC );
+				this.records.putInt( 4, VERSION );
+				this.records.putInt( HEADER_CAPACITY, this.capacity );
+				this.records.putInt( HEADER_SLOT_COUNT, 0 );
+				this.heapFile.setLength( 0 );
+			} else {
+				this.mapRecords();
+				if ( this.records.getInt( 0 ) != MAGIC || this.records.getInt( 4 ) != VERSION ) {
+					throw new IOException( filename + " is not a mapped security database" );
+				}
+				this.capacity = this.records.getInt( HEADER_CAPACITY );
+				this.slotCount = this.records.getInt( HEADER_SLOT_COUNT );
+				if ( this.mainFile.length() < HEADER_SIZE + (long) this.capacity * RECORD_SIZE ) {
+					throw new IOException( filename + " is truncated" );
+				}
+			}
+			this.openHeap();
+			this.openIndex();
+		} catch ( IOException | RuntimeException exception ) {
+			this.close();
+			throw exception;
+		}
+	}
+
+	private void mapRecords() throws IOException {
+		this.records = this.mainFile.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, this.mainFile.length() );
+	}
+
+	private void openHeap() throws IOException {
+		if ( this.heapFile.length() < HEAP_HEADER_SIZE ) {
+			this.heapFile.setLength( 64 * 1024 );
+			this.heap = this.heapFile.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, this.heapFile.length() );
+			this.heap.putInt( 0, HEAP_MAGIC );
+			this.heap.putLong( HEAP_END, HEAP_HEADER_SIZE );
+		} else {
+			this.heap = this.heapFile.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, this.heapFile.length() );
+			if ( this.heap.getInt( 0 ) != HEAP_MAGIC ) throw new IOException( this.filename + ".heap is not a string heap" );
+		}
+		this.heapEnd = this.heap.getLong( HEAP_END );
+	}
+
+	private void openIndex() throws IOException {
+		if ( this.indexFile.length() >= INDEX_HEADER_SIZE ) {
+			this.index = this.indexFile.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, this.indexFile.length() );
+			this.indexCapacity = this.index.getInt( INDEX_CAPACITY );
+			if ( this.index.getInt( 0 ) == INDEX_MAGIC && this.index.getInt( INDEX_SLOT_COUNT ) == this.slotCount
+					&& this.indexCapacity >= 2 * this.capacity
+					&& this.indexFile.length() >= INDEX_HEADER_SIZE + 4L * this.indexCapacity ) {
+				this.countIndexEntries();
+				return;
+			}
+		}
+		this.rebuildIndex();
+	}
+
+	private void countIndexEntries() {
+		this.indexEntryCount = 0;
+		this.tombstoneCount = 0;
+		for ( int position = 0; position < this.indexCapacity; position++ ) {
+			int entry = this.index.getInt( INDEX_HEADER_SIZE + 4 * position );
+			if ( entry == TOMBSTONE ) this.tombstoneCount++;
+			else if ( entry != EMPTY ) this.indexEntryCount++;
+		}
+	}
+
+	/**
+	 * Recreates the login index from the records, with a capacity suitable for the current record capacity.
+	 * Tombstones are dropped.
+	 */
+	private void rebuildIndex() throws IOException {
+		int newCapacity = Integer.highestOneBit( Math.max( 2 * this.capacity, 32 ) - 1 ) << 1;
+		this.index = null;
+		this.indexFile.setLength( 0 );
+		this.indexFile.setLength( INDEX_HEADER_SIZE + 4L * newCapacity );
+		this.index = this.indexFile.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, this.indexFile.length() );
+		this.index.putInt( 0, INDEX_MAGIC );
+		this.index.putInt( INDEX_CAPACITY, newCapacity );
+		this.indexCapacity = newCapacity;
+		this.indexEntryCount = 0;
+		this.tombstoneCount = 0;
+		for ( int slot = 0; slot < this.slotCount; slot++ ) {
+			if ( this.isUsed( slot ) ) this.indexInsert( slot );
+		}
+		this.index.putInt( INDEX_SLOT_COUNT, this.slotCount );
+	}
+
+	// --- Strings ---
+
+	private static int loginHash( String login ) {
+		int hash = login.hashCode();
+		return hash ^ ( hash >>> 16 );
+	}
+
+	/**
+	 * Appends a string into the heap.
+	 *
+	 * @return The offset of the string (0 for the empty string).
+	 */
+	private long appendString( String value ) throws IOException {
+		if ( value == null || value.isEmpty() ) return 0;
+		byte [] bytes = value.getBytes( StandardCharsets.UTF_8 );
+		long offset = this.heapEnd;
+		long end = offset + 4 + bytes.length;
+		if ( end > this.heap.capacity() ) {
+			long newLength = Math.max( end, 2L * this.heap.capacity() );
+			if ( newLength > Integer.MAX_VALUE ) throw new IOException( "String heap is full" );
+			this.heapFile.setLength( newLength );
+			this.heap = this.heapFile.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, newLength );
+		}
+		this.heap.putInt( (int) offset, bytes.length );
+		for ( int i = 0; i < bytes.length; i++ ) this.heap.put( (int) offset + 4 + i, bytes[i] );
+		this.heapEnd = end;
+		this.heap.putLong( HEAP_END, end );
+		return offset;
+	}
+
+	private String readString( long offset ) {
+		if ( offset == 0 ) return "";
+		int length = this.heap.getInt( (int) offset );
+		byte [] bytes = new byte[ length ];
+		for ( int i = 0; i < length; i++ ) bytes[i] = this.heap.get( (int) offset + 4 + i );
+		return new String( bytes, StandardCharsets.UTF_8 );
+	}
+
+	/**
+	 * Compares a string of the heap with the specified value. ASCII strings are compared without any allocation.
+	 */
+	private boolean stringEquals( long offset, String value ) {
+		if ( offset == 0 ) return value.isEmpty();
+		int length = this.heap.getInt( (int) offset );
+		if ( length != value.length() ) return length >= value.length() && this.readString( offset ).equals( value );
+		for ( int i = 0; i < length; i++ ) {
+			char character = value.charAt( i );
+			if ( character >= 0x80 ) return this.readString( offset ).equals( value );
+			if ( this.heap.get( (int) offset + 4 + i ) != character ) return false;
+		}
+		return true;
+	}
+
+	// --- Login index ---
+
+	// Probes are bounded by the index capacity: they always end, even on an index without any empty entry.
+
+	private void indexInsert( int slot ) {
+		int mask = this.indexCapacity - 1;
+		int position = this.records.getInt( this.recordOffset( slot ) + RECORD_LOGIN_HASH ) & mask;
+		for ( int probe = 0; probe < this.indexCapacity; probe++ ) {
+			int entry = this.index.getInt( INDEX_HEADER_SIZE + 4 * position );
+			if ( entry == EMPTY || entry == TOMBSTONE ) {
+				if ( entry == TOMBSTONE ) this.tombstoneCount--;
+				this.index.putInt( INDEX_HEADER_SIZE + 4 * position, slot + 1 );
+				this.indexEntryCount++;
+				return;
+			}
+			position = ( position + 1 ) & mask;
+		}
+		throw new IllegalStateException( "Login index is full" );
+	}
+
+	private void indexRemove( int slot ) {
+		int mask = this.indexCapacity - 1;
+		int position = this.records.getInt( this.recordOffset( slot ) + RECORD_LOGIN_HASH ) & mask;
+		for ( int probe = 0; probe < this.indexCapacity; probe++ ) {
+			int entry = this.index.getInt( INDEX_HEADER_SIZE + 4 * position );
+			if ( entry == EMPTY ) return;
+			if ( entry == slot + 1 ) {
+				this.index.putInt( INDEX_HEADER_SIZE + 4 * position, TOMBSTONE );
+				this.indexEntryCount--;
+				this.tombstoneCount++;
+				return;
+			}
+			position = ( position + 1 ) & mask;
+		}
+	}
+
+	/**
+	 * Rebuilds the index in place when its live entries plus its tombstones exceed three quarters of its capacity,
+	 * so that probes keep finding empty entries.
+	 */
+	private void purgeTombstones() throws IOException {
+		if ( 4L * ( this.indexEntryCount + this.tombstoneCount ) > 3L * this.indexCapacity ) this.rebuildIndex();
+	}
+
+	/**
+	 * Returns the slot of the user that has the specified login.
+	 *
+	 * @param login	The login.
+	 * @return The slot of the user, or -1 if the login is unknown.
+	 */
+	int findSlot( String login ) {
+		int hash = loginHash( login );
+		int mask = this.indexCapacity - 1;
+		int position = hash & mask;
+		for ( int probe = 0; probe < this.indexCapacity; probe++ ) {
+			int entry = this.index.getInt( INDEX_HEADER_SIZE + 4 * position );
+			if ( entry == EMPTY ) return -1;
+			if ( entry != TOMBSTONE ) {
+				int offset = this.recordOffset( entry - 1 );
+				if ( this.records.getInt( offset + RECORD_LOGIN_HASH ) == hash
+						&& this.stringEquals( this.records.getLong( offset + RECORD_LOGIN ), login ) ) {
+					return entry - 1;
+				}
+			}
+			position = ( position + 1 ) & mask;
+		}
+		return -1;
+	}
+
+	// --- Records ---
+
+	private int recordOffset( int slot ) {
+		return HEADER_SIZE + slot * RECORD_SIZE;
+	}
+
+	int getSlotCount() {
+		return this.slotCount;
+	}
+
+	/**
+	 * Returns the slot of the specified user identifier.
+	 *
+	 * @param userIdentifier	The user identifier.
+	 * @return The slot, or -1 if the user doesn't exist.
+	 */
+	int slotOf( int userIdentifier ) {
+		int slot = userIdentifier - 1;
+		return slot >= 0 && slot < this.slotCount && this.isUsed( slot ) ? slot : -1;
+	}
+
+	boolean isUsed( int slot ) {
+		return this.records.getInt( this.recordOffset( slot ) + RECORD_ID ) != 0;
+	}
+
+	int getIdentifier( int slot ) {
+		return this.records.getInt( this.recordOffset( slot ) + RECORD_ID );
+	}
+
+	String getLogin( int slot ) {
+		return this.readString( this.records.getLong( this.recordOffset( slot ) + RECORD_LOGIN ) );
+	}
+
+	String getPassword( int slot ) {
+		int offset = this.recordOffset( slot ) + RECORD_PASSWORD;
+		int length = this.records.get( offset ) & 0xFF;
+		char [] characters = new char[ length ];
+		for ( int i = 0; i < length; i++ ) characters[i] = (char) ( this.records.get( offset + 1 + i ) & 0xFF );
+		return new String( characters );
+	}
+
+	/**
+	 * Compares the stored encrypted password with the specified one, without any allocation.
+	 */
+	boolean isSamePassword( int slot, String encryptedPassword ) {
+		int offset = this.recordOffset( slot ) + RECORD_PASSWORD;
+		int length = this.records.get( offset ) & 0xFF;
+		if ( length != encryptedPassword.length() ) return false;
+		for ( int i = 0; i < length; i++ ) {
+			if ( ( this.records.get( offset + 1 + i ) & 0xFF ) != encryptedPassword.charAt( i ) ) return false;
+		}
+		return true;
+	}
+
+	int getConnectionNumber( int slot ) {
+		return this.records.getInt( this.recordOffset( slot ) + RECORD_CONNECTION_NUMBER );
+	}
+
+	int getConsecutiveErrors( int slot ) {
+		return this.records.getInt( this.recordOffset( slot ) + RECORD_CONSECUTIVE_ERRORS );
+	}
+
+	long getLastConnection( int slot ) {
+		return this.records.getLong( this.recordOffset( slot ) + RECORD_LAST_CONNECTION );
+	}
+
+	boolean isDisabled( int slot ) {
+		return ( this.records.getInt( this.recordOffset( slot ) + RECORD_FLAGS ) & FLAG_DISABLED ) != 0;
+	}
+
+	long getRoleBitmap( int slot ) {
+		return this.records.getLong( this.recordOffset( slot ) + RECORD_ROLES );
+	}
+
+	String getFirstName( int slot ) {
+		return this.readString( this.records.getLong( this.recordOffset( slot ) + RECORD_FIRST_NAME ) );
+	}
+
+	String getLastName( int slot ) {
+		return this.readString( this.records.getLong( this.recordOffset( slot ) + RECORD_LAST_NAME ) );
+	}
+
+	String getEmail( int slot ) {
+		return this.readString( this.records.getLong( this.recordOffset( slot ) + RECORD_EMAIL ) );
+	}
+
+	/**
+	 * Updates the counters of a user, in place.
+	 */
+	void setCounters( int slot, int connectionNumber, long lastConnection, int consecutiveErrors, boolean isDisabled ) {
+		int offset = this.recordOffset( slot );
+		this.records.putInt( offset + RECORD_CONNECTION_NUMBER, connectionNumber );
+		this.records.putLong( offset + RECORD_LAST_CONNECTION, lastConnection );
+		this.records.putInt( offset + RECORD_CONSECUTIVE_ERRORS, consecutiveErrors );
+		this.records.putInt( offset + RECORD_FLAGS, isDisabled ? FLAG_DISABLED : 0 );
+	}
+
+	void setRoleBitmap( int slot, long roleBitmap ) {
+		this.records.putLong( this.recordOffset( slot ) + RECORD_ROLES, roleBitmap );
+	}
+
+	/**
+	 * Appends a new user record.
+	 *
+	 * @return The identifier of the new user.
+	 */
+	int insertUser( String login, String encryptedPassword ) throws IOException {
+		if ( this.slotCount == this.capacity ) this.grow();
+		int slot = this.slotCount;
+		int offset = this.recordOffset( slot );
+		this.records.putInt( offset + RECORD_ID, slot + 1 );
+		this.records.putInt( offset + RECORD_LOGIN_HASH, loginHash( login ) );
+		this.records.putLong( offset + RECORD_LOGIN, this.appendString( login ) );
+		this.writePassword( slot, encryptedPassword );
+		this.setCounters( slot, 0, 0, 0, false );
+		this.records.putLong( offset + RECORD_ROLES, 0 );
+		this.records.putLong( offset + RECORD_FIRST_NAME, 0 );
+		this.records.putLong( offset + RECORD_LAST_NAME, 0 );
+		this.records.putLong( offset + RECORD_EMAIL, 0 );
+		this.slotCount++;
+		this.records.putInt( HEADER_SLOT_COUNT, this.slotCount );
+		this.indexInsert( slot );
+		this.index.putInt( INDEX_SLOT_COUNT, this.slotCount );
+		return slot + 1;
+	}
+
+	/**
+	 * Updates all the fields of a user. Strings are appended into the heap only if they have changed.
+	 */
+	void updateUser( int slot, String login, String encryptedPassword, String firstName, String lastName, String email ) throws IOException {
+		int offset = this.recordOffset( slot );
+		if ( this.stringEquals( this.records.getLong( offset + RECORD_LOGIN ), login ) == false ) {
+			this.indexRemove( slot );
+			this.records.putInt( offset + RECORD_LOGIN_HASH, loginHash( login ) );
+			this.records.putLong( offset + RECORD_LOGIN, this.appendString( login ) );
+			this.indexInsert( slot );
+			this.purgeTombstones();
+		}
+		this.writePassword( slot, encryptedPassword );
+		this.updateString( offset + RECORD_FIRST_NAME, firstName );
+		this.updateString( offset + RECORD_LAST_NAME, lastName );
+		this.updateString( offset + RECORD_EMAIL, email );
+	}
+
+	private void updateString( int fieldOffset, String value ) throws IOException {
+		if ( value == null ) value = "";
+		if ( this.stringEquals( this.records.getLong( fieldOffset ), value ) ) return;
+		this.records.putLong( fieldOffset, this.appendString( value ) );
+	}
+
+	private void writePassword( int slot, String encryptedPassword ) throws IOException {
+		if ( encryptedPassword.length() > MAX_PASSWORD_LENGTH ) throw new IOException( "Encrypted password too long" );
+		int offset = this.recordOffset( slot ) + RECORD_PASSWORD;
+		this.records.put( offset, (byte) encryptedPassword.length() );
+		for ( int i = 0; i < encryptedPassword.length(); i++ ) {
+			char character = encryptedPassword.charAt( i );
+			if ( character >= 0x80 ) throw new IOException( "Encrypted password must be ASCII" );
+			this.records.put( offset + 1 + i, (byte) character );
+		}
+	}
+
+	void deleteUser( int slot ) throws IOException {
+		this.indexRemove( slot );
+		this.records.putInt( this.recordOffset( slot ) + RECORD_ID, 0 );
+		this.purgeTombstones();
+	}
+
+	/**
+	 * Doubles the record capacity: the main file is extended and remapped, and the index is rebuilt.
+	 */
+	private void grow() throws IOException {
+		if ( (long) this.capacity * 2 * RECORD_SIZE + HEADER_SIZE > Integer.MAX_VALUE ) throw new IOException( "Mapped security database is full" );
+		this.capacity *= 2;
+		this.records.force();
+		this.mainFile.setLength( HEADER_SIZE + (long) this.capacity * RECORD_SIZE );
+		this.mapRecords();
+		this.records.putInt( HEADER_CAPACITY, this.capacity );
+		this.rebuildIndex();
+	}
+
+	// --- Roles ---
+
+	/**
+	 * Returns the name of the role stored at the specified slot (role identifier minus one).
+	 *
+	 * @return The role name, or null if the slot is free.
+	 */
+	String getRoleName( int roleSlot ) {
+		long offset = this.records.getLong( HEADER_ROLES + 8 * roleSlot );
+		return offset == 0 ? null : this.readString( offset );
+	}
+
+	void setRoleName( int roleSlot, String roleName ) throws IOException {
+		this.records.putLong( HEADER_ROLES + 8 * roleSlot, roleName == null ? 0 : this.appendString( roleName ) );
+	}
+
+	/**
+	 * Writes the modified pages of the mapped files to the storage device.
+	 */
+	void force() {
+		this.records.force();
+		this.heap.force();
+		this.index.force();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if ( this.records != null && this.heap != null && this.index != null ) this.force();
+		} finally {
+			this.records = null;
+			this.heap = null;
+			this.index = null;
+			try {
+				this.mainFile.close();
+			} finally {
+				try {
+					this.heapFile.close();
+				} finally {
+					this.indexFile.close();
+				}
+			}
+		}
+	}
+}
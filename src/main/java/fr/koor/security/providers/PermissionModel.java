@@ -0,0 +1,408 @@
+package fr.koor.security.providers;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ *     This class is an immutable snapshot of the permissions of a security manager: the registered permissions, the
+ *     permissions directly granted to each role and the parents of each role. A modification (<code>withGrant</code>,
+ *     <code>withoutRole</code>, ...) produces a new snapshot: a snapshot can therefore be published to any number of
+ *     reader threads, and written to disk, while new versions are being produced.
+ * </p>
+ * <p>
+ *     The effective permissions of a role (its grants and the grants of all its ancestors) are computed once per
+ *     snapshot and per role, and stored as a bitset indexed by permission identifier.
+ * </p>
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+final class PermissionModel {
+
+	static final PermissionModel EMPTY = new PermissionModel( new TreeMap<Integer, String>(),
+			new TreeMap<Integer, int []>(), new TreeMap<Integer, int []>() );
+
+	private static final int [] NO_IDENTIFIER = new int[ 0 ];
+
+	private final SortedMap<Integer, String> permissions;
+	private final Map<String, Integer> permissionsByName;
+	/** Role identifier to the sorted identifiers of its directly granted permissions. */
+	private final SortedMap<Integer, int []> grants;
+	/** Role identifier to the sorted identifiers of its parent roles. */
+	private final SortedMap<Integer, int []> parents;
+	private final ConcurrentHashMap<Integer, long []> effectivePermissions = new ConcurrentHashMap<>();
+
+	private PermissionModel( SortedMap<Integer, String> permissions, SortedMap<Integer, int []> grants,
+							 SortedMap<Integer, int []> parents ) {
+		this.permissions = permissions;
+		this.grants = grants;
+		this.parents = parents;
+		this.permissionsByName = new HashMap<>( permissions.size() * 2 );
+		for ( Map.Entry<Integer, String> entry : permissions.entrySet() ) {
+			this.permissionsByName.put( entry.getValue(), entry.getKey() );
+		}
+	}
+
+	boolean isEmpty() {
+		return this.permissions.isEmpty() && this.grants.isEmpty() && this.parents.isEmpty();
+	}
+
+	String getPermissionName( int permissionIdentifier ) {
+		return this.permissions.get( permissionIdentifier );
+	}
+
+	Integer getPermissionIdentifier( String permissionName ) {
+		return this.permissionsByName.get( permissionName );
+	}
+
+	/**
+	 * Returns the registered permissions (identifier to name), ordered by identifier.
+	 *
+	 * @return The permissions.
+	 */
+	SortedMap<Integer, String> getPermissions() {
+		return Collections.unmodifiableSortedMap( this.permissions );
+	}
+
+	int nextPermissionIdentifier() {
+		return this.permissions.isEmpty() ? 1 : this.permissions.lastKey() + 1;
+	}
+
+	/**
+	 * Returns the identifiers of the permissions directly granted to the specified role. The returned array must not be
+	 * modified.
+	 *
+	 * @param roleIdentifier	The role identifier.
+	 * @return The sorted permission identifiers.
+	 */
+	int [] getGrants( int roleIdentifier ) {
+		int [] result = this.grants.get( roleIdentifier );
+		return result == null ? NO_IDENTIFIER : result;
+	}
+
+	/**
+	 * Returns the identifiers of the direct parents of the specified role. The returned array must not be modified.
+	 *
+	 * @param roleIdentifier	The role identifier.
+	 * @return The sorted parent role identifiers.
+	 */
+	int [] getParents( int roleIdentifier ) {
+		int [] result = this.parents.get( roleIdentifier );
+		return result == null ? NO_IDENTIFIER : result;
+	}
+
+	/**
+	 * Returns the identifiers of the roles that have grants or parents, ordered by identifier.
+	 *
+	 * @return The role identifiers.
+	 */
+	SortedSet<Integer> getConfiguredRoles() {
+		SortedSet<Integer> result = new TreeSet<>( this.grants.keySet() );
+		result.addAll( this.parents.keySet() );
+		return result;
+	}
+
+	/**
+	 * Indicates if the first role is the second one or one of its descendants.
+	 *
+	 * @param roleIdentifier		The considered role.
+	 * @param ancestorIdentifier	The searched ancestor.
+	 * @return true if <code>ancestorIdentifier</code> is reachable from <code>roleIdentifier</code>.
+	 */
+	boolean inheritsFrom( int roleIdentifier, int ancestorIdentifier ) {
+		return this.inheritsFrom( roleIdentifier, ancestorIdentifier, new TreeSet<Integer>() );
+	}
+
+	private boolean inheritsFrom( int roleIdentifier, int ancestorIdentifier, SortedSet<Integer> visited ) {
+		if ( roleIdentifier == ancestorIdentifier ) return true;
+		if ( visited.add( roleIdentifier ) == false ) return false;
+		for ( int parentIdentifier : this.getParents( roleIdentifier ) ) {
+			if ( this.inheritsFrom( parentIdentifier, ancestorIdentifier, visited ) ) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the effective permissions of the specified role (its grants and those of all its ancestors) as a bitset
+	 * indexed by permission identifier. The bitset is computed once for this snapshot; it must not be modified.
+	 *
+	 * @param roleIdentifier	The role identifier.
+	 * @return The effective permission bitset.
+	 */
+	long [] getEffectivePermissions( int roleIdentifier ) {
+		long [] result = this.effectivePermissions.get( roleIdentifier );
+		if ( result == null ) {
+			result = new long[ 0 ];
+			TreeSet<Integer> visited = new TreeSet<>();
+			visited.add( roleIdentifier );
+			TreeSet<Integer> pending = new TreeSet<>( visited );
+			while ( pending.isEmpty() == false ) {
+				int current = pending.pollFirst();
+				for ( int permissionIdentifier : this.getGrants( current ) ) {
+					result = setBit( result, permissionIdentifier );
+				}
+				for ( int parentIdentifier : this.getParents( current ) ) {
+					if ( visited.add( parentIdentifier ) ) pending.add( parentIdentifier );
+				}
+			}
+			long [] previous = this.effectivePermissions.putIfAbsent( roleIdentifier, result );
+			if ( previous != null ) result = previous;
+		}
+		return result;
+	}
+
+	static long [] setBit( long [] bits, int index ) {
+		int word = index >>> 6;
+		if ( word >= bits.length ) bits = Arrays.copyOf( bits, word + 1 );
+		bits[ word ] |= 1L << index;
+		return bits;
+	}
+
+	static boolean isBitSet( long [] bits, int index ) {
+		int word = index >>> 6;
+		return index >= 0 && word < bits.length && ( bits[ word ] & ( 1L << index ) ) != 0;
+	}
+
+	static long [] or( long [] first, long [] second ) {
+		long [] result = Arrays.copyOf( first, Math.max( first.length, second.length ) );
+		for ( int i = 0; i < second.length; i++ ) result[ i ] |= second[ i ];
+		return result;
+	}
+
+	PermissionModel withPermission( int permissionIdentifier, String permissionName ) {
+		SortedMap<Integer, String> newPermissions = new TreeMap<>( this.permissions );
+		newPermissions.put( permissionIdentifier, permissionName );
+		return new PermissionModel( newPermissions, this.grants, this.parents );
+	}
+
+	/**
+	 * Returns a snapshot without the specified permission: it is also revoked from every role.
+	 *
+	 * @param permissionIdentifier	The identifier of the permission to remove.
+	 * @return The new snapshot, or this snapshot if the permission is unknown.
+	 */
+	PermissionModel withoutPermission( int permissionIdentifier ) {
+		if ( this.permissions.containsKey( permissionIdentifier ) == false ) return this;
+		SortedMap<Integer, String> newPermissions = new TreeMap<>( this.permissions );
+		newPermissions.remove( permissionIdentifier );
+		SortedMap<Integer, int []> newGrants = new TreeMap<>();
+		for ( Map.Entry<Integer, int []> entry : this.grants.entrySet() ) {
+			int [] roleGrants = without( entry.getValue(), permissionIdentifier );
+			if ( roleGrants.length > 0 ) newGrants.put( entry.getKey(), roleGrants );
+		}
+		return new PermissionModel( newPermissions, newGrants, this.parents );
+	}
+
+	/**
+	 * Returns a snapshot where the specified role is granted the specified permission.
+	 *
+	 * @return The new snapshot, or this snapshot if the permission is already granted.
+	 */
+	PermissionModel withGrant( int roleIdentifier, int permissionIdentifier ) {
+		SortedMap<Integer, int []> newGrants = with( this.grants, roleIdentifier, permissionIdentifier );
+		return newGrants == this.grants ? this : new PermissionModel( this.permissions, newGrants, this.parents );
+	}
+
+	/**
+	 * Returns a snapshot where the specified role is not granted the specified permission anymore.
+	 *
+	 * @return The new snapshot, or this snapshot if the permission is not granted.
+	 */
+	PermissionModel withoutGrant( int roleIdentifier, int permissionIdentifier ) {
+		SortedMap<Integer, int []> newGrants = without( this.grants, roleIdentifier, permissionIdentifier );
+		return newGrants == this.grants ? this : new PermissionModel( this.permissions, newGrants, this.parents );
+	}
+
+	/**
+	 * Returns a snapshot where the specified role inherits from the specified parent.
+	 *
+	 * @return The new snapshot, or this snapshot if the role already inherits from the parent.
+	 */
+	PermissionModel withParent( int roleIdentifier, int parentIdentifier ) {
+		SortedMap<Integer, int []> newParents = with( this.parents, roleIdentifier, parentIdentifier );
+		return newParents == this.parents ? this : new PermissionModel( this.permissions, this.grants, newParents );
+	}
+
+	/**
+	 * Returns a snapshot where the specified role doesn't inherit from the specified parent anymore.
+	 *
+	 * @return The new snapshot, or this snapshot if the role doesn't inherit from the parent.
+	 */
+	PermissionModel withoutParent( int roleIdentifier, int parentIdentifier ) {
+		SortedMap<Integer, int []> newParents = without( this.parents, roleIdentifier, parentIdentifier );
+		return newParents == this.parents ? this : new PermissionModel( this.permissions, this.grants, newParents );
+	}
+
+	/**
+	 * Returns a snapshot without any reference to the specified role: its grants, its parents and its children links
+	 * are removed.
+	 *
+	 * @param roleIdentifier	The identifier of the deleted role.
+	 * @return The new snapshot, or this snapshot if the role is not referenced.
+	 */
+	PermissionModel withoutRole( int roleIdentifier ) {
+		boolean referenced = this.grants.containsKey( roleIdentifier ) || this.parents.containsKey( roleIdentifier );
+		SortedMap<Integer, int []> newParents = new TreeMap<>();
+		for ( Map.Entry<Integer, int []> entry : this.parents.entrySet() ) {
+			if ( entry.getKey() == roleIdentifier ) continue;
+			int [] roleParents = without( entry.getValue(), roleIdentifier );
+			if ( roleParents.length != entry.getValue().length ) referenced = true;
+			if ( roleParents.length > 0 ) newParents.put( entry.getKey(), roleParents );
+		}
+		if ( referenced == false ) return this;
+		SortedMap<Integer, int []> newGrants = new TreeMap<>( this.grants );
+		newGrants.remove( roleIdentifier );
+		return new PermissionModel( this.permissions, newGrants, newParents );
+	}
+
+	private static SortedMap<Integer, int []> with( SortedMap<Integer, int []> links, int key, int value ) {
+		int [] values = links.get( key );
+		if ( values == null ) values = NO_IDENTIFIER;
+		if ( Arrays.binarySearch( values, value ) >= 0 ) return links;
+		int [] newValues = Arrays.copyOf( values, values.length + 1 );
+		newValues[ values.length ] = value;
+		Arrays.sort( newValues );
+		SortedMap<Integer, int []> result = new TreeMap<>( links );
+		result.put( key, newValues );
+		return result;
+	}
+
+	private static SortedMap<Integer, int []> without( SortedMap<Integer, int []> links, int key, int value ) {
+		int [] values = links.get( key );
+		if ( values == null || Arrays.binarySearch( values, value ) < 0 ) return links;
+		int [] newValues = without( values, value );
+		SortedMap<Integer, int []> result = new TreeMap<>( links );
+		if ( newValues.length == 0 ) {
+			result.remove( key );
+		} else {
+			result.put( key, newValues );
+		}
+		return result;
+	}
+
+	private static int [] without( int [] values, int value ) {
+		int index = Arrays.binarySearch( values, value );
+		if ( index < 0 ) return values;
+		int [] result = new int[ values.length - 1 ];
+		System.arraycopy( values, 0, result, 0, index );
+		System.arraycopy( values, index + 1, result, index, result.length - index );
+		return result;
+	}
+
+	private static boolean linksEqual( SortedMap<Integer, int []> first, SortedMap<Integer, int []> second ) {
+		if ( first.size() != second.size() ) return false;
+		for ( Map.Entry<Integer, int []> entry : first.entrySet() ) {
+			if ( Arrays.equals( entry.getValue(), second.get( entry.getKey() ) ) == false ) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean equals( Object obj ) {
+		if ( obj == this ) return true;
+		if ( obj instanceof PermissionModel == false ) return false;
+		PermissionModel other = (PermissionModel) obj;
+		return this.permissions.equals( other.permissions ) && linksEqual( this.grants, other.grants )
+				&& linksEqual( this.parents, other.parents );
+	}
+
+	@Override
+	public int hashCode() {
+		return this.permissions.hashCode() * 31 + this.grants.keySet().hashCode();
+	}
+
+	/**
+	 * This class produces a snapshot from many records (file loading) without creating an intermediate snapshot for
+	 * each record. This class is not thread-safe.
+	 */
+	static final class Builder {
+
+		private final SortedMap<Integer, String> permissions = new TreeMap<>();
+		private final SortedMap<Integer, SortedSet<Integer>> grants = new TreeMap<>();
+		private final SortedMap<Integer, SortedSet<Integer>> parents = new TreeMap<>();
+
+		Builder() { }
+
+		/**
+		 * Creates a builder initialized with the content of the specified snapshot.
+		 *
+		 * @param model	The initial content.
+		 */
+		Builder( PermissionModel model ) {
+			this.permissions.putAll( model.permissions );
+			copy( model.grants, this.grants );
+			copy( model.parents, this.parents );
+		}
+
+		private static void copy( SortedMap<Integer, int []> source, SortedMap<Integer, SortedSet<Integer>> target ) {
+			for ( Map.Entry<Integer, int []> entry : source.entrySet() ) {
+				for ( int value : entry.getValue() ) add( target, entry.getKey(), value );
+			}
+		}
+
+		private static void add( SortedMap<Integer, SortedSet<Integer>> links, int key, int value ) {
+			SortedSet<Integer> values = links.get( key );
+			if ( values == null ) {
+				values = new TreeSet<>();
+				links.put( key, values );
+			}
+			values.add( value );
+		}
+
+		void putPermission( int permissionIdentifier, String permissionName ) {
+			this.permissions.put( permissionIdentifier, permissionName );
+		}
+
+		void grant( int roleIdentifier, int permissionIdentifier ) {
+			add( this.grants, roleIdentifier, permissionIdentifier );
+		}
+
+		void addParent( int roleIdentifier, int parentIdentifier ) {
+			add( this.parents, roleIdentifier, parentIdentifier );
+		}
+
+		/**
+		 * Removes every reference to the specified role.
+		 *
+		 * @param roleIdentifier	The identifier of the deleted role.
+		 */
+		void removeRole( int roleIdentifier ) {
+			this.grants.remove( roleIdentifier );
+			this.parents.remove( roleIdentifier );
+			for ( SortedSet<Integer> roleParents : this.parents.values() ) roleParents.remove( roleIdentifier );
+		}
+
+		private static SortedMap<Integer, int []> toArrays( SortedMap<Integer, SortedSet<Integer>> links ) {
+			SortedMap<Integer, int []> result = new TreeMap<>();
+			for ( Map.Entry<Integer, SortedSet<Integer>> entry : links.entrySet() ) {
+				if ( entry.getValue().isEmpty() ) continue;
+				int [] values = new int[ entry.getValue().size() ];
+				int index = 0;
+				for ( Integer value : entry.getValue() ) values[ index++ ] = value;
+				result.put( entry.getKey(), values );
+			}
+			return result;
+		}
+
+		PermissionModel build() {
+			SortedMap<Integer, SortedSet<Integer>> knownGrants = new TreeMap<>();
+			for ( Map.Entry<Integer, SortedSet<Integer>> entry : this.grants.entrySet() ) {
+				for ( Integer permissionIdentifier : entry.getValue() ) {
+					if ( this.permissions.containsKey( permissionIdentifier ) ) {
+						add( knownGrants, entry.getKey(), permissionIdentifier );
+					}
+				}
+			}
+			return new PermissionModel( new TreeMap<>( this.permissions ), toArrays( knownGrants ),
+					toArrays( this.parents ) );
+		}
+	}
+}
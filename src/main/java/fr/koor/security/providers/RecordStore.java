@@ -0,0 +1,496 @@
+package fr.koor.security.providers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ *     This class is an immutable snapshot of the users, the roles and the permission model of a file based security
+ *     manager. Records are indexed by identifier and by login (or role name).
+ * </p>
+ * <p>
+ *     A modification (<code>withUser</code>, <code>withoutRole</code>, ...) produces a new snapshot that shares most
+ *     of its indexes with the previous one (see <code>SnapshotMap</code>). A snapshot can therefore be published to
+ *     any number of reader threads, and written to disk, while new versions are being produced.
+ * </p>
+ * <p>
+ *     A reverse index (role identifier to the identifiers of its members) is maintained with the users, so that the
+ *     members of a role are listed without scanning all users. Deleting a role also removes it from its members.
+ * </p>
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+final class RecordStore {
+
+	private static final Comparator<UserRecord> USER_ORDER = new Comparator<UserRecord>() {
+		@Override public int compare( UserRecord first, UserRecord second ) {
+			return Integer.compare( first.getIdentifier(), second.getIdentifier() );
+		}
+	};
+
+	private static final Comparator<RoleRecord> ROLE_ORDER = new Comparator<RoleRecord>() {
+		@Override public int compare( RoleRecord first, RoleRecord second ) {
+			return Integer.compare( first.getIdentifier(), second.getIdentifier() );
+		}
+	};
+
+	private final SnapshotMap<Integer, UserRecord> users;
+	private final SnapshotMap<String, UserRecord> usersByLogin;
+	private final SnapshotMap<Integer, RoleRecord> roles;
+	private final SnapshotMap<String, RoleRecord> rolesByName;
+	/** Role identifier to its members (user identifier to user identifier). */
+	private final SnapshotMap<Integer, SnapshotMap<Integer, Integer>> members;
+	private final int maxUserIdentifier;
+	private final int maxRoleIdentifier;
+	private final PermissionModel permissions;
+
+	/**
+	 * Creates an empty snapshot.
+	 */
+	RecordStore() {
+		this( SnapshotMap.<Integer, UserRecord>empty(), SnapshotMap.<String, UserRecord>empty(),
+				SnapshotMap.<Integer, RoleRecord>empty(), SnapshotMap.<String, RoleRecord>empty(),
+				SnapshotMap.<Integer, SnapshotMap<Integer, Integer>>empty(), 0, 0, PermissionModel.EMPTY );
+	}
+
+	private RecordStore( SnapshotMap<Integer, UserRecord> users, SnapshotMap<String, UserRecord> usersByLogin,
+						 SnapshotMap<Integer, RoleRecord> roles, SnapshotMap<String, RoleRecord> rolesByName,
+						 SnapshotMap<Integer, SnapshotMap<Integer, Integer>> members,
+						 int maxUserIdentifier, int maxRoleIdentifier, PermissionModel permissions ) {
+		this.users = users;
+		this.usersByLogin = usersByLogin;
+		this.roles = roles;
+		this.rolesByName = rolesByName;
+		this.members = members;
+		this.maxUserIdentifier = maxUserIdentifier;
+		this.maxRoleIdentifier = maxRoleIdentifier;
+		this.permissions = permissions;
+	}
+
+	UserRecord getUser( int userIdentifier ) {
+		return this.users.get( userIdentifier );
+	}
+
+	UserRecord getUserByLogin( String login ) {
+		return this.usersByLogin.get( login );
+	}
+
+	/**
+	 * Returns a snapshot that contains the specified user, replacing the user with the same identifier.
+	 *
+	 * @param user	The user to store.
+	 * @return The new snapshot.
+	 */
+	RecordStore withUser( UserRecord user ) {
+		UserRecord previousUser = this.users.get( user.getIdentifier() );
+		SnapshotMap<String, UserRecord> byLogin = this.usersByLogin;
+		if ( previousUser != null && previousUser.getLogin().equals( user.getLogin() ) == false ) {
+			byLogin = byLogin.without( previousUser.getLogin() );
+		}
+		SnapshotMap<Integer, SnapshotMap<Integer, Integer>> newMembers = this.members;
+		int [] previousRoles = previousUser == null ? user.getRoleIdentifiers() : previousUser.getRoleIdentifiers();
+		if ( previousUser != null ) {
+			for ( int roleIdentifier : previousRoles ) {
+				if ( contains( user.getRoleIdentifiers(), roleIdentifier ) == false ) {
+					newMembers = withoutMember( newMembers, roleIdentifier, user.getIdentifier() );
+				}
+			}
+		}
+		for ( int roleIdentifier : user.getRoleIdentifiers() ) {
+			if ( previousUser == null || contains( previousRoles, roleIdentifier ) == false ) {
+				newMembers = withMember( newMembers, roleIdentifier, user.getIdentifier() );
+			}
+		}
+		return new RecordStore( this.users.with( user.getIdentifier(), user ), byLogin.with( user.getLogin(), user ),
+				this.roles, this.rolesByName, newMembers, Math.max( this.maxUserIdentifier, user.getIdentifier() ),
+				this.maxRoleIdentifier, this.permissions );
+	}
+
+	private static boolean contains( int [] values, int value ) {
+		for ( int current : values ) {
+			if ( current == value ) return true;
+		}
+		return false;
+	}
+
+	private static SnapshotMap<Integer, SnapshotMap<Integer, Integer>> withMember(
+			SnapshotMap<Integer, SnapshotMap<Integer, Integer>> members, int roleIdentifier, int userIdentifier ) {
+		SnapshotMap<Integer, Integer> roleMembers = members.get( roleIdentifier );
+		if ( roleMembers == null ) roleMembers = SnapshotMap.empty();
+		return members.with( roleIdentifier, roleMembers.with( userIdentifier, userIdentifier ) );
+	}
+
+	private static SnapshotMap<Integer, SnapshotMap<Integer, Integer>> withoutMember(
+			SnapshotMap<Integer, SnapshotMap<Integer, Integer>> members, int roleIdentifier, int userIdentifier ) {
+		SnapshotMap<Integer, Integer> roleMembers = members.get( roleIdentifier );
+		if ( roleMembers == null ) return members;
+		roleMembers = roleMembers.without( userIdentifier );
+		return roleMembers.size() == 0 ? members.without( roleIdentifier ) : members.with( roleIdentifier, roleMembers );
+	}
+
+	/**
+	 * Returns a snapshot without the specified user.
+	 *
+	 * @param userIdentifier	The identifier of the user to remove.
+	 * @return The new snapshot, or this snapshot if the user is unknown.
+	 */
+	RecordStore withoutUser( int userIdentifier ) {
+		UserRecord user = this.users.get( userIdentifier );
+		if ( user == null ) return this;
+		SnapshotMap<Integer, SnapshotMap<Integer, Integer>> newMembers = this.members;
+		for ( int roleIdentifier : user.getRoleIdentifiers() ) {
+			newMembers = withoutMember( newMembers, roleIdentifier, userIdentifier );
+		}
+		return new RecordStore( this.users.without( userIdentifier ), this.usersByLogin.without( user.getLogin() ),
+				this.roles, this.rolesByName, newMembers, this.maxUserIdentifier, this.maxRoleIdentifier, this.permissions );
+	}
+
+	/**
+	 * Returns the users of this snapshot, ordered by identifier.
+	 *
+	 * @return The users.
+	 */
+	List<UserRecord> getUsers() {
+		List<UserRecord> result = new ArrayList<>( this.users.values() );
+		result.sort( USER_ORDER );
+		return result;
+	}
+
+	int getUserCount() {
+		return this.users.size();
+	}
+
+	int nextUserIdentifier() {
+		return this.maxUserIdentifier + 1;
+	}
+
+	RoleRecord getRole( int roleIdentifier ) {
+		return this.roles.get( roleIdentifier );
+	}
+
+	RoleRecord getRoleByName( String roleName ) {
+		return this.rolesByName.get( roleName );
+	}
+
+	/**
+	 * Returns a snapshot that contains the specified role, replacing the role with the same identifier.
+	 *
+	 * @param role	The role to store.
+	 * @return The new snapshot.
+	 */
+	RecordStore withRole( RoleRecord role ) {
+		RoleRecord previousRole = this.roles.get( role.getIdentifier() );
+		SnapshotMap<String, RoleRecord> byName = this.rolesByName;
+		if ( previousRole != null && previousRole.getRoleName().equals( role.getRoleName() ) == false ) {
+			byName = byName.without( previousRole.getRoleName() );
+		}
+		return new RecordStore( this.users, this.usersByLogin, this.roles.with( role.getIdentifier(), role ),
+				byName.with( role.getRoleName(), role ), this.members, this.maxUserIdentifier,
+				Math.max( this.maxRoleIdentifier, role.getIdentifier() ), this.permissions );
+	}
+
+	/**
+	 * Returns a snapshot without the specified role. The role is also removed from the users that were members of it
+	 * (the cost is proportional to the number of members) and from the permission model.
+	 *
+	 * @param roleIdentifier	The identifier of the role to remove.
+	 * @return The new snapshot, or this snapshot if the role is unknown.
+	 */
+	RecordStore withoutRole( int roleIdentifier ) {
+		RoleRecord role = this.roles.get( roleIdentifier );
+		if ( role == null ) return this;
+		SnapshotMap<Integer, UserRecord> newUsers = this.users;
+		SnapshotMap<String, UserRecord> newUsersByLogin = this.usersByLogin;
+		SnapshotMap<Integer, Integer> roleMembers = this.members.get( roleIdentifier );
+		if ( roleMembers != null ) {
+			SnapshotMap.Builder<Integer, UserRecord> usersBuilder = new SnapshotMap.Builder<>( this.users );
+			SnapshotMap.Builder<String, UserRecord> loginsBuilder = new SnapshotMap.Builder<>( this.usersByLogin );
+			for ( Integer userIdentifier : roleMembers.values() ) {
+				UserRecord user = withoutRoleReference( this.users.get( userIdentifier ), roleIdentifier );
+				usersBuilder.put( userIdentifier, user );
+				loginsBuilder.put( user.getLogin(), user );
+			}
+			newUsers = usersBuilder.build();
+			newUsersByLogin = loginsBuilder.build();
+		}
+		return new RecordStore( newUsers, newUsersByLogin, this.roles.without( roleIdentifier ),
+				this.rolesByName.without( role.getRoleName() ), this.members.without( roleIdentifier ),
+				this.maxUserIdentifier, this.maxRoleIdentifier, this.permissions.withoutRole( roleIdentifier ) );
+	}
+
+	private static UserRecord withoutRoleReference( UserRecord user, int roleIdentifier ) {
+		int [] roleIdentifiers = user.getRoleIdentifiers();
+		int [] newRoleIdentifiers = new int[ roleIdentifiers.length - 1 ];
+		int index = 0;
+		for ( int identifier : roleIdentifiers ) {
+			if ( identifier != roleIdentifier ) newRoleIdentifiers[ index++ ] = identifier;
+		}
+		return new UserRecord( user.getIdentifier(), user.getLogin(), user.getPassword(), user.getConnectionNumber(),
+				user.getLastConnection(), user.getConsecutiveErrors(), user.isDisabled(), user.getFirstName(),
+				user.getLastName(), user.getEmail(), newRoleIdentifiers );
+	}
+
+	/**
+	 * Returns the identifiers of the members of the specified role. The cost is proportional to the number of members.
+	 *
+	 * @param roleIdentifier	The role identifier.
+	 * @return The identifiers of the users member of this role, in no particular order (empty if the role is unknown).
+	 */
+	Collection<Integer> getRoleMembers( int roleIdentifier ) {
+		SnapshotMap<Integer, Integer> roleMembers = this.members.get( roleIdentifier );
+		return roleMembers == null ? Collections.<Integer>emptyList() : roleMembers.values();
+	}
+
+	/**
+	 * Returns the roles of this snapshot, ordered by identifier.
+	 *
+	 * @return The roles.
+	 */
+	Collection<RoleRecord> getRoles() {
+		List<RoleRecord> result = new ArrayList<>( this.roles.values() );
+		result.sort( ROLE_ORDER );
+		return result;
+	}
+
+	int nextRoleIdentifier() {
+		return this.maxRoleIdentifier + 1;
+	}
+
+	PermissionModel getPermissions() {
+		return this.permissions;
+	}
+
+	/**
+	 * Returns a snapshot that contains the specified permission model.
+	 *
+	 * @param newPermissions	The permissions, grants and role hierarchy to store.
+	 * @return The new snapshot.
+	 */
+	RecordStore withPermissions( PermissionModel newPermissions ) {
+		return new RecordStore( this.users, this.usersByLogin, this.roles, this.rolesByName, this.members,
+				this.maxUserIdentifier, this.maxRoleIdentifier, newPermissions );
+	}
+
+	/**
+	 * <p>
+	 *     Merges the records of a file modified by another process into the local snapshot. <code>base</code> is the
+	 *     snapshot that was read from (or written to) the file, <code>local</code> the current in-memory snapshot and
+	 *     <code>external</code> the new content of the file. Records changed on one side only are taken from that side.
+	 * </p>
+	 * <p>
+	 *     A record changed differently on both sides (or a new local user whose login is now used by another external
+	 *     user) is a conflict: the external version wins, and a description of the conflict is added to
+	 *     <code>conflicts</code>. Only the records changed in the file are applied, so unchanged shards remain shared
+	 *     with the local snapshot. The permission model is merged as a whole, with the same rules.
+	 * </p>
+	 *
+	 * @param base		The snapshot matching the previous content of the file.
+	 * @param local		The current snapshot.
+	 * @param external	The snapshot read from the modified file.
+	 * @param conflicts	Receives the descriptions of the detected conflicts.
+	 * @return The merged snapshot.
+	 */
+	static RecordStore merge( RecordStore base, RecordStore local, RecordStore external, List<String> conflicts ) {
+		Builder builder = new Builder( local );
+
+		for ( RoleRecord role : external.roles.values() ) {
+			RoleRecord baseRole = base.getRole( role.getIdentifier() );
+			if ( role.equals( baseRole ) ) continue;
+			RoleRecord localRole = local.getRole( role.getIdentifier() );
+			if ( localRole != null && localRole.equals( baseRole ) == false && localRole.equals( role ) == false ) {
+				conflicts.add( "role " + role.getIdentifier() + " (" + role.getRoleName() + ")" );
+			}
+			RoleRecord sameName = builder.rolesByName.get( role.getRoleName() );
+			if ( sameName != null && sameName.getIdentifier() != role.getIdentifier() ) {
+				conflicts.add( "role " + sameName.getIdentifier() + " (" + sameName.getRoleName() + ")" );
+				builder.removeRole( sameName.getIdentifier() );
+			}
+			builder.putRole( role );
+		}
+		for ( RoleRecord baseRole : base.roles.values() ) {
+			if ( external.getRole( baseRole.getIdentifier() ) != null ) continue;
+			RoleRecord localRole = local.getRole( baseRole.getIdentifier() );
+			if ( localRole != null && localRole.equals( baseRole ) == false ) {
+				conflicts.add( "role " + localRole.getIdentifier() + " (" + localRole.getRoleName() + ")" );
+			}
+			builder.removeRole( baseRole.getIdentifier() );
+		}
+
+		for ( UserRecord user : external.users.values() ) {
+			UserRecord baseUser = base.getUser( user.getIdentifier() );
+			if ( user.equals( baseUser ) ) continue;
+			UserRecord localUser = local.getUser( user.getIdentifier() );
+			if ( localUser != null && localUser.equals( baseUser ) == false && localUser.equals( user ) == false ) {
+				conflicts.add( "user " + user.getIdentifier() + " (" + user.getLogin() + ")" );
+			}
+			UserRecord sameLogin = builder.usersByLogin.get( user.getLogin() );
+			if ( sameLogin != null && sameLogin.getIdentifier() != user.getIdentifier() ) {
+				conflicts.add( "user " + sameLogin.getIdentifier() + " (" + sameLogin.getLogin() + ")" );
+				builder.removeUser( sameLogin.getIdentifier() );
+			}
+			builder.putUser( user );
+		}
+		for ( UserRecord baseUser : base.users.values() ) {
+			if ( external.getUser( baseUser.getIdentifier() ) != null ) continue;
+			UserRecord localUser = local.getUser( baseUser.getIdentifier() );
+			if ( localUser != null && localUser.equals( baseUser ) == false ) {
+				conflicts.add( "user " + localUser.getIdentifier() + " (" + localUser.getLogin() + ")" );
+			}
+			builder.removeUser( baseUser.getIdentifier() );
+		}
+
+		if ( external.permissions.equals( base.permissions ) == false ) {
+			if ( local.permissions.equals( base.permissions ) == false
+					&& local.permissions.equals( external.permissions ) == false ) {
+				conflicts.add( "permissions" );
+			}
+			builder.setPermissions( external.permissions );
+		}
+
+		return builder.build();
+	}
+
+	/**
+	 * This class produces a snapshot from many records (file loading, journal replay) without creating an intermediate
+	 * snapshot for each record. This class is not thread-safe.
+	 */
+	static final class Builder {
+
+		private final SnapshotMap.Builder<Integer, UserRecord> users;
+		private final SnapshotMap.Builder<String, UserRecord> usersByLogin;
+		private final SnapshotMap.Builder<Integer, RoleRecord> roles;
+		private final SnapshotMap.Builder<String, RoleRecord> rolesByName;
+		private final Set<Integer> removedRoles = new HashSet<>();
+		private int maxUserIdentifier;
+		private int maxRoleIdentifier;
+		private PermissionModel.Builder permissions;
+
+		Builder() {
+			this( new RecordStore() );
+		}
+
+		/**
+		 * Creates a builder initialized with the records of the specified snapshot.
+		 *
+		 * @param store	The initial records.
+		 */
+		Builder( RecordStore store ) {
+			this.users = new SnapshotMap.Builder<>( store.users );
+			this.usersByLogin = new SnapshotMap.Builder<>( store.usersByLogin );
+			this.roles = new SnapshotMap.Builder<>( store.roles );
+			this.rolesByName = new SnapshotMap.Builder<>( store.rolesByName );
+			this.maxUserIdentifier = store.maxUserIdentifier;
+			this.maxRoleIdentifier = store.maxRoleIdentifier;
+			this.permissions = new PermissionModel.Builder( store.permissions );
+		}
+
+		/**
+		 * Returns the builder of the permission model, to which permissions, grants and parent links are added.
+		 *
+		 * @return The permission model builder.
+		 */
+		PermissionModel.Builder getPermissions() {
+			return this.permissions;
+		}
+
+		/**
+		 * Replaces all the permissions, grants and parent links.
+		 *
+		 * @param model	The new permission model.
+		 */
+		void setPermissions( PermissionModel model ) {
+			this.permissions = new PermissionModel.Builder( model );
+		}
+
+		void putUser( UserRecord user ) {
+			UserRecord previousUser = this.users.get( user.getIdentifier() );
+			if ( previousUser != null && previousUser.getLogin().equals( user.getLogin() ) == false ) {
+				this.usersByLogin.remove( previousUser.getLogin() );
+			}
+			this.users.put( user.getIdentifier(), user );
+			this.usersByLogin.put( user.getLogin(), user );
+			this.maxUserIdentifier = Math.max( this.maxUserIdentifier, user.getIdentifier() );
+		}
+
+		void removeUser( int userIdentifier ) {
+			UserRecord user = this.users.get( userIdentifier );
+			if ( user == null ) return;
+			this.users.remove( userIdentifier );
+			this.usersByLogin.remove( user.getLogin() );
+		}
+
+		void putRole( RoleRecord role ) {
+			RoleRecord previousRole = this.roles.get( role.getIdentifier() );
+			if ( previousRole != null && previousRole.getRoleName().equals( role.getRoleName() ) == false ) {
+				this.rolesByName.remove( previousRole.getRoleName() );
+			}
+			this.roles.put( role.getIdentifier(), role );
+			this.rolesByName.put( role.getRoleName(), role );
+			this.maxRoleIdentifier = Math.max( this.maxRoleIdentifier, role.getIdentifier() );
+		}
+
+		/**
+		 * Removes the specified role, and removes it from all its members and from the permission model. This method
+		 * scans all users.
+		 *
+		 * @param roleIdentifier	The identifier of the role to remove.
+		 */
+		void removeRole( int roleIdentifier ) {
+			RoleRecord role = this.roles.get( roleIdentifier );
+			if ( role == null ) return;
+			this.roles.remove( roleIdentifier );
+			this.rolesByName.remove( role.getRoleName() );
+			this.removedRoles.add( roleIdentifier );
+		}
+
+		RecordStore build() {
+			SnapshotMap<Integer, UserRecord> builtUsers = this.users.build();
+			for ( int roleIdentifier : this.removedRoles ) {
+				if ( this.roles.get( roleIdentifier ) == null ) this.permissions.removeRole( roleIdentifier );
+			}
+			if ( this.removedRoles.isEmpty() == false ) {
+				SnapshotMap.Builder<Integer, UserRecord> usersBuilder = new SnapshotMap.Builder<>( builtUsers );
+				for ( UserRecord user : builtUsers.values() ) {
+					UserRecord cleanedUser = user;
+					for ( int roleIdentifier : user.getRoleIdentifiers() ) {
+						if ( this.removedRoles.contains( roleIdentifier ) && this.roles.get( roleIdentifier ) == null ) {
+							cleanedUser = withoutRoleReference( cleanedUser, roleIdentifier );
+						}
+					}
+					if ( cleanedUser != user ) {
+						usersBuilder.put( cleanedUser.getIdentifier(), cleanedUser );
+						this.usersByLogin.put( cleanedUser.getLogin(), cleanedUser );
+					}
+				}
+				builtUsers = usersBuilder.build();
+			}
+			
+			Map<Integer, SnapshotMap.Builder<Integer, Integer>> memberBuilders = new HashMap<>();
+			for ( UserRecord user : builtUsers.values() ) {
+				for ( int roleIdentifier : user.getRoleIdentifiers() ) {
+					SnapshotMap.Builder<Integer, Integer> roleMembers = memberBuilders.get( roleIdentifier );
+					if ( roleMembers == null ) {
+						roleMembers = new SnapshotMap.Builder<>();
+						memberBuilders.put( roleIdentifier, roleMembers );
+					}
+					roleMembers.put( user.getIdentifier(), user.getIdentifier() );
+				}
+			}
+			SnapshotMap.Builder<Integer, SnapshotMap<Integer, Integer>> builtMembers = new SnapshotMap.Builder<>();
+			for ( Map.Entry<Integer, SnapshotMap.Builder<Integer, Integer>> entry : memberBuilders.entrySet() ) {
+				builtMembers.put( entry.getKey(), entry.getValue().build() );
+			}
+			
+			return new RecordStore( builtUsers, this.usersByLogin.build(), this.roles.build(), this.rolesByName.build(),
+					builtMembers.build(), this.maxUserIdentifier, this.maxRoleIdentifier, this.permissions.build() );
+		}
+	}
+}
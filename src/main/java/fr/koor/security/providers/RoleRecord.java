@@ -0,0 +1,51 @@
+package fr.koor.security.providers;
+
+/**
+ * This class is an immutable representation of the data stored for a role by the file based security managers.
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+final class RoleRecord {
+
+	private final int identifier;
+	private final String roleName;
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param identifier	The role identifier.
+	 * @param roleName		The role name.
+	 */
+	RoleRecord( int identifier, String roleName ) {
+		if ( roleName == null ) throw new NullPointerException( "Role name cannot be null" );
+		this.identifier = identifier;
+		this.roleName = roleName;
+	}
+
+	int getIdentifier() {
+		return this.identifier;
+	}
+
+	String getRoleName() {
+		return this.roleName;
+	}
+
+	@Override
+	public boolean equals( Object obj ) {
+		if ( obj == this ) return true;
+		if ( obj instanceof RoleRecord == false ) return false;
+		RoleRecord other = (RoleRecord) obj;
+		return this.identifier == other.identifier && this.roleName.equals( other.roleName );
+	}
+
+	@Override
+	public int hashCode() {
+		return this.identifier;
+	}
+
+	@Override
+	public String toString() {
+		return "idRole = " + this.identifier + " ; RoleName = " + this.roleName;
+	}
+}
@@ -0,0 +1,45 @@
+package fr.koor.security.providers;
+
+import java.util.Collection;
+
+import fr.koor.security.Role;
+import fr.koor.security.SecurityManager;
+import fr.koor.security.SecurityManagerException;
+import fr.koor.security.User;
+
+/**
+ * This interface defines the persistence of the snapshots of an in-memory security manager. The security manager
+ * loads its users and roles from the store when its session is opened, and saves them when its session is closed
+ * (or on demand).
+ * 
+ * @see fr.koor.security.providers.InMemorySecurityManager
+ * @see fr.koor.security.providers.XmlSnapshotStore
+ * 
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public interface SecuritySnapshotStore {
+
+	/**
+	 * Loads the last saved snapshot.
+	 * 
+	 * @param securityManager	The security manager used to produce the user instances.
+	 * @param users				Receives the loaded users (with their encrypted passwords and their roles).
+	 * @param roles				Receives the loaded roles.
+	 * @return true if a snapshot has been loaded, false if no snapshot has been saved yet.
+	 * 
+	 * @throws SecurityManagerException Thrown if the snapshot cannot be read.
+	 */
+	public boolean load( SecurityManager securityManager, Collection<User> users, Collection<Role> roles ) throws SecurityManagerException;
+	
+	/**
+	 * Saves a snapshot. The new snapshot replaces the previous one.
+	 * 
+	 * @param users		The users to save.
+	 * @param roles		The roles to save.
+	 * 
+	 * @throws SecurityManagerException Thrown if the snapshot cannot be written.
+	 */
+	public void save( Collection<User> users, Collection<Role> roles ) throws SecurityManagerException;
+	
+}
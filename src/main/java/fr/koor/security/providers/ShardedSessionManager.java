@@ -0,0 +1,502 @@
+package fr.koor.security.providers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import fr.koor.security.AccountDisabledException;
+import fr.koor.security.BadCredentialsException;
+import fr.koor.security.SecurityManagerException;
+import fr.koor.security.SessionManager;
+import fr.koor.security.UnauthorizedException;
+import fr.koor.security.User;
+import fr.koor.security.UserNotFoundException;
+
+/**
+ * <p>
+ *     This class implements the session management of the providers of this package. A token is 32 random bytes
+ *     (<code>SecureRandom</code>) encoded in URL-safe Base64. Sessions are spread over shards by token hash; each shard
+ *     holds its sessions in a <code>ConcurrentHashMap</code> (lookups never take a lock) and its own expiration
+ *     timing wheel, so that creations and purges on different shards never contend.
+ * </p>
+ * <p>
+ *     The timing wheel of a shard is a ring of slots of one tick each: a session is put into the slot of its deadline,
+ *     and a slot is processed when the wheel reaches it. Using a session (sliding expiry) only updates its last access
+ *     time: the wheel is not touched. When its slot is processed, a session whose real deadline is later is simply put
+ *     into the slot of this deadline again. The wheels are advanced by the calls of this manager (a shard is skipped
+ *     if another thread is advancing it): no thread is started. The deadline of a session is also checked by each
+ *     validation, so an expired session is never accepted, even before its slot is processed.
+ * </p>
+ * <p>
+ *     When a store file is defined, the sessions are also written into a <code>MappedSessionStore</code>, so that they
+ *     survive a restart. The store is read when it is defined: the stored sessions are indexed by token hash, and a
+ *     stored session is moved to its shard when its token is first presented. Last access times are written at most
+ *     once per tick. A background thread then advances the wheels and flushes the file periodically. When the
+ *     security manager is closed, the sessions are detached from the store rather than revoked.
+ * </p>
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+final class ShardedSessionManager implements SessionManager {
+
+	/** The default idle timeout: 30 minutes. */
+	static final long DEFAULT_IDLE_TIMEOUT = 30 * 60 * 1000L;
+
+	/** The default maximum lifetime: 8 hours. */
+	static final long DEFAULT_MAXIMUM_LIFETIME = 8 * 60 * 60 * 1000L;
+
+	private static final int SHARD_COUNT = 16;
+	private static final int WHEEL_SIZE = 512;
+	private static final long TICK_DURATION = 1000;
+	private static final int TOKEN_LENGTH = 32;
+	private static final long SWEEP_INTERVAL = 10 * TICK_DURATION;
+
+	private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial( () -> {
+		try {
+			return MessageDigest.getInstance( "SHA-256" );
+		} catch ( NoSuchAlgorithmException exception ) {
+			throw new IllegalStateException( "SHA-256 is not supported", exception );
+		}
+	} );
+
+	private static final class Session {
+		/** The token, or null for a restored session whose token has not been presented yet. */
+		volatile String token;
+		final int userIdentifier;
+		final long creationTime;
+		volatile long lastAccessTime;
+		/** The user of the session, or null if he has been modified and must be reloaded. */
+		volatile User user;
+		volatile boolean revoked;
+		/** The store of the session, or null if it is not persisted. */
+		final MappedSessionStore store;
+		final byte [] tokenHash;
+		final int slot;
+		volatile long storedAccessTime;
+
+		Session( String token, User user, long creationTime, MappedSessionStore store, byte [] tokenHash, int slot ) {
+			this.token = token;
+			this.userIdentifier = user.getIdentifier();
+			this.user = user;
+			this.creationTime = creationTime;
+			this.lastAccessTime = creationTime;
+			this.store = store;
+			this.tokenHash = tokenHash;
+			this.slot = slot;
+			this.storedAccessTime = creationTime;
+		}
+
+		Session( MappedSessionStore store, MappedSessionStore.StoredSession storedSession ) {
+			this.userIdentifier = storedSession.userIdentifier;
+			this.creationTime = storedSession.creationTime;
+			this.lastAccessTime = storedSession.lastAccessTime;
+			this.store = store;
+			this.tokenHash = storedSession.tokenHash;
+			this.slot = storedSession.slot;
+			this.storedAccessTime = storedSession.lastAccessTime;
+		}
+	}
+
+	private final class Shard {
+		final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+		/** Guards the timing wheel. */
+		final ReentrantLock wheelLock = new ReentrantLock();
+		@SuppressWarnings( { "unchecked", "rawtypes" } )
+		final List<Session> [] wheel = new List[ WHEEL_SIZE ];
+		long currentTick = System.currentTimeMillis() / TICK_DURATION;
+
+		void schedule( Session session ) {
+			long tick = Math.max( deadline( session ) / TICK_DURATION, this.currentTick + 1 );
+			int slot = (int) ( tick % WHEEL_SIZE );
+			if ( this.wheel[ slot ] == null ) this.wheel[ slot ] = new ArrayList<>();
+			this.wheel[ slot ].add( session );
+		}
+
+		/**
+		 * Processes the slots up to the current time. Does nothing if another thread is advancing this wheel.
+		 */
+		void advance( long now ) {
+			long nowTick = now / TICK_DURATION;
+			if ( nowTick <= this.currentTick || this.wheelLock.tryLock() == false ) return;
+			try {
+				// After a long inactivity, each slot is processed only once
+				long firstTick = Math.max( this.currentTick + 1, nowTick - WHEEL_SIZE + 1 );
+				this.currentTick = nowTick;
+				for ( long tick = firstTick; tick <= nowTick; tick++ ) {
+					int slot = (int) ( tick % WHEEL_SIZE );
+					List<Session> slotSessions = this.wheel[ slot ];
+					if ( slotSessions == null ) continue;
+					this.wheel[ slot ] = null;
+					for ( Session session : slotSessions ) {
+						if ( session.revoked ) continue;
+						if ( deadline( session ) <= now ) {
+							remove( session );
+						} else {
+							this.schedule( session );
+						}
+					}
+				}
+			} finally {
+				this.wheelLock.unlock();
+			}
+		}
+	}
+
+	private final fr.koor.security.SecurityManager securityManager;
+	private final Shard [] shards = new Shard[ SHARD_COUNT ];
+	/** User identifier to the sessions of the user. */
+	private final ConcurrentHashMap<Integer, Set<Session>> userSessions = new ConcurrentHashMap<>();
+	private final SecureRandom random = new SecureRandom();
+	private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+	private volatile long maximumLifetime = DEFAULT_MAXIMUM_LIFETIME;
+	/** Token hash to the stored sessions whose token has not been presented since the store has been read. */
+	private final ConcurrentHashMap<ByteBuffer, Session> restoredSessions = new ConcurrentHashMap<>();
+	private volatile MappedSessionStore store;
+	private String storeFilename;
+	private ScheduledExecutorService sweeper;
+
+	ShardedSessionManager( fr.koor.security.SecurityManager securityManager ) {
+		this.securityManager = securityManager;
+		for ( int i = 0; i < SHARD_COUNT; i++ ) this.shards[i] = new Shard();
+	}
+
+	private Shard shardFor( String token ) {
+		int hash = token.hashCode();
+		return this.shards[ ( hash ^ ( hash >>> 16 ) ) & ( SHARD_COUNT - 1 ) ];
+	}
+
+	private Shard shardFor( Session session ) {
+		String token = session.token;
+		return token != null ? this.shardFor( token ) : this.shards[ session.tokenHash[0] & ( SHARD_COUNT - 1 ) ];
+	}
+
+	private static byte [] hashToken( String token ) {
+		return DIGESTS.get().digest( token.getBytes( StandardCharsets.US_ASCII ) );
+	}
+
+	private long deadline( Session session ) {
+		return Math.min( session.lastAccessTime + this.idleTimeout, session.creationTime + this.maximumLifetime );
+	}
+
+	@Override public String createSession( String userLogin, String userPassword ) throws AccountDisabledException, BadCredentialsException, SecurityManagerException {
+		return this.createSession( this.securityManager.getUserManager().checkCredentials( userLogin, userPassword ) );
+	}
+
+	@Override public String createSession( User user ) throws SecurityManagerException {
+		if ( user == null ) throw new NullPointerException( "user cannot be null" );
+		byte [] bytes = new byte[ TOKEN_LENGTH ];
+		this.random.nextBytes( bytes );
+		String token = Base64.getUrlEncoder().withoutPadding().encodeToString( bytes );
+
+		long now = System.currentTimeMillis();
+		Session session;
+		MappedSessionStore store = this.store;
+		if ( store == null ) {
+			session = new Session( token, user, now, null, null, -1 );
+		} else {
+			byte [] tokenHash = hashToken( token );
+			try {
+				int slot = store.insert( user.getIdentifier(), tokenHash, now, now );
+				session = new Session( token, user, now, store, tokenHash, slot );
+			} catch ( IOException exception ) {
+				throw new SecurityManagerException( "Cannot store the session", exception );
+			}
+		}
+		this.userSessions.compute( user.getIdentifier(), ( identifier, sessions ) -> {
+			if ( sessions == null ) sessions = ConcurrentHashMap.newKeySet();
+			sessions.add( session );
+			return sessions;
+		} );
+
+		Shard shard = this.shardFor( token );
+		shard.sessions.put( token, session );
+		shard.wheelLock.lock();
+		try {
+			shard.schedule( session );
+		} finally {
+			shard.wheelLock.unlock();
+		}
+		shard.advance( now );
+		return token;
+	}
+
+	@Override public User validateSession( String token ) throws UnauthorizedException, SecurityManagerException {
+		if ( token == null ) throw new NullPointerException( "token cannot be null" );
+		long now = System.currentTimeMillis();
+		Shard shard = this.shardFor( token );
+		shard.advance( now );
+		Session session = shard.sessions.get( token );
+		if ( session == null && this.restoredSessions.isEmpty() == false ) session = this.restore( token, shard );
+		if ( session == null || session.revoked || this.deadline( session ) <= now ) {
+			if ( session != null ) this.remove( session );
+			throw new UnauthorizedException( "Invalid or expired session" );
+		}
+		session.lastAccessTime = now;
+		if ( session.store != null && now - session.storedAccessTime >= TICK_DURATION ) {
+			session.storedAccessTime = now;
+			session.store.updateLastAccessTime( session.slot, now );
+		}
+		User user = session.user;
+		if ( user == null ) {
+			try {
+				user = this.securityManager.getUserManager().getUserById( session.userIdentifier );
+			} catch ( UserNotFoundException exception ) {
+				user = null;
+			}
+			if ( user == null ) {
+				// Deleted while the session was stored
+				this.remove( session );
+				throw new UnauthorizedException( "Invalid or expired session" );
+			}
+			session.user = user;
+		}
+		if ( user.isDisabled() ) {
+			// Disabled since the session was created: the session is not valid anymore
+			this.remove( session );
+			throw new UnauthorizedException( "Account is disabled" );
+		}
+		return user;
+	}
+
+	/**
+	 * Moves a restored session to its shard when its token is presented for the first time.
+	 *
+	 * @return The session, or null if no restored session has this token.
+	 */
+	private Session restore( String token, Shard shard ) {
+		ByteBuffer tokenHash = ByteBuffer.wrap( hashToken( token ) );
+		// Concurrent first validations of the same token are serialized by the shard map
+		return shard.sessions.computeIfAbsent( token, key -> {
+			Session session = this.restoredSessions.remove( tokenHash );
+			if ( session != null ) session.token = token;
+			return session;
+		} );
+	}
+
+	@Override public void revokeSession( String token ) {
+		if ( token == null ) throw new NullPointerException( "token cannot be null" );
+		Shard shard = this.shardFor( token );
+		Session session = shard.sessions.get( token );
+		if ( session == null && this.restoredSessions.isEmpty() == false ) session = this.restore( token, shard );
+		if ( session != null ) this.remove( session );
+	}
+
+	@Override public void revokeSessions( User user ) {
+		if ( user == null ) throw new NullPointerException( "user cannot be null" );
+		this.revokeSessions( user.getIdentifier() );
+	}
+
+	/**
+	 * Revokes all the sessions of the specified user (after his deletion, for instance).
+	 *
+	 * @param userIdentifier	The user identifier.
+	 */
+	void revokeSessions( int userIdentifier ) {
+		Set<Session> sessions = this.userSessions.remove( userIdentifier );
+		if ( sessions == null ) return;
+		for ( Session session : sessions ) this.remove( session );
+	}
+
+	/**
+	 * Revokes all the sessions (when the content of the security manager is cleared, for instance).
+	 */
+	void revokeAll() {
+		for ( Integer userIdentifier : new ArrayList<>( this.userSessions.keySet() ) ) {
+			this.revokeSessions( userIdentifier );
+		}
+	}
+
+	/**
+	 * Closes the sessions when the security manager is closed. Persisted sessions are kept in the store, to be
+	 * restored by the next instance; the other ones are revoked.
+	 */
+	void close() {
+		MappedSessionStore store = this.detachStore();
+		if ( store == null ) {
+			this.revokeAll();
+			return;
+		}
+		this.forgetSessions();
+		try {
+			store.close();
+		} catch ( IOException exception ) {
+			// The last access times that are not written yet are lost: the sessions may expire a little earlier
+		}
+	}
+
+	/**
+	 * Marks the sessions of the specified user as stale: the user will be reloaded by their next validation.
+	 *
+	 * @param userIdentifier	The identifier of the modified user.
+	 */
+	void userUpdated( int userIdentifier ) {
+		Set<Session> sessions = this.userSessions.get( userIdentifier );
+		if ( sessions == null ) return;
+		for ( Session session : sessions ) session.user = null;
+	}
+
+	/**
+	 * Marks all the sessions as stale (after a role deletion, for instance): each user will be reloaded by the next
+	 * validation of his sessions.
+	 */
+	void allUsersUpdated() {
+		for ( Set<Session> sessions : this.userSessions.values() ) {
+			for ( Session session : sessions ) session.user = null;
+		}
+	}
+
+	/**
+	 * Removes a session from its shard (or from the restored sessions), from the sessions of its user and from its
+	 * store. The session stays in the timing wheel until its slot is processed.
+	 */
+	private void remove( Session session ) {
+		synchronized ( session ) {
+			// The slot is freed once: it may be reused by another session just after
+			if ( session.revoked ) return;
+			session.revoked = true;
+		}
+		String token = session.token;
+		if ( token != null ) {
+			this.shardFor( token ).sessions.remove( token, session );
+		} else {
+			this.restoredSessions.remove( ByteBuffer.wrap( session.tokenHash ), session );
+		}
+		this.userSessions.computeIfPresent( session.userIdentifier, ( identifier, sessions ) -> {
+			sessions.remove( session );
+			return sessions.isEmpty() ? null : sessions;
+		} );
+		if ( session.store != null ) session.store.delete( session.slot );
+	}
+
+	/**
+	 * Drops all the sessions from the memory, without freeing their slots in the store.
+	 */
+	private void forgetSessions() {
+		for ( Shard shard : this.shards ) {
+			for ( Session session : shard.sessions.values() ) session.revoked = true;
+			shard.sessions.clear();
+		}
+		for ( Session session : this.restoredSessions.values() ) session.revoked = true;
+		this.restoredSessions.clear();
+		this.userSessions.clear();
+	}
+
+	@Override public synchronized String getStoreFilename() {
+		return this.storeFilename;
+	}
+
+	@Override public void setStoreFilename( String filename ) throws SecurityManagerException {
+		synchronized ( this ) {
+			if ( filename == null ? this.storeFilename == null : filename.equals( this.storeFilename ) ) return;
+		}
+		MappedSessionStore oldStore = this.detachStore();
+		if ( oldStore != null ) {
+			try {
+				oldStore.close();
+			} catch ( IOException exception ) {
+				// The sessions of the old store are not used anymore
+			}
+		}
+		if ( filename == null ) return;
+
+		MappedSessionStore newStore;
+		try {
+			newStore = new MappedSessionStore( filename, 1024 );
+		} catch ( IOException exception ) {
+			throw new SecurityManagerException( "Cannot open session store " + filename, exception );
+		}
+		long now = System.currentTimeMillis();
+		for ( MappedSessionStore.StoredSession storedSession : newStore.readSessions() ) {
+			Session session = new Session( newStore, storedSession );
+			if ( this.deadline( session ) <= now ) {
+				newStore.delete( session.slot );
+				continue;
+			}
+			this.restoredSessions.put( ByteBuffer.wrap( session.tokenHash ), session );
+			this.userSessions.compute( session.userIdentifier, ( identifier, sessions ) -> {
+				if ( sessions == null ) sessions = ConcurrentHashMap.newKeySet();
+				sessions.add( session );
+				return sessions;
+			} );
+			Shard shard = this.shardFor( session );
+			shard.wheelLock.lock();
+			try {
+				shard.schedule( session );
+			} finally {
+				shard.wheelLock.unlock();
+			}
+		}
+		synchronized ( this ) {
+			this.store = newStore;
+			this.storeFilename = filename;
+			this.sweeper = Executors.newSingleThreadScheduledExecutor( runnable -> {
+				Thread thread = new Thread( runnable, "Session sweeper - " + filename );
+				thread.setDaemon( true );
+				return thread;
+			} );
+			this.sweeper.scheduleWithFixedDelay( () -> this.sweep( newStore ), SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS );
+		}
+	}
+
+	/**
+	 * Detaches the current store, if any, and stops its sweeper.
+	 *
+	 * @return The detached store, or null.
+	 */
+	private synchronized MappedSessionStore detachStore() {
+		MappedSessionStore oldStore = this.store;
+		this.store = null;
+		this.storeFilename = null;
+		if ( this.sweeper != null ) {
+			this.sweeper.shutdownNow();
+			this.sweeper = null;
+		}
+		return oldStore;
+	}
+
+	/**
+	 * The task of the background sweeper: expires the sessions of all the shards, then flushes the store.
+	 */
+	private void sweep( MappedSessionStore store ) {
+		long now = System.currentTimeMillis();
+		for ( Shard shard : this.shards ) shard.advance( now );
+		store.force();
+	}
+
+	@Override public int getSessionCount() {
+		int count = 0;
+		for ( Shard shard : this.shards ) count += shard.sessions.size();
+		return count;
+	}
+
+	@Override public long getIdleTimeout() {
+		return this.idleTimeout;
+	}
+
+	@Override public void setIdleTimeout( long idleTimeout ) {
+		if ( idleTimeout <= 0 ) throw new IllegalArgumentException( "Idle timeout must be positive" );
+		this.idleTimeout = idleTimeout;
+	}
+
+	@Override public long getMaximumLifetime() {
+		return this.maximumLifetime;
+	}
+
+	@Override public void setMaximumLifetime( long maximumLifetime ) {
+		if ( maximumLifetime <= 0 ) throw new IllegalArgumentException( "Maximum lifetime must be positive" );
+		this.maximumLifetime = maximumLifetime;
+	}
+}
@@ -0,0 +1,198 @@
+package fr.koor.security.providers;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ *     This class is an immutable map used by the snapshots of the file based security managers. Entries are spread
+ *     into a fixed number of shards; <code>with</code> and <code>without</code> produce a new map that copies the
+ *     modified shard only and shares all others with the original map. The cost of a modification is therefore about
+ *     <code>size / SHARD_COUNT</code> and not <code>size</code>.
+ * </p>
+ * <p>
+ *     An instance is never modified once built, so it can be read by any number of threads without synchronization.
+ *     Use a <code>Builder</code> to fill a map with many entries.
+ * </p>
+ *
+ * @param <K>	The key type.
+ * @param <V>	The value type.
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+final class SnapshotMap<K, V> {
+
+	private static final int SHARD_COUNT = 64;
+
+	@SuppressWarnings( "rawtypes" )
+	private static final SnapshotMap EMPTY = new SnapshotMap<>( newShards(), 0 );
+
+	private final Map<K, V> [] shards;
+	private final int size;
+
+	private SnapshotMap( Map<K, V> [] shards, int size ) {
+		this.shards = shards;
+		this.size = size;
+	}
+
+	/**
+	 * Returns the empty map.
+	 *
+	 * @param <K>	The key type.
+	 * @param <V>	The value type.
+	 * @return The empty map.
+	 */
+	@SuppressWarnings( "unchecked" )
+	static <K, V> SnapshotMap<K, V> empty() {
+		return EMPTY;
+	}
+
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	private static <K, V> Map<K, V> [] newShards() {
+		Map<K, V> [] shards = new Map[ SHARD_COUNT ];
+		for ( int i = 0; i < SHARD_COUNT; i++ ) shards[i] = Collections.emptyMap();
+		return shards;
+	}
+
+	private static int shardIndex( Object key ) {
+		int hash = key.hashCode();
+		return ( hash ^ ( hash >>> 16 ) ) & ( SHARD_COUNT - 1 );
+	}
+
+	V get( Object key ) {
+		return this.shards[ shardIndex( key ) ].get( key );
+	}
+
+	int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns a map that contains the entries of this map plus the specified one (the previous value of the key is replaced).
+	 *
+	 * @param key	The key.
+	 * @param value	The value.
+	 * @return The new map.
+	 */
+	SnapshotMap<K, V> with( K key, V value ) {
+		int index = shardIndex( key );
+		Map<K, V> shard = new HashMap<>( this.shards[index] );
+		boolean added = shard.put( key, value ) == null;
+		Map<K, V> [] shards = this.shards.clone();
+		shards[index] = shard;
+		return new SnapshotMap<>( shards, added ? this.size + 1 : this.size );
+	}
+
+	/**
+	 * Returns a map that contains the entries of this map except the specified one.
+	 *
+	 * @param key	The key to remove.
+	 * @return The new map, or this map if the key is not present.
+	 */
+	SnapshotMap<K, V> without( Object key ) {
+		int index = shardIndex( key );
+		if ( this.shards[index].containsKey( key ) == false ) return this;
+		Map<K, V> shard = new HashMap<>( this.shards[index] );
+		shard.remove( key );
+		Map<K, V> [] shards = this.shards.clone();
+		shards[index] = shard.isEmpty() ? Collections.<K, V>emptyMap() : shard;
+		return new SnapshotMap<>( shards, this.size - 1 );
+	}
+
+	/**
+	 * Returns an unmodifiable view of the values of this map. Values are returned in no particular order.
+	 *
+	 * @return The values.
+	 */
+	Collection<V> values() {
+		return new AbstractCollection<V>() {
+			@Override public int size() {
+				return SnapshotMap.this.size;
+			}
+
+			@Override public Iterator<V> iterator() {
+				return new Iterator<V>() {
+					private int shardIndex = 0;
+					private Iterator<V> current = Collections.emptyIterator();
+
+					@Override public boolean hasNext() {
+						while ( this.current.hasNext() == false ) {
+							if ( this.shardIndex == SHARD_COUNT ) return false;
+							this.current = SnapshotMap.this.shards[ this.shardIndex++ ].values().iterator();
+						}
+						return true;
+					}
+
+					@Override public V next() {
+						if ( this.hasNext() == false ) throw new NoSuchElementException();
+						return this.current.next();
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * This class fills a new map without copying a shard for each entry. A builder must not be used after
+	 * <code>build</code> has been called.
+	 *
+	 * @param <K>	The key type.
+	 * @param <V>	The value type.
+	 */
+	static final class Builder<K, V> {
+
+		private Map<K, V> [] shards;
+		private final boolean [] owned = new boolean[ SHARD_COUNT ];
+		private int size;
+
+		Builder() {
+			this( SnapshotMap.<K, V>empty() );
+		}
+
+		/**
+		 * Creates a builder initialized with the entries of the specified map. Shards are copied when first modified.
+		 *
+		 * @param map	The initial entries.
+		 */
+		Builder( SnapshotMap<K, V> map ) {
+			this.shards = map.shards.clone();
+			this.size = map.size;
+		}
+
+		private Map<K, V> shard( int index ) {
+			if ( this.owned[index] == false ) {
+				this.shards[index] = new HashMap<>( this.shards[index] );
+				this.owned[index] = true;
+			}
+			return this.shards[index];
+		}
+
+		V get( Object key ) {
+			return this.shards[ shardIndex( key ) ].get( key );
+		}
+
+		void put( K key, V value ) {
+			if ( this.shard( shardIndex( key ) ).put( key, value ) == null ) this.size++;
+		}
+
+		void remove( Object key ) {
+			int index = shardIndex( key );
+			if ( this.shards[index].containsKey( key ) == false ) return;
+			this.shard( index ).remove( key );
+			this.size--;
+		}
+
+		SnapshotMap<K, V> build() {
+			if ( this.shards == null ) throw new IllegalStateException( "Builder already used" );
+			Map<K, V> [] result = this.shards;
+			this.shards = null;
+			return new SnapshotMap<>( result, this.size );
+		}
+	}
+}
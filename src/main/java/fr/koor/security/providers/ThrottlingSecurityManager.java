@@ -0,0 +1,277 @@
+package fr.koor.security.providers;
+
+import java.util.List;
+import java.util.Locale;
+
+import fr.koor.security.AccountDisabledException;
+import fr.koor.security.AuthorizationManager;
+import fr.koor.security.BadCredentialsException;
+import fr.koor.security.LoginThrottledException;
+import fr.koor.security.PasswordScreener;
+import fr.koor.security.PermissionManager;
+import fr.koor.security.Role;
+import fr.koor.security.RoleManager;
+import fr.koor.security.SecurityManagerException;
+import fr.koor.security.SessionManager;
+import fr.koor.security.UnauthorizedException;
+import fr.koor.security.User;
+import fr.koor.security.UserAlreadyRegisteredException;
+import fr.koor.security.UserManager;
+import fr.koor.utility.SlidingWindowLimiter;
+
+/**
+ * <p>
+ *     This security manager (see interface fr.koor.security.SecurityManager) is a decorator: it wraps another
+ *     security manager and throttles the login attempts. The failed attempts are counted in memory over a sliding
+ *     window, per login and per source (an IP address, for instance, supplied by the caller). When a login or a source
+ *     has too many recent failures, the next attempts are rejected with a <code>LoginThrottledException</code> until
+ *     a backoff delay has elapsed. A rejected attempt reaches neither the password hashing nor the wrapped provider.
+ *     Each attempt is reserved before the credentials are checked, so concurrent attempts cannot exceed the limit.
+ * </p>
+ *
+ * <p>
+ *     <code>UserManager.checkCredentials</code> only throttles per login: use
+ *     <code>checkCredentials( userLogin, userPassword, sourceKey )</code> to throttle per source too, which also
+ *     catches attackers that try a few passwords on many accounts. A successful login resets the failures of the
+ *     login, not the ones of the source. The counters are not shared between nodes.
+ *     <code>SessionManager.createSession( login, password )</code> is throttled per login, as
+ *     <code>UserManager.checkCredentials</code>.
+ * </p>
+ *
+ * @see fr.koor.security.SecurityManager
+ * @see fr.koor.utility.SlidingWindowLimiter
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public class ThrottlingSecurityManager implements fr.koor.security.SecurityManager {
+
+	public static final int DEFAULT_LOGIN_FAILURES = 5;
+	public static final int DEFAULT_SOURCE_FAILURES = 50;
+	public static final long DEFAULT_WINDOW_DURATION = 15 * 60 * 1000;
+	public static final long DEFAULT_BASE_BACKOFF = 1000;
+	public static final long DEFAULT_MAXIMUM_BACKOFF = 15 * 60 * 1000;
+	public static final int DEFAULT_MAXIMUM_KEYS = 100_000;
+
+	private final fr.koor.security.SecurityManager securityManager;
+	private final SlidingWindowLimiter loginLimiter;
+	private final SlidingWindowLimiter sourceLimiter;
+
+	private UserManager userManager = new ThrottlingUserManager();
+	private SessionManager sessionManager = new ThrottlingSessionManager();
+
+
+	/**
+	 * This constructor produces a throttling security manager with the default limits: 5 failures per login and 50
+	 * failures per source over 15 minutes, then a backoff from 1 second up to 15 minutes.
+	 *
+	 * @param securityManager	The wrapped security manager.
+	 */
+	public ThrottlingSecurityManager( fr.koor.security.SecurityManager securityManager ) {
+		this( securityManager,
+				new SlidingWindowLimiter( DEFAULT_LOGIN_FAILURES, DEFAULT_WINDOW_DURATION, DEFAULT_BASE_BACKOFF, DEFAULT_MAXIMUM_BACKOFF, DEFAULT_MAXIMUM_KEYS ),
+				new SlidingWindowLimiter( DEFAULT_SOURCE_FAILURES, DEFAULT_WINDOW_DURATION, DEFAULT_BASE_BACKOFF, DEFAULT_MAXIMUM_BACKOFF, DEFAULT_MAXIMUM_KEYS ) );
+	}
+
+	/**
+	 * This constructor produces a throttling security manager.
+	 *
+	 * @param securityManager	The wrapped security manager.
+	 * @param loginLimiter		The limiter of the failures per login.
+	 * @param sourceLimiter		The limiter of the failures per source.
+	 */
+	public ThrottlingSecurityManager( fr.koor.security.SecurityManager securityManager, SlidingWindowLimiter loginLimiter, SlidingWindowLimiter sourceLimiter ) {
+		if ( securityManager == null || loginLimiter == null || sourceLimiter == null ) throw new NullPointerException();
+		this.securityManager = securityManager;
+		this.loginLimiter = loginLimiter;
+		this.sourceLimiter = sourceLimiter;
+	}
+
+	@Override public void openSession() throws SecurityManagerException {
+		this.securityManager.openSession();
+	}
+
+	@Override public void close() throws SecurityManagerException {
+		this.securityManager.close();
+	}
+
+	/**
+	 * Returns the wrapped security manager.
+	 *
+	 * @return The wrapped security manager.
+	 */
+	public fr.koor.security.SecurityManager getSecurityManager() {
+		return this.securityManager;
+	}
+
+	/**
+	 * Checks the credentials of a user, unless too many attempts have failed recently for this login or from this
+	 * source.
+	 *
+	 * @param userLogin		The login of the user.
+	 * @param userPassword	The password of the user.
+	 * @param sourceKey		The source of the attempt (an IP address, for instance), or null.
+	 * @return The authenticated user.
+	 *
+	 * @throws LoginThrottledException	Thrown, without checking the credentials, if the login or the source is blocked.
+	 * @throws AccountDisabledException	Thrown if the account of the user is disabled.
+	 * @throws BadCredentialsException	Thrown if the login or the password is wrong.
+	 */
+	public User checkCredentials( String userLogin, String userPassword, String sourceKey ) throws AccountDisabledException, BadCredentialsException {
+		if ( userLogin == null ) return this.securityManager.getUserManager().checkCredentials( userLogin, userPassword );
+		String loginKey = toLoginKey( userLogin );
+		long retryDelay = this.loginLimiter.tryAcquire( loginKey );
+		if ( retryDelay > 0 ) throw new LoginThrottledException( "Too many failed login attempts: retry later", retryDelay );
+		if ( sourceKey != null ) {
+			retryDelay = this.sourceLimiter.tryAcquire( sourceKey );
+			if ( retryDelay > 0 ) {
+				this.loginLimiter.release( loginKey, false );
+				throw new LoginThrottledException( "Too many failed login attempts: retry later", retryDelay );
+			}
+		}
+
+		boolean failed = false;
+		try {
+			User user = this.securityManager.getUserManager().checkCredentials( userLogin, userPassword );
+			this.loginLimiter.reset( loginKey );
+			return user;
+		} catch ( LoginThrottledException exception ) {
+			throw exception;
+		} catch ( BadCredentialsException exception ) {
+			failed = true;
+			throw exception;
+		} finally {
+			this.loginLimiter.release( loginKey, failed );
+			if ( sourceKey != null ) this.sourceLimiter.release( sourceKey, failed );
+		}
+	}
+
+	/**
+	 * Returns the key of a login in the login limiter: the login without case and trailing spaces, as providers such as
+	 * the JDBC one compare it. Otherwise, variants of a login would each get their own failure budget.
+	 */
+	private static String toLoginKey( String login ) {
+		int length = login.length();
+		while ( length > 0 && login.charAt( length - 1 ) == ' ' ) length--;
+		return login.substring( 0, length ).toLowerCase( Locale.ROOT );
+	}
+
+	@Override public RoleManager getRoleManager() {
+		return this.securityManager.getRoleManager();
+	}
+
+	@Override public UserManager getUserManager() {
+		return this.userManager;
+	}
+
+	@Override public PermissionManager getPermissionManager() {
+		return this.securityManager.getPermissionManager();
+	}
+
+	@Override public AuthorizationManager getAuthorizationManager() {
+		return this.securityManager.getAuthorizationManager();
+	}
+
+	@Override public SessionManager getSessionManager() {
+		return this.sessionManager;
+	}
+
+	@Override public PasswordScreener getPasswordScreener() {
+		return this.securityManager.getPasswordScreener();
+	}
+
+	@Override public void setPasswordScreener( PasswordScreener passwordScreener ) {
+		this.securityManager.setPasswordScreener( passwordScreener );
+	}
+
+
+	private class ThrottlingUserManager implements UserManager {
+
+		@Override public User checkCredentials( String userLogin, String userPassword ) throws AccountDisabledException, BadCredentialsException {
+			return ThrottlingSecurityManager.this.checkCredentials( userLogin, userPassword, null );
+		}
+
+		@Override public User getUserById( int userId ) throws SecurityManagerException {
+			return securityManager.getUserManager().getUserById( userId );
+		}
+
+		@Override public User getUserByLogin( String login ) throws SecurityManagerException {
+			return securityManager.getUserManager().getUserByLogin( login );
+		}
+
+		@Override public List<User> getUsersByRole( Role role ) throws SecurityManagerException {
+			return securityManager.getUserManager().getUsersByRole( role );
+		}
+
+		@Override public User insertUser( String login, String password ) throws UserAlreadyRegisteredException, SecurityManagerException {
+			return securityManager.getUserManager().insertUser( login, password );
+		}
+
+		@Override public void updateUser( User user ) throws SecurityManagerException {
+			securityManager.getUserManager().updateUser( user );
+		}
+
+		@Override public void deleteUser( User user ) throws SecurityManagerException {
+			securityManager.getUserManager().deleteUser( user );
+		}
+
+		@Override public String encryptPassword( String clearPassword ) throws SecurityManagerException {
+			return securityManager.getUserManager().encryptPassword( clearPassword );
+		}
+
+	}
+
+
+	private class ThrottlingSessionManager implements SessionManager {
+
+		@Override public String createSession( String userLogin, String userPassword ) throws AccountDisabledException, BadCredentialsException, SecurityManagerException {
+			return securityManager.getSessionManager().createSession( ThrottlingSecurityManager.this.checkCredentials( userLogin, userPassword, null ) );
+		}
+
+		@Override public String createSession( User user ) throws SecurityManagerException {
+			return securityManager.getSessionManager().createSession( user );
+		}
+
+		@Override public User validateSession( String token ) throws UnauthorizedException, SecurityManagerException {
+			return securityManager.getSessionManager().validateSession( token );
+		}
+
+		@Override public void revokeSession( String token ) {
+			securityManager.getSessionManager().revokeSession( token );
+		}
+
+		@Override public void revokeSessions( User user ) {
+			securityManager.getSessionManager().revokeSessions( user );
+		}
+
+		@Override public int getSessionCount() {
+			return securityManager.getSessionManager().getSessionCount();
+		}
+
+		@Override public long getIdleTimeout() {
+			return securityManager.getSessionManager().getIdleTimeout();
+		}
+
+		@Override public void setIdleTimeout( long idleTimeout ) {
+			securityManager.getSessionManager().setIdleTimeout( idleTimeout );
+		}
+
+		@Override public long getMaximumLifetime() {
+			return securityManager.getSessionManager().getMaximumLifetime();
+		}
+
+		@Override public void setMaximumLifetime( long maximumLifetime ) {
+			securityManager.getSessionManager().setMaximumLifetime( maximumLifetime );
+		}
+
+		@Override public String getStoreFilename() {
+			return securityManager.getSessionManager().getStoreFilename();
+		}
+
+		@Override public void setStoreFilename( String filename ) throws SecurityManagerException {
+			securityManager.getSessionManager().setStoreFilename( filename );
+		}
+
+	}
+
+}
@@ -0,0 +1,134 @@
+package fr.koor.security.providers;
+
+import java.util.Arrays;
+
+/**
+ * This class is an immutable and compact representation of the data stored for a user by the file based security
+ * managers. Roles are referenced by their identifiers.
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+final class UserRecord {
+
+	private static final int [] NO_ROLE = new int[ 0 ];
+
+	private final int identifier;
+	private final String login;
+	private final String password;
+	private final int connectionNumber;
+	private final long lastConnection;
+	private final int consecutiveErrors;
+	private final boolean isDisabled;
+	private final String firstName;
+	private final String lastName;
+	private final String email;
+	private final int [] roleIdentifiers;
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param identifier			The user identifier.
+	 * @param login					The user login.
+	 * @param password				The encrypted password.
+	 * @param connectionNumber		The connection number.
+	 * @param lastConnection		The timestamp of the last connection.
+	 * @param consecutiveErrors		The consecutive errors number.
+	 * @param isDisabled			The disabled state.
+	 * @param firstName				The first name.
+	 * @param lastName				The last name.
+	 * @param email					The email.
+	 * @param roleIdentifiers		The identifiers of the associated roles. The array is not copied: it must not be modified later.
+	 */
+	UserRecord( int identifier, String login, String password, int connectionNumber, long lastConnection, int consecutiveErrors,
+				boolean isDisabled, String firstName, String lastName, String email, int [] roleIdentifiers ) {
+		if ( login == null ) throw new NullPointerException( "Login cannot be null" );
+		this.identifier = identifier;
+		this.login = login;
+		this.password = password == null ? "" : password;
+		this.connectionNumber = connectionNumber;
+		this.lastConnection = lastConnection;
+		this.consecutiveErrors = consecutiveErrors;
+		this.isDisabled = isDisabled;
+		this.firstName = firstName == null ? "" : firstName;
+		this.lastName = lastName == null ? "" : lastName;
+		this.email = email == null ? "" : email;
+		this.roleIdentifiers = roleIdentifiers == null || roleIdentifiers.length == 0 ? NO_ROLE : roleIdentifiers;
+	}
+
+	int getIdentifier() {
+		return this.identifier;
+	}
+
+	String getLogin() {
+		return this.login;
+	}
+
+	String getPassword() {
+		return this.password;
+	}
+
+	int getConnectionNumber() {
+		return this.connectionNumber;
+	}
+
+	long getLastConnection() {
+		return this.lastConnection;
+	}
+
+	int getConsecutiveErrors() {
+		return this.consecutiveErrors;
+	}
+
+	boolean isDisabled() {
+		return this.isDisabled;
+	}
+
+	String getFirstName() {
+		return this.firstName;
+	}
+
+	String getLastName() {
+		return this.lastName;
+	}
+
+	String getEmail() {
+		return this.email;
+	}
+
+	/**
+	 * Returns the identifiers of the associated roles. The returned array must not be modified.
+	 * @return The role identifiers.
+	 */
+	int [] getRoleIdentifiers() {
+		return this.roleIdentifiers;
+	}
+
+	@Override
+	public boolean equals( Object obj ) {
+		if ( obj == this ) return true;
+		if ( obj instanceof UserRecord == false ) return false;
+		UserRecord other = (UserRecord) obj;
+		return this.identifier == other.identifier
+			&& this.login.equals( other.login )
+			&& this.password.equals( other.password )
+			&& this.connectionNumber == other.connectionNumber
+			&& this.lastConnection == other.lastConnection
+			&& this.consecutiveErrors == other.consecutiveErrors
+			&& this.isDisabled == other.isDisabled
+			&& this.firstName.equals( other.firstName )
+			&& this.lastName.equals( other.lastName )
+			&& this.email.equals( other.email )
+			&& Arrays.equals( this.roleIdentifiers, other.roleIdentifiers );
+	}
+
+	@Override
+	public int hashCode() {
+		return this.identifier;
+	}
+
+	@Override
+	public String toString() {
+		return "idUser = " + this.identifier + " ; Login = " + this.login;
+	}
+}
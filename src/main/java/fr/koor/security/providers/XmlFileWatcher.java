@@ -0,0 +1,113 @@
+package fr.koor.security.providers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ *     This class watches the file of an XML security database and calls a task each time the file may have changed.
+ *     The parent directory is registered in a <code>WatchService</code> so that changes are noticed immediately; the
+ *     task is also called at each poll interval, which covers the file systems on which the watch service is not
+ *     available (or not reliable, as network file systems). The task is responsible for checking if the file has
+ *     really changed (see <code>FileSystem.getLastModifiedTime</code>) and for reporting its failures: the watcher
+ *     never writes anything.
+ * </p>
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+final class XmlFileWatcher implements AutoCloseable {
+
+	private final File file;
+	private final long pollInterval;
+	private final Runnable task;
+	private final Thread thread;
+	private volatile boolean closed = false;
+	private volatile WatchService watchService;
+
+	/**
+	 * Class constructor. The watcher is not started: see <code>start</code>.
+	 *
+	 * @param filename		The name of the watched file.
+	 * @param pollInterval	The maximum delay, in milliseconds, between two calls of the task.
+	 * @param task			The task called when the file may have changed.
+	 */
+	XmlFileWatcher( String filename, long pollInterval, Runnable task ) {
+		if ( filename == null ) throw new NullPointerException();
+		if ( task == null ) throw new NullPointerException();
+		if ( pollInterval <= 0 ) throw new IllegalArgumentException( "Poll interval must be strictly positive" );
+		this.file = new File( filename ).getAbsoluteFile();
+		this.pollInterval = pollInterval;
+		this.task = task;
+		this.thread = new Thread( this::run, "XmlSecurityManager watcher - " + filename );
+		this.thread.setDaemon( true );
+	}
+
+	/**
+	 * Starts the watcher thread. If the watch service cannot be used, the watcher falls back to polling.
+	 */
+	void start() {
+		try {
+			this.watchService = FileSystems.getDefault().newWatchService();
+			this.file.getParentFile().toPath().register( this.watchService,
+					StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY );
+		} catch ( IOException | UnsupportedOperationException exception ) {
+			this.closeWatchService();
+		}
+		this.thread.start();
+	}
+
+	private void run() {
+		Path filename = this.file.toPath().getFileName();
+		while ( this.closed == false ) {
+			try {
+				WatchService service = this.watchService;
+				if ( service == null ) {
+					Thread.sleep( this.pollInterval );
+				} else {
+					WatchKey key = service.poll( this.pollInterval, TimeUnit.MILLISECONDS );
+					if ( key != null ) {
+						boolean concerned = key.pollEvents().stream().anyMatch( event -> filename.equals( event.context() ) );
+						key.reset();
+						if ( concerned == false ) continue;
+					}
+				}
+			} catch ( InterruptedException | ClosedWatchServiceException exception ) {
+				continue;
+			}
+			if ( this.closed ) break;
+			try {
+				this.task.run();
+			} catch ( RuntimeException exception ) {
+				// The task reports its own failures: the watcher must survive a failing report
+			}
+		}
+	}
+
+	private void closeWatchService() {
+		if ( this.watchService == null ) return;
+		try {
+			this.watchService.close();
+		} catch ( IOException exception ) {
+			/* Nothing to do */
+		}
+		this.watchService = null;
+	}
+
+	/**
+	 * Stops the watcher thread.
+	 */
+	@Override
+	public void close() {
+		this.closed = true;
+		this.thread.interrupt();
+		this.closeWatchService();
+	}
+}
@@ -0,0 +1,265 @@
+package fr.koor.security.providers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ *     This class implements the write-ahead journal used by the XML security manager. Each user or role modification is
+ *     appended to the journal as a compact binary record, so the cost of a modification is proportional to the change and
+ *     not to the size of the security database. Records are buffered and forced to disk in groups by <code>sync()</code>.
+ * </p>
+ * <p>
+ *     Each record is framed by its length and followed by a CRC32 checksum: a record partially written during a crash is
+ *     detected and ignored by <code>replay</code>. Records always contain the full state of the considered user or role,
+ *     so replaying a record already applied to the XML file has no effect.
+ * </p>
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+final class XmlJournal implements AutoCloseable {
+
+	private static final byte USER_UPDATE = 1;
+	private static final byte USER_DELETE = 2;
+	private static final byte ROLE_UPDATE = 3;
+	private static final byte ROLE_DELETE = 4;
+
+	private static final int MAX_RECORD_SIZE = 1024 * 1024;
+
+	/**
+	 * This interface receives the records read by the <code>replay</code> method.
+	 */
+	interface Visitor {
+
+		void userUpdated( UserRecord user ) throws Exception;
+
+		void userDeleted( int userIdentifier ) throws Exception;
+
+		void roleUpdated( int roleIdentifier, String roleName ) throws Exception;
+
+		void roleDeleted( int roleIdentifier ) throws Exception;
+
+	}
+
+	private final File file;
+	private FileOutputStream fileStream;
+	private DataOutputStream stream;
+	private long size;
+
+	private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream( 256 );
+	private final DataOutputStream record = new DataOutputStream( this.recordBuffer );
+	private final CRC32 checksum = new CRC32();
+
+	/**
+	 * Class constructor. The journal file is not opened: see <code>open</code>.
+	 *
+	 * @param filename	The journal file name.
+	 */
+	XmlJournal( String filename ) {
+		if ( filename == null ) throw new NullPointerException();
+		this.file = new File( filename );
+	}
+
+	/**
+	 * Returns the journal file name.
+	 * @return The journal file name.
+	 */
+	String getFilename() {
+		return this.file.getPath();
+	}
+
+	/**
+	 * Opens the journal file in append mode.
+	 *
+	 * @throws IOException	Thrown if the journal file cannot be opened.
+	 */
+	synchronized void open() throws IOException {
+		if ( this.stream != null ) return;
+		this.fileStream = new FileOutputStream( this.file, true );
+		this.stream = new DataOutputStream( new BufferedOutputStream( this.fileStream, 64 * 1024 ) );
+		this.size = this.file.length();
+	}
+
+	/**
+	 * Returns the current size, in bytes, of the journal (including the buffered records).
+	 * @return The journal size.
+	 */
+	synchronized long size() {
+		return this.stream == null ? this.file.length() : this.size;
+	}
+
+	synchronized void appendUserUpdate( UserRecord user ) throws IOException {
+		this.record.writeByte( USER_UPDATE );
+		this.record.writeInt( user.getIdentifier() );
+		this.record.writeUTF( user.getLogin() );
+		this.record.writeUTF( user.getPassword() );
+		this.record.writeInt( user.getConnectionNumber() );
+		this.record.writeLong( user.getLastConnection() );
+		this.record.writeInt( user.getConsecutiveErrors() );
+		this.record.writeBoolean( user.isDisabled() );
+		this.record.writeUTF( user.getFirstName() );
+		this.record.writeUTF( user.getLastName() );
+		this.record.writeUTF( user.getEmail() );
+		int [] roleIdentifiers = user.getRoleIdentifiers();
+		this.record.writeShort( roleIdentifiers.length );
+		for ( int roleIdentifier : roleIdentifiers ) this.record.writeInt( roleIdentifier );
+		this.writeRecord();
+	}
+
+	synchronized void appendUserDeletion( int userIdentifier ) throws IOException {
+		this.record.writeByte( USER_DELETE );
+		this.record.writeInt( userIdentifier );
+		this.writeRecord();
+	}
+
+	synchronized void appendRoleUpdate( int roleIdentifier, String roleName ) throws IOException {
+		this.record.writeByte( ROLE_UPDATE );
+		this.record.writeInt( roleIdentifier );
+		this.record.writeUTF( roleName );
+		this.writeRecord();
+	}
+
+	synchronized void appendRoleDeletion( int roleIdentifier ) throws IOException {
+		this.record.writeByte( ROLE_DELETE );
+		this.record.writeInt( roleIdentifier );
+		this.writeRecord();
+	}
+
+	private void writeRecord() throws IOException {
+		try {
+			if ( this.stream == null ) throw new IOException( "Journal " + this.file + " is not opened" );
+			this.checksum.reset();
+			this.checksum.update( this.recordBuffer.toByteArray(), 0, this.recordBuffer.size() );
+			this.stream.writeInt( this.recordBuffer.size() );
+			this.recordBuffer.writeTo( this.stream );
+			this.stream.writeInt( (int) this.checksum.getValue() );
+			this.size += this.recordBuffer.size() + 8;
+		} finally {
+			this.recordBuffer.reset();
+		}
+	}
+
+	/**
+	 * Writes the buffered records and forces them to the storage device.
+	 *
+	 * @throws IOException	Thrown if the journal cannot be written.
+	 */
+	synchronized void sync() throws IOException {
+		if ( this.stream == null ) return;
+		this.stream.flush();
+		this.fileStream.getChannel().force( false );
+	}
+
+	/**
+	 * Removes all records of this journal. Call this method once the records have been folded into the XML file.
+	 *
+	 * @throws IOException	Thrown if the journal cannot be truncated.
+	 */
+	synchronized void truncate() throws IOException {
+		if ( this.stream != null ) {
+			this.stream.flush();
+			this.fileStream.getChannel().truncate( 0 );
+			this.fileStream.getChannel().force( true );
+		} else if ( this.file.exists() ) {
+			this.file.delete();
+		}
+		this.size = 0;
+	}
+
+	/**
+	 * Reads all valid records of the journal file. The reading stops at the first incomplete or corrupted record.
+	 *
+	 * @param visitor	The object that applies the read records.
+	 * @return The number of replayed records.
+	 *
+	 * @throws Exception	Thrown if the journal cannot be read or if a record cannot be applied.
+	 */
+	synchronized int replay( Visitor visitor ) throws Exception {
+		if ( this.file.exists() == false ) return 0;
+		if ( this.stream != null ) this.stream.flush();
+
+		int count = 0;
+		try ( DataInputStream input = new DataInputStream( new BufferedInputStream( new FileInputStream( this.file ), 64 * 1024 ) ) ) {
+			CRC32 crc = new CRC32();
+			while ( true ) {
+				byte [] payload;
+				try {
+					int length = input.readInt();
+					if ( length <= 0 || length > MAX_RECORD_SIZE ) break;
+					payload = new byte[ length ];
+					input.readFully( payload );
+					crc.reset();
+					crc.update( payload, 0, length );
+					if ( input.readInt() != (int) crc.getValue() ) break;
+				} catch ( EOFException exception ) {
+					break;
+				}
+				this.applyRecord( payload, visitor );
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private void applyRecord( byte [] payload, Visitor visitor ) throws Exception {
+		DataInputStream input = new DataInputStream( new ByteArrayInputStream( payload ) );
+		byte operation = input.readByte();
+		switch ( operation ) {
+			case USER_UPDATE:
+				int identifier = input.readInt();
+				String login = input.readUTF();
+				String password = input.readUTF();
+				int connectionNumber = input.readInt();
+				long lastConnection = input.readLong();
+				int consecutiveErrors = input.readInt();
+				boolean isDisabled = input.readBoolean();
+				String firstName = input.readUTF();
+				String lastName = input.readUTF();
+				String email = input.readUTF();
+				int [] roleIdentifiers = new int[ input.readShort() ];
+				for ( int i = 0; i < roleIdentifiers.length; i++ ) roleIdentifiers[i] = input.readInt();
+				visitor.userUpdated( new UserRecord( identifier, login, password, connectionNumber, lastConnection,
+						consecutiveErrors, isDisabled, firstName, lastName, email, roleIdentifiers ) );
+				break;
+			case USER_DELETE:
+				visitor.userDeleted( input.readInt() );
+				break;
+			case ROLE_UPDATE:
+				visitor.roleUpdated( input.readInt(), input.readUTF() );
+				break;
+			case ROLE_DELETE:
+				visitor.roleDeleted( input.readInt() );
+				break;
+			default:
+				throw new IOException( "Unknown journal record type " + operation + " in " + this.file );
+		}
+	}
+
+	/**
+	 * Writes the buffered records and closes the journal file.
+	 *
+	 * @throws IOException	Thrown if the journal cannot be closed.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if ( this.stream == null ) return;
+		try {
+			this.sync();
+		} finally {
+			this.stream.close();
+			this.stream = null;
+			this.fileStream = null;
+		}
+	}
+}
@@ -1,46 +1,110 @@
 package fr.koor.security.providers;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.PrintStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathException;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.w3c.dom.Text;
-import org.w3c.dom.ls.DOMImplementationLS;
-import org.w3c.dom.ls.LSOutput;
-import org.w3c.dom.ls.LSSerializer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
 
 import fr.koor.security.AccountDisabledException;
+import fr.koor.security.AuthorizationManager;
 import fr.koor.security.BadCredentialsException;
+import fr.koor.security.PasswordScreener;
+import fr.koor.security.PermissionManager;
 import fr.koor.security.Role;
 import fr.koor.security.RoleAlreadyRegisteredException;
 import fr.koor.security.RoleManager;
 import fr.koor.security.SecurityManagerException;
+import fr.koor.security.SessionManager;
 import fr.koor.security.User;
 import fr.koor.security.UserAlreadyRegisteredException;
 import fr.koor.security.UserManager;
+import fr.koor.security.UserNotFoundException;
 import fr.koor.security.impl.RoleImpl;
+import fr.koor.security.impl.RoleRegistry;
 import fr.koor.security.impl.UserImpl;
+import fr.koor.utility.FileSystem;
 
 /** 
  * <p>
  *     This security manager (see interface fr.koor.security.SercurityManager)  use a XML file to store the security informations.
  * </p>
  * 
+ * <p>
+ *     The XML file is loaded with a streaming (StAX) parser into compact in-memory records, indexed by identifier and by
+ *     login (or role name). All lookups are served from these records, and the file is written back by a streaming writer:
+ *     no DOM is ever built.
+ * </p>
+ * 
+ * <p>
+ *     This class is thread-safe. The in-memory state is an immutable snapshot published through an atomic reference:
+ *     lookups (<code>getUserById</code>, <code>getUserByLogin</code>, <code>selectRoleById</code>, ...) read the current
+ *     snapshot and never take a lock. Modifications are serialized by a write lock; each one produces a new snapshot that
+ *     shares most of its indexes with the previous one and swaps it in. Files are written from a snapshot, so a long flush
+ *     never delays a lookup nor a modification.
+ * </p>
+ * 
+ * <p>
+ *     <code>checkCredentials</code> doesn't take the write lock: the connection counters of the user are updated by a
+ *     compare-and-set of the snapshot, retried if another change has been published meanwhile, so concurrent logins never
+ *     wait for each other. The change is handed over to the journal and to the flusher under a short lock that is never
+ *     held while the XML file is written.
+ * </p>
+ * 
+ * <p>
+ *     Modifications are not written immediately: each mutation (including the connection counters updated by
+ *     <code>checkCredentials</code>) marks the database as dirty, and a background flusher rewrites the file at most
+ *     once per flush interval, or as soon as the flush threshold (number of pending changes) is reached. Call
+ *     <code>flush()</code> to force the write; <code>close()</code> always flushes pending changes. If each
+ *     modification must be on disk before the call returns, enable the synchronous durability mode.
+ * </p>
+ * 
+ * <p>
+ *     Optionally, a write-ahead journal (<code>filename.journal</code>) can be enabled with <code>setJournaling</code>.
+ *     Each modification is then appended to the journal as a compact record and the flusher only forces the journal to
+ *     disk: the cost of a modification no longer depends on the database size. When the journal exceeds the compaction
+ *     threshold, the background flusher folds it into a new version of the XML file. A journal left by a previous
+ *     session is always replayed by <code>openSession</code>.
+ * </p>
+ * 
+ * <p>
+ *     When hot reload is enabled (<code>setHotReload</code>), the XML file is watched and changes made by another
+ *     process (an edit, a new deployed version) are loaded in the background: the new content is compared with the
+ *     version last read or written by this instance, and only the changed records are applied to the current snapshot.
+ *     Records that were also changed locally and not yet written are conflicts: the version of the file wins, and the
+ *     conflicts of the background reloads are reported to the reload listener (<code>setReloadListener</code>), as their
+ *     failures. Changes can also be loaded explicitly with <code>reload()</code>.
+ * </p>
+ * 
+ * <p>
+ *     To speed up the startup with large databases, a binary snapshot (<code>filename.snapshot</code>) can be enabled
+ *     with <code>setBinarySnapshot</code>. It is written next to each version of the XML file and, at session opening,
+ *     it is loaded (through a memory mapping) instead of parsing the XML file, provided that it has been produced from
+ *     the current version of the XML file. The XML file remains the editable source of truth.
+ * </p>
+ * 
+ * <p>
+ *     Permissions are stored in a <code>Permissions</code> element, and the grants and parents of a role as
+ *     <code>PermissionRef</code> and <code>ParentRole</code> children of its <code>Role</code> element. Permission
+ *     changes are rare: when journaling is enabled, each of them folds the journal into the XML file.
+ * </p>
+ * 
  * @see fr.koor.security.SecurityManager
  * 
  * @author Infini Software : Dominique Liard
@@ -49,11 +113,67 @@ import fr.koor.security.impl.UserImpl;
 public class XmlSecurityManager implements fr.koor.security.SecurityManager {
 
 	private String xmlFilename;
-	private Document xmlDocument;
-	private XPath xpath	= XPathFactory.newInstance().newXPath();
+	private final AtomicReference<RecordStore> snapshot = new AtomicReference<>();
+	
+	/** Serializes the modifications: only one new snapshot is produced at a time. */
+	private final ReentrantLock writeLock = new ReentrantLock();
+	/** Serializes the writes of the XML file and of the journal. Always acquired after writeLock. */
+	private final ReentrantLock flushLock = new ReentrantLock();
+	/**
+	 * Guards the hand-over of the login counters to the journal and to the flusher. Held for short operations only,
+	 * never while the XML file is written. Always acquired after flushLock.
+	 */
+	private final ReentrantLock changeLock = new ReentrantLock();
+	/** The users journaled by logins while the journal is being folded into the XML file, or null. Guarded by changeLock. */
+	private List<Integer> foldedLogins;
+	
+	/** Provides the role instances shared by the loaded users. */
+	private final RoleRegistry roleRegistry = new RoleRegistry();
 	
 	private UserManager userManager = new XmlUserManager();
 	private RoleManager roleManager = new XmlRoleManager();
+	private XmlPermissionManager permissionManager = new XmlPermissionManager();
+	private CachedAuthorizationManager authorizationManager = new CachedAuthorizationManager( this::findRoleIdentifier, this.permissionManager );
+	private ShardedSessionManager sessionManager = new ShardedSessionManager( this );
+	private volatile PasswordScreener passwordScreener;
+	
+	/** The default delay, in milliseconds, between two background flushes. */
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+	
+	/** The default number of pending changes that forces a flush. */
+	public static final int DEFAULT_FLUSH_THRESHOLD = 100;
+	
+	private boolean synchronousDurability = false;
+	private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+	private int flushThreshold = DEFAULT_FLUSH_THRESHOLD;
+	private int pendingChanges = 0;
+	private boolean flushRequested = false;
+	private int backupGenerations = 0;
+	
+	/** The default journal size, in bytes, that triggers its folding into the XML file. */
+	public static final long DEFAULT_COMPACTION_THRESHOLD = 4 * 1024 * 1024;
+	
+	/** Modified under the write lock, the flush lock and the change lock. */
+	private XmlJournal journal;
+	private boolean journaling = false;
+	private long compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+	private ScheduledExecutorService flusher;
+	
+	/** The default maximum delay, in milliseconds, between two checks of the XML file when hot reload is enabled. */
+	public static final long DEFAULT_RELOAD_INTERVAL = 2000;
+	
+	private boolean hotReload = false;
+	private long reloadInterval = DEFAULT_RELOAD_INTERVAL;
+	private XmlFileWatcher watcher;
+	private volatile ReloadListener reloadListener;
+	/** The snapshot matching the content of the XML file, as last read or written by this instance. */
+	private RecordStore baseSnapshot;
+	private volatile long fileModifiedTime;
+	private volatile long fileLength;
+	/** The CRC32 checksum of the XML file last read or written by this instance, recorded in the binary snapshot. */
+	private volatile int fileChecksum;
+	
+	private boolean binarySnapshot = false;
 	
 	
 	/**
@@ -64,47 +184,792 @@ public class XmlSecurityManager implements fr.koor.security.SecurityManager {
 	 * @exception SecurityManagerException Thrown if the XML file cannot be opened.
 	 */
 	public XmlSecurityManager( String filename ) throws SecurityManagerException {
+		this( filename, false );
+	}
+	
+	/**
+	 * This constructor produces an instance of security manager that has based on a XML file.
+	 * 
+	 * @param filename					The name of the XML file.
+	 * @param synchronousDurability		If true, each modification is written to the XML file before the call returns.
+	 * 									If false, modifications are written by the background flusher.
+	 * 
+	 * @exception SecurityManagerException Thrown if the XML file cannot be opened.
+	 * 
+	 * @since 0.6.0
+	 */
+	public XmlSecurityManager( String filename, boolean synchronousDurability ) throws SecurityManagerException {
 		if ( filename == null ) throw new NullPointerException();
 		this.xmlFilename = filename;
+		this.synchronousDurability = synchronousDurability;
 		this.openSession();
 	}
 	
-	private void constructDatabase() throws Exception {
-		FileOutputStream fos = new FileOutputStream( this.xmlFilename );
-		PrintStream stream = new PrintStream( fos );
-		
-		stream.println( "<?xml version='1.0' encoding='UTF-8' ?>" );
-		stream.println( "<SecurityDatabase>" );
-		stream.println( "    <Users>" );
-		stream.println( "        <User id='1' login='root' password='" + userManager.encryptPassword( "admin" ) + "' connectionNumber='0' lastConnection='0' consecutiveErrors='0' isDisabled='false' firstName='root' lastName='administrator' email=''>" );
-		stream.println( "            <RoleRef id='1' />" );
-		stream.println( "        </User>" );
-		stream.println( "    </Users>" );
-		stream.println( "    <Roles>" );
-		stream.println( "        <Role id='1' roleName='admin' />" );
-		stream.println( "    </Roles>" );
-		stream.println( "</SecurityDatabase>" );
-		
-		stream.close();
+	private RecordStore constructDatabase() throws Exception {
+		return new RecordStore()
+				.withRole( new RoleRecord( 1, "admin" ) )
+				.withUser( new UserRecord( 1, "root", this.userManager.encryptPassword( "admin" ), 0, 0, 0, false,
+						"root", "administrator", "", new int[] { 1 } ) );
 	}
 
 	@Override public void openSession() throws SecurityManagerException {
+		this.writeLock.lock();
+		this.flushLock.lock();
 		try {
-			if ( ! new File( this.xmlFilename ).exists() ) {
-				this.constructDatabase();
+			RecordStore store;
+			if ( new File( this.xmlFilename ).exists() ) {
+				store = this.isBinarySnapshot() ? this.readBinarySnapshot() : null;
+				if ( store == null ) {
+					store = this.readXmlFile();
+					if ( this.isBinarySnapshot() ) this.writeBinarySnapshot( store );
+				}
+			} else {
+				store = this.constructDatabase();
+				this.saveXmlFile( store );
 			}
-
-			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder builder = factory.newDocumentBuilder();
-			this.xmlDocument = builder.parse( this.xmlFilename );
-			
+			this.snapshot.set( this.replayJournal( store ) );
 		} catch ( Exception exception ) {
 			throw new SecurityManagerException( "Cannot open XML security database", exception );
+		} finally {
+			this.flushLock.unlock();
+			this.writeLock.unlock();
 		}
+		this.startFlusher();
+		if ( this.isHotReload() ) this.startWatcher();
 	}
 
 	@Override public void close() throws SecurityManagerException {
-		this.xmlDocument = null;
+		this.writeLock.lock();
+		this.flushLock.lock();
+		try {
+			try {
+				if ( this.isHotReload() ) this.reload();
+				this.flushChanges();
+				if ( this.journal != null ) {
+					this.compactJournal();
+					this.closeJournal();
+				}
+			} finally {
+				this.snapshot.set( null );
+				this.roleRegistry.clear();
+				this.permissionManager.invalidateAll();
+				this.authorizationManager.invalidateAll();
+				this.sessionManager.close();
+			}
+		} catch ( IOException exception ) {
+			throw new SecurityManagerException( "Cannot close security journal", exception );
+		} finally {
+			this.flushLock.unlock();
+			this.writeLock.unlock();
+			this.stopFlusher();
+			this.stopWatcher();
+		}
+	}
+	
+	/**
+	 * Writes all pending modifications into the XML file. If the database is not dirty, this method does nothing.
+	 * Lookups and modifications are not blocked by this method.
+	 * 
+	 * @throws SecurityManagerException Thrown if the XML file cannot be written.
+	 * 
+	 * @since 0.6.0
+	 */
+	public void flush() throws SecurityManagerException {
+		if ( this.isHotReload() && this.isFileChanged() ) {
+			// The local changes are merged with the external ones, then written
+			this.reload();
+			return;
+		}
+		this.flushLock.lock();
+		try {
+			this.flushChanges();
+		} finally {
+			this.flushLock.unlock();
+		}
+	}
+	
+	/**
+	 * Writes the pending modifications. The caller must own the flush lock.
+	 */
+	private void flushChanges() throws SecurityManagerException {
+		// Count the changes before reading the snapshot: each counted change is then contained in the written snapshot.
+		int changes;
+		synchronized ( this ) {
+			changes = this.pendingChanges;
+			this.flushRequested = false;
+		}
+		RecordStore store = this.snapshot.get();
+		if ( changes == 0 || store == null ) return;
+		if ( this.journal != null ) {
+			try {
+				this.journal.sync();
+			} catch ( IOException exception ) {
+				throw new SecurityManagerException( "Cannot write security journal", exception );
+			}
+		} else if ( this.isHotReload() && this.isFileChanged() ) {
+			// Never overwrite an external modification: the next reload merges and writes the local changes
+			return;
+		} else {
+			this.saveXmlFile( store );
+		}
+		synchronized ( this ) {
+			this.pendingChanges -= changes;
+		}
+	}
+	
+	/**
+	 * Folds the journal into a new version of the XML file and empties the journal. If journaling is disabled, this
+	 * method does nothing. Modifications wait for the end of the compaction, but lookups are not blocked.
+	 * 
+	 * @throws SecurityManagerException Thrown if the XML file or the journal cannot be written.
+	 * 
+	 * @since 0.6.0
+	 */
+	public void compact() throws SecurityManagerException {
+		this.writeLock.lock();
+		this.flushLock.lock();
+		try {
+			this.compactJournal();
+		} finally {
+			this.flushLock.unlock();
+			this.writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Folds the journal into the XML file. The caller must own the write lock and the flush lock.
+	 */
+	private void compactJournal() throws SecurityManagerException {
+		this.compactJournal( false );
+	}
+	
+	/**
+	 * Folds the journal into the XML file. The caller must own the write lock and the flush lock.
+	 * 
+	 * @param force	true to write the XML file even if the journal is empty.
+	 */
+	private void compactJournal( boolean force ) throws SecurityManagerException {
+		if ( this.journal == null || this.snapshot.get() == null ) return;
+		int changes = this.startFolding();
+		try {
+			RecordStore store = this.snapshot.get();
+			this.journal.sync();
+			if ( this.journal.size() == 0 && force == false ) return;
+			this.saveXmlFile( store );
+			this.finishFolding( changes );
+		} catch ( IOException exception ) {
+			throw new SecurityManagerException( "Cannot compact security journal", exception );
+		} finally {
+			this.stopFolding();
+		}
+	}
+	
+	/**
+	 * Starts folding the journal into the XML file: the logins journaled from now on are remembered, to be journaled
+	 * again once the journal is truncated. The caller must own the write lock and the flush lock, and must read the
+	 * snapshot to write after this call.
+	 * 
+	 * @return The number of pending changes, all contained in the snapshot read after this call.
+	 */
+	private int startFolding() {
+		this.changeLock.lock();
+		try {
+			this.foldedLogins = new ArrayList<>();
+			synchronized ( this ) {
+				return this.pendingChanges;
+			}
+		} finally {
+			this.changeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Truncates the journal once the XML file is written, then journals again the logins registered during the write.
+	 * 
+	 * @param changes	The number of pending changes written in the XML file.
+	 */
+	private void finishFolding( int changes ) throws IOException, SecurityManagerException {
+		this.changeLock.lock();
+		try {
+			if ( this.journal != null ) {
+				this.journal.truncate();
+				for ( int userIdentifier : this.foldedLogins ) this.journalUser( userIdentifier );
+			}
+			synchronized ( this ) {
+				this.pendingChanges -= changes;
+			}
+		} finally {
+			this.changeLock.unlock();
+		}
+	}
+	
+	private void stopFolding() {
+		this.changeLock.lock();
+		try {
+			this.foldedLogins = null;
+		} finally {
+			this.changeLock.unlock();
+		}
+	}
+	
+	private void closeJournal() throws IOException {
+		this.changeLock.lock();
+		try {
+			this.journal.close();
+			this.journal = null;
+		} finally {
+			this.changeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Loads the changes made to the XML file by another process. If the file has not changed since it was last read or
+	 * written by this instance, this method does nothing. Otherwise, the records changed in the file are applied to the
+	 * current snapshot; if some of them were also changed locally, the version of the file is kept. Local changes that
+	 * are not in conflict are immediately written back so that the file contains both versions.
+	 * 
+	 * @return The descriptions of the records changed on both sides (an empty list if there is no conflict).
+	 * 
+	 * @throws SecurityManagerException Thrown if the XML file cannot be read or written.
+	 * 
+	 * @since 0.6.0
+	 */
+	public List<String> reload() throws SecurityManagerException {
+		if ( this.isFileChanged() == false ) return Collections.emptyList();
+		this.writeLock.lock();
+		this.flushLock.lock();
+		try {
+			if ( this.snapshot.get() == null || this.isFileChanged() == false ) return Collections.emptyList();
+			
+			int changes = this.startFolding();
+			boolean localChanges = changes > 0;
+			if ( this.journal != null && this.journal.size() > 0 ) localChanges = true;
+			
+			RecordStore base = this.baseSnapshot;
+			RecordStore external = this.readXmlFile();
+			// Logins update the counters without the write lock: merge again if one has been published meanwhile
+			List<String> conflicts = new ArrayList<>();
+			RecordStore local;
+			RecordStore merged;
+			do {
+				local = this.snapshot.get();
+				conflicts.clear();
+				merged = RecordStore.merge( base, local, external, conflicts );
+			} while ( this.snapshot.compareAndSet( local, merged ) == false );
+			
+			if ( localChanges ) this.saveXmlFile( merged );
+			this.finishFolding( changes );
+			return conflicts;
+		} catch ( IOException exception ) {
+			throw new SecurityManagerException( "Cannot reload XML security database", exception );
+		} finally {
+			this.stopFolding();
+			this.flushLock.unlock();
+			this.writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Indicates if the XML file has been modified since it was last read or written by this instance. A missing file is
+	 * not considered as modified.
+	 */
+	private boolean isFileChanged() {
+		long modifiedTime = FileSystem.getLastModifiedTime( this.xmlFilename );
+		if ( modifiedTime == 0 ) return false;
+		return modifiedTime != this.fileModifiedTime || new File( this.xmlFilename ).length() != this.fileLength;
+	}
+	
+	/**
+	 * This interface is notified of the results of the background reloads (see <code>setHotReload</code>). Its methods
+	 * are called by the watcher thread.
+	 * 
+	 * @since 0.6.0
+	 */
+	public interface ReloadListener {
+		
+		/**
+		 * Called when a background reload has replaced local changes by the version of the file.
+		 * 
+		 * @param conflicts	The descriptions of the records changed on both sides.
+		 */
+		void conflictsResolved( List<String> conflicts );
+		
+		/**
+		 * Called when a background reload has failed. The watcher keeps running: the reload is retried at the next change.
+		 * 
+		 * @param exception	The cause of the failure.
+		 */
+		void reloadFailed( Exception exception );
+		
+	}
+	
+	/**
+	 * Returns the listener notified of the results of the background reloads.
+	 * 
+	 * @return The reload listener, or null if there is none.
+	 * 
+	 * @since 0.6.0
+	 */
+	public ReloadListener getReloadListener() {
+		return this.reloadListener;
+	}
+	
+	/**
+	 * Defines the listener notified of the results of the background reloads: the conflicts and the failures. Without
+	 * listener, they are ignored.
+	 * 
+	 * @param reloadListener	The reload listener, or null to remove it.
+	 * 
+	 * @since 0.6.0
+	 */
+	public void setReloadListener( ReloadListener reloadListener ) {
+		this.reloadListener = reloadListener;
+	}
+	
+	/**
+	 * The task of the file watcher: loads the external changes, if any, and reports the conflicts and the failures to
+	 * the reload listener.
+	 */
+	private void reloadInBackground() {
+		ReloadListener listener = this.reloadListener;
+		try {
+			List<String> conflicts = this.reload();
+			if ( conflicts.isEmpty() == false && listener != null ) listener.conflictsResolved( conflicts );
+		} catch ( SecurityManagerException | RuntimeException exception ) {
+			if ( listener != null ) listener.reloadFailed( exception );
+		}
+	}
+	
+	/**
+	 * Indicates if the changes made to the XML file by other processes are automatically loaded.
+	 * 
+	 * @return true if hot reload is enabled, false otherwise.
+	 * 
+	 * @since 0.6.0
+	 */
+	public synchronized boolean isHotReload() {
+		return this.hotReload;
+	}
+	
+	/**
+	 * Enables or disables the automatic loading of the changes made to the XML file by other processes. By default,
+	 * hot reload is disabled.
+	 * 
+	 * @param hotReload	true to watch the XML file, false otherwise.
+	 * 
+	 * @see #reload()
+	 * @since 0.6.0
+	 */
+	public void setHotReload( boolean hotReload ) {
+		synchronized ( this ) {
+			if ( this.hotReload == hotReload ) return;
+			this.hotReload = hotReload;
+		}
+		if ( hotReload == false ) {
+			this.stopWatcher();
+		} else if ( this.snapshot.get() != null ) {
+			this.startWatcher();
+		}
+	}
+	
+	/**
+	 * Returns the maximum delay, in milliseconds, between two checks of the XML file when hot reload is enabled.
+	 * 
+	 * @return The reload interval.
+	 * 
+	 * @since 0.6.0
+	 */
+	public synchronized long getReloadInterval() {
+		return this.reloadInterval;
+	}
+	
+	/**
+	 * Changes the maximum delay, in milliseconds, between two checks of the XML file. Changes are usually noticed
+	 * immediately by the file system watch service: this delay only applies when it is not available. The new value is
+	 * used from the next session opening.
+	 * 
+	 * @param reloadInterval	The new reload interval (must be strictly positive).
+	 * 
+	 * @since 0.6.0
+	 */
+	public synchronized void setReloadInterval( long reloadInterval ) {
+		if ( reloadInterval <= 0 ) throw new IllegalArgumentException( "Reload interval must be strictly positive" );
+		this.reloadInterval = reloadInterval;
+	}
+	
+	private synchronized void startWatcher() {
+		if ( this.watcher != null ) return;
+		this.watcher = new XmlFileWatcher( this.xmlFilename, this.reloadInterval, this::reloadInBackground );
+		this.watcher.start();
+	}
+	
+	private void stopWatcher() {
+		XmlFileWatcher fileWatcher;
+		synchronized ( this ) {
+			fileWatcher = this.watcher;
+			this.watcher = null;
+		}
+		if ( fileWatcher != null ) fileWatcher.close();
+	}
+	
+	/**
+	 * Indicates if modifications are written into the write-ahead journal.
+	 * 
+	 * @return true if journaling is enabled, false otherwise.
+	 * 
+	 * @since 0.6.0
+	 */
+	public synchronized boolean isJournaling() {
+		return this.journaling;
+	}
+	
+	/**
+	 * Enables or disables the write-ahead journal. When the journal is disabled, its content is first folded into the
+	 * XML file.
+	 * 
+	 * @param journaling	true to write modifications into the journal, false to rewrite the XML file.
+	 * 
+	 * @throws SecurityManagerException Thrown if the journal cannot be opened or folded into the XML file.
+	 * 
+	 * @since 0.6.0
+	 */
+	public void setJournaling( boolean journaling ) throws SecurityManagerException {
+		this.writeLock.lock();
+		this.flushLock.lock();
+		try {
+			synchronized ( this ) {
+				if ( this.journaling == journaling ) return;
+				this.journaling = journaling;
+			}
+			if ( this.snapshot.get() == null ) return;
+			if ( journaling ) {
+				this.flushChanges();
+				XmlJournal journal = new XmlJournal( this.getJournalFilename() );
+				journal.open();
+				this.changeLock.lock();
+				try {
+					this.journal = journal;
+				} finally {
+					this.changeLock.unlock();
+				}
+			} else {
+				this.compactJournal();
+				this.closeJournal();
+				FileSystem.delete( this.getJournalFilename() );
+			}
+		} catch ( IOException exception ) {
+			throw new SecurityManagerException( "Cannot change security journal state", exception );
+		} finally {
+			this.flushLock.unlock();
+			this.writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Returns the journal size, in bytes, that triggers its folding into the XML file by the background flusher.
+	 * 
+	 * @return The compaction threshold.
+	 * 
+	 * @since 0.6.0
+	 */
+	public synchronized long getCompactionThreshold() {
+		return this.compactionThreshold;
+	}
+	
+	/**
+	 * Changes the journal size, in bytes, that triggers its folding into the XML file by the background flusher.
+	 * 
+	 * @param compactionThreshold	The new compaction threshold (must be strictly positive).
+	 * 
+	 * @since 0.6.0
+	 */
+	public synchronized void setCompactionThreshold( long compactionThreshold ) {
+		if ( compactionThreshold <= 0 ) throw new IllegalArgumentException( "Compaction threshold must be strictly positive" );
+		this.compactionThreshold = compactionThreshold;
+	}
+	
+	private String getJournalFilename() {
+		return this.xmlFilename + ".journal";
+	}
+	
+	/**
+	 * Indicates if each modification is written to the XML file before the call returns.
+	 * 
+	 * @return true if the synchronous durability mode is enabled, false otherwise.
+	 * 
+	 * @since 0.6.0
+	 */
+	public synchronized boolean isSynchronousDurability() {
+		return this.synchronousDurability;
+	}
+	
+	/**
+	 * Enables or disables the synchronous durability mode. When enabled, each modification is written to the XML file
+	 * before the call returns. When the mode is enabled, pending modifications are immediately flushed.
+	 * 
+	 * @param synchronousDurability	true to enable the synchronous durability mode, false otherwise.
+	 * 
+	 * @throws SecurityManagerException Thrown if pending modifications cannot be written.
+	 * 
+	 * @since 0.6.0
+	 */
+	public void setSynchronousDurability( boolean synchronousDurability ) throws SecurityManagerException {
+		synchronized ( this ) {
+			this.synchronousDurability = synchronousDurability;
+		}
+		if ( synchronousDurability ) this.flush();
+	}
+	
+	/**
+	 * Returns the delay, in milliseconds, between two background flushes.
+	 * 
+	 * @return The flush interval.
+	 * 
+	 * @since 0.6.0
+	 */
+	public synchronized long getFlushInterval() {
+		return this.flushInterval;
+	}
+	
+	/**
+	 * Changes the delay, in milliseconds, between two background flushes. The new value is used from the next session opening.
+	 * 
+	 * @param flushInterval	The new flush interval (must be strictly positive).
+	 * 
+	 * @since 0.6.0
+	 */
+	public synchronized void setFlushInterval( long flushInterval ) {
+		if ( flushInterval <= 0 ) throw new IllegalArgumentException( "Flush interval must be strictly positive" );
+		this.flushInterval = flushInterval;
+	}
+	
+	/**
+	 * Returns the number of pending changes that forces a flush.
+	 * 
+	 * @return The flush threshold.
+	 * 
+	 * @since 0.6.0
+	 */
+	public synchronized int getFlushThreshold() {
+		return this.flushThreshold;
+	}
+	
+	/**
+	 * Changes the number of pending changes that forces a flush.
+	 * 
+	 * @param flushThreshold	The new flush threshold (must be strictly positive).
+	 * 
+	 * @since 0.6.0
+	 */
+	public synchronized void setFlushThreshold( int flushThreshold ) {
+		if ( flushThreshold <= 0 ) throw new IllegalArgumentException( "Flush threshold must be strictly positive" );
+		this.flushThreshold = flushThreshold;
+	}
+	
+	/**
+	 * Returns the number of previous versions of the XML file kept for rollback.
+	 * 
+	 * @return The number of backup generations.
+	 * 
+	 * @since 0.6.0
+	 */
+	public synchronized int getBackupGenerations() {
+		return this.backupGenerations;
+	}
+	
+	/**
+	 * Changes the number of previous versions of the XML file kept for rollback. Each save keeps the replaced file as
+	 * <code>filename.1</code>, the older ones being shifted to <code>filename.2</code>, <code>filename.3</code>, ...
+	 * By default, no backup is kept.
+	 * 
+	 * @param backupGenerations	The number of backup generations (zero to disable backups).
+	 * 
+	 * @see fr.koor.utility.FileSystem#rotateGenerations(String, int)
+	 * @since 0.6.0
+	 */
+	public synchronized void setBackupGenerations( int backupGenerations ) {
+		if ( backupGenerations < 0 ) throw new IllegalArgumentException( "Backup generations cannot be negative" );
+		this.backupGenerations = backupGenerations;
+	}
+	
+	private void userChanged( UserRecord user ) throws SecurityManagerException {
+		this.getStore();
+		this.snapshot.updateAndGet( store -> store.withUser( user ) );
+		this.journalUser( user.getIdentifier() );
+		this.markAsDirty();
+	}
+	
+	/**
+	 * Registers the connection counters of a user, already published by a compare-and-set of the snapshot (see
+	 * <code>checkCredentials</code>). The change lock is held while the change is journaled and counted: a concurrent
+	 * flush, compaction or reload either writes the published change or leaves it pending, and the journal record of a
+	 * login is appended again if the journal is truncated by a compaction or a reload running meanwhile.
+	 * 
+	 * @throws SecurityManagerException Thrown if the session has been closed meanwhile or if the journal cannot be written.
+	 */
+	private void countersChanged( int userIdentifier ) throws SecurityManagerException {
+		boolean flushNow;
+		this.changeLock.lock();
+		try {
+			this.getStore();
+			this.journalUser( userIdentifier );
+			if ( this.foldedLogins != null ) this.foldedLogins.add( userIdentifier );
+			flushNow = this.countChange();
+		} finally {
+			this.changeLock.unlock();
+		}
+		if ( flushNow ) this.flush();
+	}
+	
+	/**
+	 * Appends the current record of a user to the journal, if journaling is enabled. The record is read from the current
+	 * snapshot while the journal is locked: whatever the order of concurrent updates of a user, its last journal record is
+	 * its latest version.
+	 */
+	private void journalUser( int userIdentifier ) throws SecurityManagerException {
+		XmlJournal journal = this.journal;
+		if ( journal == null ) return;
+		try {
+			synchronized ( journal ) {
+				RecordStore store = this.snapshot.get();
+				UserRecord user = store == null ? null : store.getUser( userIdentifier );
+				if ( user != null ) journal.appendUserUpdate( user );
+			}
+		} catch ( IOException exception ) {
+			throw new SecurityManagerException( "Cannot write security journal", exception );
+		}
+	}
+	
+	private void userDeleted( int userIdentifier ) throws SecurityManagerException {
+		this.getStore();
+		this.snapshot.updateAndGet( store -> store.withoutUser( userIdentifier ) );
+		this.permissionManager.invalidateUser( userIdentifier );
+		this.authorizationManager.invalidateUser( userIdentifier );
+		this.sessionManager.revokeSessions( userIdentifier );
+		if ( this.journal != null ) {
+			try {
+				this.journal.appendUserDeletion( userIdentifier );
+			} catch ( IOException exception ) {
+				throw new SecurityManagerException( "Cannot write security journal", exception );
+			}
+		}
+		this.markAsDirty();
+	}
+	
+	private void roleChanged( RoleRecord role ) throws SecurityManagerException {
+		this.getStore();
+		this.snapshot.updateAndGet( store -> store.withRole( role ) );
+		this.roleRegistry.rename( role.getIdentifier(), role.getRoleName() );
+		if ( this.journal != null ) {
+			try {
+				this.journal.appendRoleUpdate( role.getIdentifier(), role.getRoleName() );
+			} catch ( IOException exception ) {
+				throw new SecurityManagerException( "Cannot write security journal", exception );
+			}
+		}
+		this.markAsDirty();
+	}
+	
+	private void roleDeleted( int roleIdentifier ) throws SecurityManagerException {
+		this.getStore();
+		this.snapshot.updateAndGet( store -> store.withoutRole( roleIdentifier ) );
+		this.roleRegistry.remove( roleIdentifier );
+		if ( this.journal != null ) {
+			try {
+				this.journal.appendRoleDeletion( roleIdentifier );
+			} catch ( IOException exception ) {
+				throw new SecurityManagerException( "Cannot write security journal", exception );
+			}
+		}
+		this.markAsDirty();
+	}
+	
+	/**
+	 * Publishes a new permission model. The journal has no record for the permissions: when journaling is enabled, the
+	 * journal is immediately folded into the XML file, which then contains the new model.
+	 * The caller must own the write lock.
+	 */
+	private void permissionsChanged( PermissionModel permissions ) throws SecurityManagerException {
+		this.getStore();
+		this.snapshot.updateAndGet( store -> store.withPermissions( permissions ) );
+		if ( this.journal == null ) {
+			this.markAsDirty();
+			return;
+		}
+		this.flushLock.lock();
+		try {
+			this.compactJournal( true );
+		} finally {
+			this.flushLock.unlock();
+		}
+	}
+	
+	/**
+	 * Registers a modification of the security database. The database is written immediately if the synchronous durability
+	 * mode is enabled. Otherwise, the background flusher will write it, immediately if the flush threshold is reached.
+	 * 
+	 * The caller must own the write lock and must have published the modified snapshot.
+	 * 
+	 * @throws SecurityManagerException Thrown if the XML file cannot be written.
+	 */
+	private void markAsDirty() throws SecurityManagerException {
+		if ( this.countChange() ) this.flush();
+	}
+	
+	/**
+	 * Counts a pending change and wakes the flusher up if the flush threshold is reached.
+	 * 
+	 * @return true if the change must be written immediately (synchronous durability mode).
+	 */
+	private synchronized boolean countChange() {
+		this.pendingChanges++;
+		if ( this.synchronousDurability == false && this.pendingChanges >= this.flushThreshold && this.flushRequested == false && this.flusher != null ) {
+			this.flushRequested = true;
+			this.flusher.execute( this::runFlusher );
+		}
+		return this.synchronousDurability;
+	}
+	
+	private synchronized void startFlusher() {
+		if ( this.flusher != null ) return;
+		this.flusher = Executors.newSingleThreadScheduledExecutor( runnable -> {
+			Thread thread = new Thread( runnable, "XmlSecurityManager flusher - " + this.xmlFilename );
+			thread.setDaemon( true );
+			return thread;
+		} );
+		this.flusher.scheduleWithFixedDelay( this::runFlusher, this.flushInterval, this.flushInterval, TimeUnit.MILLISECONDS );
+	}
+	
+	/**
+	 * The task of the background flusher: writes the pending changes, then compacts the journal if it is too large.
+	 */
+	private void runFlusher() {
+		if ( this.isHotReload() && this.isFileChanged() ) {
+			this.reloadInBackground();
+			return;
+		}
+		try {
+			boolean compactionNeeded;
+			this.flushLock.lock();
+			try {
+				this.flushChanges();
+				compactionNeeded = this.journal != null && this.journal.size() >= this.getCompactionThreshold();
+			} finally {
+				this.flushLock.unlock();
+			}
+			if ( compactionNeeded ) this.compact();
+		} catch ( SecurityManagerException exception ) {
+			exception.printStackTrace();
+		}
+	}
+	
+	private void stopFlusher() {
+		ScheduledExecutorService executor;
+		synchronized ( this ) {
+			executor = this.flusher;
+			this.flusher = null;
+		}
+		if ( executor != null ) executor.shutdownNow();
 	}
 
 	@Override public RoleManager getRoleManager() {
@@ -115,227 +980,230 @@ public class XmlSecurityManager implements fr.koor.security.SecurityManager {
 		return this.userManager;
 	}
 	
+	@Override public PermissionManager getPermissionManager() {
+		return this.permissionManager;
+	}
+	
+	@Override public AuthorizationManager getAuthorizationManager() {
+		return this.authorizationManager;
+	}
+	
+	@Override public SessionManager getSessionManager() {
+		return this.sessionManager;
+	}
+	
+	@Override public PasswordScreener getPasswordScreener() {
+		return this.passwordScreener;
+	}
+	
+	@Override public void setPasswordScreener( PasswordScreener passwordScreener ) {
+		this.passwordScreener = passwordScreener;
+	}
+	
+	/**
+	 * Returns the current snapshot of the opened session. The returned snapshot never changes: read it once per operation.
+	 * 
+	 * @throws SecurityManagerException Thrown if the session is closed.
+	 */
+	private RecordStore getStore() throws SecurityManagerException {
+		RecordStore store = this.snapshot.get();
+		if ( store == null ) throw new SecurityManagerException( "XML security session is closed" );
+		return store;
+	}
+	
+	/**
+	 * Returns the identifier of the role that has the specified name, or null if there is none.
+	 */
+	private Integer findRoleIdentifier( String roleName ) throws SecurityManagerException {
+		RoleRecord record = this.getStore().getRoleByName( roleName );
+		return record == null ? null : record.getIdentifier();
+	}
+	
+	/**
+	 * Produces a user instance from its record. Role references to unknown roles are ignored; the roles are the shared
+	 * instances of the role registry.
+	 */
+	private UserImpl toUser( RecordStore store, UserRecord record ) throws SecurityManagerException {
+		UserImpl user = new UserImpl( this, record.getIdentifier(), record.getLogin(), record.getPassword() );
+		user.setConnectionNumber( record.getConnectionNumber() );
+		user.setLastConnection( new Date( record.getLastConnection() ) );
+		user.setConsecutiveErrors( record.getConsecutiveErrors() );
+		user.setDisabled( record.isDisabled() );
+		user.setFirstName( record.getFirstName() );
+		user.setLastName( record.getLastName() );
+		user.setEmail( record.getEmail() );
+		for ( int roleIdentifier : record.getRoleIdentifiers() ) {
+			RoleRecord role = store.getRole( roleIdentifier );
+			if ( role != null ) user.addRole( this.roleRegistry.get( roleIdentifier, role.getRoleName() ) );
+		}
+		return user;
+	}
+	
+	/**
+	 * Produces the record that describes the specified user instance.
+	 */
+	private static UserRecord toUserRecord( User user ) {
+		int [] roleIdentifiers = new int[ user.getRoles().size() ];
+		int index = 0;
+		for ( Role role : user.getRoles() ) roleIdentifiers[ index++ ] = role.getIdentifier();
+		Date lastConnection = user.getLastConnection();
+		return new UserRecord( user.getIdentifier(), user.getLogin(), ( (UserImpl) user ).getPassword(), user.getConnectionNumber(),
+				lastConnection == null ? 0 : lastConnection.getTime(), user.getConsecutiveErrors(), user.isDisabled(),
+				user.getFirstName(), user.getLastName(), user.getEmail(), roleIdentifiers );
+	}
+	
 	
 	private class XmlUserManager implements UserManager {
 
 		@Override public User checkCredentials( String userLogin, String userPassword ) throws AccountDisabledException, BadCredentialsException {
 			if ( userLogin == null ) throw new NullPointerException();
 			if ( userPassword == null ) throw new NullPointerException();
-
-			String rawLogin = userLogin;
-			userLogin = userLogin.replace( "\"", "&quot;" );
-			
 			try {
 				userPassword = this.encryptPassword( userPassword );
-				
-				Element element = (Element) xpath.evaluate( "//User[@login=\"" + userLogin + "\" and @password='" + userPassword + "']" , xmlDocument, XPathConstants.NODE );				
-				if ( element != null ) {
-					// User informations update
-					
-					int identifier = Integer.parseInt( element.getAttribute( "id" ) );
-					int connectionNumber =  Integer.parseInt( element.getAttribute( "connectionNumber" ) ) + 1;
-					Date lastConnection = new Date();
-					//int consecutiveError = Integer.parseInt( element.getAttribute( "consecutiveErrors" ) );
-					boolean isDisabled = Boolean.parseBoolean( element.getAttribute( "isDisabled" ) );
-					
-					element.setAttribute( "connectionNumber", "" + connectionNumber );
-					element.setAttribute( "lastConnection", "" + lastConnection.getTime() );
-					saveXmlDocument();
+			} catch ( SecurityManagerException exception ) {
+				throw new BadCredentialsException( "Can't check credentials", exception );
+			}
+			
+			// Unknown logins are rejected from the current snapshot, and the counters are updated by a compare-and-set of
+			// the snapshot: concurrent logins never wait for each other
+			RecordStore store;
+			UserRecord record;
+			boolean accepted;
+			try {
+				while ( true ) {
+					store = getStore();
+					UserRecord current = store.getUserByLogin( userLogin );
+					if ( current == null ) {
+						throw new BadCredentialsException( "Your identity is rejected" );
+					}
 					
-					if ( isDisabled ) {
-						throw new AccountDisabledException( "Account is disabled" );
+					accepted = current.getPassword().equals( userPassword );
+					if ( accepted ) {
+						// User informations update
+						boolean isDisabled = current.isDisabled();
+						record = new UserRecord( current.getIdentifier(), current.getLogin(), current.getPassword(),
+								current.getConnectionNumber() + 1, new Date().getTime(), isDisabled ? current.getConsecutiveErrors() : 0,
+								isDisabled, current.getFirstName(), current.getLastName(), current.getEmail(), current.getRoleIdentifiers() );
 					} else {
-						element.setAttribute( "consecutiveErrors", "0" );
+						int consecutiveErrors = current.getConsecutiveErrors() + 1;
+						boolean forceDisabling = ( consecutiveErrors == 3 ); 
+						record = new UserRecord( current.getIdentifier(), current.getLogin(), current.getPassword(),
+								current.getConnectionNumber(), current.getLastConnection(), consecutiveErrors,
+								forceDisabling, current.getFirstName(), current.getLastName(), current.getEmail(), current.getRoleIdentifiers() );
 					}
-				
-					UserImpl user = new UserImpl( XmlSecurityManager.this, identifier, rawLogin, userPassword );
-					user.setConnectionNumber( connectionNumber );
-					user.setLastConnection( lastConnection );
-					user.setConsecutiveErrors( 0 );
-					user.setDisabled( isDisabled );
-					// TODO user.setFirstName( firstName );
-					
-					// Associated roles loading
-					NodeList roleReferences = (NodeList) xpath.evaluate( "RoleRef", element, XPathConstants.NODESET );
-					RoleManager roleManager = XmlSecurityManager.this.getRoleManager();
-					for ( int i=0; i<roleReferences.getLength(); i++ ) {
-						Element node = (Element) roleReferences.item( i );
-						user.addRole( roleManager.selectRoleById( Integer.parseInt( node.getAttribute( "id" ) ) ) );
+					RecordStore newStore = store.withUser( record );
+					if ( snapshot.compareAndSet( store, newStore ) ) {
+						store = newStore;
+						break;
 					}
-					return user;
 				}
-			} catch ( AccountDisabledException exception ) {
+				countersChanged( record.getIdentifier() );
+			} catch ( BadCredentialsException exception ) {
 				throw exception;
 			} catch ( Exception exception ) {
 				throw new BadCredentialsException( "Can't check credentials", exception );
 			}
-
+			
+			if ( record.isDisabled() ) {
+				// Already disabled for a successful login, disabled by this third failure otherwise
+				throw new AccountDisabledException( "Account is disabled" );
+			}
+			if ( accepted == false ) {
+				throw new BadCredentialsException( "Your identity is rejected" );
+			}
 			try {
-				Element element = (Element) xpath.evaluate( "//User[@login=\"" + userLogin + "\"]" , xmlDocument, XPathConstants.NODE );
-				if ( element != null ) {
-					int consecutiveErrors = Integer.parseInt( element.getAttribute( "consecutiveErrors" ) ) + 1;
-					boolean forceDisabling = ( consecutiveErrors == 3 ); 
-
-					element.setAttribute( "consecutiveErrors", "" + consecutiveErrors );
-					element.setAttribute( "isDisabled", "" + forceDisabling );
-					saveXmlDocument();
-
-					if ( forceDisabling ) {
-						throw new AccountDisabledException( "Account is disabled" );
-					}
-				}
-			} catch ( AccountDisabledException exception ) {
-				throw exception;
-			} catch ( Exception exception ) {
-				exception.printStackTrace();
-				throw new BadCredentialsException( "Your identity is rejected", exception );
+				return toUser( store, record );
+			} catch ( SecurityManagerException exception ) {
+				throw new BadCredentialsException( "Can't check credentials", exception );
 			}
-			
-			throw new BadCredentialsException( "Your identity is rejected" );
 		}
 
 		@Override public User getUserById( int userId ) throws SecurityManagerException {
-			try {
-				Element element = (Element) xpath.evaluate( "//User[@id=" + userId + "]" , xmlDocument, XPathConstants.NODE );
-				if ( element == null ) {
-					throw new SecurityManagerException( "User identifier " + userId + " not found" );
-				}
-				String userLogin = element.getAttribute( "login" ).replace( "&apos;", "'" );
-				UserImpl user = new UserImpl( XmlSecurityManager.this, userId, userLogin, element.getAttribute( "password" ) );
-				user.setConnectionNumber( Integer.parseInt( element.getAttribute( "connectionNumber" ) ) );
-				user.setLastConnection( new Date( Long.parseLong( element.getAttribute( "lastConnection" ) ) ) );
-				user.setConsecutiveErrors( Integer.parseInt( element.getAttribute( "consecutiveErrors" ) ) );
-				user.setDisabled( Boolean.parseBoolean( element.getAttribute( "isDisabled" ) ) );
-				
-				NodeList roleReferences = (NodeList) xpath.evaluate( "RoleRef", element, XPathConstants.NODESET );
-				RoleManager roleManager = XmlSecurityManager.this.getRoleManager();
-				for ( int i=0; i<roleReferences.getLength(); i++ ) {
-					Element node = (Element) roleReferences.item( i );
-					user.addRole( roleManager.selectRoleById( Integer.parseInt( node.getAttribute( "id" ) ) ) );
-				}
-				
-				return user;
-			} catch ( XPathExpressionException exception ) {
-				throw new SecurityManagerException( "Cannot select user for identifier " + userId, exception );
+			RecordStore store = getStore();
+			UserRecord record = store.getUser( userId );
+			if ( record == null ) {
+				throw new UserNotFoundException( "User identifier " + userId + " not found" );
 			}
+			return toUser( store, record );
 		}
 
 		@Override public User getUserByLogin( String login ) throws SecurityManagerException {
-			try {
-				Element element = (Element) xpath.evaluate( "//User[@login=" + login + "]" , xmlDocument, XPathConstants.NODE );
-				if ( element == null ) {
-					throw new SecurityManagerException( "User login " + login + " not found" );
-				}
-				int identifier = Integer.parseInt( element.getAttribute( "identifier" ) );
-				UserImpl user = new UserImpl( XmlSecurityManager.this, identifier, login, element.getAttribute( "password" ) );
-				user.setConnectionNumber( Integer.parseInt( element.getAttribute( "connectionNumber" ) ) );
-				user.setLastConnection( new Date( Long.parseLong( element.getAttribute( "lastConnection" ) ) ) );
-				user.setConsecutiveErrors( Integer.parseInt( element.getAttribute( "consecutiveErrors" ) ) );
-				user.setDisabled( Boolean.parseBoolean( element.getAttribute( "isDisabled" ) ) );
-				
-				NodeList roleReferences = (NodeList) xpath.evaluate( "RoleRef", element, XPathConstants.NODESET );
-				RoleManager roleManager = XmlSecurityManager.this.getRoleManager();
-				for ( int i=0; i<roleReferences.getLength(); i++ ) {
-					Element node = (Element) roleReferences.item( i );
-					user.addRole( roleManager.selectRoleById( Integer.parseInt( node.getAttribute( "id" ) ) ) );
-				}
-				
-				return user;
-			} catch ( XPathExpressionException exception ) {
-				throw new SecurityManagerException( "Cannot select user for login " + login, exception );
+			if ( login == null ) throw new NullPointerException();
+			RecordStore store = getStore();
+			UserRecord record = store.getUserByLogin( login );
+			if ( record == null ) {
+				throw new UserNotFoundException( "User login " + login + " not found" );
 			}
+			return toUser( store, record );
 		}
 
 		
 		@Override public List<User> getUsersByRole( Role role ) throws SecurityManagerException {
-			throw new RuntimeException( "Actually not supported" );
+			if ( role == null ) throw new NullPointerException();
+			RecordStore store = getStore();
+			List<User> users = new ArrayList<>();
+			for ( Integer userIdentifier : store.getRoleMembers( role.getIdentifier() ) ) {
+				users.add( toUser( store, store.getUser( userIdentifier ) ) );
+			}
+			users.sort( ( first, second ) -> Integer.compare( first.getIdentifier(), second.getIdentifier() ) );
+			return users;
 		}
 
 		@Override public User insertUser( String login, String password ) throws UserAlreadyRegisteredException, SecurityManagerException {
 			if ( login == null ) throw new NullPointerException();
 			if ( password == null ) throw new NullPointerException();
-
-			String rawLogin = login;
-			login = login.replace( "\"", "&quot;" );
+			PasswordScreener screener = passwordScreener;
+			if ( screener != null ) screener.checkPassword( password );
 			password = this.encryptPassword( password );
 			
+			writeLock.lock();
 			try {
-				Element element = (Element) xpath.evaluate( "//User[@login=\"" + login + "\"]" , xmlDocument, XPathConstants.NODE );
-				if ( element != null ) throw new UserAlreadyRegisteredException( "User login already registered" );
+				RecordStore store = getStore();
+				if ( store.getUserByLogin( login ) != null ) throw new UserAlreadyRegisteredException( "User login already registered" );
 				
-				int identifier = 1 + Integer.parseInt( (String) xpath.evaluate( "//User[last()]/@id" , xmlDocument, XPathConstants.STRING ) );
+				int identifier = store.nextUserIdentifier();
+				UserRecord record = new UserRecord( identifier, login, password, 0, 0, 0, false, "", "", "", null );
+				userChanged( record );
 				
-				element = (Element) xpath.evaluate( "//Users" , xmlDocument, XPathConstants.NODE );
-				Text textNode = xmlDocument.createTextNode( "\t" );
-				element.appendChild( textNode );
-				Element roleElement = xmlDocument.createElement( "User" );
-				roleElement.setAttribute( "id", "" + identifier );
-				roleElement.setAttribute( "login", rawLogin );
-				roleElement.setAttribute( "password", password );
-				roleElement.setAttribute( "connectionNumber", "0" );
-				roleElement.setAttribute( "isDisabled", "false" );
-				roleElement.setAttribute( "consecutiveErrors", "0" );
-				element.appendChild( roleElement );
-				textNode = xmlDocument.createTextNode( "\r\n\t" );
-				element.appendChild( textNode );
-				saveXmlDocument();
-				
-				UserImpl user = new UserImpl( XmlSecurityManager.this, identifier, rawLogin, password );
+				UserImpl user = new UserImpl( XmlSecurityManager.this, identifier, login, password );
 				user.setIdentifier( identifier );
 				
 				return user;				
-			} catch ( XPathExpressionException exception ) {
-				throw new SecurityManagerException( "Cannot insert new user", exception );
+			} finally {
+				writeLock.unlock();
 			}
 		}
 
 		@Override public void updateUser( User user ) throws SecurityManagerException {
 			if ( user == null ) throw new NullPointerException();
+			writeLock.lock();
 			try {
-				Element element = (Element) xpath.evaluate( "//User[@id='" + user.getIdentifier() + "']" , xmlDocument, XPathConstants.NODE );
-				element.setAttribute( "login", user.getLogin() );
-				element.setAttribute( "password", ( (UserImpl) user ).getPassword() );
-				element.setAttribute( "connectionNumber", "" + user.getConnectionNumber() );
-				element.setAttribute( "lastConnection", "" + user.getLastConnection().getTime() );
-				element.setAttribute( "consecutiveErrors", "" + user.getConsecutiveErrors() );
-				element.setAttribute( "isDisabled", "" + user.isDisabled() );
-
-				// Remove all roleRef tags
-				while ( element.hasChildNodes() ) {
-					element.removeChild( element.getFirstChild() );
+				RecordStore store = getStore();
+				if ( store.getUser( user.getIdentifier() ) == null ) {
+					throw new SecurityManagerException( "User " + user.getLogin() + " not found in XML security database" );
 				}
-				
-				// Add new roleRef tags
-				for ( Role role : user.getRoles() ) {
-					Text textNode = xmlDocument.createTextNode( "\r\n\t\t" );
-					element.appendChild( textNode );
-					Element roleElement = xmlDocument.createElement( "RoleRef" );
-					roleElement.setAttribute( "id", "" + role.getIdentifier() );
-					element.appendChild( roleElement );
+				UserRecord sameLogin = store.getUserByLogin( user.getLogin() );
+				if ( sameLogin != null && sameLogin.getIdentifier() != user.getIdentifier() ) {
+					throw new UserAlreadyRegisteredException( "User login already registered" );
 				}
-				Text textNode = xmlDocument.createTextNode( "\r\n\t" );
-				element.appendChild( textNode );
-				
-				// Commit database updates
-				saveXmlDocument();
-				
-			} catch ( XPathExpressionException exception ) {
-				throw new SecurityException( "Cannot udate user data", exception );
+				userChanged( toUserRecord( user ) );
+			} finally {
+				writeLock.unlock();
 			}
+			authorizationManager.invalidateUser( user.getIdentifier() );
+			sessionManager.userUpdated( user.getIdentifier() );
 		}
 
 		@Override public void deleteUser( User user ) throws SecurityManagerException {
 			if ( user == null ) throw new NullPointerException();
+			writeLock.lock();
 			try {
-				Element parentElement = (Element) xpath.evaluate( "//Users" , xmlDocument, XPathConstants.NODE );
-				Element element = (Element) xpath.evaluate( "//User[@id='" + user.getIdentifier() + "']" , xmlDocument, XPathConstants.NODE );
-				if ( element == null ) throw new SecurityManagerException( "User " + user.getLogin() + " not found in XML security database" );
-				Node nextSiblingNode = element.getNextSibling();
-				
-				parentElement.removeChild( element );
-				if ( nextSiblingNode != null ) parentElement.removeChild( nextSiblingNode );
-			} catch ( XPathExpressionException exception ) {
-				throw new SecurityManagerException( "Can't delete the specified user", exception );
+				if ( getStore().getUser( user.getIdentifier() ) == null ) {
+					throw new SecurityManagerException( "User " + user.getLogin() + " not found in XML security database" );
+				}
+				userDeleted( user.getIdentifier() );
+			} finally {
+				writeLock.unlock();
 			}
 		}
 
@@ -357,96 +1225,269 @@ public class XmlSecurityManager implements fr.koor.security.SecurityManager {
 	private class XmlRoleManager implements RoleManager {
 
 		@Override public Role selectRoleById( int roleIdentifier ) throws SecurityManagerException {
-			try {
-				Element element = (Element) xpath.evaluate( "//Role[@id=" + roleIdentifier + "]" , xmlDocument, XPathConstants.NODE );
-				if ( element == null ) {
-					throw new SecurityManagerException( "Role identifier " + roleIdentifier + " not found" );
-				}
-				return new RoleImpl( roleIdentifier, element.getAttribute( "roleName" ) );
-			} catch ( XPathExpressionException exception ) {
-				throw new SecurityManagerException( "Cannot select role for identifier " + roleIdentifier, exception );
+			RoleRecord record = getStore().getRole( roleIdentifier );
+			if ( record == null ) {
+				throw new SecurityManagerException( "Role identifier " + roleIdentifier + " not found" );
 			}
+			return new RoleImpl( roleIdentifier, record.getRoleName() );
 		}
 
 		@Override public Role selectRoleByName( String roleName ) throws SecurityManagerException {
-			try {
-				Element element = (Element) xpath.evaluate( "//Role[@roleName='" + roleName + "']" , xmlDocument, XPathConstants.NODE );
-				if ( element == null ) {
-					throw new SecurityManagerException( "Role name " + roleName + " not found" );
-				}
-				return new RoleImpl( Integer.parseInt( element.getAttribute( "id" ) ), roleName );
-			} catch ( XPathExpressionException exception ) {
-				throw new SecurityManagerException( "Cannot select role for name " + roleName, exception );
+			if ( roleName == null ) throw new NullPointerException();
+			RoleRecord record = getStore().getRoleByName( roleName );
+			if ( record == null ) {
+				throw new SecurityManagerException( "Role name " + roleName + " not found" );
 			}
+			return new RoleImpl( record.getIdentifier(), roleName );
 		}
 
 		@Override public Role insertRole( String roleName ) throws SecurityManagerException, RoleAlreadyRegisteredException {
+			if ( roleName == null ) throw new NullPointerException();
+			writeLock.lock();
 			try {
-				Element element = (Element) xpath.evaluate( "//Role[@roleName='" + roleName + "']" , xmlDocument, XPathConstants.NODE );
-				if ( element != null ) throw new RoleAlreadyRegisteredException( "Role name already registered" );				
+				RecordStore store = getStore();
+				if ( store.getRoleByName( roleName ) != null ) throw new RoleAlreadyRegisteredException( "Role name already registered" );				
 				
-				element = (Element) xpath.evaluate( "//Roles" , xmlDocument, XPathConstants.NODE );
-				int newId = 1 + Integer.parseInt( (String) xpath.evaluate( "//Role[last()]/@id" , xmlDocument, XPathConstants.STRING ) );
-				Text textNode = xmlDocument.createTextNode( "\t" );
-				element.appendChild( textNode );
-				Element roleElement = xmlDocument.createElement( "Role" );
-				roleElement.setAttribute( "id", "" + newId );
-				roleElement.setAttribute( "roleName", roleName );
-				element.appendChild( roleElement );
-				textNode = xmlDocument.createTextNode( "\r\n\t" );
-				element.appendChild( textNode );
-							
-				saveXmlDocument();
+				int newId = store.nextRoleIdentifier();
+				roleChanged( new RoleRecord( newId, roleName ) );
 				return new RoleImpl( newId, roleName );
-			} catch ( XPathException exception ) {
-				throw new SecurityManagerException( "Can't insert the specified role", exception );
+			} finally {
+				writeLock.unlock();
 			}
 		}
 
 		@Override public void updateRole( Role role ) throws SecurityManagerException {
 			if ( role == null ) throw new NullPointerException();
+			writeLock.lock();
 			try {
-				Element element = (Element) xpath.evaluate( "//Role[@id='" + role.getIdentifier() + "']" , xmlDocument, XPathConstants.NODE );
-				if ( element == null ) throw new SecurityManagerException( "Role " + role.getRoleName() + " not found in XML security database" );
-				element.setAttribute( "roleName", role.getRoleName() );
-				saveXmlDocument();
-			} catch ( Exception exception ) {
-				throw new SecurityManagerException( "Cannot update role " + role.getIdentifier(), exception );
+				RecordStore store = getStore();
+				if ( store.getRole( role.getIdentifier() ) == null ) {
+					throw new SecurityManagerException( "Role " + role.getRoleName() + " not found in XML security database" );
+				}
+				RoleRecord sameName = store.getRoleByName( role.getRoleName() );
+				if ( sameName != null && sameName.getIdentifier() != role.getIdentifier() ) {
+					throw new RoleAlreadyRegisteredException( "Role name already registered" );
+				}
+				roleChanged( new RoleRecord( role.getIdentifier(), role.getRoleName() ) );
+			} finally {
+				writeLock.unlock();
 			}
+			authorizationManager.invalidateAll();
 		}
 
 		@Override public void deleteRole( Role role ) throws SecurityManagerException {
 			if ( role == null ) throw new NullPointerException();
+			writeLock.lock();
 			try {
-				Element parentElement = (Element) xpath.evaluate( "//Roles" , xmlDocument, XPathConstants.NODE );
-				Element element = (Element) xpath.evaluate( "//Role[@id='" + role.getIdentifier() + "']" , xmlDocument, XPathConstants.NODE );
-				if ( element == null ) throw new SecurityManagerException( "Role " + role.getRoleName() + " not found in XML security database" );
-				Node nextSiblingNode = element.getNextSibling();
-				
-				parentElement.removeChild( element );
-				if ( nextSiblingNode != null ) parentElement.removeChild( nextSiblingNode );
-			} catch ( XPathException exception ) {
-				throw new SecurityManagerException( "Can't delete the specified role", exception );
+				if ( getStore().getRole( role.getIdentifier() ) == null ) {
+					throw new SecurityManagerException( "Role " + role.getRoleName() + " not found in XML security database" );
+				}
+				roleDeleted( role.getIdentifier() );
+			} finally {
+				writeLock.unlock();
+			}
+			permissionManager.roleDeleted( role.getIdentifier() );
+			authorizationManager.invalidateAll();
+			sessionManager.allUsersUpdated();
+		}
+	}
+	
+	private class XmlPermissionManager extends AbstractPermissionManager {
+		
+		XmlPermissionManager() {
+			super( XmlSecurityManager.this );
+		}
+		
+		@Override PermissionModel getModel() throws SecurityManagerException {
+			return getStore().getPermissions();
+		}
+		
+		@Override void storeModel( PermissionModel model, Change change ) throws SecurityManagerException {
+			writeLock.lock();
+			try {
+				permissionsChanged( model );
+			} finally {
+				writeLock.unlock();
 			}
-
 		}
 	}
 
-	private void saveXmlDocument() throws SecurityManagerException {
-		try {
-			DOMImplementationLS domImplLS = (DOMImplementationLS) this.xmlDocument.getImplementation().getFeature( "LS", "3.0" );
-			LSOutput outputLS = domImplLS.createLSOutput();
-			outputLS.setByteStream( new FileOutputStream( this.xmlFilename ) );
-			LSSerializer serializer = domImplLS.createLSSerializer();
+	/**
+	 * Applies the records of the journal left by the previous session. Once replayed, the records are folded into the
+	 * XML file.
+	 */
+	private RecordStore replayJournal( RecordStore store ) throws Exception {
+		final RecordStore.Builder builder = new RecordStore.Builder( store );
+		XmlJournal previousJournal = new XmlJournal( this.getJournalFilename() );
+		int recordCount = previousJournal.replay( new XmlJournal.Visitor() {
+			@Override public void userUpdated( UserRecord user ) {
+				builder.putUser( user );
+			}
+			@Override public void userDeleted( int userIdentifier ) {
+				builder.removeUser( userIdentifier );
+			}
+			@Override public void roleUpdated( int roleIdentifier, String roleName ) {
+				builder.putRole( new RoleRecord( roleIdentifier, roleName ) );
+			}
+			@Override public void roleDeleted( int roleIdentifier ) {
+				builder.removeRole( roleIdentifier );
+			}
+		} );
+		
+		if ( recordCount > 0 ) {
+			store = builder.build();
+			this.saveXmlFile( store );
+		}
+		previousJournal.truncate();
+		if ( this.isJournaling() ) {
+			XmlJournal journal = new XmlJournal( this.getJournalFilename() );
+			journal.open();
+			this.changeLock.lock();
 			try {
-				serializer.getDomConfig().setParameter( "format-pretty-print", true );
-			} catch ( Exception exception ) {
-				/* NOT ACTUALY SUPPORTED */ 
+				this.journal = journal;
+			} finally {
+				this.changeLock.unlock();
 			}
-			serializer.write( this.xmlDocument, outputLS );
-			outputLS.getByteStream().close();
+		}
+		return store;
+	}
+	
+	/**
+	 * Reads the XML file and remembers its state, so that later external modifications can be detected. The caller must
+	 * own the flush lock.
+	 */
+	private RecordStore readXmlFile() throws IOException {
+		long modifiedTime = FileSystem.getLastModifiedTime( this.xmlFilename );
+		long length = new File( this.xmlFilename ).length();
+		RecordStore store;
+		CRC32 checksum = new CRC32();
+		try ( InputStream checkedStream = new CheckedInputStream( new FileInputStream( this.xmlFilename ), checksum ) ) {
+			// The reader closes its stream, but the checksum must cover the whole file, including what follows the root element
+			store = XmlStoreReader.read( new BufferedInputStream( new FilterInputStream( checkedStream ) {
+				@Override public void close() { /* Closed below */ }
+			}, 64 * 1024 ) );
+			byte [] buffer = new byte[ 8192 ];
+			while ( checkedStream.read( buffer ) > 0 ) { /* Nothing to do */ }
+		}
+		this.baseSnapshot = store;
+		this.fileModifiedTime = modifiedTime;
+		this.fileLength = length;
+		this.fileChecksum = (int) checksum.getValue();
+		return store;
+	}
+	
+	/**
+	 * Loads the binary snapshot if it matches the current version of the XML file. The caller must own the flush lock.
+	 * 
+	 * @return The loaded records, or null if the snapshot is missing, unreadable or obsolete.
+	 */
+	private RecordStore readBinarySnapshot() {
+		long modifiedTime = FileSystem.getLastModifiedTime( this.xmlFilename );
+		long length = new File( this.xmlFilename ).length();
+		RecordStore store;
+		try {
+			int checksum = BinarySnapshot.checksum( this.xmlFilename );
+			store = BinarySnapshot.read( this.getSnapshotFilename(), modifiedTime, length, checksum );
+			if ( store != null ) this.fileChecksum = checksum;
+		} catch ( IOException exception ) {
+			// The XML file is always available as a fallback
+			store = null;
+		}
+		if ( store != null ) {
+			this.baseSnapshot = store;
+			this.fileModifiedTime = modifiedTime;
+			this.fileLength = length;
+		}
+		return store;
+	}
+	
+	/**
+	 * Writes the binary snapshot of the specified records, which must be the content of the current version of the XML
+	 * file. The caller must own the flush lock.
+	 */
+	private void writeBinarySnapshot( RecordStore store ) throws SecurityManagerException {
+		try {
+			BinarySnapshot.write( this.getSnapshotFilename(), store, this.fileModifiedTime, this.fileLength, this.fileChecksum );
+		} catch ( IOException exception ) {
+			throw new SecurityManagerException( "Cannot save security binary snapshot", exception );
+		}
+	}
+	
+	private String getSnapshotFilename() {
+		return this.xmlFilename + ".snapshot";
+	}
+	
+	/**
+	 * Indicates if a binary snapshot is written next to the XML file and used to speed up the session opening.
+	 * 
+	 * @return true if the binary snapshot is enabled, false otherwise.
+	 * 
+	 * @since 0.6.0
+	 */
+	public synchronized boolean isBinarySnapshot() {
+		return this.binarySnapshot;
+	}
+	
+	/**
+	 * Enables or disables the binary snapshot (<code>filename.snapshot</code>). When enabled, the snapshot is immediately
+	 * written, then rewritten with each new version of the XML file. When disabled, the snapshot file is deleted.
+	 * By default, the binary snapshot is disabled.
+	 * 
+	 * @param binarySnapshot	true to write and use the binary snapshot, false otherwise.
+	 * 
+	 * @throws SecurityManagerException Thrown if the binary snapshot cannot be written or deleted.
+	 * 
+	 * @since 0.6.0
+	 */
+	public void setBinarySnapshot( boolean binarySnapshot ) throws SecurityManagerException {
+		this.flushLock.lock();
+		try {
+			synchronized ( this ) {
+				if ( this.binarySnapshot == binarySnapshot ) return;
+				this.binarySnapshot = binarySnapshot;
+			}
+			if ( binarySnapshot == false ) {
+				FileSystem.delete( this.getSnapshotFilename() );
+			} else if ( this.baseSnapshot != null && this.snapshot.get() != null ) {
+				this.writeBinarySnapshot( this.baseSnapshot );
+			}
+		} catch ( IOException exception ) {
+			throw new SecurityManagerException( "Cannot delete security binary snapshot", exception );
+		} finally {
+			this.flushLock.unlock();
+		}
+	}
+	
+	/**
+	 * Writes the security database in a temporary file (located in the same directory), forces it to disk and atomically
+	 * swaps it with the security database file. A crash during the write never damages the previous version of the file.
+	 * The caller must own the flush lock.
+	 */
+	private void saveXmlFile( RecordStore store ) throws SecurityManagerException {
+		File xmlFile = new File( this.xmlFilename ).getAbsoluteFile();
+		File temporaryFile = null;
+		try {
+			temporaryFile = File.createTempFile( xmlFile.getName() + ".", ".tmp", xmlFile.getParentFile() );
+			CRC32 checksum = new CRC32();
+			try ( FileOutputStream fos = new FileOutputStream( temporaryFile ) ) {
+				BufferedOutputStream outputStream = new BufferedOutputStream( new CheckedOutputStream( fos, checksum ), 64 * 1024 );
+				XmlStoreWriter.write( store.getUsers(), store.getRoles(), store.getPermissions(), outputStream );
+				outputStream.flush();
+				fos.getChannel().force( true );
+			}
+			
+			FileSystem.rotateGenerations( xmlFile.getPath(), this.getBackupGenerations() );
+			FileSystem.replaceAtomically( temporaryFile.getPath(), xmlFile.getPath() );
+			temporaryFile = null;
+			this.baseSnapshot = store;
+			this.fileModifiedTime = FileSystem.getLastModifiedTime( xmlFile.getPath() );
+			this.fileLength = xmlFile.length();
+			this.fileChecksum = (int) checksum.getValue();
+			if ( this.isBinarySnapshot() ) this.writeBinarySnapshot( store );
 		} catch ( Exception exception ) {
 			throw new SecurityManagerException( "Cannot save security XML file", exception );
+		} finally {
+			if ( temporaryFile != null ) temporaryFile.delete();
 		}
 	}
 
@@ -0,0 +1,119 @@
+package fr.koor.security.providers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import fr.koor.security.Role;
+import fr.koor.security.SecurityManager;
+import fr.koor.security.SecurityManagerException;
+import fr.koor.security.User;
+import fr.koor.security.impl.RoleImpl;
+import fr.koor.security.impl.UserImpl;
+import fr.koor.utility.FileSystem;
+
+/**
+ * This snapshot store saves the users and the roles of an in-memory security manager in a file that uses the format of
+ * the XML security database: a snapshot can therefore be opened by an <code>XmlSecurityManager</code>, and the reverse.
+ * Each snapshot is written in a temporary file which then atomically replaces the previous one.
+ * 
+ * @see fr.koor.security.providers.InMemorySecurityManager
+ * @see fr.koor.security.providers.XmlSecurityManager
+ * 
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public class XmlSnapshotStore implements SecuritySnapshotStore {
+
+	private String filename;
+	
+	/**
+	 * Class constructor.
+	 * 
+	 * @param filename	The name of the snapshot file.
+	 */
+	public XmlSnapshotStore( String filename ) {
+		if ( filename == null ) throw new NullPointerException();
+		this.filename = filename;
+	}
+	
+	/**
+	 * Returns the name of the snapshot file.
+	 * 
+	 * @return The file name.
+	 */
+	public String getFilename() {
+		return this.filename;
+	}
+	
+	@Override public boolean load( SecurityManager securityManager, Collection<User> users, Collection<Role> roles ) throws SecurityManagerException {
+		if ( FileSystem.isExisting( this.filename ) == false ) return false;
+		RecordStore store;
+		try ( InputStream inputStream = new BufferedInputStream( new FileInputStream( this.filename ), 64 * 1024 ) ) {
+			store = XmlStoreReader.read( inputStream );
+		} catch ( Exception exception ) {
+			throw new SecurityManagerException( "Cannot load security snapshot " + this.filename, exception );
+		}
+		
+		for ( RoleRecord record : store.getRoles() ) {
+			roles.add( new RoleImpl( record.getIdentifier(), record.getRoleName() ) );
+		}
+		for ( UserRecord record : store.getUsers() ) {
+			UserImpl user = new UserImpl( securityManager, record.getIdentifier(), record.getLogin(), record.getPassword() );
+			user.setConnectionNumber( record.getConnectionNumber() );
+			user.setLastConnection( new Date( record.getLastConnection() ) );
+			user.setConsecutiveErrors( record.getConsecutiveErrors() );
+			user.setDisabled( record.isDisabled() );
+			user.setFirstName( record.getFirstName() );
+			user.setLastName( record.getLastName() );
+			user.setEmail( record.getEmail() );
+			for ( int roleIdentifier : record.getRoleIdentifiers() ) {
+				RoleRecord role = store.getRole( roleIdentifier );
+				if ( role != null ) user.addRole( new RoleImpl( roleIdentifier, role.getRoleName() ) );
+			}
+			users.add( user );
+		}
+		return true;
+	}
+
+	@Override public void save( Collection<User> users, Collection<Role> roles ) throws SecurityManagerException {
+		List<UserRecord> userRecords = new ArrayList<>( users.size() );
+		for ( User user : users ) {
+			int [] roleIdentifiers = new int[ user.getRoles().size() ];
+			int index = 0;
+			for ( Role role : user.getRoles() ) roleIdentifiers[ index++ ] = role.getIdentifier();
+			Date lastConnection = user.getLastConnection();
+			userRecords.add( new UserRecord( user.getIdentifier(), user.getLogin(), ( (UserImpl) user ).getPassword(),
+					user.getConnectionNumber(), lastConnection == null ? 0 : lastConnection.getTime(), user.getConsecutiveErrors(),
+					user.isDisabled(), user.getFirstName(), user.getLastName(), user.getEmail(), roleIdentifiers ) );
+		}
+		List<RoleRecord> roleRecords = new ArrayList<>( roles.size() );
+		for ( Role role : roles ) roleRecords.add( new RoleRecord( role.getIdentifier(), role.getRoleName() ) );
+		
+		File file = new File( this.filename ).getAbsoluteFile();
+		File temporaryFile = null;
+		try {
+			temporaryFile = File.createTempFile( file.getName() + ".", ".tmp", file.getParentFile() );
+			try ( FileOutputStream fos = new FileOutputStream( temporaryFile ) ) {
+				BufferedOutputStream outputStream = new BufferedOutputStream( fos, 64 * 1024 );
+				XmlStoreWriter.write( userRecords, roleRecords, outputStream );
+				outputStream.flush();
+				fos.getChannel().force( true );
+			}
+			FileSystem.replaceAtomically( temporaryFile.getPath(), file.getPath() );
+			temporaryFile = null;
+		} catch ( Exception exception ) {
+			throw new SecurityManagerException( "Cannot save security snapshot " + this.filename, exception );
+		} finally {
+			if ( temporaryFile != null ) temporaryFile.delete();
+		}
+	}
+
+}
@@ -0,0 +1,126 @@
+package fr.koor.security.providers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * <p>
+ *     This class loads an XML security database with the StAX API. <code>User</code>, <code>RoleRef</code> and
+ *     <code>Role</code> elements are streamed directly into the records of a <code>RecordStore</code>: no DOM is built,
+ *     so the loading time and the memory footprint grow linearly with the size of the file. The <code>ParentRole</code>
+ *     and <code>PermissionRef</code> children of a role, and the <code>Permission</code> elements, are streamed into
+ *     its permission model.
+ * </p>
+ *
+ * @see fr.koor.security.providers.XmlStoreWriter
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+final class XmlStoreReader {
+
+	private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+	static {
+		FACTORY.setProperty( XMLInputFactory.SUPPORT_DTD, false );
+		FACTORY.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false );
+		FACTORY.setProperty( XMLInputFactory.IS_COALESCING, false );
+	}
+
+	private XmlStoreReader() { }
+
+	/**
+	 * Reads the XML security database contained in the specified stream.
+	 *
+	 * @param inputStream	The stream to read.
+	 * @return The loaded records.
+	 *
+	 * @throws IOException	Thrown if the stream cannot be read or doesn't contain a valid security database.
+	 */
+	static RecordStore read( InputStream inputStream ) throws IOException {
+		RecordStore.Builder store = new RecordStore.Builder();
+		XMLStreamReader reader = null;
+		try {
+			synchronized ( FACTORY ) {
+				reader = FACTORY.createXMLStreamReader( inputStream, "UTF-8" );
+			}
+			int currentRole = 0;
+			while ( reader.hasNext() ) {
+				if ( reader.next() != XMLStreamConstants.START_ELEMENT ) continue;
+				String tagName = reader.getLocalName();
+				if ( "User".equals( tagName ) ) {
+					store.putUser( readUser( reader ) );
+				} else if ( "Role".equals( tagName ) ) {
+					currentRole = parseInt( reader, "id" );
+					store.putRole( new RoleRecord( currentRole, attribute( reader, "roleName" ) ) );
+				} else if ( "ParentRole".equals( tagName ) ) {
+					store.getPermissions().addParent( currentRole, parseInt( reader, "id" ) );
+				} else if ( "PermissionRef".equals( tagName ) ) {
+					store.getPermissions().grant( currentRole, parseInt( reader, "id" ) );
+				} else if ( "Permission".equals( tagName ) ) {
+					store.getPermissions().putPermission( parseInt( reader, "id" ), attribute( reader, "name" ) );
+				}
+			}
+			return store.build();
+		} catch ( XMLStreamException | RuntimeException exception ) {
+			throw new IOException( "Cannot read XML security database", exception );
+		} finally {
+			if ( reader != null ) {
+				try {
+					reader.close();
+				} catch ( XMLStreamException exception ) {
+					/* Nothing to do */
+				}
+			}
+		}
+	}
+
+	private static UserRecord readUser( XMLStreamReader reader ) throws XMLStreamException {
+		int identifier = parseInt( reader, "id" );
+		String login = attribute( reader, "login" );
+		String password = attribute( reader, "password" );
+		int connectionNumber = parseInt( reader, "connectionNumber" );
+		String lastConnection = attribute( reader, "lastConnection" );
+		int consecutiveErrors = parseInt( reader, "consecutiveErrors" );
+		boolean isDisabled = Boolean.parseBoolean( attribute( reader, "isDisabled" ) );
+		String firstName = attribute( reader, "firstName" );
+		String lastName = attribute( reader, "lastName" );
+		String email = attribute( reader, "email" );
+
+		int [] roleIdentifiers = new int[ 4 ];
+		int roleCount = 0;
+		int depth = 1;
+		while ( depth > 0 ) {
+			int event = reader.next();
+			if ( event == XMLStreamConstants.START_ELEMENT ) {
+				depth++;
+				if ( "RoleRef".equals( reader.getLocalName() ) ) {
+					if ( roleCount == roleIdentifiers.length ) roleIdentifiers = Arrays.copyOf( roleIdentifiers, roleCount * 2 );
+					roleIdentifiers[ roleCount++ ] = parseInt( reader, "id" );
+				}
+			} else if ( event == XMLStreamConstants.END_ELEMENT ) {
+				depth--;
+			}
+		}
+
+		return new UserRecord( identifier, login, password, connectionNumber,
+				lastConnection.isEmpty() ? 0 : Long.parseLong( lastConnection ), consecutiveErrors, isDisabled,
+				firstName, lastName, email, Arrays.copyOf( roleIdentifiers, roleCount ) );
+	}
+
+	private static String attribute( XMLStreamReader reader, String attributeName ) {
+		String value = reader.getAttributeValue( null, attributeName );
+		return value == null ? "" : value;
+	}
+
+	private static int parseInt( XMLStreamReader reader, String attributeName ) {
+		String value = attribute( reader, attributeName );
+		return value.isEmpty() ? 0 : Integer.parseInt( value.trim() );
+	}
+}
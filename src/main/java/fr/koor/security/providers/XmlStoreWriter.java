@@ -0,0 +1,150 @@
+package fr.koor.security.providers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * This class serializes the records of a <code>RecordStore</code> into an XML security database with the StAX API.
+ * Records are written one after the other: no DOM is built.
+ *
+ * @see fr.koor.security.providers.XmlStoreReader
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+final class XmlStoreWriter {
+
+	private static final XMLOutputFactory FACTORY = XMLOutputFactory.newInstance();
+
+	private XmlStoreWriter() { }
+
+	/**
+	 * Writes the specified records into the stream. The stream is flushed but not closed.
+	 *
+	 * @param users			The users to write.
+	 * @param roles			The roles to write.
+	 * @param outputStream	The destination stream.
+	 *
+	 * @throws IOException	Thrown if the stream cannot be written.
+	 */
+	static void write( Iterable<UserRecord> users, Iterable<RoleRecord> roles, OutputStream outputStream ) throws IOException {
+		write( users, roles, PermissionModel.EMPTY, outputStream );
+	}
+
+	/**
+	 * Writes the specified records and permission model into the stream. Grants and parent links are written as
+	 * <code>PermissionRef</code> and <code>ParentRole</code> children of the <code>Role</code> elements, and the
+	 * permissions into a <code>Permissions</code> element (omitted if there is no permission). The stream is flushed
+	 * but not closed.
+	 *
+	 * @param users			The users to write.
+	 * @param roles			The roles to write.
+	 * @param permissions	The permission model to write.
+	 * @param outputStream	The destination stream.
+	 *
+	 * @throws IOException	Thrown if the stream cannot be written.
+	 */
+	static void write( Iterable<UserRecord> users, Iterable<RoleRecord> roles, PermissionModel permissions,
+					   OutputStream outputStream ) throws IOException {
+		try {
+			XMLStreamWriter writer;
+			synchronized ( FACTORY ) {
+				writer = FACTORY.createXMLStreamWriter( outputStream, "UTF-8" );
+			}
+			writer.writeStartDocument( "UTF-8", "1.0" );
+			writer.writeCharacters( "\n" );
+			writer.writeStartElement( "SecurityDatabase" );
+
+			writer.writeCharacters( "\n    " );
+			writer.writeStartElement( "Users" );
+			for ( UserRecord user : users ) {
+				writer.writeCharacters( "\n        " );
+				int [] roleIdentifiers = user.getRoleIdentifiers();
+				if ( roleIdentifiers.length == 0 ) {
+					writer.writeEmptyElement( "User" );
+				} else {
+					writer.writeStartElement( "User" );
+				}
+				writer.writeAttribute( "id", Integer.toString( user.getIdentifier() ) );
+				writer.writeAttribute( "login", user.getLogin() );
+				writer.writeAttribute( "password", user.getPassword() );
+				writer.writeAttribute( "connectionNumber", Integer.toString( user.getConnectionNumber() ) );
+				writer.writeAttribute( "lastConnection", Long.toString( user.getLastConnection() ) );
+				writer.writeAttribute( "consecutiveErrors", Integer.toString( user.getConsecutiveErrors() ) );
+				writer.writeAttribute( "isDisabled", Boolean.toString( user.isDisabled() ) );
+				writer.writeAttribute( "firstName", user.getFirstName() );
+				writer.writeAttribute( "lastName", user.getLastName() );
+				writer.writeAttribute( "email", user.getEmail() );
+				if ( roleIdentifiers.length > 0 ) {
+					for ( int roleIdentifier : roleIdentifiers ) {
+						writer.writeCharacters( "\n            " );
+						writer.writeEmptyElement( "RoleRef" );
+						writer.writeAttribute( "id", Integer.toString( roleIdentifier ) );
+					}
+					writer.writeCharacters( "\n        " );
+					writer.writeEndElement();
+				}
+			}
+			writer.writeCharacters( "\n    " );
+			writer.writeEndElement();
+
+			writer.writeCharacters( "\n    " );
+			writer.writeStartElement( "Roles" );
+			for ( RoleRecord role : roles ) {
+				writer.writeCharacters( "\n        " );
+				int [] parentIdentifiers = permissions.getParents( role.getIdentifier() );
+				int [] permissionIdentifiers = permissions.getGrants( role.getIdentifier() );
+				boolean hasChildren = parentIdentifiers.length > 0 || permissionIdentifiers.length > 0;
+				if ( hasChildren ) {
+					writer.writeStartElement( "Role" );
+				} else {
+					writer.writeEmptyElement( "Role" );
+				}
+				writer.writeAttribute( "id", Integer.toString( role.getIdentifier() ) );
+				writer.writeAttribute( "roleName", role.getRoleName() );
+				if ( hasChildren ) {
+					for ( int parentIdentifier : parentIdentifiers ) {
+						writer.writeCharacters( "\n            " );
+						writer.writeEmptyElement( "ParentRole" );
+						writer.writeAttribute( "id", Integer.toString( parentIdentifier ) );
+					}
+					for ( int permissionIdentifier : permissionIdentifiers ) {
+						writer.writeCharacters( "\n            " );
+						writer.writeEmptyElement( "PermissionRef" );
+						writer.writeAttribute( "id", Integer.toString( permissionIdentifier ) );
+					}
+					writer.writeCharacters( "\n        " );
+					writer.writeEndElement();
+				}
+			}
+			writer.writeCharacters( "\n    " );
+			writer.writeEndElement();
+
+			if ( permissions.getPermissions().isEmpty() == false ) {
+				writer.writeCharacters( "\n    " );
+				writer.writeStartElement( "Permissions" );
+				for ( Map.Entry<Integer, String> permission : permissions.getPermissions().entrySet() ) {
+					writer.writeCharacters( "\n        " );
+					writer.writeEmptyElement( "Permission" );
+					writer.writeAttribute( "id", Integer.toString( permission.getKey() ) );
+					writer.writeAttribute( "name", permission.getValue() );
+				}
+				writer.writeCharacters( "\n    " );
+				writer.writeEndElement();
+			}
+
+			writer.writeCharacters( "\n" );
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.flush();
+			writer.close();
+		} catch ( XMLStreamException exception ) {
+			throw new IOException( "Cannot write XML security database", exception );
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package fr.koor.security.screening;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+import fr.koor.security.PasswordScreener;
+
+/**
+ * <p>
+ *     This password screener rejects the passwords found in a breach corpus. The corpus is read from a password
+ *     filter file (a Bloom filter of SHA-1 hashes, see <code>PasswordFilterBuilder</code>) through a read-only
+ *     memory mapping: the file can be much larger than the heap, and only the pages that are read are loaded by the
+ *     operating system.
+ * </p>
+ * <p>
+ *     A lookup hashes the password then tests a fixed number of bits: its time doesn't depend on the size of the
+ *     corpus, and it allocates nothing (the digest and the hash buffer are kept per thread). As with any Bloom filter,
+ *     a few passwords that are not in the corpus are rejected too (false positives, at the rate chosen when the file
+ *     was built); a password of the corpus is always rejected. This class is thread-safe.
+ * </p>
+ *
+ * @see fr.koor.security.screening.PasswordFilterBuilder
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public class MappedPasswordScreener implements PasswordScreener, AutoCloseable {
+
+	private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial( PasswordFilterFormat::newDigest );
+	private static final ThreadLocal<byte []> HASHES = ThreadLocal.withInitial( () -> new byte[ PasswordFilterFormat.HASH_LENGTH ] );
+
+	private final String filename;
+	private final RandomAccessFile file;
+	private final MappedByteBuffer [] segments;
+	private final int hashCount;
+	private final long bitCount;
+	private final long entryCount;
+
+	/**
+	 * Opens a password filter file.
+	 *
+	 * @param filename	The password filter file, produced by <code>PasswordFilterBuilder</code>.
+	 *
+	 * @throws IOException	Thrown if the file cannot be opened or is not a password filter.
+	 */
+	public MappedPasswordScreener( String filename ) throws IOException {
+		this.filename = filename;
+		this.file = new RandomAccessFile( filename, "r" );
+		try {
+			if ( this.file.length() < PasswordFilterFormat.HEADER_SIZE ) throw new IOException( filename + " is not a password filter" );
+			this.segments = PasswordFilterFormat.map( this.file, FileChannel.MapMode.READ_ONLY );
+			MappedByteBuffer header = this.segments[0];
+			if ( header.getInt( 0 ) != PasswordFilterFormat.MAGIC || header.getInt( 4 ) != PasswordFilterFormat.VERSION ) {
+				throw new IOException( filename + " is not a password filter" );
+			}
+			this.hashCount = header.getInt( PasswordFilterFormat.HEADER_HASH_COUNT );
+			this.bitCount = header.getLong( PasswordFilterFormat.HEADER_BIT_COUNT );
+			this.entryCount = header.getLong( PasswordFilterFormat.HEADER_ENTRY_COUNT );
+			if ( this.hashCount <= 0 || this.bitCount <= 0
+					|| this.file.length() < PasswordFilterFormat.HEADER_SIZE + ( this.bitCount + 7 ) / 8 ) {
+				throw new IOException( filename + " is truncated" );
+			}
+		} catch ( IOException | RuntimeException exception ) {
+			this.file.close();
+			throw exception;
+		}
+	}
+
+	@Override public boolean isCompromised( String clearPassword ) {
+		if ( clearPassword == null ) throw new NullPointerException( "clearPassword cannot be null" );
+		byte [] hash = HASHES.get();
+		PasswordFilterFormat.hashPassword( DIGESTS.get(), clearPassword, hash );
+		return this.contains( hash );
+	}
+
+	/**
+	 * Checks if a SHA-1 hash may be in the corpus.
+	 *
+	 * @param hash	The SHA-1 hash of the UTF-8 encoding of a password (20 bytes).
+	 * @return false if the hash is certainly not in the corpus, true if it may be.
+	 */
+	public boolean contains( byte [] hash ) {
+		if ( hash.length != PasswordFilterFormat.HASH_LENGTH ) throw new IllegalArgumentException( "A SHA-1 hash has 20 bytes" );
+		long hash1 = PasswordFilterFormat.word( hash, 0 );
+		long hash2 = PasswordFilterFormat.word( hash, 8 ) | 1;
+		for ( int i = 0; i < this.hashCount; i++ ) {
+			long bit = PasswordFilterFormat.bitPosition( hash1, hash2, i, this.bitCount );
+			byte value = PasswordFilterFormat.getByte( this.segments, PasswordFilterFormat.HEADER_SIZE + ( bit >>> 3 ) );
+			if ( ( value & ( 1 << ( bit & 7 ) ) ) == 0 ) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the name of the password filter file.
+	 *
+	 * @return The file name.
+	 */
+	public String getFilename() {
+		return this.filename;
+	}
+
+	/**
+	 * Returns the number of hashes put into the filter by the builder.
+	 *
+	 * @return The number of entries.
+	 */
+	public long getEntryCount() {
+		return this.entryCount;
+	}
+
+	/**
+	 * Returns the size of the filter.
+	 *
+	 * @return The number of bits.
+	 */
+	public long getBitCount() {
+		return this.bitCount;
+	}
+
+	/**
+	 * Returns the number of bits tested by a lookup.
+	 *
+	 * @return The number of hash functions.
+	 */
+	public int getHashCount() {
+		return this.hashCount;
+	}
+
+	/**
+	 * Estimates the false positive rate of the filter from its size and its number of entries.
+	 *
+	 * @return The estimated false positive rate.
+	 */
+	public double getEstimatedFalsePositiveRate() {
+		return Math.pow( 1 - Math.exp( - (double) this.hashCount * this.entryCount / this.bitCount ), this.hashCount );
+	}
+
+	/**
+	 * Closes the file. The mapping is released by the garbage collector: don't use this screener after closing it.
+	 */
+	@Override
+	public void close() throws IOException {
+		this.file.close();
+	}
+
+}
@@ -0,0 +1,141 @@
+package fr.koor.security.screening;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * <p>
+ *     This tool builds a password filter file, read by <code>MappedPasswordScreener</code>, from a text file. Each
+ *     line of the text file is either a SHA-1 hash in hexadecimal, optionally followed by a colon and a count (the
+ *     format of the "Pwned Passwords" lists), or a clear password. Empty lines are ignored.
+ * </p>
+ * <p>
+ *     The text file is read twice: once to count the entries, in order to size the filter, then to set the bits. The
+ *     bits are written through a memory mapping of the output file, so the heap size doesn't limit the corpus size.
+ * </p>
+ * <p>
+ *     Command line: <code>java fr.koor.security.screening.PasswordFilterBuilder textFile filterFile
+ *     [falsePositiveRate]</code>. The default false positive rate is 0.001.
+ * </p>
+ *
+ * @see fr.koor.security.screening.MappedPasswordScreener
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public final class PasswordFilterBuilder {
+
+	/** The default false positive rate: 1 in 1000. */
+	public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.001;
+
+	private PasswordFilterBuilder() { }
+
+	/**
+	 * Builds a password filter file. An existing output file is replaced.
+	 *
+	 * @param textFilename			The text file: one SHA-1 hash (hexadecimal) or one clear password per line.
+	 * @param filterFilename		The password filter file to produce.
+	 * @param falsePositiveRate		The proportion of passwords out of the corpus that are rejected anyway.
+	 * @return The number of entries put into the filter.
+	 *
+	 * @throws IOException	Thrown if a file cannot be read or written.
+	 */
+	public static long build( String textFilename, String filterFilename, double falsePositiveRate ) throws IOException {
+		if ( falsePositiveRate <= 0 || falsePositiveRate >= 1 ) throw new IllegalArgumentException( "False positive rate must be between 0 and 1" );
+		long entryCount = 0;
+		try ( BufferedReader reader = openText( textFilename ) ) {
+			String line;
+			while ( ( line = reader.readLine() ) != null ) {
+				if ( line.isEmpty() == false ) entryCount++;
+			}
+		}
+
+		long expectedEntries = Math.max( 1, entryCount );
+		long bitCount = (long) Math.ceil( -expectedEntries * Math.log( falsePositiveRate ) / ( Math.log( 2 ) * Math.log( 2 ) ) );
+		bitCount = Math.max( 64, ( bitCount + 63 ) / 64 * 64 );
+		int hashCount = Math.max( 1, (int) Math.round( (double) bitCount / expectedEntries * Math.log( 2 ) ) );
+
+		new File( filterFilename ).delete();
+		try ( RandomAccessFile file = new RandomAccessFile( filterFilename, "rw" ) ) {
+			file.setLength( PasswordFilterFormat.HEADER_SIZE + bitCount / 8 );
+			MappedByteBuffer [] segments = PasswordFilterFormat.map( file, FileChannel.MapMode.READ_WRITE );
+
+			MessageDigest digest = PasswordFilterFormat.newDigest();
+			byte [] hash = new byte[ PasswordFilterFormat.HASH_LENGTH ];
+			try ( BufferedReader reader = openText( textFilename ) ) {
+				String line;
+				while ( ( line = reader.readLine() ) != null ) {
+					if ( line.isEmpty() ) continue;
+					if ( parseHash( line, hash ) == false ) PasswordFilterFormat.hashPassword( digest, line, hash );
+					long hash1 = PasswordFilterFormat.word( hash, 0 );
+					long hash2 = PasswordFilterFormat.word( hash, 8 ) | 1;
+					for ( int i = 0; i < hashCount; i++ ) {
+						long bit = PasswordFilterFormat.bitPosition( hash1, hash2, i, bitCount );
+						long position = PasswordFilterFormat.HEADER_SIZE + ( bit >>> 3 );
+						byte value = PasswordFilterFormat.getByte( segments, position );
+						PasswordFilterFormat.putByte( segments, position, (byte) ( value | ( 1 << ( bit & 7 ) ) ) );
+					}
+				}
+			}
+
+			// The header is written last: an interrupted build doesn't produce a valid file
+			MappedByteBuffer header = segments[0];
+			header.putInt( PasswordFilterFormat.HEADER_HASH_COUNT, hashCount );
+			header.putLong( PasswordFilterFormat.HEADER_BIT_COUNT, bitCount );
+			header.putLong( PasswordFilterFormat.HEADER_ENTRY_COUNT, entryCount );
+			header.putInt( 4, PasswordFilterFormat.VERSION );
+			header.putInt( 0, PasswordFilterFormat.MAGIC );
+			for ( MappedByteBuffer segment : segments ) segment.force();
+		}
+		return entryCount;
+	}
+
+	private static BufferedReader openText( String textFilename ) throws IOException {
+		return new BufferedReader( new InputStreamReader( new FileInputStream( textFilename ), StandardCharsets.UTF_8 ), 1 << 16 );
+	}
+
+	/**
+	 * Decodes a line made of 40 hexadecimal digits, optionally followed by a colon and a count.
+	 *
+	 * @return true if the line is a SHA-1 hash, false if it is a clear password.
+	 */
+	private static boolean parseHash( String line, byte [] hash ) {
+		if ( line.length() < 40 || ( line.length() > 40 && line.charAt( 40 ) != ':' ) ) return false;
+		for ( int i = 0; i < 40; i++ ) {
+			if ( Character.digit( line.charAt( i ), 16 ) < 0 ) return false;
+		}
+		for ( int i = 0; i < PasswordFilterFormat.HASH_LENGTH; i++ ) {
+			hash[i] = (byte) ( Character.digit( line.charAt( 2 * i ), 16 ) << 4 | Character.digit( line.charAt( 2 * i + 1 ), 16 ) );
+		}
+		return true;
+	}
+
+	/**
+	 * Builds a password filter file from the command line.
+	 *
+	 * @param args	The text file, the filter file and, optionally, the false positive rate.
+	 *
+	 * @throws IOException	Thrown if a file cannot be read or written.
+	 */
+	public static void main( String [] args ) throws IOException {
+		if ( args.length < 2 || args.length > 3 ) {
+			System.err.println( "Usage: java " + PasswordFilterBuilder.class.getName() + " textFile filterFile [falsePositiveRate]" );
+			System.exit( 1 );
+		}
+		double falsePositiveRate = args.length == 3 ? Double.parseDouble( args[2] ) : DEFAULT_FALSE_POSITIVE_RATE;
+		long entryCount = build( args[0], args[1], falsePositiveRate );
+		try ( MappedPasswordScreener screener = new MappedPasswordScreener( args[1] ) ) {
+			System.out.printf( "%d entries, %d bits, %d hash functions, estimated false positive rate %.6f%n",
+					entryCount, screener.getBitCount(), screener.getHashCount(), screener.getEstimatedFalsePositiveRate() );
+		}
+	}
+
+}
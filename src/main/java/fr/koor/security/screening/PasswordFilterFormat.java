@@ -0,0 +1,118 @@
+package fr.koor.security.screening;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * <p>
+ *     This class defines the format of the password filter files, shared by <code>PasswordFilterBuilder</code> and
+ *     <code>MappedPasswordScreener</code>. A file is a Bloom filter of SHA-1 password hashes:
+ * </p>
+ * <ul>
+ *     <li>a 64-byte header: magic number, version, number of hash functions, number of bits, number of entries;</li>
+ *     <li>the bits: bit <code>n</code> is the bit <code>n % 8</code> of the byte <code>n / 8</code>.</li>
+ * </ul>
+ * <p>
+ *     As a SHA-1 hash is uniformly distributed, the bit positions are directly derived from it (double hashing with
+ *     its first two 64-bit words). The file is mapped by segments of 1 GB, so its size is not limited to 2 GB.
+ * </p>
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+final class PasswordFilterFormat {
+
+	static final int MAGIC = 0x4B535046;		// KSPF
+	static final int VERSION = 1;
+
+	static final int HEADER_HASH_COUNT = 8;
+	static final int HEADER_BIT_COUNT = 16;
+	static final int HEADER_ENTRY_COUNT = 24;
+	static final int HEADER_SIZE = 64;
+
+	static final int HASH_LENGTH = 20;
+	private static final int SEGMENT_SHIFT = 30;
+	private static final int SEGMENT_MASK = ( 1 << SEGMENT_SHIFT ) - 1;
+
+	private PasswordFilterFormat() { }
+
+	static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance( "SHA-1" );
+		} catch ( NoSuchAlgorithmException exception ) {
+			throw new IllegalStateException( "SHA-1 is not supported", exception );
+		}
+	}
+
+	/**
+	 * Computes the SHA-1 hash of the UTF-8 encoding of a password, without allocating the encoded bytes.
+	 */
+	static void hashPassword( MessageDigest digest, CharSequence password, byte [] hash ) {
+		for ( int i = 0; i < password.length(); i++ ) {
+			int codePoint = password.charAt( i );
+			if ( Character.isHighSurrogate( (char) codePoint ) && i + 1 < password.length()
+					&& Character.isLowSurrogate( password.charAt( i + 1 ) ) ) {
+				codePoint = Character.toCodePoint( (char) codePoint, password.charAt( ++i ) );
+			}
+			if ( codePoint < 0x80 ) {
+				digest.update( (byte) codePoint );
+			} else if ( codePoint < 0x800 ) {
+				digest.update( (byte) ( 0xC0 | ( codePoint >> 6 ) ) );
+				digest.update( (byte) ( 0x80 | ( codePoint & 0x3F ) ) );
+			} else if ( codePoint < 0x10000 && Character.isSurrogate( (char) codePoint ) ) {
+				digest.update( (byte) '?' );		// Unpaired surrogate, encoded as String.getBytes does
+			} else if ( codePoint < 0x10000 ) {
+				digest.update( (byte) ( 0xE0 | ( codePoint >> 12 ) ) );
+				digest.update( (byte) ( 0x80 | ( ( codePoint >> 6 ) & 0x3F ) ) );
+				digest.update( (byte) ( 0x80 | ( codePoint & 0x3F ) ) );
+			} else {
+				digest.update( (byte) ( 0xF0 | ( codePoint >> 18 ) ) );
+				digest.update( (byte) ( 0x80 | ( ( codePoint >> 12 ) & 0x3F ) ) );
+				digest.update( (byte) ( 0x80 | ( ( codePoint >> 6 ) & 0x3F ) ) );
+				digest.update( (byte) ( 0x80 | ( codePoint & 0x3F ) ) );
+			}
+		}
+		try {
+			digest.digest( hash, 0, HASH_LENGTH );
+		} catch ( DigestException exception ) {
+			throw new IllegalStateException( "Cannot compute SHA-1", exception );
+		}
+	}
+
+	static long word( byte [] hash, int offset ) {
+		long value = 0;
+		for ( int i = 0; i < 8; i++ ) value = ( value << 8 ) | ( hash[ offset + i ] & 0xFF );
+		return value;
+	}
+
+	/**
+	 * Returns the position of the bit number <code>index</code> of a hash.
+	 */
+	static long bitPosition( long hash1, long hash2, int index, long bitCount ) {
+		return Long.remainderUnsigned( hash1 + index * hash2, bitCount );
+	}
+
+	static MappedByteBuffer [] map( RandomAccessFile file, FileChannel.MapMode mode ) throws IOException {
+		long length = file.length();
+		MappedByteBuffer [] segments = new MappedByteBuffer[ (int) ( ( length + SEGMENT_MASK ) >>> SEGMENT_SHIFT ) ];
+		for ( int i = 0; i < segments.length; i++ ) {
+			long start = (long) i << SEGMENT_SHIFT;
+			segments[i] = file.getChannel().map( mode, start, Math.min( length - start, 1L << SEGMENT_SHIFT ) );
+		}
+		return segments;
+	}
+
+	static byte getByte( MappedByteBuffer [] segments, long position ) {
+		return segments[ (int) ( position >>> SEGMENT_SHIFT ) ].get( (int) ( position & SEGMENT_MASK ) );
+	}
+
+	static void putByte( MappedByteBuffer [] segments, long position, byte value ) {
+		segments[ (int) ( position >>> SEGMENT_SHIFT ) ].put( (int) ( position & SEGMENT_MASK ), value );
+	}
+
+}
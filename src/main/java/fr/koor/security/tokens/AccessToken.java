@@ -0,0 +1,76 @@
+package fr.koor.security.tokens;
+
+import fr.koor.security.Role;
+
+/**
+ * This class represents the content of a verified access token: the identifier of the user, his roles, the expiration
+ * date and the identifier of the key that signed the token. Instances are immutable.
+ * 
+ * @see fr.koor.security.tokens.AccessTokenCodec
+ * 
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public final class AccessToken {
+
+	private final int userIdentifier;
+	private final long [] roleBits;
+	private final long expiration;
+	private final int keyIdentifier;
+	
+	AccessToken( int userIdentifier, long [] roleBits, long expiration, int keyIdentifier ) {
+		this.userIdentifier = userIdentifier;
+		this.roleBits = roleBits;
+		this.expiration = expiration;
+		this.keyIdentifier = keyIdentifier;
+	}
+	
+	/**
+	 * Returns the identifier of the user the token has been issued for.
+	 * @return The user identifier.
+	 */
+	public int getUserIdentifier() {
+		return userIdentifier;
+	}
+	
+	/**
+	 * Returns the expiration date of the token.
+	 * @return The expiration date, in milliseconds since the epoch.
+	 */
+	public long getExpiration() {
+		return expiration;
+	}
+	
+	/**
+	 * Returns the identifier, in the keyring, of the key that signed the token.
+	 * @return The key identifier.
+	 */
+	public int getKeyIdentifier() {
+		return keyIdentifier;
+	}
+	
+	/**
+	 * Checks if the user had the specified role when the token has been issued.
+	 * @param role	The expected role.
+	 * @return true is the user has the specified role, false otherwize.
+	 */
+	public boolean isMemberOfRole( Role role ) {
+		return role != null && this.isMemberOfRole( role.getIdentifier() );
+	}
+	
+	/**
+	 * Checks if the user had the role that has the specified identifier when the token has been issued.
+	 * @param roleIdentifier	The identifier of the expected role.
+	 * @return true is the user has the specified role, false otherwize.
+	 */
+	public boolean isMemberOfRole( int roleIdentifier ) {
+		if ( roleIdentifier < 0 ) return false;
+		int word = roleIdentifier >>> 6;
+		return word < this.roleBits.length && ( this.roleBits[ word ] & ( 1L << roleIdentifier ) ) != 0;
+	}
+	
+	@Override public String toString() {
+		return "AccessToken [user=" + userIdentifier + ", expiration=" + expiration + ", key=" + keyIdentifier + "]";
+	}
+	
+}
@@ -0,0 +1,246 @@
+package fr.koor.security.tokens;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+
+import fr.koor.security.AccountDisabledException;
+import fr.koor.security.BadCredentialsException;
+import fr.koor.security.Role;
+import fr.koor.security.SecurityManagerException;
+import fr.koor.security.UnauthorizedException;
+import fr.koor.security.User;
+import fr.koor.security.UserManager;
+
+/**
+ * <p>
+ *     This class issues and verifies stateless access tokens. A token carries the identifier of the user, his roles (as
+ *     a bitmap), an expiration date and the identifier of the signing key; it is signed with HMAC-SHA256. Any node
+ *     sharing the keyring can verify a token locally, without reading the security system nor a session store.
+ * </p>
+ * <p>
+ *     As the token is not stored, it cannot be revoked: modifications of the user (roles, account disabling,
+ *     deletion) are only seen by the tokens issued after them. Keep the time to live short.
+ * </p>
+ * <p>
+ *     A token is the URL-safe Base64 encoding (without padding) of the following bytes, in big-endian order:
+ *     version (1 byte), key identifier (1 byte), user identifier (4 bytes), expiration in milliseconds since the
+ *     epoch (8 bytes), number of role words (1 byte), role words (8 bytes each), then the MAC of all the previous
+ *     bytes (32 bytes). Role identifiers must be between 0 and 4095.
+ * </p>
+ * <p>
+ *     The verification decodes the token into a per-thread buffer and compares the MAC in constant time: the only
+ *     allocations are the returned <code>AccessToken</code> and its role bitmap. This class is thread-safe.
+ * </p>
+ * 
+ * @see fr.koor.security.tokens.AccessToken
+ * @see fr.koor.security.tokens.TokenKeyring
+ * 
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public class AccessTokenCodec {
+
+	/** The default time to live of the tokens: 15 minutes. */
+	public static final long DEFAULT_TIME_TO_LIVE = 15 * 60 * 1000L;
+
+	private static final byte VERSION = 1;
+	private static final int HEADER_LENGTH = 1 + 1 + 4 + 8 + 1;
+	private static final int MAC_LENGTH = 32;
+	private static final int MAXIMAL_ROLE_WORDS = 64;
+	private static final int MAXIMAL_LENGTH = HEADER_LENGTH + MAXIMAL_ROLE_WORDS * 8 + MAC_LENGTH;
+	private static final int MAXIMAL_ENCODED_LENGTH = ( MAXIMAL_LENGTH * 4 + 2 ) / 3;
+	private static final long [] NO_ROLES = new long[ 0 ];
+
+	/** Base64 (URL-safe alphabet) character to 6-bit value, or -1. */
+	private static final byte [] DECODING_TABLE = new byte[ 128 ];
+	static {
+		Arrays.fill( DECODING_TABLE, (byte) -1 );
+		String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+		for ( int i = 0; i < alphabet.length(); i++ ) DECODING_TABLE[ alphabet.charAt( i ) ] = (byte) i;
+	}
+
+	/** The decoded token, followed by the computed MAC. */
+	private static final ThreadLocal<byte []> BUFFERS = ThreadLocal.withInitial( () -> new byte[ MAXIMAL_LENGTH + MAC_LENGTH ] );
+
+	private final TokenKeyring keyring;
+	private volatile long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param keyring	The keys used to sign and to verify the tokens.
+	 */
+	public AccessTokenCodec( TokenKeyring keyring ) {
+		if ( keyring == null ) throw new NullPointerException( "keyring cannot be null" );
+		this.keyring = keyring;
+	}
+
+	/**
+	 * Returns the keyring used by this codec.
+	 * 
+	 * @return The keyring.
+	 */
+	public TokenKeyring getKeyring() {
+		return keyring;
+	}
+
+	/**
+	 * Returns the delay after which a new token expires.
+	 * 
+	 * @return The time to live in milliseconds.
+	 */
+	public long getTimeToLive() {
+		return timeToLive;
+	}
+
+	/**
+	 * Changes the delay after which a new token expires. The tokens already issued are not affected.
+	 * 
+	 * @param timeToLive	The time to live in milliseconds.
+	 */
+	public void setTimeToLive( long timeToLive ) {
+		if ( timeToLive <= 0 ) throw new IllegalArgumentException( "timeToLive must be positive" );
+		this.timeToLive = timeToLive;
+	}
+
+	/**
+	 * Checks the credentials of a user (see <code>UserManager.checkCredentials</code>) and issues a token for him.
+	 * 
+	 * @param userManager	The user manager that checks the credentials.
+	 * @param userLogin		The login of the user.
+	 * @param userPassword	The password of the user.
+	 * @return				The access token.
+	 * 
+	 * @exception AccountDisabledException	Thrown if the account of the user is disabled.
+	 * @exception BadCredentialsException	Thrown if the login or the password is wrong.
+	 * @exception SecurityManagerException	Thrown if the token cannot be issued.
+	 */
+	public String issueToken( UserManager userManager, String userLogin, String userPassword ) throws SecurityManagerException {
+		return this.issueToken( userManager.checkCredentials( userLogin, userPassword ) );
+	}
+
+	/**
+	 * Issues a token for a user whose credentials have already been checked.
+	 * 
+	 * @param user	The authenticated user.
+	 * @return		The access token.
+	 * 
+	 * @exception SecurityManagerException	Thrown if the keyring is empty or if a role cannot be put into the token.
+	 */
+	public String issueToken( User user ) throws SecurityManagerException {
+		if ( user == null ) throw new NullPointerException( "user cannot be null" );
+		TokenKeyring.Key key = this.keyring.getSigningKey();
+		if ( key == null ) throw new SecurityManagerException( "Cannot issue a token: the keyring is empty" );
+
+		long [] roleBits = new long[ MAXIMAL_ROLE_WORDS ];
+		int wordCount = 0;
+		for ( Role role : user.getRoles() ) {
+			int roleIdentifier = role.getIdentifier();
+			if ( roleIdentifier < 0 || roleIdentifier >= MAXIMAL_ROLE_WORDS * 64 ) {
+				throw new SecurityManagerException( "Cannot put role " + role.getRoleName() + " into a token: its identifier is out of range" );
+			}
+			roleBits[ roleIdentifier >>> 6 ] |= 1L << roleIdentifier;
+			wordCount = Math.max( wordCount, ( roleIdentifier >>> 6 ) + 1 );
+		}
+
+		int length = HEADER_LENGTH + wordCount * 8;
+		ByteBuffer buffer = ByteBuffer.allocate( length + MAC_LENGTH );
+		buffer.put( VERSION ).put( (byte) key.identifier ).putInt( user.getIdentifier() );
+		buffer.putLong( System.currentTimeMillis() + this.timeToLive ).put( (byte) wordCount );
+		for ( int i = 0; i < wordCount; i++ ) buffer.putLong( roleBits[i] );
+		Mac mac = key.mac();
+		try {
+			mac.update( buffer.array(), 0, length );
+			mac.doFinal( buffer.array(), length );
+		} catch ( ShortBufferException exception ) {
+			throw new SecurityManagerException( "Cannot sign the token", exception );
+		}
+		return Base64.getUrlEncoder().withoutPadding().encodeToString( buffer.array() );
+	}
+
+	/**
+	 * Verifies a token: its signature, made by a key of the keyring, and its expiration date.
+	 * 
+	 * @param token	The access token.
+	 * @return		The content of the token.
+	 * 
+	 * @exception UnauthorizedException	Thrown if the token is malformed, expired, or not signed by a key of the keyring.
+	 */
+	public AccessToken verifyToken( String token ) throws UnauthorizedException {
+		if ( token == null ) throw new NullPointerException( "token cannot be null" );
+		byte [] buffer = BUFFERS.get();
+		int length = decode( token, buffer );
+		if ( length < HEADER_LENGTH + MAC_LENGTH || buffer[0] != VERSION ) {
+			throw new UnauthorizedException( "Malformed access token" );
+		}
+		int wordCount = buffer[ HEADER_LENGTH - 1 ] & 0xFF;
+		int signedLength = HEADER_LENGTH + wordCount * 8;
+		if ( wordCount > MAXIMAL_ROLE_WORDS || length != signedLength + MAC_LENGTH ) {
+			throw new UnauthorizedException( "Malformed access token" );
+		}
+
+		int keyIdentifier = buffer[1] & 0xFF;
+		TokenKeyring.Key key = this.keyring.getKey( keyIdentifier );
+		if ( key == null ) throw new UnauthorizedException( "Access token signed by an unknown key" );
+		Mac mac = key.mac();
+		try {
+			mac.update( buffer, 0, signedLength );
+			mac.doFinal( buffer, MAXIMAL_LENGTH );
+		} catch ( ShortBufferException exception ) {
+			throw new UnauthorizedException( "Cannot verify the access token", exception );
+		}
+		// Constant time comparison: the time doesn't tell how many bytes of a forged MAC are right
+		int difference = 0;
+		for ( int i = 0; i < MAC_LENGTH; i++ ) difference |= buffer[ signedLength + i ] ^ buffer[ MAXIMAL_LENGTH + i ];
+		if ( difference != 0 ) throw new UnauthorizedException( "Invalid access token signature" );
+
+		long expiration = readLong( buffer, 6 );
+		if ( expiration <= System.currentTimeMillis() ) throw new UnauthorizedException( "Expired access token" );
+		long [] roleBits = wordCount == 0 ? NO_ROLES : new long[ wordCount ];
+		for ( int i = 0; i < wordCount; i++ ) roleBits[i] = readLong( buffer, HEADER_LENGTH + i * 8 );
+		return new AccessToken( readInt( buffer, 2 ), roleBits, expiration, keyIdentifier );
+	}
+
+	/**
+	 * Decodes URL-safe Base64 without padding into the specified buffer.
+	 * @return The number of decoded bytes.
+	 */
+	private static int decode( String token, byte [] buffer ) throws UnauthorizedException {
+		int tokenLength = token.length();
+		if ( tokenLength > MAXIMAL_ENCODED_LENGTH || tokenLength % 4 == 1 ) {
+			throw new UnauthorizedException( "Malformed access token" );
+		}
+		int length = 0;
+		int bits = 0;
+		int bitCount = 0;
+		for ( int i = 0; i < tokenLength; i++ ) {
+			char c = token.charAt( i );
+			int value = c < 128 ? DECODING_TABLE[ c ] : -1;
+			if ( value < 0 ) throw new UnauthorizedException( "Malformed access token" );
+			bits = ( bits << 6 ) | value;
+			bitCount += 6;
+			if ( bitCount >= 8 ) {
+				bitCount -= 8;
+				buffer[ length++ ] = (byte) ( bits >>> bitCount );
+				bits &= ( 1 << bitCount ) - 1;
+			}
+		}
+		// Only the canonical encoding is accepted
+		if ( bits != 0 ) throw new UnauthorizedException( "Malformed access token" );
+		return length;
+	}
+
+	private static int readInt( byte [] buffer, int offset ) {
+		return ( buffer[ offset ] & 0xFF ) << 24 | ( buffer[ offset + 1 ] & 0xFF ) << 16
+				| ( buffer[ offset + 2 ] & 0xFF ) << 8 | ( buffer[ offset + 3 ] & 0xFF );
+	}
+
+	private static long readLong( byte [] buffer, int offset ) {
+		return ( (long) readInt( buffer, offset ) << 32 ) | ( readInt( buffer, offset + 4 ) & 0xFFFFFFFFL );
+	}
+
+}
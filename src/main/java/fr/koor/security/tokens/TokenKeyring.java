@@ -0,0 +1,160 @@
+package fr.koor.security.tokens;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import fr.koor.utility.IntHashMap;
+
+/**
+ * <p>
+ *     This class holds the secret keys used to sign and to verify access tokens. Each key has an identifier, between 0
+ *     and 255, which is written in the tokens it signs. New tokens are signed with the signing key; tokens signed with
+ *     any key of the keyring are accepted.
+ * </p>
+ * <p>
+ *     A key rotation is done in three steps: the new key is added on all the nodes, then it becomes the signing key,
+ *     then the old key is removed once the tokens it has signed have expired.
+ * </p>
+ * <p>
+ *     This class is thread-safe and lookups never take a lock. A <code>Mac</code> instance is kept per key and per
+ *     thread, so that verifications don't create one each time.
+ * </p>
+ * 
+ * @see fr.koor.security.tokens.AccessTokenCodec
+ * 
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public class TokenKeyring {
+
+	/** The MAC algorithm used to sign the tokens. */
+	public static final String ALGORITHM = "HmacSHA256";
+
+	/** The minimal length of a secret key, in bytes. */
+	public static final int MINIMAL_KEY_LENGTH = 32;
+
+	/** The greatest key identifier. */
+	public static final int MAXIMAL_KEY_IDENTIFIER = 255;
+
+	static final class Key {
+		final int identifier;
+		private final ThreadLocal<Mac> macs;
+
+		Key( int identifier, byte [] secret ) throws GeneralSecurityException {
+			this.identifier = identifier;
+			SecretKeySpec keySpec = new SecretKeySpec( secret, ALGORITHM );
+			createMac( keySpec );		// Fails now rather than during a verification
+			this.macs = ThreadLocal.withInitial( () -> {
+				try {
+					return createMac( keySpec );
+				} catch ( GeneralSecurityException exception ) {
+					throw new IllegalStateException( "Cannot create the MAC of key " + identifier, exception );
+				}
+			} );
+		}
+
+		private static Mac createMac( SecretKeySpec keySpec ) throws GeneralSecurityException {
+			Mac mac = Mac.getInstance( ALGORITHM );
+			mac.init( keySpec );
+			return mac;
+		}
+
+		/**
+		 * Returns the MAC of the calling thread for this key. It is reset, and must not be shared with another thread.
+		 */
+		Mac mac() {
+			return this.macs.get();
+		}
+	}
+
+	private final IntHashMap<Key> keys = new IntHashMap<>();
+	private volatile Key signingKey;
+
+	/**
+	 * Adds a key to this keyring. The first added key becomes the signing key.
+	 * 
+	 * @param keyIdentifier	The key identifier, between 0 and 255.
+	 * @param secret		The secret key: at least 32 bytes. It is copied.
+	 * 
+	 * @exception IllegalArgumentException	Thrown if the identifier is invalid or already used, or if the key is too short.
+	 */
+	public synchronized void addKey( int keyIdentifier, byte [] secret ) {
+		if ( secret == null ) throw new NullPointerException( "secret cannot be null" );
+		if ( keyIdentifier < 0 || keyIdentifier > MAXIMAL_KEY_IDENTIFIER ) {
+			throw new IllegalArgumentException( "Key identifier must be between 0 and " + MAXIMAL_KEY_IDENTIFIER );
+		}
+		if ( secret.length < MINIMAL_KEY_LENGTH ) {
+			throw new IllegalArgumentException( "Secret key must have at least " + MINIMAL_KEY_LENGTH + " bytes" );
+		}
+		if ( this.keys.containsKey( keyIdentifier ) ) {
+			throw new IllegalArgumentException( "Key " + keyIdentifier + " already registered" );
+		}
+		Key key;
+		try {
+			key = new Key( keyIdentifier, secret.clone() );
+		} catch ( GeneralSecurityException exception ) {
+			throw new IllegalArgumentException( "Cannot use key " + keyIdentifier, exception );
+		}
+		this.keys.put( keyIdentifier, key );
+		if ( this.signingKey == null ) this.signingKey = key;
+	}
+
+	/**
+	 * Removes a key from this keyring: the tokens it has signed are no more accepted. An unknown identifier is ignored.
+	 * 
+	 * @param keyIdentifier	The key identifier.
+	 * 
+	 * @exception IllegalStateException	Thrown if the key is the signing key.
+	 */
+	public synchronized void removeKey( int keyIdentifier ) {
+		Key key = this.signingKey;
+		if ( key != null && key.identifier == keyIdentifier ) {
+			throw new IllegalStateException( "Cannot remove the signing key " + keyIdentifier );
+		}
+		this.keys.remove( keyIdentifier );
+	}
+
+	/**
+	 * Selects the key used to sign the new tokens.
+	 * 
+	 * @param keyIdentifier	The identifier of a key of this keyring.
+	 * 
+	 * @exception IllegalArgumentException	Thrown if the key is unknown.
+	 */
+	public synchronized void setSigningKey( int keyIdentifier ) {
+		Key key = this.keys.get( keyIdentifier );
+		if ( key == null ) throw new IllegalArgumentException( "Key " + keyIdentifier + " not registered" );
+		this.signingKey = key;
+	}
+
+	/**
+	 * Returns the identifier of the key used to sign the new tokens.
+	 * 
+	 * @return The key identifier, or -1 if this keyring is empty.
+	 */
+	public int getSigningKeyIdentifier() {
+		Key key = this.signingKey;
+		return key == null ? -1 : key.identifier;
+	}
+
+	/**
+	 * Indicates if this keyring contains the specified key.
+	 * 
+	 * @param keyIdentifier	The key identifier.
+	 * @return true if the key is present, false otherwise.
+	 */
+	public boolean containsKey( int keyIdentifier ) {
+		return this.keys.containsKey( keyIdentifier );
+	}
+
+	Key getSigningKey() {
+		return this.signingKey;
+	}
+
+	Key getKey( int keyIdentifier ) {
+		return this.keys.get( keyIdentifier );
+	}
+
+}
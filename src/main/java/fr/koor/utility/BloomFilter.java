@@ -0,0 +1,157 @@
+package fr.koor.utility;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ *     This class is a thread-safe Bloom filter of strings: a set that can answer "certainly absent" or "maybe
+ *     present". A string that has been added is always reported as maybe present; a string that has not been added is
+ *     reported as maybe present with a probability close to the configured false positive rate, as long as the number
+ *     of added strings doesn't exceed the expected number. Strings cannot be removed.
+ * </p>
+ * <p>
+ *     The number of bits and of hash functions are computed from the expected number of strings and the false
+ *     positive rate. The bit positions of a string are derived from two 64-bit hashes (double hashing). Additions set
+ *     bits with compare-and-set operations and lookups never take a lock.
+ * </p>
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public class BloomFilter {
+
+	private final int expectedInsertions;
+	private final double falsePositiveRate;
+	private final long bitCount;
+	private final int hashCount;
+	private final AtomicLongArray bits;
+	private final AtomicLong insertionCount = new AtomicLong();
+
+	/**
+	 * Creates an empty filter.
+	 *
+	 * @param expectedInsertions	The expected number of strings.
+	 * @param falsePositiveRate		The expected false positive rate, between 0 and 1 (exclusive).
+	 */
+	public BloomFilter( int expectedInsertions, double falsePositiveRate ) {
+		if ( expectedInsertions <= 0 ) throw new IllegalArgumentException( "Expected insertions must be positive" );
+		if ( falsePositiveRate <= 0 || falsePositiveRate >= 1 ) throw new IllegalArgumentException( "False positive rate must be between 0 and 1" );
+		this.expectedInsertions = expectedInsertions;
+		this.falsePositiveRate = falsePositiveRate;
+		long optimalBits = (long) Math.ceil( -expectedInsertions * Math.log( falsePositiveRate ) / ( Math.log( 2 ) * Math.log( 2 ) ) );
+		int wordCount = (int) Math.min( Integer.MAX_VALUE - 8, Math.max( 1, ( optimalBits + 63 ) / 64 ) );
+		this.bitCount = 64L * wordCount;
+		this.hashCount = Math.max( 1, (int) Math.round( (double) this.bitCount / expectedInsertions * Math.log( 2 ) ) );
+		this.bits = new AtomicLongArray( wordCount );
+	}
+
+	private static long mix( long hash ) {
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		hash *= 0xC4CEB9FE1A85EC53L;
+		return hash ^ ( hash >>> 33 );
+	}
+
+	private static long hash( String value, long seed ) {
+		long hash = seed;
+		for ( int i = 0; i < value.length(); i++ ) hash = ( hash ^ value.charAt( i ) ) * 0x100000001B3L;
+		return mix( hash ^ value.length() );
+	}
+
+	/**
+	 * Adds a string into this filter.
+	 *
+	 * @param value	The string.
+	 */
+	public void add( String value ) {
+		if ( value == null ) throw new NullPointerException( "value cannot be null" );
+		long hash1 = hash( value, 0xCBF29CE484222325L );
+		long hash2 = hash( value, 0x9E3779B97F4A7C15L ) | 1;
+		for ( int i = 0; i < this.hashCount; i++ ) {
+			long bit = Long.remainderUnsigned( hash1 + i * hash2, this.bitCount );
+			int word = (int) ( bit >>> 6 );
+			long mask = 1L << bit;
+			long current = this.bits.get( word );
+			while ( ( current & mask ) == 0 && this.bits.compareAndSet( word, current, current | mask ) == false ) {
+				current = this.bits.get( word );
+			}
+		}
+		this.insertionCount.incrementAndGet();
+	}
+
+	/**
+	 * Checks if a string may have been added into this filter.
+	 *
+	 * @param value	The string.
+	 * @return false if the string has certainly not been added, true if it may have been added.
+	 */
+	public boolean mightContain( String value ) {
+		if ( value == null ) throw new NullPointerException( "value cannot be null" );
+		long hash1 = hash( value, 0xCBF29CE484222325L );
+		long hash2 = hash( value, 0x9E3779B97F4A7C15L ) | 1;
+		for ( int i = 0; i < this.hashCount; i++ ) {
+			long bit = Long.remainderUnsigned( hash1 + i * hash2, this.bitCount );
+			if ( ( this.bits.get( (int) ( bit >>> 6 ) ) & ( 1L << bit ) ) == 0 ) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the expected number of strings, given at the creation of this filter.
+	 *
+	 * @return The expected number of strings.
+	 */
+	public int getExpectedInsertions() {
+		return this.expectedInsertions;
+	}
+
+	/**
+	 * Returns the false positive rate expected when this filter contains the expected number of strings.
+	 *
+	 * @return The configured false positive rate.
+	 */
+	public double getFalsePositiveRate() {
+		return this.falsePositiveRate;
+	}
+
+	/**
+	 * Returns the size of this filter.
+	 *
+	 * @return The number of bits.
+	 */
+	public long getBitCount() {
+		return this.bitCount;
+	}
+
+	/**
+	 * Returns the number of bits set (and tested) for each string.
+	 *
+	 * @return The number of hash functions.
+	 */
+	public int getHashCount() {
+		return this.hashCount;
+	}
+
+	/**
+	 * Returns the number of additions. A string added twice is counted twice.
+	 *
+	 * @return The number of additions.
+	 */
+	public long getInsertionCount() {
+		return this.insertionCount.get();
+	}
+
+	/**
+	 * Estimates the current false positive rate from the proportion of bits set.
+	 *
+	 * @return The estimated false positive rate.
+	 */
+	public double getEstimatedFalsePositiveRate() {
+		long setBits = 0;
+		for ( int i = 0; i < this.bits.length(); i++ ) setBits += Long.bitCount( this.bits.get( i ) );
+		return Math.pow( (double) setBits / this.bitCount, this.hashCount );
+	}
+
+}
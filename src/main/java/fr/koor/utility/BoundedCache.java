@@ -0,0 +1,396 @@
+package fr.koor.utility;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ *     This class is a thread-safe cache whose size is bounded. Entries are evicted in LRU order, but a new entry is
+ *     admitted into a full cache only if its key is requested more often than the key of the LRU entry
+ *     (TinyLFU admission): a scan of keys requested once cannot flush the frequently requested entries. Access
+ *     frequencies are estimated by a count-min sketch of counters capped at 15, which are halved periodically so that
+ *     the estimates follow the recent history.
+ * </p>
+ * <p>
+ *     Each entry expires after the time to live. When an entry older than the refresh delay is read, its current
+ *     value is returned and a reload is submitted to the refresh executor (refresh-ahead): frequently read entries are
+ *     reloaded before they expire. A value that is loaded while its key is invalidated is not stored; the loads of the
+ *     other keys are not affected.
+ * </p>
+ * <p>
+ *     Values are loaded outside of the lock of the cache. Concurrent misses on the same key are coalesced (see
+ *     <code>SingleFlight</code>): one of them loads the value and the others wait for it, so an expired popular entry
+ *     is loaded once instead of once per caller.
+ * </p>
+ *
+ * @see fr.koor.utility.SingleFlight
+ *
+ * @param <K>	The key type.
+ * @param <V>	The value type.
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public class BoundedCache<K, V> {
+
+	/**
+	 * This interface loads the value associated to a key, on a cache miss or a refresh.
+	 *
+	 * @param <K>	The key type.
+	 * @param <V>	The value type.
+	 * @param <E>	The exception type thrown by the loader.
+	 */
+	@FunctionalInterface
+	public interface Loader<K, V, E extends Exception> {
+		V load( K key ) throws E;
+	}
+
+	private static final class Entry<V> {
+		final V value;
+		final long loadTime;
+		boolean refreshing;
+
+		Entry( V value, long loadTime ) {
+			this.value = value;
+			this.loadTime = loadTime;
+		}
+	}
+
+	/**
+	 * The version of a key that is being loaded. It exists while loads or refreshes of the key are in flight: each
+	 * invalidation of the key increments it, so that the values loaded before are not stored.
+	 */
+	private static final class Version {
+		long value;
+		int loads;
+	}
+
+	private static final class LoadKey<K> {
+		final K key;
+		final long version;
+
+		LoadKey( K key, long version ) {
+			this.key = key;
+			this.version = version;
+		}
+
+		@Override public int hashCode() {
+			return this.key.hashCode() * 31 + Long.hashCode( this.version );
+		}
+
+		@Override public boolean equals( Object object ) {
+			if ( object instanceof LoadKey == false ) return false;
+			LoadKey<?> other = (LoadKey<?>) object;
+			return this.version == other.version && this.key.equals( other.key );
+		}
+	}
+
+	private final int maximumSize;
+	private final long timeToLive;
+	private final long refreshAfter;
+	private final Executor refreshExecutor;
+	private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>( 16, 0.75f, true );
+	private final FrequencySketch sketch;
+	/** Coalesces the concurrent loads of a key, per version of the key: a miss after its invalidation doesn't share an older load. */
+	private final SingleFlight<LoadKey<K>, V> loads = new SingleFlight<>();
+	/** The versions of the keys being loaded: the map only holds the keys whose loads are in flight. */
+	private final HashMap<K, Version> versions = new HashMap<>();
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicLong rejectionCount = new AtomicLong();
+
+	/**
+	 * Creates a cache without refresh-ahead.
+	 *
+	 * @param maximumSize		The maximum number of entries.
+	 * @param timeToLive		The time to live of an entry, in milliseconds.
+	 */
+	public BoundedCache( int maximumSize, long timeToLive ) {
+		this( maximumSize, timeToLive, timeToLive, null );
+	}
+
+	/**
+	 * Creates a cache.
+	 *
+	 * @param maximumSize		The maximum number of entries.
+	 * @param timeToLive		The time to live of an entry, in milliseconds.
+	 * @param refreshAfter		The age, in milliseconds, from which a read entry is reloaded in the background.
+	 * @param refreshExecutor	The executor that runs the reloads, or null to disable refresh-ahead.
+	 */
+	public BoundedCache( int maximumSize, long timeToLive, long refreshAfter, Executor refreshExecutor ) {
+		if ( maximumSize <= 0 ) throw new IllegalArgumentException( "Maximum size must be positive" );
+		this.maximumSize = maximumSize;
+		this.timeToLive = timeToLive * 1_000_000L;
+		this.refreshAfter = Math.min( refreshAfter, timeToLive ) * 1_000_000L;
+		this.refreshExecutor = refreshExecutor;
+		this.sketch = new FrequencySketch( maximumSize );
+	}
+
+	/**
+	 * Returns the value associated to the specified key. On a miss, the value is produced by the loader and stored
+	 * into the cache if it is admitted. Null values are not cached.
+	 *
+	 * @param key		The key.
+	 * @param loader	The loader used on a miss and to refresh the entry.
+	 * @return The value associated to the key.
+	 *
+	 * @throws E	Thrown by the loader.
+	 */
+	public <E extends Exception> V get( K key, Loader<? super K, ? extends V, E> loader ) throws E {
+		if ( key == null ) throw new NullPointerException();
+		long now = System.nanoTime();
+		Entry<V> entry;
+		long version;
+		boolean refresh = false;
+		synchronized ( this ) {
+			this.sketch.increment( key.hashCode() );
+			entry = this.entries.get( key );
+			if ( entry != null && now - entry.loadTime >= this.timeToLive ) {
+				this.entries.remove( key );
+				entry = null;
+			}
+			if ( entry != null && this.refreshExecutor != null && entry.refreshing == false && now - entry.loadTime >= this.refreshAfter ) {
+				entry.refreshing = true;
+				refresh = true;
+			}
+			version = entry == null || refresh ? this.acquireVersion( key ) : 0;
+		}
+
+		if ( entry != null ) {
+			this.hitCount.incrementAndGet();
+			if ( refresh ) this.refresh( key, loader, version );
+			return entry.value;
+		}
+		this.missCount.incrementAndGet();
+		try {
+			return this.loads.execute( new LoadKey<>( key, version ), loadKey -> {
+				V value = loader.load( key );
+				if ( value != null ) this.store( key, value, version );
+				return value;
+			} );
+		} finally {
+			this.releaseVersion( key );
+		}
+	}
+
+	/**
+	 * Registers a load of the specified key. Must be called with the lock of the cache held.
+	 *
+	 * @return The current version of the key.
+	 */
+	private long acquireVersion( K key ) {
+		Version version = this.versions.get( key );
+		if ( version == null ) {
+			version = new Version();
+			this.versions.put( key, version );
+		}
+		version.loads++;
+		return version.value;
+	}
+
+	private synchronized void releaseVersion( K key ) {
+		Version version = this.versions.get( key );
+		if ( --version.loads == 0 ) this.versions.remove( key );
+	}
+
+	/**
+	 * Returns the value associated to the specified key, without loading it.
+	 *
+	 * @param key	The key.
+	 * @return The value, or null if the key is not cached.
+	 */
+	public synchronized V getIfPresent( K key ) {
+		Entry<V> entry = this.entries.get( key );
+		return entry == null || System.nanoTime() - entry.loadTime >= this.timeToLive ? null : entry.value;
+	}
+
+	/**
+	 * Stores the specified value into the cache, subject to the admission policy.
+	 *
+	 * @param key	The key.
+	 * @param value	The value.
+	 */
+	public synchronized void put( K key, V value ) {
+		if ( key == null || value == null ) throw new NullPointerException();
+		this.admit( key, value );
+	}
+
+	private void refresh( K key, Loader<? super K, ? extends V, ?> loader, long version ) {
+		try {
+			this.refreshExecutor.execute( () -> {
+				try {
+					V value = loader.load( key );
+					if ( value != null ) this.store( key, value, version );
+					else this.invalidate( key );
+				} catch ( Exception exception ) {
+					this.invalidate( key );
+				} finally {
+					this.releaseVersion( key );
+				}
+			} );
+		} catch ( RuntimeException exception ) {
+			// The executor rejects the task: the entry will expire
+			this.releaseVersion( key );
+		}
+	}
+
+	/**
+	 * Stores a loaded value, unless its key has been invalidated since the load started.
+	 */
+	private synchronized void store( K key, V value, long loadVersion ) {
+		Version version = this.versions.get( key );
+		if ( version != null && version.value != loadVersion ) return;
+		this.admit( key, value );
+	}
+
+	/**
+	 * Stores a value, subject to the admission policy. Must be called with the lock of the cache held.
+	 */
+	private void admit( K key, V value ) {
+		Entry<V> entry = new Entry<>( value, System.nanoTime() );
+		if ( this.entries.containsKey( key ) || this.entries.size() < this.maximumSize ) {
+			this.entries.put( key, entry );
+			return;
+		}
+
+		Iterator<Map.Entry<K, Entry<V>>> iterator = this.entries.entrySet().iterator();
+		K victim = iterator.next().getKey();
+		if ( this.sketch.frequency( key.hashCode() ) > this.sketch.frequency( victim.hashCode() ) ) {
+			iterator.remove();
+			this.evictionCount.incrementAndGet();
+			this.entries.put( key, entry );
+		} else {
+			this.rejectionCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Removes the entry of the specified key.
+	 *
+	 * @param key	The key.
+	 */
+	public synchronized void invalidate( K key ) {
+		Version version = this.versions.get( key );
+		if ( version != null ) version.value++;
+		this.entries.remove( key );
+	}
+
+	/**
+	 * Removes all the entries.
+	 */
+	public synchronized void invalidateAll() {
+		for ( Version version : this.versions.values() ) version.value++;
+		this.entries.clear();
+	}
+
+	/**
+	 * Returns the number of entries, including the expired entries not yet removed.
+	 *
+	 * @return The number of entries.
+	 */
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Returns the number of requests that have found their value in the cache.
+	 *
+	 * @return The hit count.
+	 */
+	public long getHitCount() {
+		return this.hitCount.get();
+	}
+
+	/**
+	 * Returns the number of requests that have loaded their value.
+	 *
+	 * @return The miss count.
+	 */
+	public long getMissCount() {
+		return this.missCount.get();
+	}
+
+	/**
+	 * Returns the number of misses that have shared the load of a concurrent miss on the same key.
+	 *
+	 * @return The coalesced miss count.
+	 */
+	public long getCoalescedCount() {
+		return this.loads.getCoalescedCount();
+	}
+
+	/**
+	 * Returns the number of entries removed to admit other entries.
+	 *
+	 * @return The eviction count.
+	 */
+	public long getEvictionCount() {
+		return this.evictionCount.get();
+	}
+
+	/**
+	 * Returns the number of loaded values that were not admitted into the full cache.
+	 *
+	 * @return The rejection count.
+	 */
+	public long getRejectionCount() {
+		return this.rejectionCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return "BoundedCache [size=" + this.size() + ", hits=" + this.getHitCount() + ", misses=" + this.getMissCount()
+				+ ", coalesced=" + this.getCoalescedCount()
+				+ ", evictions=" + this.getEvictionCount() + ", rejections=" + this.getRejectionCount() + "]";
+	}
+
+
+	/**
+	 * A count-min sketch of 4 rows. Each counter is a byte capped at 15. The counters are halved when the number of
+	 * increments reaches ten times the maximum size of the cache. Accesses are guarded by the lock of the cache.
+	 */
+	private static final class FrequencySketch {
+
+		private static final int [] SEEDS = { 0x97CB3127, 0xB7D6B4E5, 0x8D4A6F3B, 0xE3C1F1A7 };
+
+		private final byte [] counters;
+		private final int mask;
+		private final int sampleSize;
+		private int additions;
+
+		FrequencySketch( int maximumSize ) {
+			int width = Integer.highestOneBit( Math.max( 2 * maximumSize, 64 ) - 1 ) << 1;
+			this.counters = new byte[ 4 * width ];
+			this.mask = width - 1;
+			this.sampleSize = 10 * maximumSize;
+		}
+
+		private int index( int hash, int row ) {
+			int spread = hash * SEEDS[ row ];
+			return row * ( this.mask + 1 ) + ( ( spread ^ ( spread >>> 16 ) ) & this.mask );
+		}
+
+		void increment( int hash ) {
+			for ( int row = 0; row < 4; row++ ) {
+				int index = this.index( hash, row );
+				if ( this.counters[ index ] < 15 ) this.counters[ index ]++;
+			}
+			if ( ++this.additions >= this.sampleSize ) {
+				for ( int i = 0; i < this.counters.length; i++ ) this.counters[i] >>= 1;
+				this.additions /= 2;
+			}
+		}
+
+		int frequency( int hash ) {
+			int frequency = 15;
+			for ( int row = 0; row < 4; row++ ) frequency = Math.min( frequency, this.counters[ this.index( hash, row ) ] );
+			return frequency;
+		}
+	}
+}
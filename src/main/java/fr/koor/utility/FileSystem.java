@@ -6,6 +6,11 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 
 
 /**
@@ -123,6 +128,77 @@ public class FileSystem {
 	}
 	
 	
+	/**
+	 * <p>
+	 *     Replaces the destination file by the source file with an atomic rename: readers always see either the previous
+	 *     or the new content of the destination, never a partially written file. The source file must be located on the
+	 *     same file system as the destination file (typically, in the same directory).
+	 * </p>
+	 * <p>
+	 *     If the file system doesn't support atomic moves, a regular replacement is done.
+	 * </p>
+	 * 
+	 * @param sourceName		The name of the file that contains the new content.
+	 * @param destinationName	The name of the file to replace.
+	 * 
+	 * @throws IOException	Thrown if the destination file cannot be replaced.
+	 * 
+	 * @since 0.6.0
+	 */
+	public static void replaceAtomically( String sourceName, String destinationName ) throws IOException {
+		if ( sourceName == null ) throw new NullPointerException();
+		if ( destinationName == null ) throw new NullPointerException();
+		
+		Path source = Paths.get( sourceName );
+		Path destination = Paths.get( destinationName );
+		try {
+			Files.move( source, destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+		} catch ( AtomicMoveNotSupportedException exception ) {
+			Files.move( source, destination, StandardCopyOption.REPLACE_EXISTING );
+		}
+	}
+	
+	/**
+	 * <p>
+	 *     Keeps the current version of the specified file as a backup generation. Generations are stored beside the file
+	 *     with a numeric suffix: <code>pathName.1</code> is the most recent backup, <code>pathName.2</code> the previous one,
+	 *     and so on. The oldest generation is removed when the specified number of generations is reached.
+	 * </p>
+	 * <p>
+	 *     The current file is left untouched (a hard link is used when the file system supports it, a copy otherwise): call
+	 *     this method just before replacing the file.
+	 * </p>
+	 * 
+	 * @param pathName		The path of the file to backup.
+	 * @param generations	The number of generations to keep. If zero, this method does nothing.
+	 * 
+	 * @throws IOException	Thrown if a generation cannot be rotated.
+	 * 
+	 * @since 0.6.0
+	 */
+	public static void rotateGenerations( String pathName, int generations ) throws IOException {
+		if ( pathName == null ) throw new NullPointerException();
+		if ( generations < 0 ) throw new IllegalArgumentException( "Generation number cannot be negative" );
+		if ( generations == 0 || FileSystem.isExisting( pathName ) == false ) return;
+		
+		Files.deleteIfExists( Paths.get( pathName + "." + generations ) );
+		for ( int generation = generations - 1; generation >= 1; generation-- ) {
+			Path olderGeneration = Paths.get( pathName + "." + generation );
+			if ( Files.exists( olderGeneration ) ) {
+				Files.move( olderGeneration, Paths.get( pathName + "." + ( generation + 1 ) ), StandardCopyOption.REPLACE_EXISTING );
+			}
+		}
+		
+		Path current = Paths.get( pathName );
+		Path firstGeneration = Paths.get( pathName + ".1" );
+		try {
+			Files.createLink( firstGeneration, current );
+		} catch ( IOException | UnsupportedOperationException exception ) {
+			Files.copy( current, firstGeneration, StandardCopyOption.REPLACE_EXISTING );
+		}
+	}
+	
+	
 	/**
 	 * Copies the source file on the destination file. If the destination file already exists, an exception is thrown
 	 * and the file is not copied.
@@ -0,0 +1,205 @@
+package fr.koor.utility;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>
+ *     This class is a thread-safe hash map whose keys are primitive <code>int</code> values: keys are never boxed into
+ *     <code>Integer</code> instances. Entries are stored in an open addressing table (linear probing).
+ * </p>
+ * <p>
+ *     Lookups never take a lock: they read the current table, whose slots are updated with volatile semantics.
+ *     Modifications are serialized on the map instance. When the table is grown, a new table is filled then published:
+ *     concurrent lookups go on with the previous table, which remains valid.
+ * </p>
+ *
+ * @param <V>	The value type.
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public class IntHashMap<V> {
+
+	private static final class Entry<V> {
+		final int key;
+		final V value;
+
+		Entry( int key, V value ) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	/** Marks a removed entry: the probing must go on after it. */
+	@SuppressWarnings( "rawtypes" )
+	private static final Entry TOMBSTONE = new Entry<>( 0, null );
+
+	private volatile AtomicReferenceArray<Entry<V>> table;
+	private volatile int size;
+	private int usedSlots;
+
+	/**
+	 * Creates an empty map.
+	 */
+	public IntHashMap() {
+		this( 16 );
+	}
+
+	/**
+	 * Creates an empty map sized for the specified number of entries.
+	 *
+	 * @param expectedSize	The expected number of entries.
+	 */
+	public IntHashMap( int expectedSize ) {
+		if ( expectedSize < 0 ) throw new IllegalArgumentException( "Expected size cannot be negative" );
+		this.table = new AtomicReferenceArray<>( tableSizeFor( expectedSize ) );
+	}
+
+	private static int tableSizeFor( int expectedSize ) {
+		int capacity = 16;
+		while ( capacity < expectedSize * 2 && capacity < ( 1 << 30 ) ) capacity <<= 1;
+		return capacity;
+	}
+
+	private static int hash( int key ) {
+		int hash = key * 0x9E3779B9;
+		return hash ^ ( hash >>> 16 );
+	}
+
+	/**
+	 * Returns the value associated to the specified key.
+	 *
+	 * @param key	The key.
+	 * @return The associated value, or null if the key is not present.
+	 */
+	public V get( int key ) {
+		AtomicReferenceArray<Entry<V>> currentTable = this.table;
+		int mask = currentTable.length() - 1;
+		for ( int index = hash( key ) & mask; ; index = ( index + 1 ) & mask ) {
+			Entry<V> entry = currentTable.get( index );
+			if ( entry == null ) return null;
+			if ( entry != TOMBSTONE && entry.key == key ) return entry.value;
+		}
+	}
+
+	/**
+	 * Indicates if the specified key is present.
+	 *
+	 * @param key	The key.
+	 * @return true if the key is present, false otherwise.
+	 */
+	public boolean containsKey( int key ) {
+		return this.get( key ) != null;
+	}
+
+	/**
+	 * Associates the specified value to the specified key.
+	 *
+	 * @param key	The key.
+	 * @param value	The value (cannot be null).
+	 * @return The previous value associated to the key, or null.
+	 */
+	public synchronized V put( int key, V value ) {
+		if ( value == null ) throw new NullPointerException( "Value cannot be null" );
+		AtomicReferenceArray<Entry<V>> currentTable = this.table;
+		int mask = currentTable.length() - 1;
+		int freeSlot = -1;
+		for ( int index = hash( key ) & mask; ; index = ( index + 1 ) & mask ) {
+			Entry<V> entry = currentTable.get( index );
+			if ( entry == null ) {
+				if ( freeSlot < 0 ) {
+					freeSlot = index;
+					this.usedSlots++;
+				}
+				break;
+			}
+			if ( entry == TOMBSTONE ) {
+				if ( freeSlot < 0 ) freeSlot = index;
+			} else if ( entry.key == key ) {
+				currentTable.set( index, new Entry<>( key, value ) );
+				return entry.value;
+			}
+		}
+		currentTable.set( freeSlot, new Entry<>( key, value ) );
+		this.size++;
+		if ( this.usedSlots * 4 >= currentTable.length() * 3 ) this.rehash();
+		return null;
+	}
+
+	/**
+	 * Removes the specified key.
+	 *
+	 * @param key	The key to remove.
+	 * @return The value that was associated to the key, or null.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public synchronized V remove( int key ) {
+		AtomicReferenceArray<Entry<V>> currentTable = this.table;
+		int mask = currentTable.length() - 1;
+		for ( int index = hash( key ) & mask; ; index = ( index + 1 ) & mask ) {
+			Entry<V> entry = currentTable.get( index );
+			if ( entry == null ) return null;
+			if ( entry != TOMBSTONE && entry.key == key ) {
+				currentTable.set( index, TOMBSTONE );
+				this.size--;
+				return entry.value;
+			}
+		}
+	}
+
+	/**
+	 * Grows the table (or only purges the tombstones) and publishes the new table.
+	 */
+	private void rehash() {
+		AtomicReferenceArray<Entry<V>> oldTable = this.table;
+		int capacity = tableSizeFor( this.size );
+		if ( capacity < oldTable.length() ) capacity = oldTable.length();
+		AtomicReferenceArray<Entry<V>> newTable = new AtomicReferenceArray<>( capacity );
+		int mask = capacity - 1;
+		for ( int i = 0; i < oldTable.length(); i++ ) {
+			Entry<V> entry = oldTable.get( i );
+			if ( entry == null || entry == TOMBSTONE ) continue;
+			int index = hash( entry.key ) & mask;
+			while ( newTable.get( index ) != null ) index = ( index + 1 ) & mask;
+			newTable.set( index, entry );
+		}
+		this.usedSlots = this.size;
+		this.table = newTable;
+	}
+
+	/**
+	 * Returns the number of entries.
+	 *
+	 * @return The number of entries.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public synchronized void clear() {
+		this.table = new AtomicReferenceArray<>( 16 );
+		this.size = 0;
+		this.usedSlots = 0;
+	}
+
+	/**
+	 * Returns a copy of the values of this map, in no particular order. Entries modified during the call may or may not be
+	 * returned.
+	 *
+	 * @return The values.
+	 */
+	public List<V> values() {
+		AtomicReferenceArray<Entry<V>> currentTable = this.table;
+		List<V> values = new ArrayList<>( this.size );
+		for ( int i = 0; i < currentTable.length(); i++ ) {
+			Entry<V> entry = currentTable.get( i );
+			if ( entry != null && entry != TOMBSTONE ) values.add( entry.value );
+		}
+		return values;
+	}
+}
@@ -0,0 +1,136 @@
+package fr.koor.utility;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ *     This class coalesces concurrent loads of the same key: the first caller of a key runs the load, the callers
+ *     that request the same key while it is running wait for it and share its result, or its failure (the same
+ *     exception instance is thrown to all of them). Once the load is finished, the next call of the key runs a new
+ *     load: nothing is cached.
+ * </p>
+ * <p>
+ *     A load that requests its own key again, from the same thread, runs without coalescing instead of waiting for
+ *     itself. The loads of a key should all throw the same exception type. Waiting callers are not interruptible: their
+ *     interrupt status is restored when the load finishes.
+ * </p>
+ *
+ * @param <K>	The key type.
+ * @param <V>	The value type.
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public class SingleFlight<K, V> {
+
+	/**
+	 * This interface loads the value associated to a key.
+	 *
+	 * @param <K>	The key type.
+	 * @param <V>	The value type.
+	 * @param <E>	The exception type thrown by the loader.
+	 */
+	@FunctionalInterface
+	public interface Loader<K, V, E extends Exception> {
+		V load( K key ) throws E;
+	}
+
+	private static final class Call<V> {
+		final Thread leader = Thread.currentThread();
+		final CountDownLatch done = new CountDownLatch( 1 );
+		V value;
+		Throwable failure;
+	}
+
+	private final ConcurrentHashMap<K, Call<V>> calls = new ConcurrentHashMap<>();
+
+	private final AtomicLong loadCount = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
+
+	/**
+	 * Returns the value loaded for the specified key, by this call or by a concurrent call of the same key.
+	 *
+	 * @param key		The key.
+	 * @param loader	The loader, run if no load of the key is in flight.
+	 * @return The loaded value.
+	 *
+	 * @throws E	Thrown by the loader of this call or of the concurrent call.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public <E extends Exception> V execute( K key, Loader<? super K, ? extends V, E> loader ) throws E {
+		if ( key == null || loader == null ) throw new NullPointerException();
+		Call<V> call = new Call<>();
+		Call<V> flight = this.calls.putIfAbsent( key, call );
+		if ( flight != null && flight.leader == call.leader ) {
+			// Reentrant load of the key: waiting would be a deadlock
+			this.loadCount.incrementAndGet();
+			return loader.load( key );
+		}
+
+		if ( flight != null ) {
+			this.coalescedCount.incrementAndGet();
+			boolean interrupted = false;
+			while ( true ) {
+				try {
+					flight.done.await();
+					break;
+				} catch ( InterruptedException exception ) {
+					interrupted = true;
+				}
+			}
+			if ( interrupted ) Thread.currentThread().interrupt();
+			if ( flight.failure == null ) return flight.value;
+			if ( flight.failure instanceof RuntimeException ) throw (RuntimeException) flight.failure;
+			if ( flight.failure instanceof Error ) throw (Error) flight.failure;
+			throw (E) flight.failure;
+		}
+
+		this.loadCount.incrementAndGet();
+		try {
+			call.value = loader.load( key );
+			return call.value;
+		} catch ( Throwable throwable ) {
+			call.failure = throwable;
+			throw throwable;
+		} finally {
+			this.calls.remove( key, call );
+			call.done.countDown();
+		}
+	}
+
+	/**
+	 * Returns the number of keys being loaded.
+	 *
+	 * @return The number of loads in flight.
+	 */
+	public int getInFlightCount() {
+		return this.calls.size();
+	}
+
+	/**
+	 * Returns the number of loads run.
+	 *
+	 * @return The load count.
+	 */
+	public long getLoadCount() {
+		return this.loadCount.get();
+	}
+
+	/**
+	 * Returns the number of calls that have shared the load of a concurrent call instead of running their own.
+	 *
+	 * @return The coalesced call count.
+	 */
+	public long getCoalescedCount() {
+		return this.coalescedCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return "SingleFlight [inFlight=" + this.getInFlightCount() + ", loads=" + this.getLoadCount()
+				+ ", coalesced=" + this.getCoalescedCount() + "]";
+	}
+
+}
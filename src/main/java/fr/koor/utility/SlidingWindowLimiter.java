@@ -0,0 +1,248 @@
+package fr.koor.utility;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ *     This class is a thread-safe rate limiter of failures (failed logins, for instance), keyed by string. The
+ *     failures of a key are counted over a sliding window, estimated from two fixed windows: the count of the previous
+ *     window is weighted by the part of it that is still covered by the sliding window. A key is blocked when its
+ *     count reaches the limit: the block delay starts at the base backoff and is doubled each time the key reaches the
+ *     limit again, up to the maximum backoff. The backoff is reset once a whole window passes without failure.
+ * </p>
+ * <p>
+ *     An attempt whose outcome is not known yet is reserved with <code>tryAcquire</code>, then released with
+ *     <code>release</code>: the reserved attempts count against the limit, so that concurrent attempts cannot exceed
+ *     it while the first ones are being checked.
+ * </p>
+ * <p>
+ *     Keys are spread over lock stripes; each stripe holds its keys in LRU order and evicts the least recently used
+ *     key when it is full, so the memory is bounded whatever the number of keys. The keys that are neither blocked nor
+ *     reserved are evicted first; a key evicted while it is blocked is unblocked: size the limiter for the expected
+ *     number of active keys.
+ * </p>
+ *
+ * @author Infini Software - Dominique Liard
+ * @since 0.6.0
+ */
+public class SlidingWindowLimiter {
+
+	private static final int STRIPE_COUNT = 16;
+
+	private static final class Counter {
+		long windowStart;
+		int previousCount;
+		int currentCount;
+		int strikes;
+		long blockedUntil;
+		int reservations;
+	}
+
+	private final int maximumFailures;
+	private final long windowDuration;
+	private final long baseBackoff;
+	private final long maximumBackoff;
+	private final int stripeSize;
+	private final Map<String, Counter> [] stripes;
+
+	/**
+	 * Creates a limiter.
+	 *
+	 * @param maximumFailures	The number of failures, over a window, that blocks a key.
+	 * @param windowDuration	The duration of the sliding window, in milliseconds.
+	 * @param baseBackoff		The delay a key is blocked the first time, in milliseconds.
+	 * @param maximumBackoff	The maximum delay a key is blocked, in milliseconds.
+	 * @param maximumKeys		The maximum number of keys kept in memory.
+	 */
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	public SlidingWindowLimiter( int maximumFailures, long windowDuration, long baseBackoff, long maximumBackoff, int maximumKeys ) {
+		if ( maximumFailures <= 0 ) throw new IllegalArgumentException( "Maximum failures must be positive" );
+		if ( windowDuration <= 0 ) throw new IllegalArgumentException( "Window duration must be positive" );
+		if ( baseBackoff <= 0 || maximumBackoff < baseBackoff ) throw new IllegalArgumentException( "Invalid backoff" );
+		if ( maximumKeys <= 0 ) throw new IllegalArgumentException( "Maximum keys must be positive" );
+		this.maximumFailures = maximumFailures;
+		this.windowDuration = windowDuration;
+		this.baseBackoff = baseBackoff;
+		this.maximumBackoff = maximumBackoff;
+		this.stripeSize = Math.max( 1, maximumKeys / STRIPE_COUNT );
+		this.stripes = new Map[ STRIPE_COUNT ];
+		for ( int i = 0; i < STRIPE_COUNT; i++ ) this.stripes[i] = new LinkedHashMap<>( 16, 0.75f, true );
+	}
+
+	private Map<String, Counter> stripeFor( String key ) {
+		int hash = key.hashCode();
+		return this.stripes[ ( hash ^ ( hash >>> 16 ) ) & ( STRIPE_COUNT - 1 ) ];
+	}
+
+	/**
+	 * Moves the windows of a counter up to the current time.
+	 */
+	private void roll( Counter counter, long now ) {
+		long elapsedWindows = ( now - counter.windowStart ) / this.windowDuration;
+		if ( elapsedWindows <= 0 ) return;
+		counter.previousCount = elapsedWindows == 1 ? counter.currentCount : 0;
+		counter.currentCount = 0;
+		counter.windowStart += elapsedWindows * this.windowDuration;
+		if ( counter.previousCount == 0 ) counter.strikes = 0;
+	}
+
+	private double estimate( Counter counter, long now ) {
+		double previousWeight = 1.0 - (double) ( now - counter.windowStart ) / this.windowDuration;
+		return counter.previousCount * previousWeight + counter.currentCount;
+	}
+
+	/**
+	 * Returns the delay before the specified key is allowed again. This method doesn't count a failure.
+	 *
+	 * @param key	The key.
+	 * @return The delay in milliseconds, or 0 if the key is allowed.
+	 */
+	public long getRetryDelay( String key ) {
+		if ( key == null ) throw new NullPointerException( "key cannot be null" );
+		Map<String, Counter> stripe = this.stripeFor( key );
+		synchronized ( stripe ) {
+			Counter counter = stripe.get( key );
+			if ( counter == null ) return 0;
+			return Math.max( 0, counter.blockedUntil - System.currentTimeMillis() );
+		}
+	}
+
+	/**
+	 * Reserves an attempt for the specified key, unless it is blocked or, once it has recorded failures, the reserved
+	 * attempts would reach the limit. Concurrent attempts of a key without failures are not limited.
+	 * A successful reservation must be released by <code>release</code> once the outcome of the attempt is known.
+	 *
+	 * @param key	The key.
+	 * @return 0 if the attempt is reserved, or the delay in milliseconds before the key should be tried again.
+	 */
+	public long tryAcquire( String key ) {
+		if ( key == null ) throw new NullPointerException( "key cannot be null" );
+		long now = System.currentTimeMillis();
+		Map<String, Counter> stripe = this.stripeFor( key );
+		synchronized ( stripe ) {
+			Counter counter = this.counterFor( stripe, key, now );
+			if ( counter.blockedUntil > now ) return counter.blockedUntil - now;
+			// Once the key has failed, the attempts in progress count against the limit
+			if ( counter.reservations > 0 ) {
+				double estimate = this.estimate( counter, now );
+				if ( estimate > 0 && estimate + counter.reservations >= this.maximumFailures ) return this.baseBackoff;
+			}
+			counter.reservations++;
+			return 0;
+		}
+	}
+
+	/**
+	 * Releases an attempt reserved by <code>tryAcquire</code>.
+	 *
+	 * @param key		The key.
+	 * @param failed	True to count the attempt as a failure.
+	 * @return The delay the key is blocked, in milliseconds, or 0 if it is allowed.
+	 */
+	public long release( String key, boolean failed ) {
+		if ( key == null ) throw new NullPointerException( "key cannot be null" );
+		long now = System.currentTimeMillis();
+		Map<String, Counter> stripe = this.stripeFor( key );
+		synchronized ( stripe ) {
+			Counter counter = failed ? this.counterFor( stripe, key, now ) : stripe.get( key );
+			if ( counter == null ) return 0;
+			// The counter may have been reset or evicted since the reservation
+			if ( counter.reservations > 0 ) counter.reservations--;
+			if ( failed ) this.countFailure( counter, now );
+			return Math.max( 0, counter.blockedUntil - now );
+		}
+	}
+
+	/**
+	 * Counts a failure for the specified key, and blocks it if the limit is reached.
+	 *
+	 * @param key	The key.
+	 * @return The delay the key is blocked, in milliseconds, or 0 if it is allowed.
+	 */
+	public long recordFailure( String key ) {
+		if ( key == null ) throw new NullPointerException( "key cannot be null" );
+		long now = System.currentTimeMillis();
+		Map<String, Counter> stripe = this.stripeFor( key );
+		synchronized ( stripe ) {
+			Counter counter = this.counterFor( stripe, key, now );
+			this.countFailure( counter, now );
+			return Math.max( 0, counter.blockedUntil - now );
+		}
+	}
+
+	/**
+	 * Returns the counter of a key, created if it's missing, with its windows moved up to the current time. Must be
+	 * called with the lock of the stripe held.
+	 */
+	private Counter counterFor( Map<String, Counter> stripe, String key, long now ) {
+		Counter counter = stripe.get( key );
+		if ( counter == null ) {
+			counter = new Counter();
+			counter.windowStart = now;
+			this.evictIfFull( stripe, now );
+			stripe.put( key, counter );
+		}
+		this.roll( counter, now );
+		return counter;
+	}
+
+	private void countFailure( Counter counter, long now ) {
+		counter.currentCount++;
+		if ( this.estimate( counter, now ) >= this.maximumFailures ) {
+			long backoff = Math.min( this.maximumBackoff, this.baseBackoff << Math.min( counter.strikes, 30 ) );
+			if ( backoff < 0 ) backoff = this.maximumBackoff;
+			counter.strikes++;
+			counter.blockedUntil = Math.max( counter.blockedUntil, now + backoff );
+		}
+	}
+
+	/**
+	 * Evicts the least recently used key that is neither blocked nor reserved, or the least recently used key if
+	 * there is none.
+	 */
+	private void evictIfFull( Map<String, Counter> stripe, long now ) {
+		if ( stripe.size() < this.stripeSize ) return;
+		Iterator<Counter> iterator = stripe.values().iterator();
+		while ( iterator.hasNext() ) {
+			Counter counter = iterator.next();
+			if ( counter.blockedUntil <= now && counter.reservations == 0 ) {
+				iterator.remove();
+				return;
+			}
+		}
+		iterator = stripe.values().iterator();
+		iterator.next();
+		iterator.remove();
+	}
+
+	/**
+	 * Forgets the failures of the specified key (after a successful login, for instance).
+	 *
+	 * @param key	The key.
+	 */
+	public void reset( String key ) {
+		if ( key == null ) throw new NullPointerException( "key cannot be null" );
+		Map<String, Counter> stripe = this.stripeFor( key );
+		synchronized ( stripe ) {
+			stripe.remove( key );
+		}
+	}
+
+	/**
+	 * Returns the number of keys kept in memory.
+	 *
+	 * @return The number of keys.
+	 */
+	public int size() {
+		int size = 0;
+		for ( Map<String, Counter> stripe : this.stripes ) {
+			synchronized ( stripe ) {
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+
+}
@@ -0,0 +1,68 @@
+package fr.koor.security.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Iterator;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.koor.security.Role;
+import fr.koor.security.providers.InMemorySecurityManager;
+
+public class UserImplTest {
+
+	private String testedUserLogin = "toto's";
+	private String testedUserPassword = "titi's";
+
+	protected fr.koor.security.SecurityManager securityManager = null;
+	
+	@Before public void setUp() throws Exception {
+		this.securityManager = new InMemorySecurityManager();
+	}
+
+	@After public void tearDown() throws Exception {
+		this.securityManager.close();
+	}
+
+	@Test
+	public void test_roleMembership() throws Exception {
+		UserImpl user = (UserImpl) this.securityManager.getUserManager().insertUser( this.testedUserLogin, this.testedUserPassword );
+		Role small = new RoleImpl( 3, "small" );
+		Role large = new RoleImpl( 100_000, "large" );
+		user.addRole( small );
+		user.getRoles().add( large );
+		user.addRole( new RoleImpl( 3, "duplicate" ) );
+		Assert.assertEquals( 2, user.getRoles().size() );
+		Assert.assertTrue( user.isMemberOfRole( new RoleImpl( 3, "other instance" ) ) );
+		Assert.assertTrue( user.isMemberOfRole( 100_000 ) );
+		Assert.assertFalse( user.isMemberOfRole( 4 ) );
+		Assert.assertTrue( user.getRoles().contains( large ) );
+		
+		// The view reflects the modifications
+		Iterator<Role> iterator = user.getRoles().iterator();
+		iterator.next();
+		iterator.remove();
+		Assert.assertFalse( user.isMemberOfRole( small ) );
+		user.removeRole( large );
+		Assert.assertTrue( user.getRoles().isEmpty() );
+		
+		// The serialized form still stores the roles in a set
+		user.addRole( small );
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try ( ObjectOutputStream stream = new ObjectOutputStream( buffer ) ) {
+			stream.writeObject( user );
+		}
+		try ( ObjectInputStream stream = new ObjectInputStream( new ByteArrayInputStream( buffer.toByteArray() ) ) ) {
+			UserImpl copy = (UserImpl) stream.readObject();
+			Assert.assertEquals( this.testedUserLogin, copy.getLogin() );
+			Assert.assertTrue( copy.isMemberOfRole( small ) );
+			Assert.assertEquals( 1, copy.getRoles().size() );
+		}
+	}
+
+}
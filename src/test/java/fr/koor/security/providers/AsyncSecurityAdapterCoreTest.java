@@ -0,0 +1,115 @@
+package fr.koor.security.providers;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.koor.security.AsyncUserManager;
+import fr.koor.security.BadCredentialsException;
+import fr.koor.security.Role;
+import fr.koor.security.User;
+
+public class AsyncSecurityAdapterCoreTest {
+
+	private fr.koor.security.SecurityManager securityManager = null;
+	private AsyncSecurityAdapter adapter = null;
+	
+	@Before public void setUp() throws Exception {
+		this.securityManager = new InMemorySecurityManager();
+		this.adapter = new AsyncSecurityAdapter( this.securityManager );
+	}
+
+	@After public void tearDown() throws Exception {
+		this.adapter.close();
+		this.securityManager.close();
+	}
+	
+	@Test
+	public void test_asyncCalls() throws Exception {
+		AsyncUserManager userManager = this.adapter.getUserManager();
+		User root = userManager.checkCredentials( "root", "admin" ).join();
+		Assert.assertEquals( 1, root.getIdentifier() );
+		
+		Role role = this.adapter.getRoleManager().insertRole( "Async" ).join();
+		User user = userManager.insertUser( "async", "asyncPassword" )
+				.thenCompose( newUser -> {
+					newUser.addRole( role );
+					return userManager.updateUser( newUser ).thenApply( nothing -> newUser );
+				} ).join();
+		Assert.assertEquals( 1, userManager.getUsersByRole( role ).join().size() );
+		Assert.assertEquals( user.getIdentifier(), userManager.getUserByLogin( "async" ).join().getIdentifier() );
+		
+		// The exceptions of the wrapped managers complete the futures
+		try {
+			userManager.checkCredentials( "root", "wrong" ).join();
+			Assert.fail();
+		} catch ( CompletionException exception ) {
+			Assert.assertTrue( exception.getCause() instanceof BadCredentialsException );
+		}
+	}
+
+	@Test
+	public void test_concurrencyLimit() throws Exception {
+		this.adapter.close();
+		CountDownLatch gate = new CountDownLatch( 1 );
+		Executor gatedExecutor = runnable -> new Thread( () -> {
+			try {
+				gate.await();
+			} catch ( InterruptedException exception ) {
+				return;
+			}
+			runnable.run();
+		} ).start();
+		this.adapter = new AsyncSecurityAdapter( this.securityManager, gatedExecutor, 1 );
+		AsyncUserManager userManager = this.adapter.getUserManager();
+		
+		CompletableFuture<User> first = userManager.getUserById( 1 );
+		CompletableFuture<User> cancelled = userManager.getUserById( 1 );
+		CompletableFuture<User> last = userManager.getUserByLogin( "root" );
+		Assert.assertEquals( 1, this.adapter.getRunningCount() );
+		Assert.assertEquals( 2, this.adapter.getQueuedCount() );
+		
+		// A queued call is skipped once cancelled
+		Assert.assertTrue( cancelled.cancel( false ) );
+		gate.countDown();
+		Assert.assertEquals( 1, first.join().getIdentifier() );
+		Assert.assertEquals( 1, last.join().getIdentifier() );
+		Assert.assertTrue( cancelled.isCancelled() );
+	}
+
+	@Test
+	public void test_timeout() throws Exception {
+		this.adapter.close();
+		CountDownLatch gate = new CountDownLatch( 1 );
+		Executor gatedExecutor = runnable -> new Thread( () -> {
+			try {
+				gate.await();
+			} catch ( InterruptedException exception ) {
+				return;
+			}
+			runnable.run();
+		} ).start();
+		this.adapter = new AsyncSecurityAdapter( this.securityManager, gatedExecutor, 2 );
+		this.adapter.setTimeout( 50 );
+		
+		CompletableFuture<User> future = this.adapter.getUserManager().getUserById( 1 );
+		try {
+			future.join();
+			Assert.fail();
+		} catch ( CompletionException exception ) {
+			Assert.assertTrue( exception.getCause() instanceof TimeoutException );
+		}
+		gate.countDown();
+		
+		this.adapter.setTimeout( 0 );
+		Assert.assertEquals( "root", this.adapter.getUserManager().getUserById( 1 ).join().getLogin() );
+	}
+
+}
@@ -0,0 +1,270 @@
+package fr.koor.security.providers;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.koor.security.Role;
+import fr.koor.security.RoleManager;
+import fr.koor.security.SecurityManagerException;
+import fr.koor.security.User;
+import fr.koor.security.UserManager;
+import fr.koor.security.impl.UserImpl;
+import fr.koor.utility.BoundedCache;
+import fr.koor.utility.SingleFlight;
+
+public class CachingSecurityManagerCoreTest {
+
+	private String testedUserLogin = "toto's";
+	private String testedUserPassword = "titi's";
+
+	protected CachingSecurityManager securityManager = null;
+	
+	@Before public void setUp() throws Exception {
+		this.securityManager = new CachingSecurityManager( new InMemorySecurityManager() );
+	}
+
+	@After public void tearDown() throws Exception {
+		this.securityManager.close();
+	}
+
+	@Test
+	public void test_cacheHits() throws Exception {
+		UserManager userManager = this.securityManager.getUserManager();
+		User user = userManager.getUserById( 1 );
+		Assert.assertEquals( "root", userManager.getUserByLogin( "root" ).getLogin() );
+		userManager.getUserById( 1 );
+		Assert.assertEquals( 1, this.securityManager.getUserCache().getMissCount() );
+		Assert.assertEquals( 2, this.securityManager.getUserCache().getHitCount() );
+		
+		// Returned users are copies
+		( (UserImpl) user ).setEmail( "changed" );
+		Assert.assertEquals( "", userManager.getUserById( 1 ).getEmail() );
+		
+		RoleManager roleManager = this.securityManager.getRoleManager();
+		roleManager.selectRoleById( 1 );
+		Assert.assertEquals( "admin", roleManager.selectRoleById( 1 ).getRoleName() );
+		Assert.assertEquals( 1, this.securityManager.getRoleCache().getHitCount() );
+	}
+	
+	@Test
+	public void test_unknownUsers() throws Exception {
+		// Like the JDBC provider, the wrapped provider returns null for unknown users and roles
+		CachingSecurityManager cachingManager = new CachingSecurityManager( new InMemorySecurityManager() {
+			@Override public UserManager getUserManager() {
+				return nullOnMiss( UserManager.class, super.getUserManager() );
+			}
+			@Override public RoleManager getRoleManager() {
+				return nullOnMiss( RoleManager.class, super.getRoleManager() );
+			}
+		} );
+		try {
+			UserManager userManager = cachingManager.getUserManager();
+			Assert.assertNull( userManager.getUserById( 1000 ) );
+			Assert.assertNull( userManager.getUserByLogin( "unknown" ) );
+			Assert.assertNull( cachingManager.getUserCache().getIfPresent( 1000 ) );
+			
+			// A user inserted after a miss is found
+			User user = userManager.insertUser( this.testedUserLogin, this.testedUserPassword );
+			Assert.assertEquals( this.testedUserLogin, userManager.getUserByLogin( this.testedUserLogin ).getLogin() );
+			userManager.deleteUser( user );
+			Assert.assertNull( userManager.getUserByLogin( this.testedUserLogin ) );
+			
+			RoleManager roleManager = cachingManager.getRoleManager();
+			Assert.assertNull( roleManager.selectRoleById( 1000 ) );
+			Assert.assertNull( roleManager.selectRoleByName( "unknown" ) );
+		} finally {
+			cachingManager.close();
+		}
+	}
+	
+	/**
+	 * Wraps a manager so that its lookups return null instead of throwing when nothing is found.
+	 */
+	private static <T> T nullOnMiss( Class<T> managerInterface, T manager ) {
+		return managerInterface.cast( Proxy.newProxyInstance( managerInterface.getClassLoader(), new Class<?>[] { managerInterface }, ( proxy, method, arguments ) -> {
+			try {
+				return method.invoke( manager, arguments );
+			} catch ( InvocationTargetException exception ) {
+				boolean lookup = method.getName().startsWith( "getUserBy" ) || method.getName().startsWith( "selectRoleBy" );
+				if ( lookup && exception.getCause() instanceof SecurityManagerException ) return null;
+				throw exception.getCause();
+			}
+		} ) );
+	}
+	
+	@Test
+	public void test_invalidationOnWrites() throws Exception {
+		UserManager userManager = this.securityManager.getUserManager();
+		RoleManager roleManager = this.securityManager.getRoleManager();
+		User user = userManager.insertUser( this.testedUserLogin, this.testedUserPassword );
+		Role client = roleManager.insertRole( "Client" );
+		
+		user = userManager.getUserByLogin( this.testedUserLogin );
+		( (UserImpl) user ).setEmail( "toto@koor.fr" );
+		user.addRole( client );
+		userManager.updateUser( user );
+		Assert.assertEquals( "toto@koor.fr", userManager.getUserByLogin( this.testedUserLogin ).getEmail() );
+		
+		Assert.assertEquals( 1, userManager.checkCredentials( this.testedUserLogin, this.testedUserPassword ).getConnectionNumber() );
+		Assert.assertEquals( 1, userManager.getUserById( user.getIdentifier() ).getConnectionNumber() );
+		
+		client.setRoleName( "Customer" );
+		roleManager.updateRole( client );
+		Assert.assertEquals( "Customer", roleManager.selectRoleById( client.getIdentifier() ).getRoleName() );
+		Assert.assertEquals( "Customer", userManager.getUserById( user.getIdentifier() ).getRoles().stream()
+				.filter( role -> role.getIdentifier() == client.getIdentifier() ).findFirst().get().getRoleName() );
+		
+		roleManager.deleteRole( client );
+		Assert.assertEquals( 0, userManager.getUserById( user.getIdentifier() ).getRoles().size() );
+		
+		userManager.deleteUser( user );
+		try {
+			userManager.getUserByLogin( this.testedUserLogin );
+			Assert.fail();
+		} catch ( fr.koor.security.SecurityManagerException exception ) {
+			// Ok
+		}
+	}
+	
+	@Test
+	public void test_boundedCache() throws Exception {
+		BoundedCache<Integer, String> cache = new BoundedCache<>( 10, 60_000 );
+		
+		// Frequently requested keys are kept when a scan goes through the cache
+		for ( int round = 0; round < 5; round++ ) {
+			for ( int key = 0; key < 10; key++ ) cache.get( key, String::valueOf );
+		}
+		for ( int key = 100; key < 200; key++ ) cache.get( key, String::valueOf );
+		Assert.assertEquals( 10, cache.size() );
+		for ( int key = 0; key < 10; key++ ) Assert.assertEquals( String.valueOf( key ), cache.getIfPresent( key ) );
+		Assert.assertEquals( 100, cache.getRejectionCount() );
+		
+		// A key requested often enough is admitted
+		for ( int i = 0; i < 10; i++ ) cache.get( 1000, String::valueOf );
+		Assert.assertEquals( "1000", cache.getIfPresent( 1000 ) );
+		Assert.assertEquals( 1, cache.getEvictionCount() );
+	}
+	
+	@Test
+	public void test_singleFlight() throws Exception {
+		SingleFlight<String, String> singleFlight = new SingleFlight<>();
+		AtomicInteger loads = new AtomicInteger();
+		CountDownLatch started = new CountDownLatch( 1 );
+		CountDownLatch release = new CountDownLatch( 1 );
+		SingleFlight.Loader<String, String, SecurityManagerException> slowLoader = key -> {
+			loads.incrementAndGet();
+			started.countDown();
+			try {
+				release.await();
+			} catch ( InterruptedException exception ) {
+				throw new SecurityManagerException( "Interrupted", exception );
+			}
+			if ( key.equals( "missing" ) ) throw new SecurityManagerException( "User login " + key + " not found" );
+			return key.toUpperCase();
+		};
+		
+		// Concurrent calls of the same key share one load
+		ExecutorService executor = Executors.newFixedThreadPool( 8 );
+		try {
+			List<Future<String>> results = new ArrayList<>();
+			results.add( executor.submit( () -> singleFlight.execute( "root", slowLoader ) ) );
+			started.await();
+			for ( int i = 1; i < 8; i++ ) results.add( executor.submit( () -> singleFlight.execute( "root", slowLoader ) ) );
+			while ( singleFlight.getCoalescedCount() < 7 ) Thread.sleep( 1 );
+			release.countDown();
+			for ( Future<String> result : results ) Assert.assertEquals( "ROOT", result.get() );
+			Assert.assertEquals( 1, loads.get() );
+			Assert.assertEquals( 0, singleFlight.getInFlightCount() );
+			
+			// The next call runs a new load, and a failure is shared too
+			Assert.assertEquals( "ROOT", singleFlight.execute( "root", slowLoader ) );
+			Assert.assertEquals( 2, singleFlight.getLoadCount() );
+			try {
+				singleFlight.execute( "missing", slowLoader );
+				Assert.fail();
+			} catch ( SecurityManagerException exception ) {
+				// Ok
+			}
+		} finally {
+			executor.shutdown();
+		}
+		
+		// A reentrant load doesn't wait for itself
+		Assert.assertEquals( "ROOT", singleFlight.execute( "root", key -> singleFlight.execute( key, String::toUpperCase ) ) );
+	}
+	
+	@Test
+	public void test_invalidationDuringLoad() throws Exception {
+		BoundedCache<Integer, String> cache = new BoundedCache<>( 10, 60_000 );
+		CountDownLatch started = new CountDownLatch( 1 );
+		CountDownLatch release = new CountDownLatch( 1 );
+		BoundedCache.Loader<Integer, String, InterruptedException> slowLoader = key -> {
+			started.countDown();
+			release.await();
+			return String.valueOf( key );
+		};
+		
+		ExecutorService executor = Executors.newFixedThreadPool( 2 );
+		try {
+			// The invalidation of another key neither drops the slow load nor prevents a miss from sharing it
+			Future<String> slowLoad = executor.submit( () -> cache.get( 1, slowLoader ) );
+			started.await();
+			cache.invalidate( 2 );
+			Future<String> coalescedLoad = executor.submit( () -> cache.get( 1, slowLoader ) );
+			while ( cache.getCoalescedCount() < 1 ) Thread.sleep( 1 );
+			release.countDown();
+			Assert.assertEquals( "1", slowLoad.get() );
+			Assert.assertEquals( "1", coalescedLoad.get() );
+			Assert.assertEquals( "1", cache.getIfPresent( 1 ) );
+		} finally {
+			executor.shutdown();
+		}
+		
+		// The invalidation of the key itself drops the value loaded before it
+		CountDownLatch restarted = new CountDownLatch( 1 );
+		CountDownLatch rerelease = new CountDownLatch( 1 );
+		cache.invalidate( 1 );
+		Thread loader = new Thread( () -> {
+			try {
+				cache.get( 1, key -> {
+					restarted.countDown();
+					rerelease.await();
+					return "stale";
+				} );
+			} catch ( InterruptedException exception ) {
+				// Not expected
+			}
+		} );
+		loader.start();
+		restarted.await();
+		cache.invalidate( 1 );
+		rerelease.countDown();
+		loader.join();
+		Assert.assertNull( cache.getIfPresent( 1 ) );
+	}
+	
+	@Test
+	public void test_expiration() throws Exception {
+		BoundedCache<Integer, String> cache = new BoundedCache<>( 10, 50 );
+		cache.get( 1, String::valueOf );
+		cache.get( 1, String::valueOf );
+		Assert.assertEquals( 1, cache.getHitCount() );
+		Thread.sleep( 100 );
+		Assert.assertNull( cache.getIfPresent( 1 ) );
+		cache.get( 1, String::valueOf );
+		Assert.assertEquals( 2, cache.getMissCount() );
+	}
+
+}
@@ -0,0 +1,351 @@
+package fr.koor.security.providers;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.koor.security.AuthorizationManager;
+import fr.koor.security.BadCredentialsException;
+import fr.koor.security.Permission;
+import fr.koor.security.PermissionManager;
+import fr.koor.security.Role;
+import fr.koor.security.RoleManager;
+import fr.koor.security.SecurityManagerException;
+import fr.koor.security.SessionManager;
+import fr.koor.security.UnauthorizedException;
+import fr.koor.security.User;
+import fr.koor.security.UserAlreadyRegisteredException;
+import fr.koor.security.UserManager;
+import fr.koor.security.impl.UserImpl;
+import fr.koor.utility.FileSystem;
+
+public class InMemorySecurityManagerCoreTest {
+
+	private static final String FILENAME = "src/test/java/fr/koor/security/providers/InMemorySnapshot.xml";
+	
+	private String testedUserLogin = "toto's";
+	private String testedUserPassword = "titi's";
+
+	protected fr.koor.security.SecurityManager securityManager = null;
+	
+	@Before public void setUp() throws Exception {
+		this.securityManager = new InMemorySecurityManager();
+	}
+
+	@After public void tearDown() throws Exception {
+		this.securityManager.close();
+		FileSystem.delete( FILENAME );
+		Assert.assertFalse( FileSystem.isExisting( FILENAME ) );
+	}
+
+	@Test
+	public void test_openSession() throws Exception {
+		Assert.assertEquals( "admin", this.securityManager.getRoleManager().selectRoleById( 1 ).getRoleName() );
+		User root = this.securityManager.getUserManager().checkCredentials( "root", "admin" );
+		Assert.assertEquals( 1, root.getIdentifier() );
+		Assert.assertEquals( 1, root.getRoles().size() );
+	}
+	
+	@Test
+	public void test_UserMethods() throws Exception {
+		UserManager userManager = this.securityManager.getUserManager();
+		User user = userManager.insertUser( this.testedUserLogin, this.testedUserPassword );
+		Assert.assertEquals( 2, user.getIdentifier() );
+		
+		try {
+			userManager.insertUser( this.testedUserLogin, "other" );
+			Assert.fail();
+		} catch ( UserAlreadyRegisteredException exception ) {
+			// Ok
+		}
+		
+		for ( int i = 0; i < 2; i++ ) {
+			try {
+				userManager.checkCredentials( this.testedUserLogin, "bad password" );
+				Assert.fail();
+			} catch ( BadCredentialsException exception ) {
+				// Ok
+			}
+		}
+		Assert.assertEquals( 2, userManager.getUserByLogin( this.testedUserLogin ).getConsecutiveErrors() );
+		
+		user = userManager.checkCredentials( this.testedUserLogin, this.testedUserPassword );
+		Assert.assertEquals( 1, user.getConnectionNumber() );
+		Assert.assertEquals( 0, user.getConsecutiveErrors() );
+		
+		userManager.deleteUser( user );
+		try {
+			userManager.getUserById( user.getIdentifier() );
+			Assert.fail();
+		} catch ( fr.koor.security.SecurityManagerException exception ) {
+			// Ok
+		}
+	}
+	
+	@Test
+	public void test_rolesAndMembers() throws Exception {
+		UserManager userManager = this.securityManager.getUserManager();
+		RoleManager roleManager = this.securityManager.getRoleManager();
+		
+		Role client = roleManager.insertRole( "Client" );
+		Assert.assertEquals( 2, client.getIdentifier() );
+		User user = userManager.insertUser( this.testedUserLogin, this.testedUserPassword );
+		user.addRole( client );
+		user.addRole( roleManager.selectRoleByName( "admin" ) );
+		userManager.updateUser( user );
+		
+		List<User> admins = userManager.getUsersByRole( roleManager.selectRoleById( 1 ) );
+		Assert.assertEquals( 2, admins.size() );
+		Assert.assertEquals( "root", admins.get( 0 ).getLogin() );
+		Assert.assertEquals( 1, userManager.getUsersByRole( client ).size() );
+		
+		roleManager.deleteRole( client );
+		Assert.assertTrue( userManager.getUsersByRole( client ).isEmpty() );
+		Assert.assertEquals( 1, userManager.getUserById( user.getIdentifier() ).getRoles().size() );
+	}
+	
+	@Test
+	public void test_sharedRoles() throws Exception {
+		UserManager userManager = this.securityManager.getUserManager();
+		RoleManager roleManager = this.securityManager.getRoleManager();
+		User user = userManager.insertUser( this.testedUserLogin, this.testedUserPassword );
+		user.addRole( roleManager.selectRoleById( 1 ) );
+		userManager.updateUser( user );
+		
+		// Loaded users share the same role instance
+		Role userRole = userManager.getUserById( user.getIdentifier() ).getRoles().iterator().next();
+		Role rootRole = userManager.getUserById( 1 ).getRoles().iterator().next();
+		Assert.assertSame( rootRole, userRole );
+		Assert.assertTrue( user.isMemberOfRole( userRole ) );
+		try {
+			userRole.setRoleName( "other" );
+			Assert.fail();
+		} catch ( UnsupportedOperationException exception ) {
+			// Ok
+		}
+		
+		// A rename is seen by the users already loaded
+		Role role = roleManager.selectRoleById( 1 );
+		role.setRoleName( "administrator" );
+		roleManager.updateRole( role );
+		Assert.assertEquals( "administrator", rootRole.getRoleName() );
+	}
+	
+	@Test
+	public void test_permissions() throws Exception {
+		UserManager userManager = this.securityManager.getUserManager();
+		RoleManager roleManager = this.securityManager.getRoleManager();
+		PermissionManager permissionManager = this.securityManager.getPermissionManager();
+		Role admin = roleManager.selectRoleById( 1 );
+		Role manager = roleManager.insertRole( "manager" );
+		Role employee = roleManager.insertRole( "employee" );
+		permissionManager.addParentRole( admin, manager );
+		permissionManager.addParentRole( manager, employee );
+		Permission read = permissionManager.insertPermission( "invoice.read" );
+		Permission validate = permissionManager.insertPermission( "invoice.validate" );
+		permissionManager.grantPermission( employee, read );
+		permissionManager.grantPermission( manager, validate );
+		
+		// Repeated or missing links leave the model unchanged
+		AbstractPermissionManager abstractPermissionManager = (AbstractPermissionManager) permissionManager;
+		PermissionModel model = abstractPermissionManager.getModel();
+		permissionManager.grantPermission( employee, read );
+		permissionManager.addParentRole( manager, employee );
+		permissionManager.revokePermission( employee, validate );
+		permissionManager.removeParentRole( employee, manager );
+		Assert.assertSame( model, abstractPermissionManager.getModel() );
+		try {
+			permissionManager.addParentRole( employee, admin );
+			Assert.fail();
+		} catch ( SecurityManagerException exception ) {
+			// Ok: cycle
+		}
+		
+		User root = userManager.getUserById( 1 );
+		User user = userManager.insertUser( this.testedUserLogin, this.testedUserPassword );
+		user.addRole( employee );
+		userManager.updateUser( user );
+		Assert.assertTrue( permissionManager.hasPermission( root, validate ) );
+		Assert.assertTrue( permissionManager.hasPermission( root, "invoice.read" ) );
+		Assert.assertTrue( permissionManager.hasPermission( user, read ) );
+		Assert.assertFalse( permissionManager.hasPermission( user, validate ) );
+		Assert.assertFalse( permissionManager.hasPermission( user, "unknown" ) );
+		Assert.assertEquals( 2, permissionManager.getEffectivePermissions( root ).size() );
+		
+		// The cached sets follow the changes of the roles of the user and of the model
+		user.addRole( manager );
+		Assert.assertTrue( permissionManager.hasPermission( user, validate ) );
+		permissionManager.revokePermission( employee, read );
+		Assert.assertFalse( permissionManager.hasPermission( user, read ) );
+		Assert.assertFalse( permissionManager.hasPermission( root, read ) );
+		roleManager.deleteRole( manager );
+		Assert.assertFalse( permissionManager.hasPermission( userManager.getUserById( 1 ), validate ) );
+		Assert.assertTrue( permissionManager.getParentRoles( admin ).isEmpty() );
+		permissionManager.deletePermission( validate );
+		Assert.assertEquals( 1, permissionManager.getPermissions().size() );
+	}
+	
+	@Test
+	public void test_authorization() throws Exception {
+		UserManager userManager = this.securityManager.getUserManager();
+		RoleManager roleManager = this.securityManager.getRoleManager();
+		PermissionManager permissionManager = this.securityManager.getPermissionManager();
+		AuthorizationManager authorizationManager = this.securityManager.getAuthorizationManager();
+		Role employee = roleManager.insertRole( "employee" );
+		permissionManager.addParentRole( roleManager.selectRoleById( 1 ), employee );
+		permissionManager.grantPermission( employee, permissionManager.insertPermission( "report.read" ) );
+		
+		User user = userManager.insertUser( this.testedUserLogin, this.testedUserPassword );
+		Assert.assertFalse( authorizationManager.isAuthorized( user, "report.read" ) );
+		try {
+			authorizationManager.checkAccess( user, "employee" );
+			Assert.fail();
+		} catch ( UnauthorizedException exception ) {
+			// Ok
+		}
+		
+		// The memoized decisions follow the roles of the user
+		user.addRole( employee );
+		userManager.updateUser( user );
+		authorizationManager.checkAccess( user, "report.read" );
+		authorizationManager.checkAccess( user, "employee" );
+		Assert.assertFalse( authorizationManager.isAuthorized( user, "admin" ) );
+		Assert.assertFalse( authorizationManager.isAuthorized( user, "unknown" ) );
+		
+		// Roles are granted to the members of their descendant roles
+		User root = userManager.getUserById( 1 );
+		Assert.assertTrue( authorizationManager.isAuthorized( root, "employee" ) );
+		Assert.assertTrue( authorizationManager.isAuthorized( root, "report.read" ) );
+		
+		// ... and the permission model
+		permissionManager.removeParentRole( roleManager.selectRoleById( 1 ), employee );
+		Assert.assertFalse( authorizationManager.isAuthorized( root, "report.read" ) );
+		roleManager.deleteRole( employee );
+		Assert.assertFalse( authorizationManager.isAuthorized( userManager.getUserById( user.getIdentifier() ), "employee" ) );
+		
+		// Unknown names are not memoized, and lookup failures are thrown
+		AtomicInteger lookups = new AtomicInteger();
+		AbstractPermissionManager abstractPermissionManager = (AbstractPermissionManager) permissionManager;
+		CachedAuthorizationManager countingManager = new CachedAuthorizationManager( roleName -> {
+			lookups.incrementAndGet();
+			return roleName.equals( "admin" ) ? 1 : null;
+		}, abstractPermissionManager );
+		Assert.assertFalse( countingManager.isAuthorized( user, "unknown" ) );
+		Assert.assertFalse( countingManager.isAuthorized( user, "unknown" ) );
+		Assert.assertTrue( countingManager.isAuthorized( root, "admin" ) );
+		Assert.assertTrue( countingManager.isAuthorized( root, "admin" ) );
+		Assert.assertEquals( 3, lookups.get() );
+		CachedAuthorizationManager failingManager = new CachedAuthorizationManager( roleName -> {
+			throw new SecurityManagerException( "Cannot select role " + roleName );
+		}, abstractPermissionManager );
+		try {
+			failingManager.isAuthorized( root, "admin" );
+			Assert.fail();
+		} catch ( SecurityManagerException exception ) {
+			// Ok
+		}
+	}
+	
+	@Test
+	public void test_sessions() throws Exception {
+		UserManager userManager = this.securityManager.getUserManager();
+		SessionManager sessionManager = this.securityManager.getSessionManager();
+		UserImpl user = (UserImpl) userManager.insertUser( this.testedUserLogin, this.testedUserPassword );
+		try {
+			sessionManager.createSession( this.testedUserLogin, "wrong" );
+			Assert.fail();
+		} catch ( BadCredentialsException exception ) {
+			// Ok
+		}
+		String token = sessionManager.createSession( this.testedUserLogin, this.testedUserPassword );
+		String otherToken = sessionManager.createSession( user );
+		Assert.assertNotEquals( token, otherToken );
+		Assert.assertEquals( 2, sessionManager.getSessionCount() );
+		Assert.assertSame( sessionManager.validateSession( token ), sessionManager.validateSession( token ) );
+		
+		// An updated user is reloaded by the next validation
+		user.setFirstName( "Toto" );
+		userManager.updateUser( user );
+		Assert.assertEquals( "Toto", sessionManager.validateSession( token ).getFirstName() );
+		
+		// Revocation
+		sessionManager.revokeSession( otherToken );
+		try {
+			sessionManager.validateSession( otherToken );
+			Assert.fail();
+		} catch ( UnauthorizedException exception ) {
+			// Ok
+		}
+		
+		// Sliding expiry
+		sessionManager.setIdleTimeout( 200 );
+		Thread.sleep( 100 );
+		sessionManager.validateSession( token );
+		Thread.sleep( 150 );
+		sessionManager.validateSession( token );
+		Thread.sleep( 250 );
+		try {
+			sessionManager.validateSession( token );
+			Assert.fail();
+		} catch ( UnauthorizedException exception ) {
+			// Ok
+		}
+		
+		// A disabled user loses his sessions
+		token = sessionManager.createSession( user );
+		user.setDisabled( true );
+		userManager.updateUser( user );
+		try {
+			sessionManager.validateSession( token );
+			Assert.fail();
+		} catch ( UnauthorizedException exception ) {
+			// Ok
+		}
+		Assert.assertEquals( 0, sessionManager.getSessionCount() );
+		user.setDisabled( false );
+		userManager.updateUser( user );
+		
+		// Absolute expiry and user deletion
+		sessionManager.setIdleTimeout( 60000 );
+		sessionManager.setMaximumLifetime( 100 );
+		token = sessionManager.createSession( user );
+		Thread.sleep( 150 );
+		try {
+			sessionManager.validateSession( token );
+			Assert.fail();
+		} catch ( UnauthorizedException exception ) {
+			// Ok
+		}
+		sessionManager.setMaximumLifetime( 60000 );
+		token = sessionManager.createSession( user );
+		userManager.deleteUser( user );
+		Assert.assertEquals( 0, sessionManager.getSessionCount() );
+	}
+	
+	@Test
+	public void test_snapshotStore() throws Exception {
+		this.securityManager.close();
+		this.securityManager = new InMemorySecurityManager( new XmlSnapshotStore( FILENAME ) );
+		UserManager userManager = this.securityManager.getUserManager();
+		User user = userManager.insertUser( this.testedUserLogin, this.testedUserPassword );
+		user.addRole( this.securityManager.getRoleManager().selectRoleById( 1 ) );
+		userManager.updateUser( user );
+		this.securityManager.close();
+		Assert.assertTrue( FileSystem.isExisting( FILENAME ) );
+		
+		// The snapshot uses the XML security database format
+		try ( XmlSecurityManager xmlSecurityManager = new XmlSecurityManager( FILENAME ) ) {
+			User loadedUser = xmlSecurityManager.getUserManager().checkCredentials( this.testedUserLogin, this.testedUserPassword );
+			Assert.assertEquals( 1, loadedUser.getRoles().size() );
+		}
+		
+		this.securityManager.openSession();
+		User loadedUser = this.securityManager.getUserManager().checkCredentials( this.testedUserLogin, this.testedUserPassword );
+		Assert.assertEquals( 2, loadedUser.getConnectionNumber() );
+	}
+
+}
@@ -3,11 +3,26 @@ package fr.koor.security.providers;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
+import fr.koor.security.impl.UserImplTest;
+import fr.koor.security.screening.MappedPasswordScreenerTest;
+import fr.koor.security.tokens.AccessTokenCodecTest;
+import fr.koor.utility.IntHashMapTest;
+
 @RunWith( Suite.class )				
 @Suite.SuiteClasses( {				
 	JdbcSecurityManagerCoreTest.class,
 	XmlSecurityManagerCoreTest.class,
-	XmlSecurityManagerCoreTest2.class
+	XmlSecurityManagerCoreTest2.class,
+	XmlSecurityManagerConcurrencyTest.class,
+	InMemorySecurityManagerCoreTest.class,
+	MappedFileSecurityManagerCoreTest.class,
+	CachingSecurityManagerCoreTest.class,
+	ThrottlingSecurityManagerCoreTest.class,
+	AsyncSecurityAdapterCoreTest.class,
+	AccessTokenCodecTest.class,
+	MappedPasswordScreenerTest.class,
+	UserImplTest.class,
+	IntHashMapTest.class
 } )		
 public class JUnitTestSuite {				
 }
\ No newline at end of file
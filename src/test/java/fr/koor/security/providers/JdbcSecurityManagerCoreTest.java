@@ -1,10 +1,12 @@
 package fr.koor.security.providers;
 
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -18,6 +20,7 @@ import fr.koor.security.RoleManager;
 import fr.koor.security.SecurityManagerException;
 import fr.koor.security.User;
 import fr.koor.security.UserManager;
+import fr.koor.utility.BloomFilter;
 import fr.koor.utility.DataSource;
 
 public class JdbcSecurityManagerCoreTest {
@@ -55,6 +58,10 @@ public class JdbcSecurityManagerCoreTest {
 				String strSql = "DELETE FROM T_USERS WHERE Login='" + testedUserLogin.replace( "'", "''" ) + "'";
 				connection.createStatement().executeUpdate( strSql );
 
+				for ( String tableName : new String[] { "T_ROLE_PERMISSIONS", "T_ROLE_PARENTS", "T_PERMISSIONS" } ) {
+					connection.createStatement().executeUpdate( "DELETE FROM " + tableName );
+				}
+
 				strSql = "DELETE FROM T_ROLES";
 				connection.createStatement().executeUpdate( strSql );
 
@@ -238,6 +245,101 @@ public class JdbcSecurityManagerCoreTest {
 		}
 	}
 	
+	@Test 
+	public void test_roleCatalog() throws Exception {
+		RoleManager roleManager = this.securityManager.getRoleManager();
+		Assert.assertEquals( "admin", roleManager.selectRoleById( 1 ).getRoleName() );
+		
+		// A role inserted by another node is found by a catalog reload, at most once per second
+		Connection connection = this.securityManager.getConnection();
+		connection.createStatement().executeUpdate( "INSERT INTO T_ROLES VALUES (1000, 'Remote')" );
+		try {
+			roleManager.selectRoleById( 1000 );
+			Assert.fail();
+		} catch ( SecurityManagerException exception ) {
+			// Ok: the catalog has just been loaded
+		}
+		Thread.sleep( 1100 );
+		Assert.assertEquals( "Remote", roleManager.selectRoleById( 1000 ).getRoleName() );
+		
+		// Large identifiers are stored without allocating a large array
+		connection.createStatement().executeUpdate( "INSERT INTO T_ROLES VALUES (2000000000, 'Sparse')" );
+		this.securityManager.refreshRoleCatalog();
+		Assert.assertEquals( "Sparse", roleManager.selectRoleById( 2000000000 ).getRoleName() );
+		Assert.assertEquals( 2000000000, roleManager.selectRoleByName( "Sparse" ).getIdentifier() );
+		
+		// Role names are compared as the database does: without case and trailing spaces
+		Role sparseRole = roleManager.selectRoleByName( "SPARSE " );
+		Assert.assertEquals( 2000000000, sparseRole.getIdentifier() );
+		Assert.assertEquals( "Sparse", sparseRole.getRoleName() );
+		
+		// A role renamed by another node is seen once the catalog is too old
+		connection.createStatement().executeUpdate( "UPDATE T_ROLES SET RoleName='Renamed' WHERE IdRole=1000" );
+		Assert.assertEquals( "Remote", roleManager.selectRoleById( 1000 ).getRoleName() );
+		this.securityManager.setRoleCatalogRefreshInterval( 50 );
+		Thread.sleep( 100 );
+		Assert.assertEquals( "Renamed", roleManager.selectRoleById( 1000 ).getRoleName() );
+		Assert.assertEquals( 1000, roleManager.selectRoleByName( "Renamed" ).getIdentifier() );
+	}
+	
+	@Test 
+	public void test_loginFilter() throws Exception {
+		UserManager userManager = this.securityManager.getUserManager();
+		this.securityManager.enableLoginFilter( 1000, 0.01 );
+		BloomFilter filter = this.securityManager.getLoginFilter();
+		Assert.assertTrue( filter.getBitCount() >= 9000 );
+		Assert.assertEquals( 7, filter.getHashCount() );
+		Assert.assertTrue( filter.mightContain( "root" ) );
+		
+		// Unknown logins are rejected without any query
+		Connection connection = this.securityManager.getConnection();
+		AtomicInteger statements = new AtomicInteger();
+		Connection countingConnection = (Connection) Proxy.newProxyInstance( Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, ( proxy, method, arguments ) -> {
+					if ( method.getName().contains( "Statement" ) ) statements.incrementAndGet();
+					return method.invoke( connection, arguments );
+				} );
+		JdbcSecurityManager filteredManager = new JdbcSecurityManager( countingConnection );
+		filteredManager.enableLoginFilter( 1000, 0.01 );
+		UserManager filteredUserManager = filteredManager.getUserManager();
+		int loadStatements = statements.get();
+		try {
+			filteredUserManager.checkCredentials( "unknown", "password" );
+			Assert.fail();
+		} catch ( BadCredentialsException exception ) {
+			// Ok
+		}
+		Assert.assertEquals( loadStatements, statements.get() );
+		
+		// The users inserted by other nodes are accepted once the filter is reloaded
+		connection.createStatement().executeUpdate( "INSERT INTO T_USERS (IdUser, Login, Password) VALUES (1000, 'remote', '"
+				+ userManager.encryptPassword( "password" ) + "')" );
+		try {
+			filteredUserManager.checkCredentials( "remote", "password" );
+			Assert.fail();
+		} catch ( BadCredentialsException exception ) {
+			// Ok
+		}
+		filteredManager.refreshLoginFilter();
+		Assert.assertEquals( "remote", filteredUserManager.checkCredentials( "remote", "password" ).getLogin() );
+		
+		// Logins are compared as the database does: without case and trailing spaces
+		Assert.assertEquals( 1000, filteredUserManager.checkCredentials( "REMOTE ", "password" ).getIdentifier() );
+		
+		// Existing and inserted logins are checked
+		Assert.assertEquals( "root", userManager.checkCredentials( "root", "admin" ).getLogin() );
+		userManager.insertUser( this.testedUserLogin, this.testedUserPassword );
+		Assert.assertEquals( this.testedUserLogin, userManager.checkCredentials( this.testedUserLogin, this.testedUserPassword ).getLogin() );
+		
+		// A login deleted by another node leaves the filter when it is reloaded
+		connection.createStatement().executeUpdate( "DELETE FROM T_USERS WHERE Login='" + testedUserLogin.replace( "'", "''" ) + "'" );
+		connection.createStatement().executeUpdate( "DELETE FROM T_USERS WHERE Login='remote'" );
+		this.securityManager.refreshLoginFilter();
+		Assert.assertFalse( this.securityManager.getLoginFilter().mightContain( this.testedUserLogin ) );
+		this.securityManager.disableLoginFilter();
+		Assert.assertNull( this.securityManager.getLoginFilter() );
+	}
+	
 	@Test 
 	public void test_UserRolesReferences() throws Exception {
 		UserManager userManager = this.securityManager.getUserManager();
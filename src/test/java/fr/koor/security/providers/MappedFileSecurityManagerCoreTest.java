@@ -0,0 +1,256 @@
+package fr.koor.security.providers;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.koor.security.AccountDisabledException;
+import fr.koor.security.BadCredentialsException;
+import fr.koor.security.Role;
+import fr.koor.security.RoleManager;
+import fr.koor.security.SecurityManagerException;
+import fr.koor.security.SessionManager;
+import fr.koor.security.UnauthorizedException;
+import fr.koor.security.User;
+import fr.koor.security.UserAlreadyRegisteredException;
+import fr.koor.security.UserManager;
+import fr.koor.security.impl.UserImpl;
+import fr.koor.utility.FileSystem;
+
+public class MappedFileSecurityManagerCoreTest {
+
+	private static final String FILENAME = "src/test/java/fr/koor/security/providers/MappedSecurity.db";
+	private static final String SESSION_FILENAME = "src/test/java/fr/koor/security/providers/MappedSecurity.sessions";
+	
+	private String testedUserLogin = "toto's";
+	private String testedUserPassword = "titi's";
+
+	protected MappedFileSecurityManager securityManager = null;
+	
+	@Before public void setUp() throws Exception {
+		this.securityManager = new MappedFileSecurityManager( FILENAME, 16 );
+	}
+
+	@After public void tearDown() throws Exception {
+		this.securityManager.close();
+		FileSystem.delete( FILENAME );
+		FileSystem.delete( FILENAME + ".heap" );
+		FileSystem.delete( FILENAME + ".index" );
+		FileSystem.delete( SESSION_FILENAME );
+		Assert.assertFalse( FileSystem.isExisting( FILENAME ) );
+	}
+
+	@Test
+	public void test_openSession() throws Exception {
+		Assert.assertEquals( "admin", this.securityManager.getRoleManager().selectRoleById( 1 ).getRoleName() );
+		User root = this.securityManager.getUserManager().checkCredentials( "root", "admin" );
+		Assert.assertEquals( 1, root.getIdentifier() );
+		Assert.assertEquals( "administrator", root.getLastName() );
+		Assert.assertEquals( 1, root.getRoles().size() );
+	}
+	
+	@Test
+	public void test_UserMethods() throws Exception {
+		UserManager userManager = this.securityManager.getUserManager();
+		User user = userManager.insertUser( this.testedUserLogin, this.testedUserPassword );
+		Assert.assertEquals( 2, user.getIdentifier() );
+		
+		try {
+			userManager.insertUser( this.testedUserLogin, "other" );
+			Assert.fail();
+		} catch ( UserAlreadyRegisteredException exception ) {
+			// Ok
+		}
+		
+		for ( int i = 0; i < 2; i++ ) {
+			try {
+				userManager.checkCredentials( this.testedUserLogin, "bad password" );
+				Assert.fail();
+			} catch ( BadCredentialsException exception ) {
+				// Ok
+			}
+		}
+		Assert.assertEquals( 2, userManager.getUserByLogin( this.testedUserLogin ).getConsecutiveErrors() );
+		
+		user = userManager.checkCredentials( this.testedUserLogin, this.testedUserPassword );
+		Assert.assertEquals( 1, user.getConnectionNumber() );
+		Assert.assertEquals( 0, user.getConsecutiveErrors() );
+		
+		( (UserImpl) user ).setFirstName( "Grégory" );
+		user.setPassword( "new password" );
+		userManager.updateUser( user );
+		Assert.assertEquals( "Grégory", userManager.checkCredentials( this.testedUserLogin, "new password" ).getFirstName() );
+		
+		userManager.deleteUser( user );
+		try {
+			userManager.getUserById( user.getIdentifier() );
+			Assert.fail();
+		} catch ( fr.koor.security.SecurityManagerException exception ) {
+			// Ok
+		}
+	}
+	
+	@Test
+	public void test_accountDisabling() throws Exception {
+		UserManager userManager = this.securityManager.getUserManager();
+		userManager.insertUser( this.testedUserLogin, this.testedUserPassword );
+		for ( int i = 0; i < 3; i++ ) {
+			try {
+				userManager.checkCredentials( this.testedUserLogin, "bad password" );
+				Assert.fail();
+			} catch ( AccountDisabledException exception ) {
+				Assert.assertEquals( 2, i );
+			} catch ( BadCredentialsException exception ) {
+				Assert.assertTrue( i < 2 );
+			}
+		}
+		Assert.assertTrue( userManager.getUserByLogin( this.testedUserLogin ).isDisabled() );
+	}
+	
+	@Test
+	public void test_rolesAndMembers() throws Exception {
+		UserManager userManager = this.securityManager.getUserManager();
+		RoleManager roleManager = this.securityManager.getRoleManager();
+		
+		Role client = roleManager.insertRole( "Client" );
+		Assert.assertEquals( 2, client.getIdentifier() );
+		User user = userManager.insertUser( this.testedUserLogin, this.testedUserPassword );
+		user.addRole( client );
+		user.addRole( roleManager.selectRoleByName( "admin" ) );
+		userManager.updateUser( user );
+		
+		List<User> admins = userManager.getUsersByRole( roleManager.selectRoleById( 1 ) );
+		Assert.assertEquals( 2, admins.size() );
+		Assert.assertEquals( "root", admins.get( 0 ).getLogin() );
+		Assert.assertEquals( 1, userManager.getUsersByRole( client ).size() );
+		
+		roleManager.deleteRole( client );
+		Assert.assertTrue( userManager.getUsersByRole( client ).isEmpty() );
+		Assert.assertEquals( 1, userManager.getUserById( user.getIdentifier() ).getRoles().size() );
+		
+		// The slot of the deleted role is reused
+		Assert.assertEquals( 2, roleManager.insertRole( "Supplier" ).getIdentifier() );
+	}
+	
+	@Test
+	public void test_growAndReopen() throws Exception {
+		UserManager userManager = this.securityManager.getUserManager();
+		for ( int i = 0; i < 100; i++ ) {
+			User user = userManager.insertUser( "user" + i, "password" + i );
+			( (UserImpl) user ).setEmail( "user" + i + "@koor.fr" );
+			userManager.updateUser( user );
+		}
+		this.securityManager.close();
+		
+		this.securityManager.openSession();
+		userManager = this.securityManager.getUserManager();
+		for ( int i = 0; i < 100; i++ ) {
+			User user = userManager.checkCredentials( "user" + i, "password" + i );
+			Assert.assertEquals( i + 2, user.getIdentifier() );
+			Assert.assertEquals( "user" + i + "@koor.fr", user.getEmail() );
+		}
+		Assert.assertEquals( "root", userManager.getUserById( 1 ).getLogin() );
+		
+		// A missing index is rebuilt from the records
+		this.securityManager.close();
+		FileSystem.delete( FILENAME + ".index" );
+		this.securityManager.openSession();
+		Assert.assertEquals( 51, this.securityManager.getUserManager().getUserByLogin( "user49" ).getIdentifier() );
+	}
+
+	@Test
+	public void test_renameTombstones() throws Exception {
+		// Each rename leaves a tombstone: 200 renames are far more than the 32 entries of the index
+		UserManager userManager = this.securityManager.getUserManager();
+		User user = userManager.insertUser( "renamed0", "password" );
+		for ( int i = 1; i <= 200; i++ ) {
+			user = new UserImpl( this.securityManager, user.getIdentifier(), "renamed" + i, ( (UserImpl) user ).getPassword() );
+			userManager.updateUser( user );
+		}
+		Assert.assertEquals( user.getIdentifier(), userManager.getUserByLogin( "renamed200" ).getIdentifier() );
+		try {
+			userManager.getUserByLogin( "unknown" );
+			Assert.fail();
+		} catch ( SecurityManagerException exception ) {
+			// Success
+		}
+		
+		userManager.deleteUser( user );
+		this.securityManager.close();
+		this.securityManager.openSession();
+		userManager = this.securityManager.getUserManager();
+		Assert.assertEquals( "root", userManager.getUserByLogin( "root" ).getLogin() );
+		try {
+			userManager.getUserByLogin( "renamed200" );
+			Assert.fail();
+		} catch ( SecurityManagerException exception ) {
+			// Success
+		}
+	}
+
+	@Test
+	public void test_persistentSessions() throws Exception {
+		SessionManager sessionManager = this.securityManager.getSessionManager();
+		sessionManager.setStoreFilename( SESSION_FILENAME );
+		String token = sessionManager.createSession( "root", "admin" );
+		String revokedToken = sessionManager.createSession( "root", "admin" );
+		sessionManager.revokeSession( revokedToken );
+		this.securityManager.close();
+		
+		// Another instance restores the sessions
+		this.securityManager = new MappedFileSecurityManager( FILENAME, 16 );
+		sessionManager = this.securityManager.getSessionManager();
+		Assert.assertEquals( 0, sessionManager.getSessionCount() );
+		sessionManager.setStoreFilename( SESSION_FILENAME );
+		Assert.assertEquals( "root", sessionManager.validateSession( token ).getLogin() );
+		Assert.assertEquals( 1, sessionManager.getSessionCount() );
+		try {
+			sessionManager.validateSession( revokedToken );
+			Assert.fail();
+		} catch ( UnauthorizedException exception ) {
+			// Ok
+		}
+		
+		// Revoked and expired sessions are not restored
+		sessionManager.revokeSession( token );
+		sessionManager.setMaximumLifetime( 100 );
+		String expiredToken = sessionManager.createSession( "root", "admin" );
+		this.securityManager.close();
+		Thread.sleep( 150 );
+		this.securityManager = new MappedFileSecurityManager( FILENAME, 16 );
+		sessionManager = this.securityManager.getSessionManager();
+		sessionManager.setMaximumLifetime( 100 );
+		sessionManager.setStoreFilename( SESSION_FILENAME );
+		for ( String oldToken : new String[] { token, expiredToken } ) {
+			try {
+				sessionManager.validateSession( oldToken );
+				Assert.fail();
+			} catch ( UnauthorizedException exception ) {
+				// Ok
+			}
+		}
+		Assert.assertEquals( 0, sessionManager.getSessionCount() );
+		
+		// The restored session of a user deleted after the restart is removed
+		UserManager userManager = this.securityManager.getUserManager();
+		User user = userManager.insertUser( this.testedUserLogin, this.testedUserPassword );
+		sessionManager.setMaximumLifetime( 60_000 );
+		String deletedToken = sessionManager.createSession( this.testedUserLogin, this.testedUserPassword );
+		this.securityManager.close();
+		this.securityManager = new MappedFileSecurityManager( FILENAME, 16 );
+		sessionManager = this.securityManager.getSessionManager();
+		sessionManager.setStoreFilename( SESSION_FILENAME );
+		this.securityManager.getUserManager().deleteUser( user );
+		try {
+			sessionManager.validateSession( deletedToken );
+			Assert.fail();
+		} catch ( UnauthorizedException exception ) {
+			// Ok
+		}
+		Assert.assertEquals( 0, sessionManager.getSessionCount() );
+	}
+
+}
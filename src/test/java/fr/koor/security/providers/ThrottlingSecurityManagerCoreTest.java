@@ -0,0 +1,117 @@
+package fr.koor.security.providers;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.koor.security.BadCredentialsException;
+import fr.koor.security.LoginThrottledException;
+import fr.koor.security.SessionManager;
+import fr.koor.security.UserManager;
+import fr.koor.utility.SlidingWindowLimiter;
+
+public class ThrottlingSecurityManagerCoreTest {
+
+	protected ThrottlingSecurityManager securityManager = null;
+	
+	@Before public void setUp() throws Exception {
+		this.securityManager = new ThrottlingSecurityManager( new InMemorySecurityManager(),
+				new SlidingWindowLimiter( 2, 60_000, 100, 1000, 100 ),
+				new SlidingWindowLimiter( 5, 60_000, 100, 1000, 100 ) );
+	}
+
+	@After public void tearDown() throws Exception {
+		this.securityManager.close();
+	}
+	
+	private void assertRejected( String login, String password, String source, boolean throttled ) throws Exception {
+		try {
+			this.securityManager.checkCredentials( login, password, source );
+			Assert.fail();
+		} catch ( LoginThrottledException exception ) {
+			Assert.assertTrue( throttled );
+			Assert.assertTrue( exception.getRetryDelay() > 0 );
+		} catch ( BadCredentialsException exception ) {
+			Assert.assertFalse( throttled );
+		}
+	}
+
+	@Test
+	public void test_loginThrottling() throws Exception {
+		UserManager userManager = this.securityManager.getUserManager();
+		for ( int i = 0; i < 2; i++ ) this.assertRejected( "root", "wrong", null, false );
+		
+		// Even the right password is rejected while the login is blocked, before the provider disables the account
+		this.assertRejected( "root", "admin", null, true );
+		Thread.sleep( 150 );
+		Assert.assertEquals( 1, userManager.checkCredentials( "root", "admin" ).getIdentifier() );
+		
+		// The success has reset the failures of the login
+		this.assertRejected( "root", "wrong", null, false );
+		Assert.assertEquals( "root", userManager.checkCredentials( "root", "admin" ).getLogin() );
+		
+		// The variants of a login, in case and trailing spaces, share its failures
+		this.assertRejected( "ROOT", "wrong", null, false );
+		this.assertRejected( "root  ", "wrong", null, false );
+		this.assertRejected( "root", "admin", null, true );
+	}
+
+	@Test
+	public void test_sourceThrottling() throws Exception {
+		for ( int i = 0; i < 5; i++ ) this.assertRejected( "user" + i, "wrong", "10.0.0.1", false );
+		this.assertRejected( "root", "admin", "10.0.0.1", true );
+		Assert.assertEquals( "root", this.securityManager.checkCredentials( "root", "admin", "10.0.0.2" ).getLogin() );
+		
+		// The backoff doubles when the source fails again after its block
+		Thread.sleep( 150 );
+		this.assertRejected( "user0", "wrong", "10.0.0.1", false );
+		Thread.sleep( 150 );
+		this.assertRejected( "root", "admin", "10.0.0.1", true );
+	}
+
+	@Test
+	public void test_reservations() throws Exception {
+		SlidingWindowLimiter limiter = new SlidingWindowLimiter( 2, 60_000, 100, 1000, 32 );
+		
+		// Concurrent attempts of a key without failures are not limited
+		for ( int i = 0; i < 3; i++ ) Assert.assertEquals( 0, limiter.tryAcquire( "root" ) );
+		for ( int i = 0; i < 3; i++ ) Assert.assertEquals( 0, limiter.release( "root", false ) );
+		
+		// Once the key has failed, attempts in progress count against the limit
+		Assert.assertEquals( 0, limiter.tryAcquire( "root" ) );
+		Assert.assertEquals( 0, limiter.release( "root", true ) );
+		Assert.assertEquals( 0, limiter.tryAcquire( "root" ) );
+		Assert.assertTrue( limiter.tryAcquire( "root" ) > 0 );
+		Assert.assertTrue( limiter.release( "root", true ) > 0 );
+		Assert.assertTrue( limiter.tryAcquire( "root" ) > 0 );
+		
+		// Blocked keys are evicted last
+		for ( int i = 0; i < 100; i++ ) limiter.recordFailure( "user" + i );
+		Assert.assertTrue( limiter.getRetryDelay( "root" ) > 0 );
+	}
+
+	@Test
+	public void test_sessionThrottling() throws Exception {
+		SessionManager sessionManager = this.securityManager.getSessionManager();
+		for ( int i = 0; i < 2; i++ ) {
+			try {
+				sessionManager.createSession( "root", "wrong" );
+				Assert.fail();
+			} catch ( LoginThrottledException exception ) {
+				Assert.fail();
+			} catch ( BadCredentialsException exception ) {
+				// Ok
+			}
+		}
+		try {
+			sessionManager.createSession( "root", "admin" );
+			Assert.fail();
+		} catch ( LoginThrottledException exception ) {
+			// Ok
+		}
+		Thread.sleep( 150 );
+		Assert.assertEquals( "root", sessionManager.validateSession( sessionManager.createSession( "root", "admin" ) ).getLogin() );
+	}
+
+}
@@ -0,0 +1,118 @@
+package fr.koor.security.providers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.koor.security.User;
+import fr.koor.security.UserManager;
+import fr.koor.security.impl.UserImpl;
+import fr.koor.utility.FileSystem;
+
+public class XmlSecurityManagerConcurrencyTest {
+
+	private static final String FILENAME = "src/test/java/fr/koor/security/providers/ConcurrentSecurityDB.xml";
+	
+	private static final int THREAD_COUNT = 8;
+	private static final int USERS_PER_THREAD = 50;
+	
+	private XmlSecurityManager securityManager = null;
+	
+	@Before public void setUp() throws Exception {
+		this.securityManager = new XmlSecurityManager( FILENAME );
+		this.securityManager.setFlushThreshold( 10 );
+	}
+
+	@After public void tearDown() throws Exception {
+		this.securityManager.close();
+		FileSystem.delete( FILENAME );
+		FileSystem.delete( FILENAME + ".journal" );
+		Assert.assertFalse( FileSystem.isExisting( FILENAME ) );
+	}
+
+	@Test
+	public void test_concurrentAccesses() throws Exception {
+		final UserManager userManager = this.securityManager.getUserManager();
+		ExecutorService executor = Executors.newFixedThreadPool( THREAD_COUNT );
+		try {
+			List<Future<Void>> futures = new ArrayList<>();
+			for ( int t = 0; t < THREAD_COUNT; t++ ) {
+				final int threadIndex = t;
+				futures.add( executor.submit( new Callable<Void>() {
+					@Override public Void call() throws Exception {
+						for ( int i = 0; i < USERS_PER_THREAD; i++ ) {
+							String login = "user-" + threadIndex + "-" + i;
+							User user = userManager.insertUser( login, "pwd" );
+							Assert.assertEquals( login, userManager.checkCredentials( login, "pwd" ).getLogin() );
+							Assert.assertEquals( login, userManager.getUserById( user.getIdentifier() ).getLogin() );
+							UserImpl loadedUser = (UserImpl) userManager.getUserByLogin( login );
+							loadedUser.setEmail( login + "@koor.fr" );
+							userManager.updateUser( loadedUser );
+							Assert.assertEquals( "root", userManager.getUserById( 1 ).getLogin() );
+						}
+						return null;
+					}
+				} ) );
+			}
+			for ( Future<Void> future : futures ) future.get();
+		} finally {
+			executor.shutdown();
+		}
+		
+		this.securityManager.close();
+		this.securityManager = new XmlSecurityManager( FILENAME );
+		UserManager reloadedManager = this.securityManager.getUserManager();
+		int maxIdentifier = 1;
+		for ( int t = 0; t < THREAD_COUNT; t++ ) {
+			for ( int i = 0; i < USERS_PER_THREAD; i++ ) {
+				String login = "user-" + t + "-" + i;
+				User user = reloadedManager.getUserByLogin( login );
+				Assert.assertEquals( 1, user.getConnectionNumber() );
+				Assert.assertEquals( login + "@koor.fr", user.getEmail() );
+				maxIdentifier = Math.max( maxIdentifier, user.getIdentifier() );
+			}
+		}
+		Assert.assertEquals( THREAD_COUNT * USERS_PER_THREAD + 1, maxIdentifier );
+	}
+	
+	@Test
+	public void test_concurrentLogins() throws Exception {
+		this.securityManager.setJournaling( true );
+		final UserManager userManager = this.securityManager.getUserManager();
+		userManager.insertUser( "shared", "pwd" );
+		ExecutorService executor = Executors.newFixedThreadPool( THREAD_COUNT );
+		try {
+			List<Future<Void>> futures = new ArrayList<>();
+			for ( int t = 0; t < THREAD_COUNT; t++ ) {
+				futures.add( executor.submit( new Callable<Void>() {
+					@Override public Void call() throws Exception {
+						for ( int i = 0; i < USERS_PER_THREAD; i++ ) {
+							Assert.assertEquals( "shared", userManager.checkCredentials( "shared", "pwd" ).getLogin() );
+							// The journal is folded into the XML file while the other threads log in
+							if ( i % 10 == 0 ) securityManager.compact();
+						}
+						return null;
+					}
+				} ) );
+			}
+			for ( Future<Void> future : futures ) future.get();
+		} finally {
+			executor.shutdown();
+		}
+		
+		// No counter update is lost, neither in memory nor in the files
+		Assert.assertEquals( THREAD_COUNT * USERS_PER_THREAD, userManager.getUserByLogin( "shared" ).getConnectionNumber() );
+		this.securityManager.close();
+		this.securityManager = new XmlSecurityManager( FILENAME );
+		Assert.assertEquals( THREAD_COUNT * USERS_PER_THREAD, this.securityManager.getUserManager().getUserByLogin( "shared" ).getConnectionNumber() );
+	}
+	
+}
@@ -1,6 +1,7 @@
 package fr.koor.security.providers;
 
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
 
 import org.junit.After;
@@ -10,6 +11,7 @@ import org.junit.Test;
 
 import fr.koor.security.AccountDisabledException;
 import fr.koor.security.BadCredentialsException;
+import fr.koor.security.PermissionManager;
 import fr.koor.security.Role;
 import fr.koor.security.RoleManager;
 import fr.koor.security.SecurityManagerException;
@@ -268,6 +270,41 @@ public class XmlSecurityManagerCoreTest {
 		roleManager.deleteRole( role2 );
 	}
 	
+	@Test
+	public void test_getUsersByRole() throws Exception {
+		UserManager userManager = this.securityManager.getUserManager();
+		RoleManager roleManager = this.securityManager.getRoleManager();
+		
+		Role admin = roleManager.selectRoleById( 1 );
+		Role client = roleManager.insertRole( "Client" );
+		User user = userManager.insertUser( this.testedUserLogin, this.testedUserPassword );
+		user.addRole( admin );
+		user.addRole( client );
+		userManager.updateUser( user );
+		
+		List<User> admins = userManager.getUsersByRole( admin );
+		Assert.assertEquals( 2, admins.size() );
+		Assert.assertEquals( "root", admins.get( 0 ).getLogin() );
+		Assert.assertEquals( this.testedUserLogin, admins.get( 1 ).getLogin() );
+		Assert.assertEquals( 1, userManager.getUsersByRole( client ).size() );
+		
+		user.removeRole( admin );
+		userManager.updateUser( user );
+		Assert.assertEquals( 1, userManager.getUsersByRole( admin ).size() );
+		
+		// The reverse index is rebuilt when the file is loaded
+		this.securityManager.close();
+		this.securityManager.openSession();
+		Assert.assertEquals( 1, userManager.getUsersByRole( client ).size() );
+		
+		roleManager.deleteRole( client );
+		Assert.assertTrue( userManager.getUsersByRole( client ).isEmpty() );
+		Assert.assertTrue( userManager.getUserById( user.getIdentifier() ).getRoles().isEmpty() );
+		
+		userManager.deleteUser( user );
+		Assert.assertEquals( 1, userManager.getUsersByRole( admin ).size() );
+	}
+	
 	@Test
 	public void test_lastConnection() throws Exception {
 		UserManager userManager = this.securityManager.getUserManager();
@@ -331,6 +368,242 @@ public class XmlSecurityManagerCoreTest {
 		userManager.deleteUser( user );
 	}
 	
+	@Test
+	public void test_flushOnClose() throws Exception {
+		UserManager userManager = this.securityManager.getUserManager();
+		userManager.insertUser( this.testedUserLogin, this.testedUserPassword );
+		this.securityManager.close();
+		
+		this.securityManager = new XmlSecurityManager( FILENAME );
+		User user = this.securityManager.getUserManager().checkCredentials( this.testedUserLogin, this.testedUserPassword );
+		Assert.assertEquals( this.testedUserLogin, user.getLogin() );
+	}
+
+	@Test
+	public void test_synchronousDurability() throws Exception {
+		this.securityManager.close();
+		this.securityManager = new XmlSecurityManager( FILENAME, true );
+		
+		long lastModified = FileSystem.getLastModifiedTime( FILENAME );
+		Thread.sleep( 1000 );
+		this.securityManager.getUserManager().insertUser( this.testedUserLogin, this.testedUserPassword );
+		Assert.assertTrue( FileSystem.getLastModifiedTime( FILENAME ) > lastModified );
+	}
+	
+	@Test
+	public void test_backupGenerations() throws Exception {
+		XmlSecurityManager xmlSecurityManager = (XmlSecurityManager) this.securityManager;
+		xmlSecurityManager.setBackupGenerations( 2 );
+		UserManager userManager = this.securityManager.getUserManager();
+		try {
+			userManager.insertUser( this.testedUserLogin, this.testedUserPassword );
+			xmlSecurityManager.flush();
+			userManager.insertUser( "James", "Bond" );
+			xmlSecurityManager.flush();
+			userManager.insertUser( "Austin", "Powers" );
+			xmlSecurityManager.flush();
+			
+			Assert.assertTrue( FileSystem.isExisting( FILENAME + ".1" ) );
+			Assert.assertTrue( FileSystem.isExisting( FILENAME + ".2" ) );
+			Assert.assertFalse( FileSystem.isExisting( FILENAME + ".3" ) );
+			
+			try ( XmlSecurityManager previous = new XmlSecurityManager( FILENAME + ".1" ) ) {
+				previous.getUserManager().checkCredentials( "James", "Bond" );
+				try {
+					previous.getUserManager().checkCredentials( "Austin", "Powers" );
+					Assert.fail();
+				} catch ( BadCredentialsException exception ) {
+					// Ok
+				}
+			}
+		} finally {
+			FileSystem.delete( FILENAME + ".1" );
+			FileSystem.delete( FILENAME + ".2" );
+		}
+	}
+	
+	@Test
+	public void test_journal() throws Exception {
+		XmlSecurityManager xmlSecurityManager = (XmlSecurityManager) this.securityManager;
+		xmlSecurityManager.setJournaling( true );
+		try {
+			UserManager userManager = this.securityManager.getUserManager();
+			User user = userManager.insertUser( this.testedUserLogin, this.testedUserPassword );
+			user.addRole( this.securityManager.getRoleManager().selectRoleById( 1 ) );
+			userManager.updateUser( user );
+			Role role = this.securityManager.getRoleManager().insertRole( "Client" );
+			xmlSecurityManager.flush();
+			
+			// The XML file is unchanged: modifications are only stored in the journal 
+			String content = new String( java.nio.file.Files.readAllBytes( java.nio.file.Paths.get( FILENAME ) ), "UTF-8" );
+			Assert.assertFalse( content.contains( "Client" ) );
+			Assert.assertTrue( FileSystem.isExisting( FILENAME + ".journal" ) );
+			
+			// Simulates a crash: a copy of the files is reopened and the journal is replayed
+			String crashFilename = FILENAME + ".crash.xml";
+			FileSystem.copyFile( FILENAME, crashFilename, true );
+			FileSystem.copyFile( FILENAME + ".journal", crashFilename + ".journal", true );
+			try ( XmlSecurityManager otherManager = new XmlSecurityManager( crashFilename ) ) {
+				User otherUser = otherManager.getUserManager().checkCredentials( this.testedUserLogin, this.testedUserPassword );
+				Assert.assertEquals( 1, otherUser.getRoles().size() );
+				Assert.assertEquals( role.getIdentifier(), otherManager.getRoleManager().selectRoleByName( "Client" ).getIdentifier() );
+			} finally {
+				FileSystem.delete( crashFilename );
+				Assert.assertFalse( FileSystem.isExisting( crashFilename + ".journal" ) );
+			}
+			
+			xmlSecurityManager.compact();
+			Assert.assertEquals( 0, new java.io.File( FILENAME + ".journal" ).length() );
+			content = new String( java.nio.file.Files.readAllBytes( java.nio.file.Paths.get( FILENAME ) ), "UTF-8" );
+			Assert.assertTrue( content.contains( "Client" ) );
+		} finally {
+			xmlSecurityManager.setJournaling( false );
+			Assert.assertFalse( FileSystem.isExisting( FILENAME + ".journal" ) );
+		}
+	}
+	
+	@Test
+	public void test_hotReload() throws Exception {
+		XmlSecurityManager xmlSecurityManager = (XmlSecurityManager) this.securityManager;
+		xmlSecurityManager.close();
+		xmlSecurityManager.setFlushInterval( 60000 );
+		xmlSecurityManager.setReloadInterval( 100 );
+		xmlSecurityManager.openSession();
+		UserManager userManager = this.securityManager.getUserManager();
+		
+		// The same user is modified locally and by another process: the file version wins
+		try ( XmlSecurityManager otherManager = new XmlSecurityManager( FILENAME ) ) {
+			UserImpl localRoot = (UserImpl) userManager.getUserById( 1 );
+			localRoot.setEmail( "local@koor.fr" );
+			userManager.updateUser( localRoot );
+			userManager.insertUser( "James", "Bond" );
+			
+			UserImpl otherRoot = (UserImpl) otherManager.getUserManager().getUserById( 1 );
+			otherRoot.setEmail( "deployed-version@koor.fr" );
+			otherManager.getUserManager().updateUser( otherRoot );
+		}
+		List<String> conflicts = xmlSecurityManager.reload();
+		Assert.assertEquals( 1, conflicts.size() );
+		Assert.assertEquals( "deployed-version@koor.fr", userManager.getUserById( 1 ).getEmail() );
+		userManager.checkCredentials( "James", "Bond" );
+		String content = new String( java.nio.file.Files.readAllBytes( java.nio.file.Paths.get( FILENAME ) ), "UTF-8" );
+		Assert.assertTrue( content.contains( "James" ) );
+		
+		// With hot reload, a user added by another process becomes visible without restarting
+		xmlSecurityManager.setHotReload( true );
+		try ( XmlSecurityManager otherManager = new XmlSecurityManager( FILENAME ) ) {
+			otherManager.getUserManager().insertUser( "Austin", "Powers" );
+		}
+		long timeout = System.currentTimeMillis() + 5000;
+		while ( true ) {
+			try {
+				userManager.getUserByLogin( "Austin" );
+				break;
+			} catch ( SecurityManagerException exception ) {
+				if ( System.currentTimeMillis() > timeout ) throw exception;
+				Thread.sleep( 50 );
+			}
+		}
+		Assert.assertEquals( 1, userManager.getUserByLogin( "James" ).getConnectionNumber() );
+		
+		// The conflicts of the background reloads are reported to the listener
+		List<String> reportedConflicts = new java.util.concurrent.CopyOnWriteArrayList<>();
+		xmlSecurityManager.setReloadListener( new XmlSecurityManager.ReloadListener() {
+			@Override public void conflictsResolved( List<String> conflicts ) {
+				reportedConflicts.addAll( conflicts );
+			}
+			@Override public void reloadFailed( Exception exception ) {
+				Assert.fail( exception.toString() );
+			}
+		} );
+		UserImpl localJames = (UserImpl) userManager.getUserByLogin( "James" );
+		localJames.setEmail( "local@koor.fr" );
+		userManager.updateUser( localJames );
+		try ( XmlSecurityManager otherManager = new XmlSecurityManager( FILENAME ) ) {
+			UserImpl otherJames = (UserImpl) otherManager.getUserManager().getUserByLogin( "James" );
+			otherJames.setEmail( "other@koor.fr" );
+			otherManager.getUserManager().updateUser( otherJames );
+		}
+		timeout = System.currentTimeMillis() + 5000;
+		while ( reportedConflicts.isEmpty() && System.currentTimeMillis() < timeout ) Thread.sleep( 50 );
+		Assert.assertEquals( 1, reportedConflicts.size() );
+		Assert.assertEquals( "other@koor.fr", userManager.getUserByLogin( "James" ).getEmail() );
+	}
+	
+	@Test
+	public void test_binarySnapshot() throws Exception {
+		XmlSecurityManager xmlSecurityManager = (XmlSecurityManager) this.securityManager;
+		String snapshotFilename = FILENAME + ".snapshot";
+		try {
+			xmlSecurityManager.setBinarySnapshot( true );
+			Assert.assertTrue( FileSystem.isExisting( snapshotFilename ) );
+			UserImpl user = (UserImpl) this.securityManager.getUserManager().insertUser( this.testedUserLogin, this.testedUserPassword );
+			user.addRole( this.securityManager.getRoleManager().selectRoleById( 1 ) );
+			user.setEmail( "toto@koor.fr" );
+			this.securityManager.getUserManager().updateUser( user );
+			this.securityManager.close();
+			
+			long xmlModifiedTime = FileSystem.getLastModifiedTime( FILENAME );
+			long xmlLength = new java.io.File( FILENAME ).length();
+			int xmlChecksum = BinarySnapshot.checksum( FILENAME );
+			RecordStore store = BinarySnapshot.read( snapshotFilename, xmlModifiedTime, xmlLength, xmlChecksum );
+			Assert.assertNotNull( store );
+			Assert.assertEquals( "toto@koor.fr", store.getUserByLogin( this.testedUserLogin ).getEmail() );
+			Assert.assertEquals( "admin", store.getRole( 1 ).getRoleName() );
+			// The snapshot is ignored as soon as the XML file differs
+			Assert.assertNull( BinarySnapshot.read( snapshotFilename, xmlModifiedTime, xmlLength + 1, xmlChecksum ) );
+			
+			// An external edit that keeps the length and the modification time is detected by the checksum
+			java.nio.file.Path xmlPath = java.nio.file.Paths.get( FILENAME );
+			String content = new String( java.nio.file.Files.readAllBytes( xmlPath ), "UTF-8" );
+			java.nio.file.Files.write( xmlPath, content.replace( "toto@koor.fr", "titi@koor.fr" ).getBytes( "UTF-8" ) );
+			Assert.assertTrue( new java.io.File( FILENAME ).setLastModified( xmlModifiedTime ) );
+			Assert.assertEquals( xmlLength, new java.io.File( FILENAME ).length() );
+			Assert.assertNull( BinarySnapshot.read( snapshotFilename, xmlModifiedTime, xmlLength, BinarySnapshot.checksum( FILENAME ) ) );
+			
+			xmlSecurityManager.openSession();
+			User loadedUser = this.securityManager.getUserManager().checkCredentials( this.testedUserLogin, this.testedUserPassword );
+			Assert.assertEquals( 1, loadedUser.getRoles().size() );
+			Assert.assertEquals( "titi@koor.fr", loadedUser.getEmail() );
+		} finally {
+			xmlSecurityManager.setBinarySnapshot( false );
+			Assert.assertFalse( FileSystem.isExisting( snapshotFilename ) );
+		}
+	}
+	
+	@Test
+	public void test_permissions() throws Exception {
+		XmlSecurityManager xmlSecurityManager = (XmlSecurityManager) this.securityManager;
+		PermissionManager permissionManager = this.securityManager.getPermissionManager();
+		Role admin = this.securityManager.getRoleManager().selectRoleById( 1 );
+		Role auditor = this.securityManager.getRoleManager().insertRole( "auditor" );
+		permissionManager.addParentRole( admin, auditor );
+		permissionManager.grantPermission( auditor, permissionManager.insertPermission( "audit.read" ) );
+		permissionManager.grantPermission( admin, permissionManager.insertPermission( "audit.purge" ) );
+		xmlSecurityManager.setBinarySnapshot( true );
+		try {
+			this.securityManager.close();
+			
+			// Reloaded from the binary snapshot
+			xmlSecurityManager.openSession();
+			User root = this.securityManager.getUserManager().getUserById( 1 );
+			Assert.assertTrue( permissionManager.hasPermission( root, "audit.read" ) );
+			Assert.assertTrue( permissionManager.hasPermission( root, "audit.purge" ) );
+		} finally {
+			xmlSecurityManager.setBinarySnapshot( false );
+		}
+		this.securityManager.close();
+		
+		// Reloaded from the XML file
+		xmlSecurityManager.openSession();
+		User root = this.securityManager.getUserManager().getUserById( 1 );
+		Assert.assertEquals( 2, permissionManager.getEffectivePermissions( root ).size() );
+		Assert.assertEquals( 1, permissionManager.getParentRoles( admin ).size() );
+		this.securityManager.getRoleManager().deleteRole( auditor );
+		Assert.assertFalse( permissionManager.hasPermission( root, "audit.read" ) );
+		Assert.assertTrue( permissionManager.hasPermission( root, "audit.purge" ) );
+	}
+	
 	@Test
 	public void test_fisrtName_lastName_email() throws Exception {
 //		UserManager userManager = this.securityManager.getUserManager();
@@ -0,0 +1,82 @@
+package fr.koor.security.screening;
+
+import java.io.PrintWriter;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.koor.security.CompromisedPasswordException;
+import fr.koor.security.SecurityManagerException;
+import fr.koor.security.User;
+import fr.koor.security.UserManager;
+import fr.koor.security.providers.InMemorySecurityManager;
+import fr.koor.utility.FileSystem;
+
+public class MappedPasswordScreenerTest {
+
+	private String testedUserLogin = "toto's";
+	private String testedUserPassword = "titi's";
+
+	protected fr.koor.security.SecurityManager securityManager = null;
+	
+	@Before public void setUp() throws Exception {
+		this.securityManager = new InMemorySecurityManager();
+	}
+
+	@After public void tearDown() throws Exception {
+		this.securityManager.close();
+	}
+
+	@Test
+	public void test_passwordScreening() throws Exception {
+		String textFilename = "src/test/java/fr/koor/security/screening/BreachedPasswords.txt";
+		String filterFilename = "src/test/java/fr/koor/security/screening/BreachedPasswords.bin";
+		try {
+			try ( PrintWriter writer = new PrintWriter( textFilename, "UTF-8" ) ) {
+				writer.println( "password" );
+				writer.println( "123456" );
+				writer.println( "B1B3773A05C0ED0176787A4F1574FF0075F7521E:3645804" );	// SHA-1 of "qwerty"
+				writer.println( "motdepassé" );
+			}
+			Assert.assertEquals( 4, PasswordFilterBuilder.build( textFilename, filterFilename, 0.000001 ) );
+			
+			try ( MappedPasswordScreener screener = new MappedPasswordScreener( filterFilename ) ) {
+				Assert.assertEquals( 4, screener.getEntryCount() );
+				Assert.assertTrue( screener.isCompromised( "qwerty" ) );
+				Assert.assertTrue( screener.isCompromised( "motdepassé" ) );
+				Assert.assertFalse( screener.isCompromised( this.testedUserPassword ) );
+				
+				this.securityManager.setPasswordScreener( screener );
+				UserManager userManager = this.securityManager.getUserManager();
+				try {
+					userManager.insertUser( this.testedUserLogin, "123456" );
+					Assert.fail();
+				} catch ( CompromisedPasswordException exception ) {
+					// Ok
+				}
+				try {
+					userManager.getUserByLogin( this.testedUserLogin );
+					Assert.fail();
+				} catch ( SecurityManagerException exception ) {
+					// Ok: the user has not been inserted
+				}
+				
+				User user = userManager.insertUser( this.testedUserLogin, this.testedUserPassword );
+				try {
+					user.setPassword( "password" );
+					Assert.fail();
+				} catch ( CompromisedPasswordException exception ) {
+					// Ok
+				}
+				userManager.checkCredentials( this.testedUserLogin, this.testedUserPassword );
+			}
+		} finally {
+			this.securityManager.setPasswordScreener( null );
+			FileSystem.delete( textFilename );
+			FileSystem.delete( filterFilename );
+		}
+	}
+
+}
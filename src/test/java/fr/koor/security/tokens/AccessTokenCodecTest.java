@@ -0,0 +1,89 @@
+package fr.koor.security.tokens;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.koor.security.Role;
+import fr.koor.security.RoleManager;
+import fr.koor.security.UnauthorizedException;
+import fr.koor.security.User;
+import fr.koor.security.UserManager;
+import fr.koor.security.providers.InMemorySecurityManager;
+
+public class AccessTokenCodecTest {
+
+	private String testedUserLogin = "toto's";
+	private String testedUserPassword = "titi's";
+
+	protected fr.koor.security.SecurityManager securityManager = null;
+	
+	@Before public void setUp() throws Exception {
+		this.securityManager = new InMemorySecurityManager();
+	}
+
+	@After public void tearDown() throws Exception {
+		this.securityManager.close();
+	}
+
+	@Test
+	public void test_accessTokens() throws Exception {
+		UserManager userManager = this.securityManager.getUserManager();
+		RoleManager roleManager = this.securityManager.getRoleManager();
+		User user = userManager.insertUser( this.testedUserLogin, this.testedUserPassword );
+		Role role = roleManager.insertRole( "Client" );
+		user.addRole( role );
+		userManager.updateUser( user );
+		
+		TokenKeyring keyring = new TokenKeyring();
+		keyring.addKey( 1, new byte[ 32 ] );
+		AccessTokenCodec codec = new AccessTokenCodec( keyring );
+		String token = codec.issueToken( userManager, this.testedUserLogin, this.testedUserPassword );
+		AccessToken accessToken = codec.verifyToken( token );
+		Assert.assertEquals( user.getIdentifier(), accessToken.getUserIdentifier() );
+		Assert.assertEquals( 1, accessToken.getKeyIdentifier() );
+		Assert.assertTrue( accessToken.isMemberOfRole( role ) );
+		Assert.assertFalse( accessToken.isMemberOfRole( role.getIdentifier() + 1 ) );
+		
+		// Tampered tokens
+		char last = token.charAt( token.length() - 1 );
+		String [] forgedTokens = { token.substring( 0, token.length() - 1 ) + ( last == 'A' ? 'B' : 'A' ), token.substring( 1 ), "", "$" };
+		for ( String forgedToken : forgedTokens ) {
+			try {
+				codec.verifyToken( forgedToken );
+				Assert.fail( forgedToken );
+			} catch ( UnauthorizedException exception ) {
+				// Ok
+			}
+		}
+		
+		// Key rotation
+		byte [] newKey = new byte[ 32 ];
+		newKey[0] = 1;
+		keyring.addKey( 2, newKey );
+		keyring.setSigningKey( 2 );
+		String newToken = codec.issueToken( user );
+		Assert.assertEquals( 2, codec.verifyToken( newToken ).getKeyIdentifier() );
+		codec.verifyToken( token );
+		keyring.removeKey( 1 );
+		try {
+			codec.verifyToken( token );
+			Assert.fail();
+		} catch ( UnauthorizedException exception ) {
+			// Ok
+		}
+		
+		// Expiration
+		codec.setTimeToLive( 50 );
+		token = codec.issueToken( user );
+		Thread.sleep( 100 );
+		try {
+			codec.verifyToken( token );
+			Assert.fail();
+		} catch ( UnauthorizedException exception ) {
+			// Ok
+		}
+	}
+
+}
@@ -0,0 +1,21 @@
+package fr.koor.utility;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IntHashMapTest {
+
+	@Test
+	public void test_intHashMap() throws Exception {
+		IntHashMap<String> map = new IntHashMap<>();
+		for ( int i = 0; i < 1000; i++ ) map.put( i, "value" + i );
+		for ( int i = 0; i < 1000; i += 2 ) Assert.assertEquals( "value" + i, map.remove( i ) );
+		Assert.assertEquals( 500, map.size() );
+		Assert.assertNull( map.get( 10 ) );
+		Assert.assertEquals( "value11", map.get( 11 ) );
+		Assert.assertEquals( "value11", map.put( 11, "eleven" ) );
+		Assert.assertEquals( "eleven", map.get( 11 ) );
+		Assert.assertEquals( 500, map.values().size() );
+	}
+
+}